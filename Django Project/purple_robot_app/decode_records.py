@@ -0,0 +1,298 @@
+"""
+Decoder for the binary record files written by Purple Robot's
+BinaryRecordWriter (pending sensor data stored with the "Compact Binary
+Storage" option).
+
+A file is the magic bytes "PRB" and a version byte, followed by records:
+
+    varint length | flags | body
+
+If bit 0 of the flags is set, the body is zlib-compressed. Each body is one
+tagged value - see TAG_* below. Strings and scalar-only maps may be defined
+once per file and referenced by index afterwards.
+
+Usage: python decode_records.py <file> [<file> ...] > readings.json
+
+To store files in the database, use "manage.py import_records" instead.
+"""
+
+import struct
+import sys
+import zlib
+
+from json import dumps
+
+MAGIC = b'PRB'
+VERSION = 1
+
+FLAG_DEFLATED = 0x01
+
+TAG_NULL = 0x00
+TAG_FALSE = 0x01
+TAG_TRUE = 0x02
+TAG_INTEGER = 0x03
+TAG_FLOAT = 0x04
+TAG_DOUBLE = 0x05
+TAG_STRING = 0x06
+TAG_STRING_DEF = 0x07
+TAG_STRING_REF = 0x08
+TAG_MAP = 0x09
+TAG_MAP_DEF = 0x0a
+TAG_MAP_REF = 0x0b
+TAG_LIST = 0x0c
+TAG_FLOAT_ARRAY = 0x0d
+TAG_DOUBLE_ARRAY = 0x0e
+TAG_SCALED_DOUBLE_ARRAY = 0x0f
+TAG_INT_ARRAY = 0x10
+TAG_LONG_ARRAY = 0x11
+
+SCALES = [1, 10, 100, 1000, 10000, 100000, 1000000]
+
+MAX_RECORD_LENGTH = 16 * 1024 * 1024
+
+class RecordError(Exception):
+    pass
+
+def _float32(value):
+    # Shortest decimal that maps back to the same 32-bit float, so values
+    # match the text the device would have written as JSON...
+
+    if value != value or value in (float('inf'), float('-inf')):
+        return value
+
+    packed = struct.pack('<f', value)
+
+    for precision in range(6, 10):
+        candidate = float('%.*g' % (precision, value))
+
+        if struct.pack('<f', candidate) == packed:
+            return candidate
+
+    return value
+
+class _Body:
+    def __init__(self, data):
+        self.data = bytearray(data)
+        self.position = 0
+
+    def byte(self):
+        if self.position >= len(self.data):
+            raise RecordError('Unexpected end of record.')
+
+        value = self.data[self.position]
+        self.position += 1
+
+        return value
+
+    def varint(self):
+        value = 0
+        shift = 0
+
+        while shift < 64:
+            b = self.byte()
+
+            value |= (b & 0x7f) << shift
+
+            if (b & 0x80) == 0:
+                return value
+
+            shift += 7
+
+        raise RecordError('Invalid varint.')
+
+    def signed(self):
+        value = self.varint()
+
+        return (value >> 1) ^ -(value & 1)
+
+    def fixed(self, format, size, count=1):
+        end = self.position + (size * count)
+
+        if end > len(self.data):
+            raise RecordError('Unexpected end of record.')
+
+        values = struct.unpack('<%d%s' % (count, format), bytes(self.data[self.position:end]))
+        self.position = end
+
+        return values
+
+    def count(self, element_size):
+        count = self.varint()
+
+        if count * element_size > len(self.data) - self.position:
+            raise RecordError('Invalid element count: %d' % count)
+
+        return count
+
+class RecordReader:
+    def __init__(self, stream):
+        self.stream = stream
+        self.strings = []
+        self.maps = []
+        self.truncated = False
+
+        if stream.read(len(MAGIC)) != MAGIC:
+            raise RecordError('Not a binary record file.')
+
+        version = bytearray(stream.read(1))
+
+        if len(version) != 1 or version[0] != VERSION:
+            raise RecordError('Unsupported binary record version.')
+
+    def __iter__(self):
+        while True:
+            record = self.next()
+
+            if record is None:
+                return
+
+            yield record
+
+    def next(self):
+        length = 0
+        shift = 0
+
+        while True:
+            b = bytearray(self.stream.read(1))
+
+            if len(b) == 0:
+                if shift > 0:
+                    self.truncated = True
+
+                return None
+
+            length |= (b[0] & 0x7f) << shift
+            shift += 7
+
+            if (b[0] & 0x80) == 0:
+                break
+
+            if shift > 35:
+                raise RecordError('Invalid record length.')
+
+        if length < 1 or length > MAX_RECORD_LENGTH:
+            raise RecordError('Invalid record length.')
+
+        record = bytearray(self.stream.read(length))
+
+        if len(record) < length:
+            # Partial record left by a crash mid-write...
+
+            self.truncated = True
+
+            return None
+
+        body = record[1:]
+
+        if record[0] & FLAG_DEFLATED:
+            body = zlib.decompress(bytes(body))
+
+        body = _Body(body)
+
+        value = self.value(body)
+
+        if body.position != len(body.data):
+            raise RecordError('Trailing bytes in record.')
+
+        return value
+
+    def string(self, body, tag):
+        if tag == TAG_STRING_REF:
+            index = body.varint()
+
+            if index >= len(self.strings):
+                raise RecordError('Unknown string reference: %d' % index)
+
+            return self.strings[index]
+        elif tag != TAG_STRING and tag != TAG_STRING_DEF:
+            raise RecordError('Expected a string, found tag %d' % tag)
+
+        length = body.count(1)
+
+        value = bytes(body.data[body.position:body.position + length]).decode('utf-8')
+        body.position += length
+
+        if tag == TAG_STRING_DEF:
+            self.strings.append(value)
+
+        return value
+
+    def value(self, body):
+        tag = body.byte()
+
+        if tag == TAG_NULL:
+            return None
+        elif tag == TAG_FALSE:
+            return False
+        elif tag == TAG_TRUE:
+            return True
+        elif tag == TAG_INTEGER:
+            return body.signed()
+        elif tag == TAG_FLOAT:
+            return _float32(body.fixed('f', 4)[0])
+        elif tag == TAG_DOUBLE:
+            return body.fixed('d', 8)[0]
+        elif tag in (TAG_STRING, TAG_STRING_DEF, TAG_STRING_REF):
+            return self.string(body, tag)
+        elif tag == TAG_MAP or tag == TAG_MAP_DEF:
+            count = body.count(2)
+
+            values = {}
+
+            for i in range(0, count):
+                key = self.string(body, body.byte())
+                values[key] = self.value(body)
+
+            if tag == TAG_MAP_DEF:
+                self.maps.append(values)
+
+            return values
+        elif tag == TAG_MAP_REF:
+            index = body.varint()
+
+            if index >= len(self.maps):
+                raise RecordError('Unknown map reference: %d' % index)
+
+            return dict(self.maps[index])
+        elif tag == TAG_LIST:
+            return [self.value(body) for i in range(0, body.count(1))]
+        elif tag == TAG_FLOAT_ARRAY:
+            return [_float32(f) for f in body.fixed('f', 4, body.count(4))]
+        elif tag == TAG_DOUBLE_ARRAY:
+            return list(body.fixed('d', 8, body.count(8)))
+        elif tag == TAG_SCALED_DOUBLE_ARRAY:
+            count = body.count(1)
+            decimals = body.byte()
+
+            if decimals >= len(SCALES):
+                raise RecordError('Invalid decimal count: %d' % decimals)
+
+            scale = float(SCALES[decimals])
+
+            values = []
+            scaled = 0
+
+            for i in range(0, count):
+                scaled += body.signed()
+                values.append(scaled / scale)
+
+            return values
+        elif tag == TAG_INT_ARRAY or tag == TAG_LONG_ARRAY:
+            return [body.signed() for i in range(0, body.count(1))]
+
+        raise RecordError('Unknown record tag: %d' % tag)
+
+def read_records(path):
+    """Returns the readings stored in a binary record file as a list of
+    dictionaries, in the same shape as the JSON payloads the device uploads."""
+
+    with open(path, 'rb') as stream:
+        return list(RecordReader(stream))
+
+if __name__ == '__main__':
+    readings = []
+
+    for path in sys.argv[1:]:
+        readings.extend(read_records(path))
+
+    print(dumps(readings, indent=2))
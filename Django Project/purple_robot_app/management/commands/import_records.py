@@ -0,0 +1,27 @@
+from json import dumps
+
+from django.core.management.base import BaseCommand, CommandError
+
+from purple_robot_app.decode_records import RecordError, read_records
+from purple_robot_app.models import *
+
+class Command(BaseCommand):
+    args = '<user_id> <records_file records_file ...>'
+    help = 'Imports binary record files copied from a device as payloads for the given user.'
+
+    def handle(self, *args, **options):
+        if len(args) < 2:
+            raise CommandError('Usage: import_records ' + self.args)
+
+        user_id = args[0]
+
+        for path in args[1:]:
+            try:
+                readings = read_records(path)
+            except (IOError, RecordError) as e:
+                raise CommandError('Unable to read ' + path + ': ' + str(e))
+
+            payload = PurpleRobotPayload(payload=dumps(readings, indent=2, ensure_ascii=False), user_id=user_id)
+            payload.save()
+
+            self.stdout.write('Imported ' + str(len(readings)) + ' readings from ' + path + '.\n')
@@ -1,11 +1,9 @@
 package edu.northwestern.cbits.purple_robot_manager;
 
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
-import android.support.v4.content.LocalBroadcastManager;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -25,12 +23,12 @@ import com.google.android.gms.wearable.WearableListenerService;
 
 import java.util.HashMap;
 import java.util.List;
-import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.logging.SanityCheck;
 import edu.northwestern.cbits.purple_robot_manager.logging.SanityManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.ContinuousProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.devices.AndroidWearProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.devices.wear.WearBatteryProbe;
@@ -201,14 +199,7 @@ public class AndroidWearService extends WearableListenerService
 
                                 Bundle data = dataMap.toBundle();
 
-                                UUID uuid = UUID.randomUUID();
-                                data.putString("GUID", uuid.toString());
-
-                                LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(me);
-                                Intent intent = new Intent(edu.northwestern.cbits.purple_robot_manager.probes.Probe.PROBE_READING);
-                                intent.putExtras(data);
-
-                                localManager.sendBroadcast(intent);
+                                ProbeReadingBus.getInstance(me).publish(data);
 
                                 String probeName = dataMap.getString("PROBE", "");
 
@@ -2,7 +2,6 @@ package edu.northwestern.cbits.purple_robot_manager;
 
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Locale;
 
 import org.json.JSONException;
@@ -22,11 +21,9 @@ import android.media.MediaPlayer.OnCompletionListener;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 
-import edu.northwestern.cbits.anthracite.LogService;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.SettingsKeys;
 import edu.northwestern.cbits.purple_robot_manager.config.LegacyJSONConfigFile;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
@@ -70,7 +67,6 @@ public class ManagerService extends IntentService
     public static long startTimestamp = System.currentTimeMillis();
 
     private static boolean _checkSetup = false;
-    private static long _lastTriggerNudge = 0;
     private static boolean _updatingTriggerSchedule = false;
     protected static boolean _needsTriggerUpdate = false;
 
@@ -372,11 +368,6 @@ public class ManagerService extends IntentService
         else if (FIRE_TRIGGERS_INTENT.equals(action))
         {
             TriggerManager.getInstance(this).nudgeTriggers(this);
-
-            Intent updateIntent = new Intent(ManagerService.UPDATE_TRIGGER_SCHEDULE_INTENT);
-            updateIntent.setClass(this, ManagerService.class);
-
-            this.startService(updateIntent);
         }
         else if (UPDATE_TRIGGER_SCHEDULE_INTENT.equals(action))
         {
@@ -395,32 +386,7 @@ public class ManagerService extends IntentService
                     ManagerService._updatingTriggerSchedule = true;
                     ManagerService._needsTriggerUpdate = false;
 
-                    List<Long> times = TriggerManager.getInstance(me).upcomingFireTimes(me);
-
-                    long now = System.currentTimeMillis();
-
-                    for (int index = 0; now > ManagerService._lastTriggerNudge && index < times.size(); index++)
-                    {
-                        Long fire = times.get(index);
-
-                        if (Math.abs(ManagerService._lastTriggerNudge - fire.longValue()) >= 60000)
-                        {
-                            AlarmManager alarmManager = (AlarmManager) me.getSystemService(Context.ALARM_SERVICE);
-
-                            PendingIntent pi = PendingIntent.getService(me, 0, new Intent(ManagerService.FIRE_TRIGGERS_INTENT), PendingIntent.FLAG_UPDATE_CURRENT);
-
-                            alarmManager.cancel(pi);
-
-                            ManagerService._lastTriggerNudge = fire.longValue();
-
-                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
-                                alarmManager.setExact(AlarmManager.RTC_WAKEUP, fire.longValue(), pi);
-                            else
-                                alarmManager.set(AlarmManager.RTC_WAKEUP, fire.longValue(), pi);
-
-                            break;
-                        }
-                    }
+                    TriggerManager.getInstance(me).rescheduleTriggers(me);
 
                     ManagerService._updatingTriggerSchedule = false;
 
@@ -452,8 +418,15 @@ public class ManagerService extends IntentService
         PendingIntent pi = PendingIntent.getService(context, 0, new Intent(ManagerService.REFRESH_CONFIGURATION), PendingIntent.FLAG_UPDATE_CURRENT);
         alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, System.currentTimeMillis(), 60000, pi);
 
+        // Trigger deadlines re-arm their own alarm - drop the old periodic schedule refresh...
+
         pi = PendingIntent.getService(context, 0, new Intent(ManagerService.UPDATE_TRIGGER_SCHEDULE_INTENT), PendingIntent.FLAG_UPDATE_CURRENT);
-        alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, System.currentTimeMillis(), (15 * 60 * 1000), pi);
+        alarmManager.cancel(pi);
+
+        Intent scheduleIntent = new Intent(ManagerService.UPDATE_TRIGGER_SCHEDULE_INTENT);
+        scheduleIntent.setClass(context, ManagerService.class);
+
+        context.startService(scheduleIntent);
 
         prefs.registerOnSharedPreferenceChangeListener(new SharedPreferences.OnSharedPreferenceChangeListener()
         {
@@ -504,9 +477,4 @@ public class ManagerService extends IntentService
 
         return name;
     }
-
-    public static void resetTriggerNudgeDate()
-    {
-        ManagerService._lastTriggerNudge = 0;
-    }
 }
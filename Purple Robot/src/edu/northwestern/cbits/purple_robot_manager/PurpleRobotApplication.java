@@ -20,6 +20,7 @@ import android.preference.PreferenceManager;
 
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.SettingsKeys;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeInterpreterPool;
 import edu.northwestern.cbits.xsi.XSI;
 
 public class PurpleRobotApplication extends Application
@@ -45,6 +46,8 @@ public class PurpleRobotApplication extends Application
         {
             LogManager.getInstance(PurpleRobotApplication._context).logException(e);
         }
+
+        SchemeInterpreterPool.getInstance(PurpleRobotApplication._context).prepare();
     }
 
     public static Context getAppContext()
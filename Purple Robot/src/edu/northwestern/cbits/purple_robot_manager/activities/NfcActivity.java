@@ -1,7 +1,6 @@
 package edu.northwestern.cbits.purple_robot_manager.activities;
 
 import java.util.ArrayList;
-import java.util.UUID;
 
 import android.app.AlertDialog;
 import android.app.PendingIntent;
@@ -13,7 +12,6 @@ import android.nfc.NdefRecord;
 import android.nfc.NfcAdapter;
 import android.nfc.Tag;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.MenuItem;
@@ -25,6 +23,7 @@ import android.widget.TextView;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.models.ModelManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.NfcProbe;
 
 public class NfcActivity extends AppCompatActivity
@@ -238,14 +237,7 @@ public class NfcActivity extends AppCompatActivity
 
         bundle.putStringArrayList("TECHNOLOGIES", techList);
 
-        UUID uuid = UUID.randomUUID();
-        bundle.putString("GUID", uuid.toString());
-
-        LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(this);
-        Intent xmitIntent = new Intent(edu.northwestern.cbits.purple_robot_manager.probes.Probe.PROBE_READING);
-        xmitIntent.putExtras(bundle);
-
-        localManager.sendBroadcast(xmitIntent);
+        ProbeReadingBus.getInstance(this).publish(bundle);
     }
 
     private static String formatBytes(byte[] payload)
@@ -4,7 +4,6 @@ import java.io.IOException;
 
 import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Build;
 import android.support.v7.app.ActionBar;
 import android.util.Log;
@@ -119,9 +118,6 @@ public class RealTimeProbeViewActivity extends WebkitActivity
             this.finish();
         }
 
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Probe.PROBE_READING);
-
         RealTimeProbeViewActivity._currentActivity = this;
     }
 
@@ -7,11 +7,21 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import android.app.Activity;
+import android.content.Context;
 
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 
 public class Chart
 {
+    /**
+     * Number of points worth plotting across the screen - one per pixel.
+     */
+
+    public static int pointCount(Context context)
+    {
+        return context.getResources().getDisplayMetrics().widthPixels;
+    }
+
     public JSONObject dataJson(Activity activity) throws JSONException, IOException
     {
         JSONObject chartJson = (JSONObject) new JSONTokener(WebkitActivity.stringForAsset(activity,
@@ -16,17 +16,39 @@ import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 
 public class LineChart extends Chart
 {
-    protected Map<String, List<Double>> _series = new HashMap<String, List<Double>>();
-    protected List<Double> _times = new ArrayList<Double>();
+    protected Map<String, double[]> _series = new HashMap<String, double[]>();
+    protected double[] _times = new double[0];
 
     public void addSeries(String key, List<Double> series)
     {
-        this._series.put(key, series);
+        this.addSeries(key, LineChart.toArray(series));
+    }
+
+    public void addSeries(String key, double[] series)
+    {
+        if (series != null)
+            this._series.put(key, series);
     }
 
     public void addTime(String string, ArrayList<Double> times)
     {
-        this._times = times;
+        this.addTime(string, LineChart.toArray(times));
+    }
+
+    public void addTime(String string, double[] times)
+    {
+        if (times != null)
+            this._times = times;
+    }
+
+    private static double[] toArray(List<Double> list)
+    {
+        double[] array = new double[list.size()];
+
+        for (int i = 0; i < array.length; i++)
+            array[i] = list.get(i).doubleValue();
+
+        return array;
     }
 
     public JSONObject dataJson(Activity activity) throws JSONException, IOException
@@ -42,23 +64,23 @@ public class LineChart extends Chart
 
             JSONArray array = new JSONArray();
 
-            List<Double> list = this._series.get(key);
+            double[] list = this._series.get(key);
 
-            if (this._times.size() == 0)
+            if (this._times.length == 0)
             {
-                for (Double d : list)
+                for (double d : list)
                 {
-                    array.put(d.doubleValue());
+                    array.put(d);
                 }
             }
             else
             {
-                for (int i = 0; i < list.size() && i < this._times.size(); i++)
+                for (int i = 0; i < list.length && i < this._times.length; i++)
                 {
                     JSONArray sample = new JSONArray();
 
-                    sample.put(this._times.get(i));
-                    sample.put(list.get(i));
+                    sample.put(this._times[i]);
+                    sample.put(list[i]);
 
                     array.put(sample);
                 }
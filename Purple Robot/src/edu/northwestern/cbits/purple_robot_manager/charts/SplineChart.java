@@ -1,7 +1,6 @@
 package edu.northwestern.cbits.purple_robot_manager.charts;
 
 import java.io.IOException;
-import java.util.List;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -28,23 +27,23 @@ public class SplineChart extends LineChart
 
             JSONArray array = new JSONArray();
 
-            List<Double> list = this._series.get(key);
+            double[] list = this._series.get(key);
 
-            if (this._times.size() == 0)
+            if (this._times.length == 0)
             {
-                for (Double d : list)
+                for (double d : list)
                 {
-                    array.put(d.doubleValue());
+                    array.put(d);
                 }
             }
             else
             {
-                for (int i = 0; i < list.size() && i < this._times.size(); i++)
+                for (int i = 0; i < list.length && i < this._times.length; i++)
                 {
                     JSONArray sample = new JSONArray();
 
-                    sample.put(this._times.get(i) * 1000);
-                    sample.put(list.get(i));
+                    sample.put(this._times[i] * 1000);
+                    sample.put(list[i]);
 
                     array.put(sample);
                 }
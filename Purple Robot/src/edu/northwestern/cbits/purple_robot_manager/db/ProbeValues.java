@@ -0,0 +1,57 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+/**
+ * Result of ProbeValuesProvider.queryValues(): a timestamp column and one
+ * double column per projected field, all of the same length.
+ */
+
+public final class ProbeValues
+{
+    private final String[] _columns;
+    private final double[] _timestamps;
+    private final double[][] _values;
+    private final int _sourceCount;
+
+    ProbeValues(String[] columns, double[] timestamps, double[][] values, int sourceCount)
+    {
+        this._columns = columns;
+        this._timestamps = timestamps;
+        this._values = values;
+        this._sourceCount = sourceCount;
+    }
+
+    public int size()
+    {
+        return this._timestamps.length;
+    }
+
+    /**
+     * Number of stored rows in the requested range, before downsampling.
+     */
+
+    public int getSourceCount()
+    {
+        return this._sourceCount;
+    }
+
+    public String[] getColumns()
+    {
+        return this._columns;
+    }
+
+    public double[] getTimestamps()
+    {
+        return this._timestamps;
+    }
+
+    public double[] getValues(String column)
+    {
+        for (int i = 0; i < this._columns.length; i++)
+        {
+            if (this._columns[i].equals(column))
+                return this._values[i];
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,196 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider.Downsample;
+
+/**
+ * Range queries behind ProbeValuesProvider.queryValues(). MIN, MAX and MEAN
+ * aggregate equal-width time buckets inside SQLite. LTTB first reduces the
+ * range the same way to LTTB_BUCKETS_PER_POINT mean buckets per requested
+ * point, so only those buckets are loaded, and then picks the buckets that
+ * best preserve the shape of the first column.
+ */
+
+public class ProbeValuesDownsampler
+{
+    private static final int LTTB_BUCKETS_PER_POINT = 4;
+
+    /**
+     * Returns the columns of the table between start and end (seconds,
+     * inclusive), reduced to at most limit points by the downsampling mode.
+     * With NONE, the latest limit rows in the range are returned. Callers
+     * must hold the database monitor.
+     */
+
+    public static ProbeValues query(SQLiteDatabase database, String tableName, String[] columns, double start,
+            double end, int limit, Downsample mode)
+    {
+        if (mode == Downsample.LTTB && limit > 0)
+        {
+            ProbeValues buckets = ProbeValuesDownsampler.queryTable(database, tableName, columns, start, end, limit * ProbeValuesDownsampler.LTTB_BUCKETS_PER_POINT, Downsample.MEAN);
+
+            return ProbeValuesDownsampler.largestTriangleThreeBuckets(buckets, limit);
+        }
+
+        return ProbeValuesDownsampler.queryTable(database, tableName, columns, start, end, limit, mode);
+    }
+
+    private static ProbeValues queryTable(SQLiteDatabase database, String tableName, String[] columns, double start,
+            double end, int limit, Downsample mode)
+    {
+        String range = " from " + tableName + " where " + ProbeValuesProvider.TIMESTAMP + " >= ? and " + ProbeValuesProvider.TIMESTAMP + " <= ?";
+        String[] args = { Double.toString(start), Double.toString(end) };
+
+        double first = 0;
+        double last = 0;
+        int count = 0;
+
+        Cursor c = database.rawQuery("select min(" + ProbeValuesProvider.TIMESTAMP + "), max(" + ProbeValuesProvider.TIMESTAMP + "), count(*)" + range, args);
+
+        if (c.moveToNext())
+        {
+            first = c.getDouble(0);
+            last = c.getDouble(1);
+            count = c.getInt(2);
+        }
+
+        c.close();
+
+        StringBuilder sql = new StringBuilder("select ");
+
+        if (limit > 0 && count > limit && last > first && (mode == Downsample.MIN || mode == Downsample.MAX || mode == Downsample.MEAN))
+        {
+            String aggregate = "avg";
+
+            if (mode == Downsample.MIN)
+                aggregate = "min";
+            else if (mode == Downsample.MAX)
+                aggregate = "max";
+
+            sql.append("avg(" + ProbeValuesProvider.TIMESTAMP + ")");
+
+            for (String column : columns)
+                sql.append(", " + aggregate + "(" + column + ")");
+
+            double width = (last - first) / limit;
+
+            sql.append(range);
+            sql.append(" group by min(cast((" + ProbeValuesProvider.TIMESTAMP + " - " + Double.toString(first) + ") / " + Double.toString(width) + " as integer), " + (limit - 1) + ")");
+            sql.append(" order by 1");
+        }
+        else
+        {
+            sql.append(ProbeValuesProvider.TIMESTAMP);
+
+            for (String column : columns)
+                sql.append(", " + column);
+
+            sql.append(range);
+
+            if (limit > 0 && mode == Downsample.NONE)
+                sql.append(" order by " + ProbeValuesProvider.TIMESTAMP + " desc limit " + limit);
+            else
+                sql.append(" order by " + ProbeValuesProvider.TIMESTAMP);
+        }
+
+        c = database.rawQuery(sql.toString(), args);
+
+        int size = c.getCount();
+
+        double[] timestamps = new double[size];
+        double[][] values = new double[columns.length][size];
+
+        boolean reversed = (limit > 0 && mode == Downsample.NONE);
+
+        for (int i = 0; c.moveToNext(); i++)
+        {
+            int index = reversed ? (size - 1 - i) : i;
+
+            timestamps[index] = c.getDouble(0);
+
+            for (int j = 0; j < columns.length; j++)
+                values[j][index] = c.getDouble(j + 1);
+        }
+
+        c.close();
+
+        return new ProbeValues(columns, timestamps, values, count);
+    }
+
+    static ProbeValues largestTriangleThreeBuckets(ProbeValues source, int threshold)
+    {
+        int size = source.size();
+
+        if (threshold >= size || threshold < 3 || source.getColumns().length == 0)
+            return source;
+
+        String[] columns = source.getColumns();
+
+        double[] t = source.getTimestamps();
+        double[] v = source.getValues(columns[0]);
+
+        int[] selected = new int[threshold];
+
+        double every = ((double) (size - 2)) / (threshold - 2);
+
+        int a = 0;
+
+        for (int i = 0; i < threshold - 2; i++)
+        {
+            int averageStart = (int) Math.floor((i + 1) * every) + 1;
+            int averageEnd = Math.min((int) Math.floor((i + 2) * every) + 1, size);
+
+            double averageT = 0;
+            double averageV = 0;
+
+            for (int j = averageStart; j < averageEnd; j++)
+            {
+                averageT += t[j];
+                averageV += v[j];
+            }
+
+            averageT /= (averageEnd - averageStart);
+            averageV /= (averageEnd - averageStart);
+
+            int rangeStart = (int) Math.floor(i * every) + 1;
+            int rangeEnd = (int) Math.floor((i + 1) * every) + 1;
+
+            double maxArea = -1;
+            int next = rangeStart;
+
+            for (int j = rangeStart; j < rangeEnd; j++)
+            {
+                double area = Math.abs((t[a] - averageT) * (v[j] - v[a]) - (t[a] - t[j]) * (averageV - v[a]));
+
+                if (area > maxArea)
+                {
+                    maxArea = area;
+                    next = j;
+                }
+            }
+
+            selected[i + 1] = next;
+            a = next;
+        }
+
+        selected[threshold - 1] = size - 1;
+
+        double[] timestamps = new double[threshold];
+        double[][] values = new double[columns.length][threshold];
+
+        for (int j = 0; j < columns.length; j++)
+        {
+            double[] column = source.getValues(columns[j]);
+
+            for (int i = 0; i < threshold; i++)
+                values[j][i] = column[selected[i]];
+        }
+
+        for (int i = 0; i < threshold; i++)
+            timestamps[i] = t[selected[i]];
+
+        return new ProbeValues(columns, timestamps, values, source.getSourceCount());
+    }
+}
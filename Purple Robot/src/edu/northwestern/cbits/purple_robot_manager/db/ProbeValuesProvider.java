@@ -1,21 +1,16 @@
 package edu.northwestern.cbits.purple_robot_manager.db;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 
 import edu.northwestern.cbits.purple_robot_manager.db.filters.Filter;
@@ -30,19 +25,27 @@ import edu.northwestern.cbits.purple_robot_manager.probes.builtin.PressureProbe;
 
 public class ProbeValuesProvider
 {
+    public static enum Downsample
+    {
+        NONE, MIN, MAX, MEAN, LTTB
+    }
+
     public static final String INTEGER_TYPE = "integer";
     public static final String REAL_TYPE = "real";
     public static final String TEXT_TYPE = "text";
 
     public static final String TIMESTAMP = "timestamp";
-    private static final String ID = "_id";
+    static final String ID = "_id";
+
+    private static final long DEFAULT_MAX_ROWS = 2048;
 
     private SQLiteDatabase _database = null;
     private ProbeValuesSqlHelper _dbHelper = null;
 
     private ArrayList<Filter> _filters = new ArrayList<Filter>();
+    private ProbeValuesWriter _writer = null;
 
-    private long _lastCleanup = 0;
+    private ProbeValuesRetention _retention = null;
 
     private static ProbeValuesProvider _instance = null;
 
@@ -114,6 +117,24 @@ public class ProbeValuesProvider
         fiveDelta.add(LightProbe.DB_TABLE);
 
         this._filters.add(new ValueDeltaFilter(5.0, fiveDelta));
+
+        this._retention = new ProbeValuesRetention(context, new ProbeValuesRetention.Policy(ProbeValuesProvider.DEFAULT_MAX_ROWS, 0, 0));
+
+        if (this._database != null)
+        {
+            this._writer = new ProbeValuesWriter(context, this._database, this._filters);
+            this._writer.setRetention(this._retention);
+        }
+    }
+
+    /**
+     * Overrides the retention policy for a single probe table (or every table
+     * without one of its own when name is null).
+     */
+
+    public void setRetentionPolicy(String name, ProbeValuesRetention.Policy policy)
+    {
+        this._retention.setPolicy(name, policy);
     }
 
     public void close()
@@ -121,292 +142,204 @@ public class ProbeValuesProvider
         this._dbHelper.close();
     }
 
-    private String tableName(Context context, String name, Map<String, String> schema)
+    public void insertValue(final Context context, final String name, final Map<String, String> schema,
+            final Map<String, Object> values)
     {
-        String tableName = name;
+        if (this._writer == null)
+            return;
 
-        ArrayList<String> columns = new ArrayList<String>(schema.keySet());
-        Collections.sort(columns);
+        long now = System.currentTimeMillis();
 
-        for (String key : columns)
-        {
-            tableName += (key + schema.get(key));
-        }
+        long lastUpdate = 0;
 
-        try
+        synchronized (this._lastUpdates)
         {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(tableName.getBytes("UTF-8"));
+            if (this._lastUpdates.containsKey(name))
+                lastUpdate = this._lastUpdates.get(name);
 
-            tableName = "table_" + (new BigInteger(1, digest)).toString(16);
-        }
-        catch (NoSuchAlgorithmException e)
-        {
-            LogManager.getInstance(context).logException(e);
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            LogManager.getInstance(context).logException(e);
+            if (now - lastUpdate < 5000)
+                return;
+
+            this._lastUpdates.put(name, now);
         }
 
-        return tableName;
+        this._writer.insert(name, schema, values);
     }
 
-    private boolean tableExists(Context context, String tableName)
+    public void clear(Context context)
     {
-        Cursor c = null;
+        String tableSelect = "select name from sqlite_master where type='table';";
 
-        boolean tableExists = false;
+        Cursor c = this._database.rawQuery(tableSelect, null);
 
-        try
-        {
-            c = this._database.query(tableName, null, null, null, null, null, null);
+        ArrayList<String> names = new ArrayList<String>();
 
-            tableExists = true;
-        }
-        catch (SQLiteException e)
-        {
-            // LogManager.getInstance(context).logException(e);
-        }
-        finally
+        while (c.moveToNext())
+            names.add(c.getString(c.getColumnIndex("name")));
+
+        c.close();
+
+        for (String name : names)
         {
-            if (c != null)
-                c.close();
+            try
+            {
+                SQLiteStatement delete = this._database.compileStatement("delete from " + name + " where (_id != -1)");
+                delete.execute();
+            }
+            catch (SQLException e)
+            {
+                LogManager.getInstance(context).logException(e);
+            }
         }
 
-        return tableExists;
+        this._retention.reset();
     }
 
-    private boolean isValidColumn(String key)
+    /**
+     * Resolves the probe table before the database is locked, so the writer's
+     * lock order - database before table cache - is never reversed. Returns
+     * null if the table could not be created.
+     */
+
+    private String localName(Context context, String name, Map<String, String> schema)
     {
-        // TODO: Add more checks...
+        try
+        {
+            return this._writer.table(name, schema).getTableName();
+        }
+        catch (Exception e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
 
-        return true;
+        return null;
     }
 
-    private boolean createTable(String name, Map<String, String> schema)
+    public Cursor retrieveValues(Context context, String name, Map<String, String> schema)
     {
-        String createSql = "create table " + name + " (" + ProbeValuesProvider.ID
-                + " integer primary key autoincrement";
+        Cursor c = null;
+
+        String localName = this.localName(context, name, schema);
 
-        createSql += (", " + ProbeValuesProvider.TIMESTAMP + " real");
+        if (localName == null)
+            return c;
 
-        for (String key : schema.keySet())
+        synchronized (this._database)
         {
-            if (this.isValidColumn(key))
+            try
             {
-                String dbType = null;
-
-                String type = schema.get(key);
-
-                if (ProbeValuesProvider.REAL_TYPE.equals(type))
-                    dbType = ProbeValuesProvider.REAL_TYPE;
-                else if (ProbeValuesProvider.INTEGER_TYPE.equals(type))
-                    dbType = ProbeValuesProvider.INTEGER_TYPE;
-                if (ProbeValuesProvider.TEXT_TYPE.equals(type))
-                    dbType = ProbeValuesProvider.TEXT_TYPE;
-
-                if (dbType != null)
-                    createSql += (", " + key + " " + dbType);
+                c = this._database.query(localName, null, null, null, null, null, ProbeValuesProvider.TIMESTAMP);
+            }
+            catch (Exception e)
+            {
+                LogManager.getInstance(context).logException(e);
             }
         }
 
-        createSql += ");";
-
-        this._database.execSQL(createSql);
-
-        return false;
+        return c;
     }
 
-    public void insertValue(final Context context, final String name, final Map<String, String> schema,
-            final Map<String, Object> values)
-    {
-        long now = System.currentTimeMillis();
-
-        long lastUpdate = 0;
+    /**
+     * Counts the stored rows for the probe table without reading them.
+     */
 
-        if (this._lastUpdates.containsKey(name))
-            lastUpdate = this._lastUpdates.get(name);
-
-        if (now - lastUpdate < 5000)
-            return;
+    public int count(Context context, String name, Map<String, String> schema)
+    {
+        if (this._writer == null)
+            return -1;
 
-        this._lastUpdates.put(name, now);
+        String localName = this.localName(context, name, schema);
 
-        final ProbeValuesProvider me = this;
+        if (localName == null)
+            return -1;
 
-        Runnable r = new Runnable()
+        synchronized (this._database)
         {
-            public void run()
+            try
             {
-                synchronized (me._database)
-                {
-                    for (Filter f : me._filters)
-                    {
-                        if (f.allow(name, values) == false)
-                            return;
-                    }
-
-                    long now = System.currentTimeMillis();
-
-                    if (now - me._lastCleanup > 300000) // Flush old entries
-                                                        // every 5 minutes...
-                        me.cleanup(context);
-
-                    String localName = me.tableName(context, name, schema);
-
-                    if (me.tableExists(context, localName) == false)
-                        me.createTable(localName, schema);
-
-                    ContentValues toInsert = new ContentValues();
-
-                    for (String key : schema.keySet())
-                    {
-                        String type = schema.get(key);
-
-                        if (ProbeValuesProvider.REAL_TYPE.equals(type))
-                        {
-                            try
-                            {
-                                Double d = (Double) values.get(key);
-                                toInsert.put(key, d);
-                            }
-                            catch (ClassCastException e)
-                            {
-                                try
-                                {
-                                    Float f = (Float) values.get(key);
-                                    toInsert.put(key, f.doubleValue());
-                                }
-                                catch (ClassCastException ee)
-                                {
-                                    Integer i = (Integer) values.get(key);
-                                    toInsert.put(key, i.doubleValue());
-                                }
-                            }
-                        }
-                        else if (ProbeValuesProvider.INTEGER_TYPE.equals(type))
-                        {
-                            Integer i = (Integer) values.get(key);
-
-                            toInsert.put(key, i);
-                        }
-                        else if (ProbeValuesProvider.TEXT_TYPE.equals(type))
-                            toInsert.put(key, values.get(key).toString());
-                    }
-
-                    toInsert.put(ProbeValuesProvider.TIMESTAMP, (Double) values.get(ProbeValuesProvider.TIMESTAMP));
-
-                    me._database.insert(localName, null, toInsert);
-                }
+                return (int) ProbeValuesProvider.queryLong(this._database, "select count(*) from " + localName, null);
+            }
+            catch (SQLException e)
+            {
+                LogManager.getInstance(context).logException(e);
             }
-        };
-
-        try
-        {
-            Thread t = new Thread(r);
-            t.start();
-        }
-        catch (OutOfMemoryError e)
-        {
-            LogManager.getInstance(context).logException(e);
         }
+
+        return -1;
     }
 
-    private void cleanup(Context context)
+    /**
+     * Returns the numeric columns of the probe table between start and end
+     * (seconds, inclusive). With a limit and a downsampling mode other than
+     * NONE, the range is reduced to at most limit points: MIN, MAX and MEAN
+     * aggregate equal-width time buckets inside SQLite, LTTB keeps the points
+     * that best preserve the shape of the first projected column (see
+     * ProbeValuesDownsampler). With NONE, the latest limit rows in the range
+     * are returned. Null columns selects every numeric column of the schema.
+     */
+
+    public ProbeValues queryValues(Context context, String name, Map<String, String> schema, double start,
+            double end, String[] columns, int limit, Downsample mode)
     {
-        try
-        {
-            this._lastCleanup = System.currentTimeMillis();
+        ArrayList<String> projection = new ArrayList<String>();
 
-            String tableSelect = "select name from sqlite_master where type='table';";
+        if (columns == null)
+        {
+            projection.addAll(schema.keySet());
+            Collections.sort(projection);
+        }
+        else
+            projection.addAll(Arrays.asList(columns));
 
-            Cursor c = this._database.rawQuery(tableSelect, null);
+        for (int i = projection.size() - 1; i >= 0; i--)
+        {
+            String type = schema.get(projection.get(i));
 
-            while (c.moveToNext())
-            {
-                String tableName = c.getString(c.getColumnIndex("name"));
+            if (ProbeValuesProvider.REAL_TYPE.equals(type) == false && ProbeValuesProvider.INTEGER_TYPE.equals(type) == false)
+                projection.remove(i);
+        }
 
-                try
-                {
-                    if (tableName.startsWith("table_"))
-                    {
-                        Cursor cursor = this._database.query(tableName, null, null, null, null, null, null);
+        String[] names = projection.toArray(new String[projection.size()]);
 
-                        cursor.close();
+        ProbeValues values = null;
 
-                        SQLiteStatement delete = this._database.compileStatement("delete from " + tableName + " where "
-                                + ProbeValuesProvider.ID + " not in (select " + ProbeValuesProvider.ID + " from "
-                                + tableName + " order by " + ProbeValuesProvider.TIMESTAMP + " desc limit 2048);");
-                        delete.execute();
+        String localName = null;
 
-                        cursor = this._database.query(tableName, null, null, null, null, null, null);
+        if (this._writer != null)
+            localName = this.localName(context, name, schema);
 
-                        cursor.close();
-                    }
+        if (localName != null)
+        {
+            synchronized (this._database)
+            {
+                try
+                {
+                    values = ProbeValuesDownsampler.query(this._database, localName, names, start, end, limit, mode);
                 }
                 catch (SQLException e)
                 {
                     LogManager.getInstance(context).logException(e);
                 }
             }
-
-            c.close();
         }
-        catch (RuntimeException e)
-        {
-            LogManager.getInstance(context).logException(e);
-        }
-    }
 
-    public void clear(Context context)
-    {
-        String tableSelect = "select name from sqlite_master where type='table';";
-
-        Cursor c = this._database.rawQuery(tableSelect, null);
-
-        ArrayList<String> names = new ArrayList<String>();
-
-        while (c.moveToNext())
-            names.add(c.getString(c.getColumnIndex("name")));
+        if (values == null)
+            values = new ProbeValues(names, new double[0], new double[names.length][0], 0);
 
-        c.close();
-
-        for (String name : names)
-        {
-            try
-            {
-                SQLiteStatement delete = this._database.compileStatement("delete from " + name + " where (_id != -1)");
-                delete.execute();
-            }
-            catch (SQLException e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-        }
+        return values;
     }
 
-    public Cursor retrieveValues(Context context, String name, Map<String, String> schema)
+    private static long queryLong(SQLiteDatabase database, String sql, String[] args)
     {
-        Cursor c = null;
+        long value = 0;
 
-        synchronized (this._database)
-        {
-            String localName = this.tableName(context, name, schema);
+        Cursor c = database.rawQuery(sql, args);
 
-            if (this.tableExists(context, localName) == false)
-                this.createTable(localName, schema);
+        if (c.moveToNext())
+            value = c.getLong(0);
 
-            try
-            {
-                c = this._database.query(localName, null, null, null, null, null, ProbeValuesProvider.TIMESTAMP);
-            }
-            catch (Exception e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-        }
+        c.close();
 
-        return c;
+        return value;
     }
 }
@@ -0,0 +1,359 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Incremental retention for probe_data.db, driven by ProbeValuesWriter between
+ * write batches.
+ *
+ * Every PASS_INTERVAL the probe tables are listed and then planned one table
+ * per step: planning works out the highest _id that falls outside the
+ * table's policy (row count, age or byte budget) using only primary key and
+ * timestamp index lookups. Rows up to that id are then deleted as _id ranges
+ * of at most CHUNK_SIZE rows, one chunk per step. A per-table high-water mark
+ * remembers how far deletion has progressed, so no step ever scans a whole
+ * table or visits more than one.
+ */
+
+public class ProbeValuesRetention
+{
+    private static final long PASS_INTERVAL = 300000;
+    private static final int CHUNK_SIZE = 256;
+    private static final int ROW_SIZE_SAMPLE = 64;
+
+    public static class Policy
+    {
+        private final long _maxRows;
+        private final long _maxAge;
+        private final long _maxBytes;
+
+        /**
+         * Limits of zero are ignored. Age is in milliseconds, bytes are
+         * estimated from the stored column values.
+         */
+
+        public Policy(long maxRows, long maxAge, long maxBytes)
+        {
+            this._maxRows = maxRows;
+            this._maxAge = maxAge;
+            this._maxBytes = maxBytes;
+        }
+    }
+
+    private static class Task
+    {
+        private final String _tableName;
+        private final long _cutoffId;
+
+        private Task(String tableName, long cutoffId)
+        {
+            this._tableName = tableName;
+            this._cutoffId = cutoffId;
+        }
+    }
+
+    private final Context _context;
+
+    private Policy _defaultPolicy;
+
+    private final HashMap<String, Policy> _policies = new HashMap<String, Policy>();
+    private final HashMap<String, String> _probeNames = new HashMap<String, String>();
+    private final HashMap<String, Long> _watermarks = new HashMap<String, Long>();
+    private final HashSet<String> _indexed = new HashSet<String>();
+
+    private final LinkedList<Task> _tasks = new LinkedList<Task>();
+    private final LinkedList<String> _unplanned = new LinkedList<String>();
+
+    private long _lastPass = 0;
+
+    public ProbeValuesRetention(Context context, Policy defaultPolicy)
+    {
+        this._context = context;
+        this._defaultPolicy = defaultPolicy;
+    }
+
+    public synchronized void setPolicy(String name, Policy policy)
+    {
+        if (name == null)
+            this._defaultPolicy = policy;
+        else if (policy == null)
+            this._policies.remove(name);
+        else
+            this._policies.put(name, policy);
+    }
+
+    public synchronized void track(String name, String tableName)
+    {
+        this._probeNames.put(tableName, name);
+    }
+
+    public synchronized void reset()
+    {
+        this._watermarks.clear();
+        this._tasks.clear();
+        this._unplanned.clear();
+    }
+
+    public synchronized boolean hasWork()
+    {
+        if (this._tasks.size() > 0 || this._unplanned.size() > 0)
+            return true;
+
+        return System.currentTimeMillis() - this._lastPass > ProbeValuesRetention.PASS_INTERVAL;
+    }
+
+    /**
+     * Performs one bounded unit of work: deleting a single chunk, planning a
+     * single table or listing the tables for a new pass. Callers must hold
+     * the database monitor.
+     */
+
+    public void step(SQLiteDatabase database)
+    {
+        try
+        {
+            Task task = null;
+            String unplanned = null;
+
+            synchronized (this)
+            {
+                task = this._tasks.peek();
+
+                if (task == null)
+                    unplanned = this._unplanned.poll();
+            }
+
+            if (unplanned != null)
+            {
+                this.plan(database, unplanned);
+
+                return;
+            }
+
+            if (task == null)
+            {
+                if (this.hasWork())
+                    this.startPass(database);
+
+                return;
+            }
+
+            long watermark = this.watermark(database, task._tableName);
+
+            if (watermark >= task._cutoffId)
+            {
+                synchronized (this)
+                {
+                    this._tasks.remove(task);
+                }
+
+                return;
+            }
+
+            long upper = Math.min(task._cutoffId, watermark + ProbeValuesRetention.CHUNK_SIZE);
+
+            SQLiteStatement delete = database.compileStatement("delete from " + task._tableName + " where " + ProbeValuesProvider.ID + " > ? and " + ProbeValuesProvider.ID + " <= ?;");
+
+            try
+            {
+                delete.bindLong(1, watermark);
+                delete.bindLong(2, upper);
+
+                delete.execute();
+            }
+            finally
+            {
+                delete.close();
+            }
+
+            synchronized (this)
+            {
+                this._watermarks.put(task._tableName, upper);
+
+                if (upper >= task._cutoffId)
+                    this._tasks.remove(task);
+            }
+        }
+        catch (SQLException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+
+            synchronized (this)
+            {
+                this._tasks.poll();
+            }
+        }
+    }
+
+    private void startPass(SQLiteDatabase database)
+    {
+        synchronized (this)
+        {
+            this._lastPass = System.currentTimeMillis();
+        }
+
+        ArrayList<String> tableNames = new ArrayList<String>();
+
+        Cursor c = database.rawQuery("select name from sqlite_master where type='table';", null);
+
+        while (c.moveToNext())
+        {
+            String tableName = c.getString(0);
+
+            if (tableName.startsWith("table_"))
+                tableNames.add(tableName);
+        }
+
+        c.close();
+
+        synchronized (this)
+        {
+            this._unplanned.addAll(tableNames);
+        }
+    }
+
+    private void plan(SQLiteDatabase database, String tableName)
+    {
+        this.ensureIndex(database, tableName);
+
+        long cutoff = this.cutoffId(database, tableName);
+
+        if (cutoff > this.watermark(database, tableName))
+        {
+            synchronized (this)
+            {
+                this._tasks.add(new Task(tableName, cutoff));
+            }
+        }
+    }
+
+    public void ensureIndex(SQLiteDatabase database, String tableName)
+    {
+        synchronized (this)
+        {
+            if (this._indexed.contains(tableName))
+                return;
+        }
+
+        database.execSQL("create index if not exists " + tableName + "_" + ProbeValuesProvider.TIMESTAMP + " on " + tableName + " (" + ProbeValuesProvider.TIMESTAMP + ");");
+
+        synchronized (this)
+        {
+            this._indexed.add(tableName);
+        }
+    }
+
+    private synchronized Policy policy(String tableName)
+    {
+        String name = this._probeNames.get(tableName);
+
+        if (name != null && this._policies.containsKey(name))
+            return this._policies.get(name);
+
+        return this._defaultPolicy;
+    }
+
+    private long watermark(SQLiteDatabase database, String tableName)
+    {
+        synchronized (this)
+        {
+            Long watermark = this._watermarks.get(tableName);
+
+            if (watermark != null)
+                return watermark.longValue();
+        }
+
+        long watermark = ProbeValuesRetention.queryLong(database, "select min(" + ProbeValuesProvider.ID + ") from " + tableName, null, 1) - 1;
+
+        synchronized (this)
+        {
+            this._watermarks.put(tableName, watermark);
+        }
+
+        return watermark;
+    }
+
+    private long cutoffId(SQLiteDatabase database, String tableName)
+    {
+        Policy policy = this.policy(tableName);
+
+        if (policy == null)
+            return 0;
+
+        long maxId = ProbeValuesRetention.queryLong(database, "select max(" + ProbeValuesProvider.ID + ") from " + tableName, null, 0);
+
+        long cutoff = 0;
+
+        if (policy._maxRows > 0)
+            cutoff = Math.max(cutoff, maxId - policy._maxRows);
+
+        if (policy._maxAge > 0)
+        {
+            double oldest = (System.currentTimeMillis() - policy._maxAge) / 1000.0;
+
+            String sql = "select " + ProbeValuesProvider.ID + " from " + tableName + " where " + ProbeValuesProvider.TIMESTAMP + " < ? order by " + ProbeValuesProvider.TIMESTAMP + " desc limit 1";
+
+            cutoff = Math.max(cutoff, ProbeValuesRetention.queryLong(database, sql, new String[] { "" + oldest }, 0));
+        }
+
+        if (policy._maxBytes > 0)
+        {
+            long rowSize = this.estimateRowSize(database, tableName);
+
+            cutoff = Math.max(cutoff, maxId - (policy._maxBytes / rowSize));
+        }
+
+        return cutoff;
+    }
+
+    private long estimateRowSize(SQLiteDatabase database, String tableName)
+    {
+        StringBuilder sizes = new StringBuilder();
+
+        Cursor c = database.rawQuery("pragma table_info(" + tableName + ");", null);
+
+        int nameIndex = c.getColumnIndex("name");
+
+        while (c.moveToNext())
+        {
+            if (sizes.length() > 0)
+                sizes.append(" + ");
+
+            sizes.append("ifnull(length(" + c.getString(nameIndex) + "), 0)");
+        }
+
+        c.close();
+
+        if (sizes.length() == 0)
+            return 1;
+
+        String sql = "select avg(" + sizes + ") from (select * from " + tableName + " order by " + ProbeValuesProvider.ID + " desc limit " + ProbeValuesRetention.ROW_SIZE_SAMPLE + ")";
+
+        return Math.max(1, ProbeValuesRetention.queryLong(database, sql, null, 1));
+    }
+
+    private static long queryLong(SQLiteDatabase database, String sql, String[] args, long defaultValue)
+    {
+        long value = defaultValue;
+
+        Cursor c = database.rawQuery(sql, args);
+
+        if (c.moveToNext() && c.isNull(0) == false)
+            value = c.getLong(0);
+
+        c.close();
+
+        return value;
+    }
+}
@@ -0,0 +1,646 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import edu.northwestern.cbits.purple_robot_manager.db.filters.Filter;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Single writer thread for probe_data.db. Rows are queued by insert() and
+ * written in batches inside one transaction using a precompiled insert
+ * statement per table. Table names, column order and column types are
+ * resolved once per probe schema and values are bound according to the
+ * declared column type.
+ *
+ * Between batches - and while idle - the writer hands small units of work to
+ * the optional ProbeValuesRetention, so old rows are trimmed without ever
+ * holding the database for longer than one chunk.
+ */
+
+public class ProbeValuesWriter
+{
+    private static final int MAX_BATCH_SIZE = 512;
+    private static final long IDLE_CHECK_INTERVAL = 60000;
+
+    private static final int TYPE_REAL = 0;
+    private static final int TYPE_INTEGER = 1;
+    private static final int TYPE_TEXT = 2;
+
+    public static class Table
+    {
+        private final String _name;
+        private final Map<String, String> _schema;
+
+        private final String _tableName;
+        private final String[] _columns;
+        private final int[] _types;
+
+        private SQLiteStatement _insert = null;
+        private boolean _closed = false;
+
+        private Table(String name, Map<String, String> schema, String tableName)
+        {
+            this._name = name;
+            this._schema = schema;
+            this._tableName = tableName;
+
+            ArrayList<String> columns = new ArrayList<String>();
+            ArrayList<Integer> types = new ArrayList<Integer>();
+
+            for (String key : schema.keySet())
+            {
+                String type = schema.get(key);
+
+                if (ProbeValuesProvider.REAL_TYPE.equals(type))
+                    types.add(ProbeValuesWriter.TYPE_REAL);
+                else if (ProbeValuesProvider.INTEGER_TYPE.equals(type))
+                    types.add(ProbeValuesWriter.TYPE_INTEGER);
+                else if (ProbeValuesProvider.TEXT_TYPE.equals(type))
+                    types.add(ProbeValuesWriter.TYPE_TEXT);
+                else
+                    continue;
+
+                columns.add(key);
+            }
+
+            this._columns = columns.toArray(new String[columns.size()]);
+            this._types = new int[types.size()];
+
+            for (int i = 0; i < this._types.length; i++)
+                this._types[i] = types.get(i);
+        }
+
+        public String getTableName()
+        {
+            return this._tableName;
+        }
+
+        private boolean matches(Map<String, String> schema)
+        {
+            return this._schema == schema || this._schema.equals(schema);
+        }
+
+        private String createSql()
+        {
+            StringBuilder sql = new StringBuilder("create table if not exists " + this._tableName + " (" + ProbeValuesProvider.ID + " integer primary key autoincrement");
+
+            sql.append(", " + ProbeValuesProvider.TIMESTAMP + " real");
+
+            for (int i = 0; i < this._columns.length; i++)
+            {
+                sql.append(", " + this._columns[i] + " ");
+
+                switch (this._types[i])
+                {
+                    case ProbeValuesWriter.TYPE_REAL:
+                        sql.append(ProbeValuesProvider.REAL_TYPE);
+                        break;
+                    case ProbeValuesWriter.TYPE_INTEGER:
+                        sql.append(ProbeValuesProvider.INTEGER_TYPE);
+                        break;
+                    default:
+                        sql.append(ProbeValuesProvider.TEXT_TYPE);
+                        break;
+                }
+            }
+
+            sql.append(");");
+
+            return sql.toString();
+        }
+
+        private SQLiteStatement insertStatement(SQLiteDatabase database)
+        {
+            if (this._insert == null)
+            {
+                StringBuilder sql = new StringBuilder("insert into " + this._tableName + " (" + ProbeValuesProvider.TIMESTAMP);
+                StringBuilder params = new StringBuilder("?");
+
+                for (String column : this._columns)
+                {
+                    sql.append(", " + column);
+                    params.append(", ?");
+                }
+
+                sql.append(") values (" + params + ");");
+
+                this._insert = database.compileStatement(sql.toString());
+            }
+
+            return this._insert;
+        }
+
+        /**
+         * Releases the cached insert statement. Rows still queued for a closed
+         * table are written through the table resolved again by name.
+         */
+
+        private void close()
+        {
+            if (this._insert != null)
+            {
+                this._insert.close();
+                this._insert = null;
+            }
+
+            this._closed = true;
+        }
+
+        private void bind(SQLiteStatement statement, Map<String, Object> values)
+        {
+            statement.clearBindings();
+
+            Object timestamp = values.get(ProbeValuesProvider.TIMESTAMP);
+
+            if (timestamp instanceof Number)
+                statement.bindDouble(1, ((Number) timestamp).doubleValue());
+
+            for (int i = 0; i < this._columns.length; i++)
+            {
+                Object value = values.get(this._columns[i]);
+
+                if (value == null)
+                    continue;
+
+                int index = i + 2;
+
+                switch (this._types[i])
+                {
+                    case ProbeValuesWriter.TYPE_REAL:
+                        if (value instanceof Number)
+                            statement.bindDouble(index, ((Number) value).doubleValue());
+
+                        break;
+                    case ProbeValuesWriter.TYPE_INTEGER:
+                        if (value instanceof Number)
+                            statement.bindLong(index, ((Number) value).longValue());
+                        else if (value instanceof Boolean)
+                            statement.bindLong(index, ((Boolean) value).booleanValue() ? 1 : 0);
+
+                        break;
+                    default:
+                        statement.bindString(index, value.toString());
+
+                        break;
+                }
+            }
+        }
+    }
+
+    private static class PendingRow
+    {
+        private final Table _table;
+        private final Map<String, Object> _values;
+
+        private PendingRow(Table table, Map<String, Object> values)
+        {
+            this._table = table;
+            this._values = values;
+        }
+    }
+
+    private final Context _context;
+    private final SQLiteDatabase _database;
+    private final List<Filter> _filters;
+
+    private ProbeValuesRetention _retention = null;
+
+    private final HashMap<String, Table> _tables = new HashMap<String, Table>();
+
+    private ArrayList<PendingRow> _queue = new ArrayList<PendingRow>();
+    private boolean _writing = false;
+
+    private Thread _thread = null;
+
+    private long _rowsWritten = 0;
+    private long _batchesWritten = 0;
+
+    public ProbeValuesWriter(Context context, SQLiteDatabase database, List<Filter> filters)
+    {
+        this._context = context;
+        this._database = database;
+        this._filters = filters;
+    }
+
+    public synchronized void setRetention(ProbeValuesRetention retention)
+    {
+        this._retention = retention;
+
+        this.notifyAll();
+    }
+
+    /**
+     * Returns the table for the probe name and schema, creating it if needed.
+     * The database lock is always taken before the table cache lock, never
+     * inside it.
+     */
+
+    public Table table(String name, Map<String, String> schema)
+    {
+        synchronized (this._tables)
+        {
+            Table table = this._tables.get(name);
+
+            if (table != null && table.matches(schema))
+                return table;
+        }
+
+        Table table = new Table(name, schema, ProbeValuesWriter.tableName(this._context, name, schema));
+
+        ProbeValuesRetention retention = this.retention();
+
+        synchronized (this._database)
+        {
+            this._database.execSQL(table.createSql());
+
+            if (retention != null)
+            {
+                retention.track(name, table._tableName);
+                retention.ensureIndex(this._database, table._tableName);
+            }
+        }
+
+        Table replaced = null;
+
+        synchronized (this._tables)
+        {
+            Table existing = this._tables.get(name);
+
+            // Another thread resolved the same table first...
+
+            if (existing != null && existing.matches(schema))
+                return existing;
+
+            replaced = existing;
+
+            this._tables.put(name, table);
+        }
+
+        if (replaced != null)
+        {
+            synchronized (this._database)
+            {
+                replaced.close();
+            }
+        }
+
+        return table;
+    }
+
+    public void insert(String name, Map<String, String> schema, Map<String, Object> values)
+    {
+        Table table = null;
+
+        try
+        {
+            table = this.table(name, schema);
+        }
+        catch (SQLException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+
+            return;
+        }
+
+        this.enqueue(new PendingRow(table, values));
+    }
+
+    private synchronized void enqueue(PendingRow row)
+    {
+        this._queue.add(row);
+
+        if (this._thread == null)
+        {
+            final ProbeValuesWriter me = this;
+
+            Runnable r = new Runnable()
+            {
+                public void run()
+                {
+                    me.drain();
+                }
+            };
+
+            try
+            {
+                this._thread = new Thread(r, "Probe Values Writer");
+                this._thread.start();
+            }
+            catch (OutOfMemoryError e)
+            {
+                this._thread = null;
+
+                LogManager.getInstance(this._context).logException(e);
+            }
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * Blocks until everything queued so far has been written.
+     */
+
+    public synchronized void flush() throws InterruptedException
+    {
+        while (this._queue.size() > 0 || this._writing)
+            this.wait();
+    }
+
+    /**
+     * Stops the writer thread once it is idle. Pending rows are discarded.
+     */
+
+    public synchronized void shutdown()
+    {
+        this._queue.clear();
+
+        if (this._thread != null)
+            this._thread.interrupt();
+    }
+
+    public synchronized long rowsWritten()
+    {
+        return this._rowsWritten;
+    }
+
+    public synchronized long batchesWritten()
+    {
+        return this._batchesWritten;
+    }
+
+    private synchronized ProbeValuesRetention retention()
+    {
+        return this._retention;
+    }
+
+    private void drain()
+    {
+        while (true)
+        {
+            ArrayList<PendingRow> items = null;
+
+            synchronized (this)
+            {
+                while (this._queue.size() == 0)
+                {
+                    this._writing = false;
+                    this.notifyAll();
+
+                    if (this._retention != null && this._retention.hasWork())
+                        break;
+
+                    try
+                    {
+                        if (this._retention != null)
+                            this.wait(ProbeValuesWriter.IDLE_CHECK_INTERVAL);
+                        else
+                            this.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        this._thread = null;
+
+                        return;
+                    }
+                }
+
+                if (this._queue.size() > 0)
+                {
+                    items = this._queue;
+
+                    this._queue = new ArrayList<PendingRow>();
+                    this._writing = true;
+                }
+            }
+
+            if (items == null)
+            {
+                this.maintain();
+
+                continue;
+            }
+
+            for (int i = 0; i < items.size(); i += ProbeValuesWriter.MAX_BATCH_SIZE)
+            {
+                this.write(items.subList(i, Math.min(items.size(), i + ProbeValuesWriter.MAX_BATCH_SIZE)));
+
+                this.maintain();
+            }
+        }
+    }
+
+    private void maintain()
+    {
+        ProbeValuesRetention retention = this.retention();
+
+        if (retention == null || retention.hasWork() == false)
+            return;
+
+        synchronized (this._database)
+        {
+            retention.step(this._database);
+        }
+    }
+
+    private void write(List<PendingRow> rows)
+    {
+        if (rows.size() == 0)
+            return;
+
+        int written = 0;
+        boolean dropped = false;
+
+        synchronized (this._database)
+        {
+            try
+            {
+                this._database.beginTransaction();
+
+                try
+                {
+                    for (PendingRow row : rows)
+                    {
+                        if (this.insertRow(row))
+                            written += 1;
+                    }
+
+                    this._database.setTransactionSuccessful();
+                }
+                finally
+                {
+                    this._database.endTransaction();
+                }
+            }
+            catch (SQLException e)
+            {
+                LogManager.getInstance(this._context).logException(e);
+
+                written = 0;
+
+                dropped = true;
+            }
+            catch (IllegalStateException e)
+            {
+                LogManager.getInstance(this._context).logException(e);
+
+                written = 0;
+            }
+        }
+
+        if (dropped)
+        {
+            // Table may have been dropped underneath us - resolve again next time.
+
+            ArrayList<Table> tables = null;
+
+            synchronized (this._tables)
+            {
+                tables = new ArrayList<Table>(this._tables.values());
+
+                this._tables.clear();
+            }
+
+            synchronized (this._database)
+            {
+                for (Table table : tables)
+                    table.close();
+            }
+
+            // Retry the batch one row at a time, so only the rows that fail
+            // again are lost...
+
+            written = this.writeEach(rows);
+        }
+
+        synchronized (this)
+        {
+            this._rowsWritten += written;
+            this._batchesWritten += 1;
+        }
+    }
+
+    /**
+     * Inserts one row through its table's cached statement. Returns false if a
+     * filter rejected the row. Callers must hold the database lock.
+     */
+
+    private boolean insertRow(PendingRow row)
+    {
+        if (this.allow(row) == false)
+            return false;
+
+        Table table = row._table;
+
+        if (table._closed)
+            table = this.table(table._name, table._schema);
+
+        SQLiteStatement insert = table.insertStatement(this._database);
+
+        table.bind(insert, row._values);
+        insert.executeInsert();
+
+        return true;
+    }
+
+    private int writeEach(List<PendingRow> rows)
+    {
+        int written = 0;
+        int failed = 0;
+
+        for (PendingRow row : rows)
+        {
+            synchronized (this._database)
+            {
+                try
+                {
+                    if (this.insertRow(row))
+                        written += 1;
+                }
+                catch (SQLException e)
+                {
+                    if (failed == 0)
+                        LogManager.getInstance(this._context).logException(e);
+
+                    failed += 1;
+                }
+                catch (IllegalStateException e)
+                {
+                    if (failed == 0)
+                        LogManager.getInstance(this._context).logException(e);
+
+                    failed += 1;
+                }
+            }
+        }
+
+        if (failed > 0)
+        {
+            HashMap<String, Object> payload = new HashMap<String, Object>();
+            payload.put("batch_size", rows.size());
+            payload.put("dropped", failed);
+
+            LogManager.getInstance(this._context).log("probe_values_rows_dropped", payload);
+        }
+
+        return written;
+    }
+
+    private boolean allow(PendingRow row)
+    {
+        if (this._filters == null)
+            return true;
+
+        for (Filter f : this._filters)
+        {
+            if (f.allow(row._table._name, row._values) == false)
+                return false;
+        }
+
+        return true;
+    }
+
+    public static String tableName(Context context, String name, Map<String, String> schema)
+    {
+        String tableName = name;
+
+        ArrayList<String> columns = new ArrayList<String>(schema.keySet());
+        Collections.sort(columns);
+
+        for (String key : columns)
+        {
+            tableName += (key + schema.get(key));
+        }
+
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte[] digest = md.digest(tableName.getBytes("UTF-8"));
+
+            tableName = "table_" + (new BigInteger(1, digest)).toString(16);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+
+        return tableName;
+    }
+}
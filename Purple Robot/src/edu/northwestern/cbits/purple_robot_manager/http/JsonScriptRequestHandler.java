@@ -1,6 +1,10 @@
 package edu.northwestern.cbits.purple_robot_manager.http;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URLDecoder;
 
 import org.apache.http.HttpEntity;
@@ -9,6 +13,8 @@ import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
@@ -19,6 +25,7 @@ import org.json.JSONObject;
 import android.content.Context;
 import android.net.Uri;
 
+import edu.northwestern.cbits.purple_robot_manager.http.commands.BatchCommand;
 import edu.northwestern.cbits.purple_robot_manager.http.commands.ExecuteSchemeCommand;
 import edu.northwestern.cbits.purple_robot_manager.http.commands.ExecuteJavaScriptCommand;
 import edu.northwestern.cbits.purple_robot_manager.http.commands.FetchStringCommand;
@@ -135,12 +142,37 @@ public class JsonScriptRequestHandler implements HttpRequestHandler
                     {
                         JSONCommand command = JsonScriptRequestHandler.commandForJson(arguments, this._context);
 
-                        JSONObject result = command.execute(this._context);
+                        if (command instanceof BatchCommand)
+                        {
+                            // Batch results can be large - write them as they
+                            // are produced...
 
-                        StringEntity body = new StringEntity(result.toString(2));
-                        body.setContentType("application/json");
+                            final BatchCommand batch = (BatchCommand) command;
+                            final Context context = this._context;
 
-                        response.setEntity(body);
+                            EntityTemplate body = new EntityTemplate(new ContentProducer()
+                            {
+                                public void writeTo(OutputStream out) throws IOException
+                                {
+                                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+
+                                    batch.writeTo(context, writer);
+                                }
+                            });
+
+                            body.setContentType("application/json");
+
+                            response.setEntity(body);
+                        }
+                        else
+                        {
+                            JSONObject result = command.execute(this._context);
+
+                            StringEntity body = new StringEntity(result.toString(2));
+                            body.setContentType("application/json");
+
+                            response.setEntity(body);
+                        }
                     }
                     catch (JSONException e)
                     {
@@ -185,6 +217,8 @@ public class JsonScriptRequestHandler implements HttpRequestHandler
                 return new PersistStringCommand(arguments, context);
             else if (FetchStringCommand.COMMAND_NAME.equals(arguments.get(JSONCommand.COMMAND)))
                 return new FetchStringCommand(arguments, context);
+            else if (BatchCommand.COMMAND_NAME.equals(arguments.get(JSONCommand.COMMAND)))
+                return new BatchCommand(arguments, context);
         }
         catch (JSONException e)
         {
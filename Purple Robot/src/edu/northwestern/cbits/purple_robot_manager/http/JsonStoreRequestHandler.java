@@ -2,6 +2,7 @@ package edu.northwestern.cbits.purple_robot_manager.http;
 
 import java.io.IOException;
 import java.net.URLDecoder;
+import java.util.HashMap;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
@@ -118,6 +119,8 @@ public class JsonStoreRequestHandler implements HttpRequestHandler
                     {
                         JSONArray names = arguments.names();
 
+                        HashMap<String, String> values = new HashMap<String, String>();
+
                         for (int i = 0; i < names.length(); i++)
                         {
                             String name = names.getString(i);
@@ -127,10 +130,12 @@ public class JsonStoreRequestHandler implements HttpRequestHandler
                                 String value = arguments.getString(name);
 
                                 if (value != null)
-                                    engine.persistString(name, value);
+                                    values.put(name, value);
                             }
                         }
 
+                        engine.persistStrings(null, values);
+
                         JSONObject result = new JSONObject();
                         result.put("status", "success");
 
@@ -1,14 +1,21 @@
 package edu.northwestern.cbits.purple_robot_manager.http;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.http.ConnectionClosedException;
 import org.apache.http.HttpException;
-import org.apache.http.HttpServerConnection;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.DefaultHttpResponseFactory;
 import org.apache.http.impl.DefaultHttpServerConnection;
@@ -29,6 +36,9 @@ import org.apache.http.protocol.ResponseServer;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
 
 public class LocalHttpServer
 {
@@ -38,9 +48,30 @@ public class LocalHttpServer
     public static final String BUILTIN_HTTP_SERVER_PASSWORD = "config_builtin_http_server_password";
     public static final String BUILTIN_HTTP_SERVER_PASSWORD_DEFAULT = "";
 
+    public static final String BUILTIN_HTTP_SERVER_WORKERS = "config_builtin_http_server_workers";
+    public static final String BUILTIN_HTTP_SERVER_WORKERS_DEFAULT = "8";
+
+    public static final String BUILTIN_HTTP_SERVER_BACKLOG = "config_builtin_http_server_backlog";
+    public static final String BUILTIN_HTTP_SERVER_BACKLOG_DEFAULT = "64";
+
     private static int SERVER_PORT = 12345;
 
-    private Thread _serverThread = null;
+    // Idle time before a keep-alive connection is closed. Shortened while
+    // other connections are waiting for a worker...
+
+    private static final int KEEP_ALIVE_TIMEOUT = 5000;
+    private static final int BUSY_KEEP_ALIVE_TIMEOUT = 250;
+
+    private static final String REQUEST_STARTED = "purple_robot_request_started";
+
+    private static final AtomicLong _requests = new AtomicLong(0);
+    private static final AtomicLong _connections = new AtomicLong(0);
+    private static final AtomicLong _rejectedConnections = new AtomicLong(0);
+    private static final AtomicInteger _activeConnections = new AtomicInteger(0);
+    private static final AtomicLong _totalLatency = new AtomicLong(0);
+    private static final AtomicLong _maxLatency = new AtomicLong(0);
+
+    private RequestListenerThread _serverThread = null;
 
     public void start(final Context context)
     {
@@ -48,7 +79,22 @@ public class LocalHttpServer
         {
             BasicAuthHelper.getInstance(context);
 
-            this._serverThread = new RequestListenerThread(context.getApplicationContext(), SERVER_PORT);
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+            int workers = Integer.parseInt(LocalHttpServer.BUILTIN_HTTP_SERVER_WORKERS_DEFAULT);
+            int backlog = Integer.parseInt(LocalHttpServer.BUILTIN_HTTP_SERVER_BACKLOG_DEFAULT);
+
+            try
+            {
+                workers = Math.max(1, Integer.parseInt(prefs.getString(LocalHttpServer.BUILTIN_HTTP_SERVER_WORKERS, LocalHttpServer.BUILTIN_HTTP_SERVER_WORKERS_DEFAULT)));
+                backlog = Math.max(1, Integer.parseInt(prefs.getString(LocalHttpServer.BUILTIN_HTTP_SERVER_BACKLOG, LocalHttpServer.BUILTIN_HTTP_SERVER_BACKLOG_DEFAULT)));
+            }
+            catch (NumberFormatException e)
+            {
+                LogManager.getInstance(context).logException(e);
+            }
+
+            this._serverThread = new RequestListenerThread(context.getApplicationContext(), SERVER_PORT, workers, backlog);
             this._serverThread.setDaemon(false);
             this._serverThread.start();
         }
@@ -60,31 +106,78 @@ public class LocalHttpServer
     {
         if (this._serverThread != null)
         {
-            this._serverThread.interrupt();
+            this._serverThread.shutdown();
             this._serverThread = null;
         }
 
         LogManager.getInstance(context).log("stopped_builtin_http_server", null);
     }
 
+    /**
+     * Request and connection counters since the process started. Latencies
+     * cover processing and writing the response, not reading the request.
+     */
+
+    public static Bundle statistics()
+    {
+        Bundle stats = new Bundle();
+
+        long requests = LocalHttpServer._requests.get();
+
+        stats.putLong("requests", requests);
+        stats.putLong("connections", LocalHttpServer._connections.get());
+        stats.putLong("rejected_connections", LocalHttpServer._rejectedConnections.get());
+        stats.putInt("active_connections", LocalHttpServer._activeConnections.get());
+        stats.putDouble("max_latency_ms", LocalHttpServer._maxLatency.get() / 1000000.0);
+
+        if (requests > 0)
+            stats.putDouble("mean_latency_ms", (LocalHttpServer._totalLatency.get() / 1000000.0) / requests);
+        else
+            stats.putDouble("mean_latency_ms", 0);
+
+        return stats;
+    }
+
+    private static void recordLatency(long latency)
+    {
+        LocalHttpServer._requests.incrementAndGet();
+        LocalHttpServer._totalLatency.addAndGet(latency);
+
+        long max = LocalHttpServer._maxLatency.get();
+
+        while (latency > max && LocalHttpServer._maxLatency.compareAndSet(max, latency) == false)
+            max = LocalHttpServer._maxLatency.get();
+    }
+
     static class RequestListenerThread extends Thread
     {
         private ServerSocket serversocket;
         private final HttpParams params = new BasicHttpParams();
         private HttpService httpService;
         private int _port = 0;
+        private int _backlog = 0;
 
-        public RequestListenerThread(final Context context, final int port)
+        private final ThreadPoolExecutor _workers;
+
+        public RequestListenerThread(final Context context, final int port, int workers, int backlog)
         {
             this._port = port;
+            this._backlog = backlog;
 
-            this.params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, 5000);
+            this.params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, LocalHttpServer.KEEP_ALIVE_TIMEOUT);
             this.params.setIntParameter(CoreConnectionPNames.SOCKET_BUFFER_SIZE, 8 * 1024);
             this.params.setBooleanParameter(CoreConnectionPNames.STALE_CONNECTION_CHECK, false);
             this.params.setBooleanParameter(CoreConnectionPNames.TCP_NODELAY, true);
             this.params.setParameter(CoreProtocolPNames.ORIGIN_SERVER, "HttpComponents/1.1");
 
             BasicHttpProcessor httpproc = new BasicHttpProcessor();
+            httpproc.addInterceptor(new HttpRequestInterceptor()
+            {
+                public void process(HttpRequest request, HttpContext context) throws HttpException, IOException
+                {
+                    context.setAttribute(LocalHttpServer.REQUEST_STARTED, Long.valueOf(System.nanoTime()));
+                }
+            });
             httpproc.addInterceptor(new ResponseDate());
             httpproc.addInterceptor(new ResponseServer());
             httpproc.addInterceptor(new ResponseContent());
@@ -106,15 +199,32 @@ public class LocalHttpServer
                     new DefaultHttpResponseFactory());
             this.httpService.setParams(this.params);
             this.httpService.setHandlerResolver(reqistry);
+
+            ThreadFactory factory = new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "Local HTTP Worker");
+                    t.setDaemon(true);
+
+                    return t;
+                }
+            };
+
+            // Connections past the backlog wait in the queue until a worker
+            // frees up. Beyond that they are closed rather than spawning more
+            // threads...
+
+            this._workers = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(backlog), factory);
+            this._workers.allowCoreThreadTimeOut(true);
         }
 
         public void run()
         {
             try
             {
-                // this.serversocket = new ServerSocket(this._port, 8,
-                // InetAddress.getLocalHost());
-                this.serversocket = new ServerSocket(this._port, 1);
+                this.serversocket = new ServerSocket(this._port, this._backlog);
 
                 while (!Thread.interrupted())
                 {
@@ -124,13 +234,18 @@ public class LocalHttpServer
                         DefaultHttpServerConnection conn = new DefaultHttpServerConnection();
                         conn.bind(socket, this.params);
 
-                        Thread t = new WorkerThread(this.httpService, conn);
-                        t.setDaemon(true);
-                        t.start();
-                    }
-                    catch (InterruptedIOException ex)
-                    {
-                        break;
+                        LocalHttpServer._connections.incrementAndGet();
+
+                        try
+                        {
+                            this._workers.execute(new Worker(this.httpService, conn, this._workers));
+                        }
+                        catch (RejectedExecutionException e)
+                        {
+                            LocalHttpServer._rejectedConnections.incrementAndGet();
+
+                            conn.shutdown();
+                        }
                     }
                     catch (IOException e)
                     {
@@ -153,39 +268,78 @@ public class LocalHttpServer
                     th.printStackTrace();
                 }
             }
+            finally
+            {
+                this._workers.shutdownNow();
+            }
+        }
+
+        /**
+         * Stops accepting connections. Closing the socket unblocks accept(),
+         * which an interrupt alone does not.
+         */
+
+        public void shutdown()
+        {
+            this.interrupt();
+
+            try
+            {
+                if (this.serversocket != null)
+                    this.serversocket.close();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+
+            this._workers.shutdownNow();
         }
     }
 
-    static class WorkerThread extends Thread
+    static class Worker implements Runnable
     {
         private final HttpService httpservice;
-        private final HttpServerConnection conn;
+        private final DefaultHttpServerConnection conn;
+        private final ThreadPoolExecutor _pool;
 
-        public WorkerThread(HttpService httpservice, HttpServerConnection conn)
+        public Worker(HttpService httpservice, DefaultHttpServerConnection conn, ThreadPoolExecutor pool)
         {
-            super();
             this.httpservice = httpservice;
             this.conn = conn;
+            this._pool = pool;
         }
 
         public void run()
         {
             HttpContext context = new BasicHttpContext(null);
 
+            LocalHttpServer._activeConnections.incrementAndGet();
+
             try
             {
+                // Keep-alive requests, including pipelined ones already in
+                // the input buffer, are served in order on this connection...
+
                 while (!Thread.interrupted() && this.conn.isOpen())
                 {
-                    try
-                    {
-                        this.httpservice.handleRequest(this.conn, context);
-                    }
-                    catch (SocketTimeoutException e)
-                    {
+                    if (this._pool.getQueue().isEmpty())
+                        this.conn.setSocketTimeout(LocalHttpServer.KEEP_ALIVE_TIMEOUT);
+                    else
+                        this.conn.setSocketTimeout(LocalHttpServer.BUSY_KEEP_ALIVE_TIMEOUT);
 
-                    }
+                    this.httpservice.handleRequest(this.conn, context);
+
+                    Long started = (Long) context.removeAttribute(LocalHttpServer.REQUEST_STARTED);
+
+                    if (started != null)
+                        LocalHttpServer.recordLatency(System.nanoTime() - started.longValue());
                 }
             }
+            catch (SocketTimeoutException e)
+            {
+                // Idle keep-alive connection - release the worker...
+            }
             catch (ConnectionClosedException e)
             {
                 // e.printStackTrace();
@@ -200,6 +354,8 @@ public class LocalHttpServer
             }
             finally
             {
+                LocalHttpServer._activeConnections.decrementAndGet();
+
                 try
                 {
                     this.conn.shutdown();
@@ -0,0 +1,217 @@
+package edu.northwestern.cbits.purple_robot_manager.http.commands;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.http.JsonScriptRequestHandler;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.scripting.JavaScriptEngine;
+
+/**
+ * Runs an array of commands in order and returns one result per command, each
+ * with its own status. Consecutive unencrypted persist_string commands for
+ * the same namespace are saved with a single commit.
+ */
+
+public class BatchCommand extends JSONCommand
+{
+    public static final String COMMAND_NAME = "batch";
+
+    public static final String COMMANDS = "commands";
+
+    private interface ResultHandler
+    {
+        public void handleResult(JSONObject result) throws IOException;
+    }
+
+    public BatchCommand(JSONObject arguments, Context context)
+    {
+        super(arguments, context);
+    }
+
+    public JSONObject execute(Context context)
+    {
+        JSONObject result = super.execute(context);
+
+        try
+        {
+            if (JSONCommand.STATUS_OK.equals(result.get(JSONCommand.STATUS)))
+            {
+                final JSONArray results = new JSONArray();
+
+                this.run(context, new ResultHandler()
+                {
+                    public void handleResult(JSONObject itemResult)
+                    {
+                        results.put(itemResult);
+                    }
+                });
+
+                result.put(JSONCommand.PAYLOAD, results);
+            }
+        }
+        catch (Exception e)
+        {
+            LogManager.getInstance(context).logException(e);
+
+            try
+            {
+                result.put(JSONCommand.STATUS, JSONCommand.STATUS_ERROR);
+                result.put(JSONCommand.MESSAGE, e.toString());
+            }
+            catch (JSONException ee)
+            {
+                LogManager.getInstance(context).logException(ee);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the same document as execute, but streams each result as soon as
+     * its command finishes instead of building the whole response first.
+     */
+
+    public void writeTo(Context context, final Writer out) throws IOException
+    {
+        if (this._arguments.optJSONArray(BatchCommand.COMMANDS) == null)
+        {
+            out.write(this.execute(context).toString());
+            out.flush();
+
+            return;
+        }
+
+        out.write("{\"" + JSONCommand.COMMAND + "\":" + JSONObject.quote(BatchCommand.COMMAND_NAME) + ",\""
+                + JSONCommand.STATUS + "\":" + JSONObject.quote(JSONCommand.STATUS_OK) + ",\"" + JSONCommand.PAYLOAD
+                + "\":[");
+
+        final boolean[] first = { true };
+
+        try
+        {
+            this.run(context, new ResultHandler()
+            {
+                public void handleResult(JSONObject itemResult) throws IOException
+                {
+                    if (first[0] == false)
+                        out.write(",");
+
+                    out.write(itemResult.toString());
+
+                    first[0] = false;
+                }
+            });
+        }
+        catch (JSONException e)
+        {
+            // Only thrown for a missing commands array, checked above...
+
+            LogManager.getInstance(context).logException(e);
+        }
+
+        out.write("]}");
+        out.flush();
+    }
+
+    private void run(Context context, ResultHandler handler) throws JSONException, IOException
+    {
+        JSONArray commands = this._arguments.getJSONArray(BatchCommand.COMMANDS);
+
+        JavaScriptEngine engine = new JavaScriptEngine(this._context);
+
+        int i = 0;
+
+        while (i < commands.length())
+        {
+            JSONObject item = commands.optJSONObject(i);
+
+            String namespace = BatchCommand.persistNamespace(item);
+
+            if (namespace != null)
+            {
+                HashMap<String, String> values = new HashMap<String, String>();
+
+                int end = i;
+
+                while (end < commands.length() && namespace.equals(BatchCommand.persistNamespace(commands.optJSONObject(end))))
+                {
+                    JSONObject persist = commands.getJSONObject(end);
+
+                    values.put(persist.getString(PersistStringCommand.KEY), persist.getString(PersistStringCommand.VALUE));
+
+                    end += 1;
+                }
+
+                boolean saved = engine.persistStrings(namespace, values);
+
+                for (; i < end; i++)
+                {
+                    JSONObject result = new JSONObject();
+                    result.put(JSONCommand.COMMAND, PersistStringCommand.COMMAND_NAME);
+
+                    if (saved)
+                        result.put(JSONCommand.STATUS, JSONCommand.STATUS_OK);
+                    else
+                    {
+                        result.put(JSONCommand.STATUS, JSONCommand.STATUS_ERROR);
+                        result.put(JSONCommand.MESSAGE, "Unable to save values...");
+                    }
+
+                    handler.handleResult(result);
+                }
+            }
+            else
+            {
+                JSONObject result = null;
+
+                if (item == null)
+                {
+                    result = new JSONObject();
+                    result.put(JSONCommand.STATUS, JSONCommand.STATUS_ERROR);
+                    result.put(JSONCommand.MESSAGE, "Batch item " + i + " is not a command...");
+                }
+                else if (BatchCommand.COMMAND_NAME.equals(item.optString(JSONCommand.COMMAND)))
+                {
+                    result = new JSONObject();
+                    result.put(JSONCommand.COMMAND, BatchCommand.COMMAND_NAME);
+                    result.put(JSONCommand.STATUS, JSONCommand.STATUS_ERROR);
+                    result.put(JSONCommand.MESSAGE, "Batches cannot be nested...");
+                }
+                else
+                    result = JsonScriptRequestHandler.commandForJson(item, this._context).execute(context);
+
+                handler.handleResult(result);
+
+                i += 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the namespace ("" for none) of a persist_string command that can
+     * be saved in bulk, or null for any other item.
+     */
+
+    private static String persistNamespace(JSONObject item)
+    {
+        if (item == null || PersistStringCommand.COMMAND_NAME.equals(item.optString(JSONCommand.COMMAND)) == false)
+            return null;
+
+        if (item.optBoolean(PersistStringCommand.ENCRYPTED, false))
+            return null;
+
+        if (item.has(PersistStringCommand.KEY) == false || item.has(PersistStringCommand.VALUE) == false)
+            return null;
+
+        return item.optString(PersistStringCommand.NAMESPACE, "");
+    }
+}
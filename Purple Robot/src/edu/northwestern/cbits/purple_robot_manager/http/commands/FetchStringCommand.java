@@ -12,6 +12,7 @@ public class FetchStringCommand extends JSONCommand
     public static final String KEY = "key";
     public static final String VALUE = "value";
     public static final String ENCRYPTED = "encrypted";
+    public static final String NAMESPACE = "namespace";
     public static final String COMMAND_NAME = "fetch_string";
     public static final String NOT_FOUND = "not_found";
 
@@ -41,8 +42,14 @@ public class FetchStringCommand extends JSONCommand
 
                 String resultString = null;
 
-                if (doEncrypt)
+                String namespace = this._arguments.optString(FetchStringCommand.NAMESPACE, "");
+
+                if (doEncrypt && namespace.length() > 0)
+                    resultString = engine.fetchEncryptedString(namespace, key);
+                else if (doEncrypt)
                     resultString = engine.fetchEncryptedString(key);
+                else if (namespace.length() > 0)
+                    resultString = engine.fetchString(namespace, key);
                 else
                     resultString = engine.fetchString(key);
 
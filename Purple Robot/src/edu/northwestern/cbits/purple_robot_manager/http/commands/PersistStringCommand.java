@@ -12,6 +12,7 @@ public class PersistStringCommand extends JSONCommand
     public static final String KEY = "key";
     public static final String VALUE = "value";
     public static final String ENCRYPTED = "encrypted";
+    public static final String NAMESPACE = "namespace";
     public static final String COMMAND_NAME = "persist_string";
 
     public PersistStringCommand(JSONObject arguments, Context context)
@@ -37,8 +38,14 @@ public class PersistStringCommand extends JSONCommand
                 if (this._arguments.has(PersistStringCommand.ENCRYPTED))
                     doEncrypt = this._arguments.getBoolean(PersistStringCommand.ENCRYPTED);
 
-                if (doEncrypt)
+                String namespace = this._arguments.optString(PersistStringCommand.NAMESPACE, "");
+
+                if (doEncrypt && namespace.length() > 0)
+                    engine.persistEncryptedString(namespace, key, value);
+                else if (doEncrypt)
                     engine.persistEncryptedString(key, value);
+                else if (namespace.length() > 0)
+                    engine.persistString(namespace, key, value);
                 else
                     engine.persistString(key, value);
             }
@@ -1,8 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.logging;
 
-import java.io.File;
-import java.io.FilenameFilter;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
@@ -60,24 +57,7 @@ public class LastUploadCheck extends SanityCheck
             {
                 final HttpUploadPlugin httpPlugin = (HttpUploadPlugin) plugin;
 
-                File pendingFolder = httpPlugin.getPendingFolder();
-
-                int pendingCount = 0;
-
-                FilenameFilter jsonFilter = new FilenameFilter()
-                {
-                    public boolean accept(File dir, String filename)
-                    {
-                        return filename.endsWith(".json");
-                    }
-                };
-
-                String[] filenames = pendingFolder.list(jsonFilter);
-
-                if (filenames == null)
-                    filenames = new String[0];
-
-                pendingCount = filenames.length;
+                int pendingCount = httpPlugin.pendingFilesCount();
 
                 if (pendingCount > 0)
                 {
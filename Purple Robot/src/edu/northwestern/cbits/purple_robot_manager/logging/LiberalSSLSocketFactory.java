@@ -1,7 +1,10 @@
 package edu.northwestern.cbits.purple_robot_manager.logging;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
@@ -11,10 +14,14 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.X509Certificate;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 
 public class LiberalSSLSocketFactory extends SSLSocketFactory
 {
@@ -57,4 +64,51 @@ public class LiberalSSLSocketFactory extends SSLSocketFactory
     {
         return sslContext.getSocketFactory().createSocket();
     }
+
+    /**
+     * Connects a plain socket and layers TLS over it with the server's host
+     * name and port. The SSL context caches sessions by host and port, so a
+     * long-lived factory can resume an earlier session with the same server
+     * instead of repeating the full handshake.
+     */
+
+    public Socket connectSocket(Socket sock, String host, int port, InetAddress localAddress, int localPort,
+            HttpParams params) throws IOException, UnknownHostException, ConnectTimeoutException
+    {
+        if (sock != null)
+            sock.close();
+
+        Socket plain = new Socket();
+
+        if (localAddress != null || localPort > 0)
+            plain.bind(new InetSocketAddress(localAddress, Math.max(0, localPort)));
+
+        try
+        {
+            plain.connect(new InetSocketAddress(host, port), HttpConnectionParams.getConnectionTimeout(params));
+        }
+        catch (SocketTimeoutException e)
+        {
+            plain.close();
+
+            throw new ConnectTimeoutException("Connect to " + host + ":" + port + " timed out");
+        }
+
+        plain.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+
+        SSLSocket sslSocket = (SSLSocket) this.createSocket(plain, host, port, true);
+
+        try
+        {
+            this.getHostnameVerifier().verify(host, sslSocket);
+        }
+        catch (IOException e)
+        {
+            sslSocket.close();
+
+            throw e;
+        }
+
+        return sslSocket;
+    }
 }
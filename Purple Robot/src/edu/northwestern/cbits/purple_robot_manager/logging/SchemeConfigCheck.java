@@ -1,7 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.logging;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -9,9 +7,7 @@ import java.util.Map;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.LegacySettingsActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.SettingsActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.SettingsKeys;
-import jscheme.JScheme;
 import jscheme.SchemeException;
-import jsint.Evaluator;
 import jsint.Pair;
 import jsint.Symbol;
 import android.content.Context;
@@ -20,8 +16,8 @@ import android.content.SharedPreferences;
 import android.os.Build;
 import android.preference.PreferenceManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
-import edu.northwestern.cbits.purple_robot_manager.scripting.JSONHelper;
 import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeEngine;
+import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeInterpreterPool;
 
 public class SchemeConfigCheck extends SanityCheck
 {
@@ -41,54 +37,9 @@ public class SchemeConfigCheck extends SanityCheck
         {
             String schemeScript = prefs.getString("scheme_config_contents", "()");
 
-            Evaluator eval = new Evaluator();
-            eval.getInteractionEnvironment().setValue(Symbol.intern("PurpleRobot"), this);
-            eval.getInteractionEnvironment().setValue(Symbol.intern("JSONHelper"), new JSONHelper());
-            JScheme scheme = new JScheme(eval);
-
-            try
-            {
-                scheme.load(new InputStreamReader(context.getAssets().open("scheme/pregexp.scm")));
-            }
-            catch (IOException e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-            catch (StackOverflowError e)
-            {
-                // Happens on older devices...
-                // LogManager.getInstance(context).logException(e);
-            }
-
-            try
-            {
-                scheme.load(new InputStreamReader(context.getAssets().open("scheme/json.scm")));
-            }
-            catch (IOException e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-            catch (StackOverflowError e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-
-            try
-            {
-                scheme.load(new InputStreamReader(context.getAssets().open("scheme/purple-robot.scm")));
-            }
-            catch (IOException e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-            catch (StackOverflowError e)
-            {
-                LogManager.getInstance(context).logException(e);
-            }
-
             try
             {
-                Object sexp = scheme.read(schemeScript);
+                Object sexp = SchemeInterpreterPool.read(schemeScript);
 
                 if (sexp instanceof Pair)
                 {
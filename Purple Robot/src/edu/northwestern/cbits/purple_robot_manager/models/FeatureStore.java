@@ -0,0 +1,178 @@
+package edu.northwestern.cbits.purple_robot_manager.models;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latest value of every feature seen by the ModelManager, stamped with the
+ * sequence number of the update that last changed it.
+ *
+ * Updates are made by a single writer (the reading bus thread). Models are
+ * handed a live, read-only view instead of a full copy and copy out only the
+ * inputs they read, on the writer thread, before evaluating them elsewhere.
+ * changedSince() tells whether any of those inputs moved since they were last
+ * evaluated.
+ */
+
+public class FeatureStore
+{
+    private static class Feature
+    {
+        private volatile Object _value;
+        private volatile long _version;
+
+        private Feature(Object value, long version)
+        {
+            this._value = value;
+            this._version = version;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Feature> _features = new ConcurrentHashMap<String, Feature>();
+    private volatile long _version = 0;
+
+    private final Map<String, Object> _view = new AbstractMap<String, Object>()
+    {
+        private final Set<Map.Entry<String, Object>> _entries = new AbstractSet<Map.Entry<String, Object>>()
+        {
+            public Iterator<Map.Entry<String, Object>> iterator()
+            {
+                final Iterator<Map.Entry<String, Feature>> features = FeatureStore.this._features.entrySet().iterator();
+
+                return new Iterator<Map.Entry<String, Object>>()
+                {
+                    public boolean hasNext()
+                    {
+                        return features.hasNext();
+                    }
+
+                    public Map.Entry<String, Object> next()
+                    {
+                        Map.Entry<String, Feature> feature = features.next();
+
+                        return new AbstractMap.SimpleImmutableEntry<String, Object>(feature.getKey(), feature.getValue()._value);
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public int size()
+            {
+                return FeatureStore.this._features.size();
+            }
+        };
+
+        public Set<Map.Entry<String, Object>> entrySet()
+        {
+            return this._entries;
+        }
+
+        public Object get(Object key)
+        {
+            return FeatureStore.this.get((String) key);
+        }
+
+        public boolean containsKey(Object key)
+        {
+            return FeatureStore.this._features.containsKey(key);
+        }
+
+        public int size()
+        {
+            return FeatureStore.this._features.size();
+        }
+    };
+
+    /**
+     * Starts an update and returns the sequence number to stamp its values
+     * with.
+     */
+
+    public long nextVersion()
+    {
+        this._version += 1;
+
+        return this._version;
+    }
+
+    public long version()
+    {
+        return this._version;
+    }
+
+    /**
+     * Stores the value and returns true if it differs from the current one.
+     */
+
+    public boolean put(String key, Object value, long version)
+    {
+        Feature feature = this._features.get(key);
+
+        if (feature == null)
+        {
+            this._features.put(key, new Feature(value, version));
+
+            return true;
+        }
+
+        Object current = feature._value;
+
+        if (current == value || (current != null && current.equals(value)))
+            return false;
+
+        feature._value = value;
+        feature._version = version;
+
+        return true;
+    }
+
+    public Object get(String key)
+    {
+        Feature feature = this._features.get(key);
+
+        if (feature == null)
+            return null;
+
+        return feature._value;
+    }
+
+    /**
+     * Returns true if any of the keys changed after the given version. A null
+     * collection stands for every feature.
+     */
+
+    public boolean changedSince(Collection<String> keys, long version)
+    {
+        if (keys == null)
+            return this._version > version;
+
+        for (String key : keys)
+        {
+            Feature feature = this._features.get(key);
+
+            if (feature != null && feature._version > version)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns a read-only Map backed by the store. Lookups see the latest
+     * values; iteration is weakly consistent.
+     */
+
+    public Map<String, Object> view()
+    {
+        return this._view;
+    }
+}
@@ -12,6 +12,7 @@ import android.net.Uri;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.FlatForest;
 import edu.northwestern.cbits.purple_robot_manager.models.trees.LeafNode;
 import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode;
 import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode.TreeNodeException;
@@ -26,6 +27,7 @@ public class MatlabForestModel extends WekaTreeModel
     private static final String TREE_COUNT = "TOTAL_VOTERS";
 
     private ArrayList<TreeNode> _trees = new ArrayList<TreeNode>();
+    private FlatForest _forest = null;
 
     public MatlabForestModel(Context context, Uri uri)
     {
@@ -72,49 +74,118 @@ public class MatlabForestModel extends WekaTreeModel
         }
     }
 
+    /**
+     * Flattens the parsed trees. If any tree uses a test that cannot be
+     * flattened, the linked trees are evaluated instead.
+     *
+     * @see edu.northwestern.cbits.purple_robot_manager.models.TrainedModel#compileModel(android.content.Context)
+     */
+
+    protected void compileModel(Context context)
+    {
+        try
+        {
+            FlatForest forest = null;
+
+            synchronized (this)
+            {
+                forest = new FlatForest(this._trees);
+
+                this._forest = forest;
+            }
+
+            this.setFeatureIndex(forest.features());
+        }
+        catch (TreeNodeException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+    }
+
+    /**
+     * Matlab feature names are matched exactly, unlike the Weka node labels.
+     *
+     * @see edu.northwestern.cbits.purple_robot_manager.models.WekaTreeModel#featureName(java.lang.String)
+     */
+
+    protected String featureName(String name)
+    {
+        return name;
+    }
+
+    /**
+     * Returns the flattened forest for classifying feature vectors built with
+     * featureIndex, or null if the model has not been compiled.
+     */
+
+    public FlatForest compiledForest()
+    {
+        synchronized (this)
+        {
+            return this._forest;
+        }
+    }
+
     protected Object evaluateModel(Context context, Map<String, Object> snapshot)
     {
         String maxPrediction = null;
         int maxCount = -1;
 
-        synchronized (this)
+        FlatForest forest = this.compiledForest();
+
+        if (forest != null)
         {
-            Map<String, Integer> counts = new HashMap<String, Integer>();
+            int[] votes = new int[forest.labelCount()];
+
+            int winner = forest.vote(this.featureVector(snapshot, null), votes);
 
-            for (TreeNode tree : this._trees)
+            if (winner != -1)
             {
-                try
+                maxPrediction = forest.label(winner);
+                maxCount = votes[winner];
+            }
+        }
+        else
+        {
+            synchronized (this)
+            {
+                Map<String, Integer> counts = new HashMap<String, Integer>();
+
+                for (TreeNode tree : this._trees)
                 {
-                    Map<String, Object> prediction = tree.fetchPrediction(snapshot);
+                    try
+                    {
+                        Map<String, Object> prediction = tree.fetchPrediction(snapshot);
 
-                    String treePrediction = prediction.get(LeafNode.PREDICTION).toString();
+                        String treePrediction = prediction.get(LeafNode.PREDICTION).toString();
 
-                    Integer count = 0;
+                        Integer count = 0;
 
-                    if (counts.containsKey(treePrediction))
-                        count = counts.get(treePrediction);
+                        if (counts.containsKey(treePrediction))
+                            count = counts.get(treePrediction);
 
-                    count = Integer.valueOf(count.intValue() + 1);
-                    counts.put(treePrediction.toString(), count);
-                }
-                catch (TreeNode.TreeNodeException e)
-                {
-                    // e.printStackTrace();
-                }
-                catch (Exception e)
-                {
-                    LogManager.getInstance(context).logException(e);
+                        count = Integer.valueOf(count.intValue() + 1);
+                        counts.put(treePrediction.toString(), count);
+                    }
+                    catch (TreeNode.TreeNodeException e)
+                    {
+                        // e.printStackTrace();
+                    }
+                    catch (Exception e)
+                    {
+                        LogManager.getInstance(context).logException(e);
+                    }
                 }
-            }
-
-            for (String prediction : counts.keySet())
-            {
-                Integer count = counts.get(prediction);
 
-                if (count.intValue() > maxCount)
+                for (String prediction : counts.keySet())
                 {
-                    maxCount = count.intValue();
-                    maxPrediction = prediction;
+                    Integer count = counts.get(prediction);
+
+                    if (count.intValue() > maxCount)
+                    {
+                        maxCount = count.intValue();
+                        maxPrediction = prediction;
+                    }
                 }
             }
         }
@@ -1,11 +1,13 @@
 package edu.northwestern.cbits.purple_robot_manager.models;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import android.content.Context;
 import android.net.Uri;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.FlatTree;
 import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode;
 import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode.TreeNodeException;
 import edu.northwestern.cbits.purple_robot_manager.models.trees.parsers.MatLabBinaryTreeParser;
@@ -15,6 +17,7 @@ public class MatlabTreeModel extends TrainedModel
     public static final String TYPE = "matlab-decision-tree";
 
     private TreeNode _tree = null;
+    private FlatTree _flatTree = null;
 
     public MatlabTreeModel(Context context, Uri uri)
     {
@@ -26,8 +29,61 @@ public class MatlabTreeModel extends TrainedModel
         this._tree = MatLabBinaryTreeParser.parseString(model.toString());
     }
 
+    /**
+     * Flattens the parsed tree, keeping the linked tree if it uses a test that
+     * cannot be flattened.
+     *
+     * @see edu.northwestern.cbits.purple_robot_manager.models.TrainedModel#compileModel(android.content.Context)
+     */
+
+    protected void compileModel(Context context)
+    {
+        try
+        {
+            HashMap<String, Integer> features = new HashMap<String, Integer>();
+
+            FlatTree tree = FlatTree.compile(this._tree, features, new HashMap<String, Integer>());
+
+            this.setFeatureIndex(features);
+
+            synchronized (this)
+            {
+                this._flatTree = tree;
+            }
+        }
+        catch (TreeNodeException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+    }
+
+    /**
+     * Returns the flattened tree for classifying feature vectors built with
+     * featureIndex, or null if the model has not been compiled.
+     */
+
+    public FlatTree compiledTree()
+    {
+        synchronized (this)
+        {
+            return this._flatTree;
+        }
+    }
+
     protected Object evaluateModel(Context context, Map<String, Object> snapshot)
     {
+        FlatTree tree = this.compiledTree();
+
+        if (tree != null)
+        {
+            int leaf = tree.evaluate(this.featureVector(snapshot, null));
+
+            if (leaf == FlatTree.NO_MATCH)
+                return null;
+
+            return tree.prediction(leaf);
+        }
+
         try
         {
             return this._tree.fetchPrediction(snapshot);
@@ -6,16 +6,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.content.res.AssetManager;
@@ -25,11 +29,11 @@ import android.preference.CheckBoxPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
-import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 
 /**
  * Provides the structure for Models. Models take input from probes, features, 
@@ -57,12 +61,18 @@ public abstract class Model
     private static long _lastEnabledCheck = 0;
     private static boolean _lastEnabled = false;
 
+    private static final int EVALUATION_THREADS = 2;
+    private static final int MAX_QUEUED_EVALUATIONS = 64;
+    private static ThreadPoolExecutor _executor = null;
+
     protected HashMap<String, String> _featureMap = new HashMap<String, String>();
 
     // Cached values used to determine when the model state has changed.
     private Object _latestPrediction = null;
     private double _latestAccuracy = 0.0;
 
+    private boolean _evaluationPending = false;
+
     /**
      * Provides a lookup key used to generate and configure a given model.
      * 
@@ -475,15 +485,9 @@ public abstract class Model
     {
         if (context != null)
         {
-            UUID uuid = UUID.randomUUID();
-            data.putString("GUID", uuid.toString());
             data.putString("MODEL_NAME", this.title(context));
 
-            LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-            Intent intent = new Intent(edu.northwestern.cbits.purple_robot_manager.probes.Probe.PROBE_READING);
-            intent.putExtras(data);
-
-            localManager.sendBroadcast(intent);
+            ProbeReadingBus.getInstance(context).publish(data);
         }
     }
 
@@ -493,13 +497,103 @@ public abstract class Model
      * immediately, but instead will generate a prediction asynchronously and
      * share the prediction using the transmitPrediction methods.
      * 
+     * The snapshot may be a live view that keeps changing after this call
+     * returns: models that evaluate later must copy the values they read
+     * before returning.
+     * 
      * @param context
      * @param snapshot
      *            A representation of the state of the world to be used to
      *            generate a prediction.
+     * 
+     * @return False if the model skipped the request (not ready, disabled or
+     *         asked too recently), so the caller should ask again later.
+     */
+
+    public abstract boolean predict(Context context, Map<String, Object> snapshot);
+
+    /**
+     * Returns the snapshot keys the model reads. The ModelManager only asks
+     * for a prediction when one of them changes. Returns null (the default)
+     * if the model depends on every reading.
      */
 
-    public abstract void predict(Context context, Map<String, Object> snapshot);
+    public Collection<String> features()
+    {
+        return null;
+    }
+
+    /**
+     * Runs an evaluation on the thread pool shared by all models. Requests
+     * made while an evaluation for this model is still queued are dropped:
+     * the queued evaluation reads the latest values when it runs.
+     * 
+     * @param context
+     * @param evaluation
+     */
+
+    protected void evaluate(Context context, final Runnable evaluation)
+    {
+        synchronized (this)
+        {
+            if (this._evaluationPending)
+                return;
+
+            this._evaluationPending = true;
+        }
+
+        final Model me = this;
+
+        Runnable r = new Runnable()
+        {
+            public void run()
+            {
+                synchronized (me)
+                {
+                    me._evaluationPending = false;
+                }
+
+                evaluation.run();
+            }
+        };
+
+        try
+        {
+            Model.executor().execute(r);
+        }
+        catch (RejectedExecutionException e)
+        {
+            synchronized (this)
+            {
+                this._evaluationPending = false;
+            }
+
+            LogManager.getInstance(context).logException(e);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor executor()
+    {
+        if (Model._executor == null)
+        {
+            ThreadFactory factory = new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "Model Evaluation");
+                    t.setPriority(Thread.MIN_PRIORITY);
+
+                    return t;
+                }
+            };
+
+            Model._executor = new ThreadPoolExecutor(Model.EVALUATION_THREADS, Model.EVALUATION_THREADS, 30,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(Model.MAX_QUEUED_EVALUATIONS), factory);
+            Model._executor.allowCoreThreadTimeOut(true);
+        }
+
+        return Model._executor;
+    }
 
     /**
      * Returns the name of the model used internally (not human-readable). In
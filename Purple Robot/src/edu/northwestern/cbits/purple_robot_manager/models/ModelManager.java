@@ -11,27 +11,24 @@ import org.json.JSONArray;
 import org.json.JSONException;
 
 import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.net.Uri;
-import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.PreferenceCategory;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
-import android.support.v4.content.LocalBroadcastManager;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.SettingsKeys;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.util.Slugify;
 
-public class ModelManager extends BroadcastReceiver
+public class ModelManager implements ProbeReadingBus.Subscriber
 {
     private static final String PERSISTED_MODELS = "model_manager_peristed_models";
 
@@ -39,8 +36,9 @@ public class ModelManager extends BroadcastReceiver
 
     private Context _context = null;
     private List<Model> _models = new ArrayList<Model>();
-    private HashMap<String, Object> _milieu = new HashMap<String, Object>();
+    private FeatureStore _features = new FeatureStore();
     private HashMap<String, String> _keyCache = new HashMap<String, String>();
+    private HashMap<Model, Long> _dispatched = new HashMap<Model, Long>();
 
     private HashSet<String> _modelUrls = new HashSet<String>();
 
@@ -51,11 +49,7 @@ public class ModelManager extends BroadcastReceiver
 
         this._context = context.getApplicationContext();
 
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Probe.PROBE_READING);
-
-        LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-        localManager.registerReceiver(this, intentFilter);
+        ProbeReadingBus.getInstance(context).subscribe(null, this);
 
         this.loadPersistedModels();
     }
@@ -117,18 +111,19 @@ public class ModelManager extends BroadcastReceiver
     }
 
     @SuppressLint("DefaultLocale")
-    public void onReceive(Context context, Intent intent)
+    public void onReading(Context context, ProbeReading reading)
     {
-        Bundle extras = intent.getExtras();
-
-        if (extras.containsKey("FROM_MODEL"))
+        if (reading.containsKey("FROM_MODEL") || reading.getProbe() == null)
             return;
 
-        String[] nameComponents = extras.getString("PROBE").split("\\.");
+        String[] nameComponents = reading.getProbe().split("\\.");
 
         String probeName = nameComponents[nameComponents.length - 1];
 
-        for (String key : extras.keySet())
+        long version = this._features.nextVersion();
+        boolean changed = false;
+
+        for (String key : reading.keySet())
         {
             if ("PROBE".equals(key) || "GUID".equals(key) || "TIMESTAMP".equals(key))
             {
@@ -148,21 +143,36 @@ public class ModelManager extends BroadcastReceiver
                     this._keyCache.put(probeKey, slug);
                 }
 
-                this._milieu.put(slug, extras.get(key));
+                if (this._features.put(slug, reading.get(key), version))
+                    changed = true;
             }
         }
 
-        for (Model model : this.allModels(context))
-        {
-            HashMap<String, Object> snapshot = new HashMap<String, Object>();
+        if (changed == false)
+            return;
+
+        // Models share a read-only view of the store and are only asked for a
+        // prediction when one of their inputs changed since the last
+        // evaluation. Requests the model skips are not recorded, so they are
+        // made again on the next change...
 
-            synchronized (this._milieu)
+        Map<String, Object> view = this._features.view();
+
+        synchronized (this._dispatched)
+        {
+            for (Model model : this.allModels(context))
             {
-                snapshot.putAll(this._milieu);
-            }
+                if (model == null)
+                    continue;
+
+                Long dispatched = this._dispatched.get(model);
 
-            if (model != null)
-                model.predict(context, snapshot);
+                if (dispatched == null || this._features.changedSince(model.features(), dispatched.longValue()))
+                {
+                    if (model.predict(context, view))
+                        this._dispatched.put(model, Long.valueOf(version));
+                }
+            }
         }
     }
 
@@ -242,6 +252,12 @@ public class ModelManager extends BroadcastReceiver
             }
 
             this._models.removeAll(toRemove);
+
+            synchronized (this._dispatched)
+            {
+                for (Model model : toRemove)
+                    this._dispatched.remove(model);
+            }
         }
 
         this._modelUrls.remove(jsonUrl);
@@ -292,7 +308,7 @@ public class ModelManager extends BroadcastReceiver
 
     public Map<String, Object> readings(Context context)
     {
-        return this._milieu;
+        return this._features.view();
     }
 
     public Model fetchModelByTitle(Context context, String title)
@@ -46,7 +46,7 @@ public class NoiseModel extends Model
      *      java.util.Map)
      */
 
-    public void predict(final Context context, Map<String, Object> snapshot)
+    public boolean predict(final Context context, Map<String, Object> snapshot)
     {
         final NoiseModel me = this;
 
@@ -59,8 +59,9 @@ public class NoiseModel extends Model
             }
         };
 
-        Thread t = new Thread(r);
-        t.start();
+        this.evaluate(context, r);
+
+        return true;
     }
 
     public String name(Context context)
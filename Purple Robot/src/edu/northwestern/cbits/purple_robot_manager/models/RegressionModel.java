@@ -109,6 +109,17 @@ public class RegressionModel extends TrainedModel
         }
     }
 
+    /**
+     * Declares the regression variables as the model's inputs.
+     * 
+     * @see edu.northwestern.cbits.purple_robot_manager.models.TrainedModel#compileModel(android.content.Context)
+     */
+
+    protected void compileModel(Context context)
+    {
+        this.setInputs(this._variables);
+    }
+
     protected Object evaluateModel(Context context, Map<String, Object> snapshot)
     {
         ArrayList<String> requiredKeys = new ArrayList<String>();
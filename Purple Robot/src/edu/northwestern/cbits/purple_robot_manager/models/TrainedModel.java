@@ -6,6 +6,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -39,6 +43,12 @@ public abstract class TrainedModel extends Model
     protected double _accuracy = 0.0;
     private long _lastCheck = 0;
 
+    private HashMap<String, Integer> _featureIndex = new HashMap<String, Integer>();
+    private String[] _vectorFeatures = new String[0];
+    private String[][] _vectorKeys = new String[0][];
+    private HashSet<String> _inputs = null;
+    private Map<String, Object> _snapshot = null;
+
     /**
      * Returns the URL of the model as the identifying URI.
      * 
@@ -147,6 +157,8 @@ public abstract class TrainedModel extends Model
                         if (json.has("map"))
                             me.setFeatureMap(context, json.getJSONObject("map"));
 
+                        me.compileModel(context);
+
                         FileUtils.writeStringToFile(cachedModel, contents);
 
                         me._inited = true;
@@ -185,6 +197,185 @@ public abstract class TrainedModel extends Model
         }
     }
 
+    /**
+     * Installs the name to index table of a compiled model. Feature vector
+     * index i holds the feature named by the entry with value i.
+     */
+
+    protected void setFeatureIndex(Map<String, Integer> features)
+    {
+        String[] names = new String[features.size()];
+        String[][] keys = new String[features.size()][];
+
+        for (Map.Entry<String, Integer> feature : features.entrySet())
+        {
+            int index = feature.getValue().intValue();
+
+            names[index] = feature.getKey();
+
+            // Original names take precedence over the mapped name...
+
+            ArrayList<String> featureKeys = new ArrayList<String>();
+
+            for (Map.Entry<String, String> mapping : this._featureMap.entrySet())
+            {
+                if (feature.getKey().equals(mapping.getValue()))
+                    featureKeys.add(mapping.getKey());
+            }
+
+            featureKeys.add(feature.getKey());
+
+            keys[index] = featureKeys.toArray(new String[featureKeys.size()]);
+        }
+
+        synchronized (this)
+        {
+            this._featureIndex = new HashMap<String, Integer>(features);
+            this._vectorFeatures = names;
+            this._vectorKeys = keys;
+        }
+
+        this.setInputs(features.keySet());
+    }
+
+    /**
+     * Declares the features read by the model, adding the original names that
+     * the feature map translates into them. Null declares that the model reads
+     * every feature.
+     */
+
+    protected void setInputs(Collection<String> names)
+    {
+        if (names == null)
+        {
+            synchronized (this)
+            {
+                this._inputs = null;
+            }
+
+            return;
+        }
+
+        HashSet<String> inputs = new HashSet<String>(names);
+
+        for (Map.Entry<String, String> mapping : this._featureMap.entrySet())
+        {
+            if (names.contains(mapping.getValue()))
+                inputs.add(mapping.getKey());
+        }
+
+        synchronized (this)
+        {
+            this._inputs = inputs;
+        }
+    }
+
+    /**
+     * Returns the inputs declared by the compiled model, or null until the
+     * model has been compiled.
+     * 
+     * @see edu.northwestern.cbits.purple_robot_manager.models.Model#features()
+     */
+
+    @Override
+    public Collection<String> features()
+    {
+        synchronized (this)
+        {
+            return this._inputs;
+        }
+    }
+
+    /**
+     * Returns the feature vector index of the named feature, or -1 if the
+     * model does not use it. Names may be either the model's own feature names
+     * or the original names translated by the feature map.
+     */
+
+    public int featureIndex(String name)
+    {
+        synchronized (this)
+        {
+            Integer index = this._featureIndex.get(this.featureName(name));
+
+            if (index == null && this._featureMap.containsKey(name))
+                index = this._featureIndex.get(this.featureName(this._featureMap.get(name)));
+
+            if (index == null)
+                return -1;
+
+            return index.intValue();
+        }
+    }
+
+    public int featureCount()
+    {
+        synchronized (this)
+        {
+            return this._vectorFeatures.length;
+        }
+    }
+
+    /**
+     * Copies the numeric values of the snapshot into a feature vector, reusing
+     * vector when it is large enough. Missing and non-numeric values are NaN.
+     */
+
+    public double[] featureVector(Map<String, Object> snapshot, double[] vector)
+    {
+        String[][] keys = null;
+
+        synchronized (this)
+        {
+            keys = this._vectorKeys;
+        }
+
+        if (vector == null || vector.length < keys.length)
+            vector = new double[keys.length];
+
+        for (int i = 0; i < keys.length; i++)
+        {
+            Object value = null;
+
+            for (int j = 0; j < keys[i].length && value == null; j++)
+                value = snapshot.get(keys[i][j]);
+
+            vector[i] = TrainedModel.doubleValue(value);
+        }
+
+        return vector;
+    }
+
+    protected static double doubleValue(Object value)
+    {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+
+        return Double.NaN;
+    }
+
+    /**
+     * Normalizes a feature name before it is looked up in the feature index.
+     */
+
+    protected String featureName(String name)
+    {
+        return name;
+    }
+
+    /**
+     * Called once the model and its feature map have been loaded. Subclasses
+     * flatten their parsed representation here and install the resulting
+     * feature index.
+     *
+     * @param context
+     */
+
+    protected void compileModel(Context context)
+    {
+
+    }
+
     /**
      * Provides the name of the model, as specified by the "class" key in the
      * JSON definition.
@@ -238,45 +429,79 @@ public abstract class TrainedModel extends Model
     }
 
     /**
-     * Calls TrainedModel.evaluateModel method within a Thread on implementing
-     * subclasses to generate a prediction for the provided snapshot. When a
-     * prediction becomes available, transmits the prediction through the rest
-     * of the data processing pipeline.
+     * Returns a copy of the snapshot with the feature map applied, for models
+     * that look features up by their mapped names.
+     */
+
+    protected Map<String, Object> mappedSnapshot(Map<String, Object> snapshot)
+    {
+        HashMap<String, Object> mapped = new HashMap<String, Object>(snapshot);
+
+        for (Map.Entry<String, String> mapping : this._featureMap.entrySet())
+        {
+            Object value = snapshot.get(mapping.getKey());
+
+            if (value != null)
+                mapped.put(mapping.getValue(), value);
+        }
+
+        return mapped;
+    }
+
+    /**
+     * Calls TrainedModel.evaluateModel method on the shared evaluation pool on
+     * implementing subclasses to generate a prediction for the provided
+     * snapshot. The declared inputs are copied out of the snapshot before
+     * returning, so the evaluation sees one consistent set of values; compiled
+     * models read that copy directly and others evaluate it with the feature
+     * map applied. When a prediction becomes available, transmits the
+     * prediction through the rest of the data processing pipeline.
      * 
      * @see edu.northwestern.cbits.purple_robot_manager.models.Model#predict(android.content.Context,
      *      java.util.Map)
      */
 
     @Override
-    public void predict(final Context context, final Map<String, Object> snapshot)
+    public boolean predict(final Context context, Map<String, Object> snapshot)
     {
-
         if (this._inited == false || this.enabled(context) == false)
-            return;
+            return false;
 
         long now = System.currentTimeMillis();
 
         if (now - this._lastCheck < 1000)
         {
-            return;
+            return false;
         }
 
         this._lastCheck = now;
 
-        for (String key : this._featureMap.keySet())
+        Collection<String> inputs = this.features();
+        HashMap<String, Object> copy = null;
+
+        if (inputs == null)
+            copy = new HashMap<String, Object>(snapshot);
+        else
         {
-            String newKey = this._featureMap.get(key);
+            copy = new HashMap<String, Object>();
 
-            if (snapshot.get(key) == null)
+            for (String key : inputs)
             {
-                // Do nothing.
-            }
-            else
-            {
-                snapshot.put(newKey, snapshot.get(key));
+                Object value = snapshot.get(key);
+
+                if (value != null)
+                    copy.put(key, value);
             }
         }
 
+        // A request dropped while an evaluation is queued still replaces the
+        // values that evaluation will read...
+
+        synchronized (this)
+        {
+            this._snapshot = copy;
+        }
+
         final TrainedModel me = this;
 
         Runnable r = new Runnable()
@@ -285,7 +510,21 @@ public abstract class TrainedModel extends Model
             @SuppressWarnings("unchecked")
             public void run()
             {
-                Object value = me.evaluateModel(context, snapshot);
+                Map<String, Object> input = null;
+
+                synchronized (me)
+                {
+                    input = me._snapshot;
+                    me._snapshot = null;
+                }
+
+                if (input == null)
+                    return;
+
+                if (me.featureCount() == 0 && me._featureMap.size() > 0)
+                    input = me.mappedSnapshot(input);
+
+                Object value = me.evaluateModel(context, input);
 
                 if (value == null)
                 {
@@ -310,8 +549,9 @@ public abstract class TrainedModel extends Model
             }
         };
 
-        Thread t = new Thread(r);
-        t.start();
+        this.evaluate(context, r);
+
+        return true;
     }
 
     /**
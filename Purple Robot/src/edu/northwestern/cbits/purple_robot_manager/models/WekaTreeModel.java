@@ -2,7 +2,10 @@ package edu.northwestern.cbits.purple_robot_manager.models;
 
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import com.alexmerz.graphviz.ParseException;
@@ -14,6 +17,8 @@ import com.alexmerz.graphviz.objects.Node;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.FlatTree;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode.TreeNodeException;
 
 import android.content.Context;
 import android.net.Uri;
@@ -70,6 +75,9 @@ public class WekaTreeModel extends TrainedModel
     public static final String TYPE = "weka-decision-tree";
 
     private Graph _tree = null;
+    private FlatTree _flatTree = null;
+    private HashMap<String, Integer> _keyIndex = null;
+    private double[] _vector = null;
 
     public WekaTreeModel(Context context, Uri uri)
     {
@@ -109,6 +117,131 @@ public class WekaTreeModel extends TrainedModel
         }
     }
 
+    /**
+     * Flattens the graph when every edge is a numeric comparison. Trees with
+     * nominal (=) tests keep walking the graph.
+     * 
+     * @see edu.northwestern.cbits.purple_robot_manager.models.TrainedModel#compileModel(android.content.Context)
+     */
+
+    protected void compileModel(Context context)
+    {
+        if (this._tree == null)
+            return;
+
+        Id rootId = new Id();
+        rootId.setId("N0");
+
+        Node root = this._tree.findNode(rootId);
+
+        if (root == null)
+            return;
+
+        try
+        {
+            HashMap<String, Integer> features = new HashMap<String, Integer>();
+
+            FlatTree tree = new FlatTree();
+            tree.setRoot(this.compileNode(root, this._tree.getEdges(), tree, features));
+            tree.trim();
+
+            this.setFeatureIndex(features);
+
+            // Labels match snapshot keys ignoring case and underscores, so any
+            // key may be an input...
+
+            this.setInputs(null);
+
+            synchronized (this)
+            {
+                this._flatTree = tree;
+                this._keyIndex = new HashMap<String, Integer>();
+                this._vector = new double[features.size()];
+            }
+        }
+        catch (TreeNodeException e)
+        {
+            // Nominal test - evaluate the graph instead...
+        }
+        catch (NumberFormatException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+    }
+
+    /**
+     * Appends the node and its descendants to the flat tree. When more than
+     * one edge matches, the graph walk follows the last one, so edges are
+     * tested starting from the last.
+     */
+
+    private int compileNode(Node node, List<Edge> edges, FlatTree tree, Map<String, Integer> features) throws TreeNodeException
+    {
+        List<Edge> testEdges = new ArrayList<Edge>();
+
+        for (Edge edge : edges)
+        {
+            if (edge.getSource().getNode() == node)
+                testEdges.add(edge);
+        }
+
+        if (testEdges.size() == 0)
+            return tree.addLeaf(WekaTreeModel.leafPrediction(node), -1);
+
+        String[] tokens = node.getAttribute("label").split(" ");
+
+        int feature = FlatTree.indexOf(features, this.featureName(tokens[tokens.length - 1]));
+
+        int next = FlatTree.NO_MATCH;
+
+        for (Edge edge : testEdges)
+        {
+            String edgeLabel = edge.getAttribute("label").trim();
+
+            int index = edgeLabel.indexOf(" ");
+
+            if (index == -1)
+                throw new TreeNodeException("Unable to compile edge: " + edgeLabel);
+
+            byte operation = FlatTree.operation(edgeLabel.substring(0, index));
+
+            if (operation == -1)
+                throw new TreeNodeException("Unable to compile edge: " + edgeLabel);
+
+            int test = tree.addTest(feature, operation, Double.parseDouble(edgeLabel.substring(index + 1)));
+
+            tree.setTargets(test, this.compileNode(edge.getTarget().getNode(), edges, tree, features), next);
+
+            next = test;
+        }
+
+        return next;
+    }
+
+    /**
+     * Snapshot keys match node labels ignoring case and underscores.
+     * 
+     * @see edu.northwestern.cbits.purple_robot_manager.models.TrainedModel#featureName(java.lang.String)
+     */
+
+    protected String featureName(String name)
+    {
+        return name.replaceAll("_", "").toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the flattened tree for classifying feature vectors built with
+     * featureIndex, or null if the model has not been compiled.
+     */
+
+    public FlatTree compiledTree()
+    {
+        synchronized (this)
+        {
+            return this._flatTree;
+        }
+    }
+
     /**
      * Finds the root node of the tree and begins evaluating the model.
      * 
@@ -118,6 +251,52 @@ public class WekaTreeModel extends TrainedModel
 
     protected Object evaluateModel(Context context, Map<String, Object> snapshot)
     {
+        FlatTree flatTree = null;
+        HashMap<String, Integer> keyIndex = null;
+        double[] vector = null;
+
+        synchronized (this)
+        {
+            flatTree = this._flatTree;
+            keyIndex = this._keyIndex;
+            vector = this._vector;
+        }
+
+        if (flatTree != null)
+        {
+            // The key cache and scratch vector belong to the compiled tree and
+            // are used by one evaluation at a time...
+
+            synchronized (vector)
+            {
+                Arrays.fill(vector, Double.NaN);
+
+                for (Map.Entry<String, Object> entry : snapshot.entrySet())
+                {
+                    Integer index = keyIndex.get(entry.getKey());
+
+                    if (index == null)
+                    {
+                        index = Integer.valueOf(this.featureIndex(entry.getKey()));
+
+                        keyIndex.put(entry.getKey(), index);
+                    }
+
+                    int i = index.intValue();
+
+                    if (i != -1 && Double.isNaN(vector[i]))
+                        vector[i] = TrainedModel.doubleValue(entry.getValue());
+                }
+
+                int leaf = flatTree.evaluate(vector);
+
+                if (leaf == FlatTree.NO_MATCH)
+                    return null;
+
+                return flatTree.prediction(leaf);
+            }
+        }
+
         if (this._tree == null)
             return null;
 
@@ -167,20 +346,7 @@ public class WekaTreeModel extends TrainedModel
             }
 
             if (testEdges.size() == 0)
-            {
-                String prediction = node.getAttribute("label");
-
-                int colonIndex = prediction.indexOf(":");
-
-                prediction = prediction.substring(colonIndex + 1).trim();
-
-                int index = prediction.indexOf(" ");
-
-                if (index != -1)
-                    prediction = prediction.substring(0, index).trim();
-
-                return prediction;
-            }
+                return WekaTreeModel.leafPrediction(node);
 
             for (String key : snapshot.keySet())
             {
@@ -262,6 +428,22 @@ public class WekaTreeModel extends TrainedModel
         return null;
     }
 
+    private static String leafPrediction(Node node)
+    {
+        String prediction = node.getAttribute("label");
+
+        int colonIndex = prediction.indexOf(":");
+
+        prediction = prediction.substring(colonIndex + 1).trim();
+
+        int index = prediction.indexOf(" ");
+
+        if (index != -1)
+            prediction = prediction.substring(0, index).trim();
+
+        return prediction;
+    }
+
     public String modelType()
     {
         return WekaTreeModel.TYPE;
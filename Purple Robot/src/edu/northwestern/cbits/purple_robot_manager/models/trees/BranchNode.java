@@ -3,6 +3,7 @@ package edu.northwestern.cbits.purple_robot_manager.models.trees;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 public class BranchNode extends TreeNode
@@ -422,6 +423,11 @@ public class BranchNode extends TreeNode
         return sb.toString();
     }
 
+    List<Condition> conditions()
+    {
+        return this._conditions;
+    }
+
     public void addDefaultCondition(TreeNode node)
     {
         this._conditions.add(new Condition(Operation.DEFAULT, "foo", "bar", Condition.LOWEST_PRIORITY, node));
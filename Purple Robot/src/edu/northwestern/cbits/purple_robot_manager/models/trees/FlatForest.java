@@ -0,0 +1,92 @@
+package edu.northwestern.cbits.purple_robot_manager.models.trees;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Set of flattened trees sharing one feature table and one label table.
+ * Voting fills a caller-supplied array, so repeated classification of reused
+ * feature vectors does not allocate.
+ */
+
+public class FlatForest
+{
+    private final FlatTree[] _trees;
+    private final HashMap<String, Integer> _features = new HashMap<String, Integer>();
+    private final String[] _labels;
+
+    public FlatForest(List<TreeNode> trees) throws TreeNode.TreeNodeException
+    {
+        HashMap<String, Integer> labels = new HashMap<String, Integer>();
+
+        this._trees = new FlatTree[trees.size()];
+
+        for (int i = 0; i < this._trees.length; i++)
+            this._trees[i] = FlatTree.compile(trees.get(i), this._features, labels);
+
+        this._labels = new String[labels.size()];
+
+        for (Map.Entry<String, Integer> label : labels.entrySet())
+            this._labels[label.getValue().intValue()] = label.getKey();
+    }
+
+    /**
+     * Returns the table mapping feature names to feature vector indices.
+     */
+
+    public Map<String, Integer> features()
+    {
+        return this._features;
+    }
+
+    public int size()
+    {
+        return this._trees.length;
+    }
+
+    public int labelCount()
+    {
+        return this._labels.length;
+    }
+
+    public String label(int index)
+    {
+        return this._labels[index];
+    }
+
+    /**
+     * Counts the votes of every tree into votes (one slot per label) and
+     * returns the label with the most votes, or -1 if no tree produced a
+     * prediction. Ties go to the label seen first while compiling.
+     */
+
+    public int vote(double[] features, int[] votes)
+    {
+        for (int i = 0; i < this._labels.length; i++)
+            votes[i] = 0;
+
+        for (FlatTree tree : this._trees)
+        {
+            int leaf = tree.evaluate(features);
+
+            if (leaf != FlatTree.NO_MATCH)
+            {
+                int label = tree.label(leaf);
+
+                if (label >= 0)
+                    votes[label] += 1;
+            }
+        }
+
+        int winner = -1;
+
+        for (int i = 0; i < this._labels.length; i++)
+        {
+            if (votes[i] > 0 && (winner == -1 || votes[i] > votes[winner]))
+                winner = i;
+        }
+
+        return winner;
+    }
+}
@@ -0,0 +1,311 @@
+package edu.northwestern.cbits.purple_robot_manager.models.trees;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import edu.northwestern.cbits.purple_robot_manager.models.trees.BranchNode.Condition;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.BranchNode.Operation;
+
+/**
+ * Decision tree flattened into primitive arrays.
+ *
+ * Every test node holds a feature index, a threshold, an operation and the
+ * offsets of the nodes reached when the test passes or fails. Targets are
+ * encoded as a single int: non-negative values are test nodes, NO_MATCH ends
+ * evaluation without a prediction and values below that are leaves. Feature
+ * vectors are plain double arrays with missing values set to NaN, which fails
+ * every comparison just as a missing value fails a linked Condition.
+ *
+ * Evaluation does not allocate and does not synchronize, so a compiled tree
+ * may be shared by any number of threads.
+ */
+
+public class FlatTree
+{
+    public static final int NO_MATCH = -1;
+
+    public static final byte LESS_THAN = 0;
+    public static final byte LESS_THAN_OR_EQUAL_TO = 1;
+    public static final byte MORE_THAN = 2;
+    public static final byte MORE_THAN_OR_EQUAL_TO = 3;
+
+    private int _root = FlatTree.NO_MATCH;
+
+    private int _nodeCount = 0;
+    private int[] _features = new int[16];
+    private double[] _thresholds = new double[16];
+    private byte[] _operations = new byte[16];
+    private int[] _pass = new int[16];
+    private int[] _fail = new int[16];
+
+    private int _leafCount = 0;
+    private int[] _labels = new int[16];
+    private Object[] _predictions = new Object[16];
+
+    /**
+     * Compiles a linked tree. Feature names and prediction labels not already
+     * present in the tables are appended to them, so trees compiled against
+     * the same tables share feature vectors and label indices.
+     *
+     * @throws TreeNodeException
+     *             Thrown if the tree contains a test that is not a numeric
+     *             comparison.
+     */
+
+    public static FlatTree compile(TreeNode root, Map<String, Integer> features, Map<String, Integer> labels) throws TreeNode.TreeNodeException
+    {
+        FlatTree tree = new FlatTree();
+
+        tree.setRoot(tree.compileNode(root, features, labels));
+        tree.trim();
+
+        return tree;
+    }
+
+    /**
+     * Returns the index for the name in the table, appending it if missing.
+     */
+
+    public static int indexOf(Map<String, Integer> table, String name)
+    {
+        Integer index = table.get(name);
+
+        if (index == null)
+        {
+            index = Integer.valueOf(table.size());
+
+            table.put(name, index);
+        }
+
+        return index.intValue();
+    }
+
+    public static byte operation(String operation)
+    {
+        if ("<".equals(operation))
+            return FlatTree.LESS_THAN;
+        else if ("<=".equals(operation))
+            return FlatTree.LESS_THAN_OR_EQUAL_TO;
+        else if (">".equals(operation))
+            return FlatTree.MORE_THAN;
+        else if (">=".equals(operation))
+            return FlatTree.MORE_THAN_OR_EQUAL_TO;
+
+        return -1;
+    }
+
+    /**
+     * Appends a test node and returns its target. Children are assigned with
+     * setTargets once they have been added.
+     */
+
+    public int addTest(int feature, byte operation, double threshold)
+    {
+        if (this._nodeCount == this._features.length)
+        {
+            int size = this._nodeCount * 2;
+
+            this._features = Arrays.copyOf(this._features, size);
+            this._thresholds = Arrays.copyOf(this._thresholds, size);
+            this._operations = Arrays.copyOf(this._operations, size);
+            this._pass = Arrays.copyOf(this._pass, size);
+            this._fail = Arrays.copyOf(this._fail, size);
+        }
+
+        int node = this._nodeCount;
+
+        this._features[node] = feature;
+        this._thresholds[node] = threshold;
+        this._operations[node] = operation;
+        this._pass[node] = FlatTree.NO_MATCH;
+        this._fail[node] = FlatTree.NO_MATCH;
+
+        this._nodeCount += 1;
+
+        return node;
+    }
+
+    public void setTargets(int node, int pass, int fail)
+    {
+        this._pass[node] = pass;
+        this._fail[node] = fail;
+    }
+
+    /**
+     * Appends a leaf and returns its target. The label is an index into a
+     * label table shared by the trees of a forest, or -1.
+     */
+
+    public int addLeaf(Object prediction, int label)
+    {
+        if (this._leafCount == this._labels.length)
+        {
+            int size = this._leafCount * 2;
+
+            this._labels = Arrays.copyOf(this._labels, size);
+            this._predictions = Arrays.copyOf(this._predictions, size);
+        }
+
+        int leaf = this._leafCount;
+
+        this._labels[leaf] = label;
+        this._predictions[leaf] = prediction;
+
+        this._leafCount += 1;
+
+        return FlatTree.NO_MATCH - 1 - leaf;
+    }
+
+    public void setRoot(int target)
+    {
+        this._root = target;
+    }
+
+    /**
+     * Releases the spare capacity left over from building.
+     */
+
+    public void trim()
+    {
+        this._features = Arrays.copyOf(this._features, this._nodeCount);
+        this._thresholds = Arrays.copyOf(this._thresholds, this._nodeCount);
+        this._operations = Arrays.copyOf(this._operations, this._nodeCount);
+        this._pass = Arrays.copyOf(this._pass, this._nodeCount);
+        this._fail = Arrays.copyOf(this._fail, this._nodeCount);
+
+        this._labels = Arrays.copyOf(this._labels, this._leafCount);
+        this._predictions = Arrays.copyOf(this._predictions, this._leafCount);
+    }
+
+    public int nodeCount()
+    {
+        return this._nodeCount;
+    }
+
+    public int leafCount()
+    {
+        return this._leafCount;
+    }
+
+    /**
+     * Walks the tree for the feature vector and returns the index of the leaf
+     * reached, or NO_MATCH.
+     */
+
+    public int evaluate(double[] features)
+    {
+        int target = this._root;
+
+        while (target >= 0)
+        {
+            double value = features[this._features[target]];
+            double threshold = this._thresholds[target];
+
+            boolean passed = false;
+
+            switch (this._operations[target])
+            {
+                case FlatTree.LESS_THAN:
+                    passed = value < threshold;
+                    break;
+                case FlatTree.LESS_THAN_OR_EQUAL_TO:
+                    passed = value <= threshold;
+                    break;
+                case FlatTree.MORE_THAN:
+                    passed = value > threshold;
+                    break;
+                case FlatTree.MORE_THAN_OR_EQUAL_TO:
+                    passed = value >= threshold;
+                    break;
+            }
+
+            if (passed)
+                target = this._pass[target];
+            else
+                target = this._fail[target];
+        }
+
+        if (target == FlatTree.NO_MATCH)
+            return FlatTree.NO_MATCH;
+
+        return FlatTree.NO_MATCH - 1 - target;
+    }
+
+    public int label(int leaf)
+    {
+        return this._labels[leaf];
+    }
+
+    public Object prediction(int leaf)
+    {
+        return this._predictions[leaf];
+    }
+
+    private int compileNode(TreeNode node, Map<String, Integer> features, Map<String, Integer> labels) throws TreeNode.TreeNodeException
+    {
+        if (node instanceof LeafNode)
+        {
+            Map<String, Object> prediction = node.fetchPrediction(null);
+
+            Object label = prediction.get(LeafNode.PREDICTION);
+
+            if (label == null)
+                return this.addLeaf(prediction, -1);
+
+            return this.addLeaf(prediction, FlatTree.indexOf(labels, label.toString()));
+        }
+        else if (node instanceof BranchNode)
+            return this.compileConditions(((BranchNode) node).conditions(), 0, features, labels);
+
+        throw new TreeNode.TreeNodeException("Unable to compile node: " + node);
+    }
+
+    /**
+     * Conditions are tried in priority order, so each one becomes a test whose
+     * failure falls through to the test for the next condition.
+     */
+
+    private int compileConditions(List<Condition> conditions, int index, Map<String, Integer> features, Map<String, Integer> labels) throws TreeNode.TreeNodeException
+    {
+        if (index >= conditions.size())
+            return FlatTree.NO_MATCH;
+
+        Condition condition = conditions.get(index);
+
+        if (condition._operation == Operation.DEFAULT)
+            return this.compileNode(condition.getNode(), features, labels);
+
+        if (condition._value instanceof Number == false)
+            throw new TreeNode.TreeNodeException("Unable to compile non-numeric condition: " + condition);
+
+        byte operation = -1;
+
+        switch (condition._operation)
+        {
+            case LESS_THAN:
+                operation = FlatTree.LESS_THAN;
+                break;
+            case LESS_THAN_OR_EQUAL_TO:
+                operation = FlatTree.LESS_THAN_OR_EQUAL_TO;
+                break;
+            case MORE_THAN:
+                operation = FlatTree.MORE_THAN;
+                break;
+            case MORE_THAN_OR_EQUAL_TO:
+                operation = FlatTree.MORE_THAN_OR_EQUAL_TO;
+                break;
+            default:
+                throw new TreeNode.TreeNodeException("Unable to compile condition: " + condition);
+        }
+
+        int node = this.addTest(FlatTree.indexOf(features, condition._feature), operation, ((Number) condition._value).doubleValue());
+
+        int pass = this.compileNode(condition.getNode(), features, labels);
+        int fail = this.compileConditions(conditions, index + 1, features, labels);
+
+        this.setTargets(node, pass, fail);
+
+        return node;
+    }
+}
@@ -33,6 +33,11 @@ public class AppDisplayPlugin extends OutputPlugin
     private ArrayList<ContentValues> _valuesQueue = new ArrayList<ContentValues>();
     private HashMap<String, Long> _lastUpdates = new HashMap<String, Long>();
 
+    protected IntentDispatcher.OverloadPolicy overloadPolicy()
+    {
+        return IntentDispatcher.OverloadPolicy.COALESCE;
+    }
+
     public String[] respondsTo()
     {
         String[] activeActions = { Probe.PROBE_READING, OutputPlugin.LOG_EVENT, AppDisplayPlugin.DISPLAY_MESSAGE };
@@ -0,0 +1,556 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Reads files written by BinaryRecordWriter. Records are returned as trees of
+ * Maps, Lists, boxed scalars and primitive arrays (float[], double[], int[] and
+ * long[]), which writeJson() turns into the same JSON objects that
+ * StreamingJacksonUploadPlugin.writeBundle() produces.
+ *
+ * A partial record at the end of the file (left by a crash mid-write) ends the
+ * file early and is reported by isTruncated(). When the size of the input is
+ * known, a record claiming more bytes than remain is treated the same way
+ * without allocating a buffer for it. Records larger than MAX_RECORD_LENGTH and
+ * anything else that does not parse throw a RecordException.
+ */
+
+public class BinaryRecordReader
+{
+    public static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private final InputStream _in;
+    private long _remaining = -1;
+
+    private final ArrayList<String> _strings = new ArrayList<String>();
+    private final ArrayList<Map<String, Object>> _maps = new ArrayList<Map<String, Object>>();
+
+    private final Inflater _inflater = new Inflater();
+
+    private byte[] _record = new byte[4096];
+    private byte[] _body = new byte[4096];
+    private int _bodyLength = 0;
+    private int _position = 0;
+
+    private boolean _truncated = false;
+
+    public static class RecordException extends IOException
+    {
+        private static final long serialVersionUID = -3129826373850474352L;
+
+        public RecordException(String message)
+        {
+            super(message);
+        }
+    }
+
+    public BinaryRecordReader(InputStream in) throws IOException
+    {
+        this(in, -1);
+    }
+
+    /**
+     * Reads records from an input of the given size in bytes, or of unknown
+     * size if negative.
+     */
+
+    public BinaryRecordReader(InputStream in, long size) throws IOException
+    {
+        this._in = in;
+
+        for (byte b : BinaryRecordWriter.MAGIC)
+        {
+            if (in.read() != b)
+                throw new RecordException("Not a binary record file.");
+        }
+
+        int version = in.read();
+
+        if (version != BinaryRecordWriter.VERSION)
+            throw new RecordException("Unsupported binary record version: " + version);
+
+        if (size >= 0)
+            this._remaining = size - BinaryRecordWriter.MAGIC.length - 1;
+    }
+
+    /**
+     * Returns the next record, or null at the end of the file.
+     */
+
+    public Object next() throws IOException
+    {
+        long length = 0;
+        int shift = 0;
+
+        while (true)
+        {
+            int b = this._in.read();
+
+            if (b == -1)
+            {
+                // A clean end falls between records...
+
+                if (shift > 0)
+                    this._truncated = true;
+
+                return null;
+            }
+
+            if (this._remaining > 0)
+                this._remaining -= 1;
+
+            length |= ((long) (b & 0x7f)) << shift;
+            shift += 7;
+
+            if ((b & 0x80) == 0)
+                break;
+
+            if (shift > 35)
+                throw new RecordException("Invalid record length.");
+        }
+
+        if (length < 1 || length > BinaryRecordReader.MAX_RECORD_LENGTH)
+            throw new RecordException("Invalid record length: " + length);
+
+        if (this._remaining >= 0)
+        {
+            if (length > this._remaining)
+            {
+                this._truncated = true;
+
+                return null;
+            }
+
+            this._remaining -= length;
+        }
+
+        if (this._record.length < length)
+            this._record = new byte[(int) length];
+
+        int read = 0;
+
+        while (read < length)
+        {
+            int count = this._in.read(this._record, read, (int) length - read);
+
+            if (count == -1)
+            {
+                this._truncated = true;
+
+                return null;
+            }
+
+            read += count;
+        }
+
+        int flags = this._record[0] & 0xff;
+
+        if ((flags & BinaryRecordWriter.FLAG_DEFLATED) != 0)
+        {
+            this._inflater.reset();
+            this._inflater.setInput(this._record, 1, read - 1);
+
+            this._bodyLength = 0;
+
+            try
+            {
+                while (this._inflater.finished() == false)
+                {
+                    if (this._bodyLength == this._body.length)
+                    {
+                        if (this._body.length >= BinaryRecordReader.MAX_RECORD_LENGTH)
+                            throw new RecordException("Compressed record too large.");
+
+                        byte[] body = new byte[this._body.length * 2];
+                        System.arraycopy(this._body, 0, body, 0, this._bodyLength);
+                        this._body = body;
+                    }
+
+                    int count = this._inflater.inflate(this._body, this._bodyLength, this._body.length - this._bodyLength);
+
+                    if (count == 0 && (this._inflater.needsInput() || this._inflater.needsDictionary()))
+                        throw new RecordException("Truncated compressed record.");
+
+                    this._bodyLength += count;
+                }
+            }
+            catch (DataFormatException e)
+            {
+                throw new RecordException("Invalid compressed record: " + e.getMessage());
+            }
+        }
+        else
+        {
+            if (this._body.length < read - 1)
+                this._body = new byte[read - 1];
+
+            System.arraycopy(this._record, 1, this._body, 0, read - 1);
+            this._bodyLength = read - 1;
+        }
+
+        this._position = 0;
+
+        Object value = this.readValue();
+
+        if (this._position != this._bodyLength)
+            throw new RecordException("Trailing bytes in record.");
+
+        return value;
+    }
+
+    public boolean isTruncated()
+    {
+        return this._truncated;
+    }
+
+    public void close() throws IOException
+    {
+        this._inflater.end();
+        this._in.close();
+    }
+
+    /**
+     * Converts a binary record file into a JSON array of readings, as written
+     * by StreamingJacksonUploadPlugin. Returns the number of records.
+     */
+
+    public static int toJson(File records, File json) throws IOException
+    {
+        BinaryRecordReader reader = new BinaryRecordReader(new BufferedInputStream(new FileInputStream(records)), records.length());
+
+        JsonGenerator generator = new JsonFactory().createGenerator(json, JsonEncoding.UTF8);
+
+        int count = 0;
+
+        try
+        {
+            generator.writeStartArray();
+
+            Object record = null;
+
+            while ((record = reader.next()) != null)
+            {
+                BinaryRecordReader.writeJson(generator, record);
+
+                count += 1;
+            }
+
+            generator.writeEndArray();
+        }
+        finally
+        {
+            generator.close();
+            reader.close();
+        }
+
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void writeJson(JsonGenerator generator, Object value) throws IOException
+    {
+        if (value == null)
+            generator.writeNull();
+        else if (value instanceof String)
+            generator.writeString((String) value);
+        else if (value instanceof Boolean)
+            generator.writeBoolean(((Boolean) value).booleanValue());
+        else if (value instanceof Long)
+            generator.writeNumber(((Long) value).longValue());
+        else if (value instanceof Float)
+            generator.writeNumber(((Float) value).floatValue());
+        else if (value instanceof Double)
+            generator.writeNumber(((Double) value).doubleValue());
+        else if (value instanceof Map)
+        {
+            Map<String, Object> map = (Map<String, Object>) value;
+
+            generator.writeStartObject();
+
+            for (Map.Entry<String, Object> entry : map.entrySet())
+            {
+                generator.writeFieldName(entry.getKey());
+                BinaryRecordReader.writeJson(generator, entry.getValue());
+            }
+
+            generator.writeEndObject();
+        }
+        else if (value instanceof List)
+        {
+            generator.writeStartArray();
+
+            for (Object o : (List<Object>) value)
+                BinaryRecordReader.writeJson(generator, o);
+
+            generator.writeEndArray();
+        }
+        else if (value instanceof float[])
+        {
+            generator.writeStartArray();
+
+            for (float f : (float[]) value)
+                generator.writeNumber(f);
+
+            generator.writeEndArray();
+        }
+        else if (value instanceof double[])
+        {
+            generator.writeStartArray();
+
+            for (double d : (double[]) value)
+                generator.writeNumber(d);
+
+            generator.writeEndArray();
+        }
+        else if (value instanceof int[])
+        {
+            generator.writeStartArray();
+
+            for (int i : (int[]) value)
+                generator.writeNumber(i);
+
+            generator.writeEndArray();
+        }
+        else if (value instanceof long[])
+        {
+            generator.writeStartArray();
+
+            for (long l : (long[]) value)
+                generator.writeNumber(l);
+
+            generator.writeEndArray();
+        }
+        else
+            throw new RecordException("Unexpected record value: " + value.getClass().getCanonicalName());
+    }
+
+    private Object readValue() throws IOException
+    {
+        int tag = this.readByte();
+
+        switch (tag)
+        {
+            case BinaryRecordWriter.TAG_NULL:
+                return null;
+            case BinaryRecordWriter.TAG_FALSE:
+                return Boolean.FALSE;
+            case BinaryRecordWriter.TAG_TRUE:
+                return Boolean.TRUE;
+            case BinaryRecordWriter.TAG_INTEGER:
+                return Long.valueOf(this.readSignedVarint());
+            case BinaryRecordWriter.TAG_FLOAT:
+                return Float.valueOf(Float.intBitsToFloat((int) this.readFixed(4)));
+            case BinaryRecordWriter.TAG_DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(this.readFixed(8)));
+            case BinaryRecordWriter.TAG_STRING:
+            case BinaryRecordWriter.TAG_STRING_DEF:
+            case BinaryRecordWriter.TAG_STRING_REF:
+                return this.readString(tag);
+            case BinaryRecordWriter.TAG_MAP:
+            case BinaryRecordWriter.TAG_MAP_DEF:
+            {
+                int count = this.readCount(2);
+
+                LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+
+                for (int i = 0; i < count; i++)
+                {
+                    String key = this.readString(this.readByte());
+
+                    map.put(key, this.readValue());
+                }
+
+                if (tag == BinaryRecordWriter.TAG_MAP_DEF)
+                    this._maps.add(map);
+
+                return map;
+            }
+            case BinaryRecordWriter.TAG_MAP_REF:
+            {
+                long index = this.readVarint();
+
+                if (index >= this._maps.size())
+                    throw new RecordException("Unknown map reference: " + index);
+
+                return this._maps.get((int) index);
+            }
+            case BinaryRecordWriter.TAG_LIST:
+            {
+                int count = this.readCount(1);
+
+                ArrayList<Object> list = new ArrayList<Object>(count);
+
+                for (int i = 0; i < count; i++)
+                    list.add(this.readValue());
+
+                return list;
+            }
+            case BinaryRecordWriter.TAG_FLOAT_ARRAY:
+            {
+                float[] floats = new float[this.readCount(4)];
+
+                for (int i = 0; i < floats.length; i++)
+                    floats[i] = Float.intBitsToFloat((int) this.readFixed(4));
+
+                return floats;
+            }
+            case BinaryRecordWriter.TAG_DOUBLE_ARRAY:
+            {
+                double[] doubles = new double[this.readCount(8)];
+
+                for (int i = 0; i < doubles.length; i++)
+                    doubles[i] = Double.longBitsToDouble(this.readFixed(8));
+
+                return doubles;
+            }
+            case BinaryRecordWriter.TAG_SCALED_DOUBLE_ARRAY:
+            {
+                double[] doubles = new double[this.readCount(1)];
+
+                int decimals = this.readByte();
+
+                if (decimals > BinaryRecordWriter.MAX_DECIMALS)
+                    throw new RecordException("Invalid decimal count: " + decimals);
+
+                double scale = BinaryRecordWriter.SCALES[decimals];
+
+                long scaled = 0;
+
+                for (int i = 0; i < doubles.length; i++)
+                {
+                    scaled += this.readSignedVarint();
+
+                    doubles[i] = scaled / scale;
+                }
+
+                return doubles;
+            }
+            case BinaryRecordWriter.TAG_INT_ARRAY:
+            {
+                int[] ints = new int[this.readCount(1)];
+
+                for (int i = 0; i < ints.length; i++)
+                    ints[i] = (int) this.readSignedVarint();
+
+                return ints;
+            }
+            case BinaryRecordWriter.TAG_LONG_ARRAY:
+            {
+                long[] longs = new long[this.readCount(1)];
+
+                for (int i = 0; i < longs.length; i++)
+                    longs[i] = this.readSignedVarint();
+
+                return longs;
+            }
+        }
+
+        throw new RecordException("Unknown record tag: " + tag);
+    }
+
+    private String readString(int tag) throws IOException
+    {
+        if (tag == BinaryRecordWriter.TAG_STRING_REF)
+        {
+            long index = this.readVarint();
+
+            if (index >= this._strings.size())
+                throw new RecordException("Unknown string reference: " + index);
+
+            return this._strings.get((int) index);
+        }
+        else if (tag != BinaryRecordWriter.TAG_STRING && tag != BinaryRecordWriter.TAG_STRING_DEF)
+            throw new RecordException("Expected a string, found tag " + tag);
+
+        int length = this.readCount(1);
+
+        String value = new String(this._body, this._position, length, "UTF-8");
+
+        this._position += length;
+
+        if (tag == BinaryRecordWriter.TAG_STRING_DEF)
+            this._strings.add(value);
+
+        return value;
+    }
+
+    /**
+     * Reads an element count and checks that the record has room for that
+     * many elements of at least the given size.
+     */
+
+    private int readCount(int elementSize) throws IOException
+    {
+        long count = this.readVarint();
+
+        if (count > this._bodyLength || count * elementSize > this._bodyLength - this._position)
+            throw new RecordException("Invalid element count: " + count);
+
+        return (int) count;
+    }
+
+    private int readByte() throws IOException
+    {
+        if (this._position >= this._bodyLength)
+            throw new RecordException("Unexpected end of record.");
+
+        int value = this._body[this._position] & 0xff;
+
+        this._position += 1;
+
+        return value;
+    }
+
+    private long readFixed(int size) throws IOException
+    {
+        if (this._position + size > this._bodyLength)
+            throw new RecordException("Unexpected end of record.");
+
+        long value = 0;
+
+        for (int i = 0; i < size; i++)
+            value |= ((long) (this._body[this._position + i] & 0xff)) << (8 * i);
+
+        this._position += size;
+
+        return value;
+    }
+
+    private long readVarint() throws IOException
+    {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = this.readByte();
+
+            value |= ((long) (b & 0x7f)) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+        }
+
+        throw new RecordException("Invalid varint.");
+    }
+
+    private long readSignedVarint() throws IOException
+    {
+        long value = this.readVarint();
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
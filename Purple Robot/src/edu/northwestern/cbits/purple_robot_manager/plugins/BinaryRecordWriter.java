@@ -0,0 +1,662 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import android.app.ActivityManager.RunningTaskInfo;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.location.Location;
+import android.net.wifi.ScanResult;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Writes probe readings to a compact, self-describing binary file. A file is
+ * the magic bytes "PRB" and a version byte, followed by one length-prefixed
+ * record per reading:
+ *
+ * varint length | flags | body
+ *
+ * If bit 0 of the flags is set, the body is zlib-compressed. The body holds a
+ * single tagged value (see the TAG_ constants). Numbers are little-endian,
+ * varints are unsigned LEB128 and signed integers are zigzag-encoded first.
+ *
+ * Short strings and Bundles holding only scalars (such as the SENSOR
+ * metadata) are interned: the first occurrence in a file is written in full
+ * and numbered, later ones are written as a reference to that number. Numeric
+ * arrays are written as packed blocks. Double arrays whose values are all
+ * exact decimals (timestamps in seconds or nanoseconds) are written as scaled
+ * deltas instead.
+ *
+ * BinaryRecordReader decodes files, and decode_records.py in the Test Server
+ * and Django projects does the same on the ingest side.
+ */
+
+public class BinaryRecordWriter
+{
+    static final byte[] MAGIC = { 'P', 'R', 'B' };
+    static final int VERSION = 1;
+
+    static final int FLAG_DEFLATED = 0x01;
+
+    static final int TAG_NULL = 0x00;
+    static final int TAG_FALSE = 0x01;
+    static final int TAG_TRUE = 0x02;
+    static final int TAG_INTEGER = 0x03;
+    static final int TAG_FLOAT = 0x04;
+    static final int TAG_DOUBLE = 0x05;
+    static final int TAG_STRING = 0x06;
+    static final int TAG_STRING_DEF = 0x07;
+    static final int TAG_STRING_REF = 0x08;
+    static final int TAG_MAP = 0x09;
+    static final int TAG_MAP_DEF = 0x0a;
+    static final int TAG_MAP_REF = 0x0b;
+    static final int TAG_LIST = 0x0c;
+    static final int TAG_FLOAT_ARRAY = 0x0d;
+    static final int TAG_DOUBLE_ARRAY = 0x0e;
+    static final int TAG_SCALED_DOUBLE_ARRAY = 0x0f;
+    static final int TAG_INT_ARRAY = 0x10;
+    static final int TAG_LONG_ARRAY = 0x11;
+
+    static final int MAX_DECIMALS = 6;
+
+    private static final int MAX_INTERNED_LENGTH = 64;
+    private static final int MAX_INTERNED_STRINGS = 4096;
+    private static final int MAX_INTERNED_MAPS = 256;
+    private static final int MIN_DEFLATE_LENGTH = 512;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static final double[] SCALES = { 1, 10, 100, 1000, 10000, 100000, 1000000 };
+
+    private final Context _context;
+    private final OutputStream _out;
+    private final HashMap<String, Integer> _strings = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> _maps = new HashMap<String, Integer>();
+    private final HashSet<String> _unknownTypes = new HashSet<String>();
+
+    private final Deflater _deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private byte[] _body = new byte[4096];
+    private int _bodyLength = 0;
+
+    private byte[] _compressed = new byte[4096];
+    private final byte[] _header = new byte[6];
+    private byte[] _record = new byte[4096];
+
+    private long _length = 0;
+    private int _records = 0;
+
+    public BinaryRecordWriter(Context context, File file) throws IOException
+    {
+        this._context = context;
+        this._out = new BufferedOutputStream(new FileOutputStream(file), BinaryRecordWriter.BUFFER_SIZE);
+
+        this._out.write(BinaryRecordWriter.MAGIC);
+        this._out.write(BinaryRecordWriter.VERSION);
+
+        this._length = BinaryRecordWriter.MAGIC.length + 1;
+    }
+
+    /**
+     * Appends the reading as one record. Records are buffered until flush()
+     * or close(). A crash during a flush leaves at most a partial last
+     * record, which readers skip.
+     */
+
+    public void write(Bundle bundle) throws IOException
+    {
+        this._bodyLength = 0;
+
+        this.writeBundle(bundle, false);
+
+        byte[] body = this._body;
+        int bodyLength = this._bodyLength;
+        int flags = 0;
+
+        if (bodyLength >= BinaryRecordWriter.MIN_DEFLATE_LENGTH)
+        {
+            this._deflater.reset();
+            this._deflater.setInput(this._body, 0, this._bodyLength);
+            this._deflater.finish();
+
+            if (this._compressed.length < this._bodyLength)
+                this._compressed = new byte[this._body.length];
+
+            int compressedLength = 0;
+
+            while (this._deflater.finished() == false && compressedLength < this._bodyLength)
+                compressedLength += this._deflater.deflate(this._compressed, compressedLength, this._compressed.length - compressedLength);
+
+            if (this._deflater.finished() && compressedLength < this._bodyLength)
+            {
+                body = this._compressed;
+                bodyLength = compressedLength;
+                flags = BinaryRecordWriter.FLAG_DEFLATED;
+            }
+        }
+
+        int headerLength = BinaryRecordWriter.putVarint(this._header, 0, bodyLength + 1);
+        this._header[headerLength] = (byte) flags;
+        headerLength += 1;
+
+        int recordLength = headerLength + bodyLength;
+
+        if (this._record.length < recordLength)
+            this._record = new byte[Math.max(this._record.length * 2, recordLength)];
+
+        System.arraycopy(this._header, 0, this._record, 0, headerLength);
+        System.arraycopy(body, 0, this._record, headerLength, bodyLength);
+
+        this._out.write(this._record, 0, recordLength);
+
+        this._length += recordLength;
+        this._records += 1;
+    }
+
+    public long length()
+    {
+        return this._length;
+    }
+
+    public int records()
+    {
+        return this._records;
+    }
+
+    public void flush() throws IOException
+    {
+        this._out.flush();
+    }
+
+    public void close() throws IOException
+    {
+        this._deflater.end();
+        this._out.close();
+    }
+
+    private void writeBundle(Bundle bundle, boolean intern)
+    {
+        Map<String, Object> values = OutputPlugin.getValues(bundle);
+
+        String internKey = null;
+
+        if (intern)
+            internKey = BinaryRecordWriter.internKey(values);
+
+        if (internKey != null && this._maps.containsKey(internKey))
+        {
+            this.writeByte(BinaryRecordWriter.TAG_MAP_REF);
+            this.writeVarint(this._maps.get(internKey).intValue());
+
+            return;
+        }
+
+        if (internKey != null && this._maps.size() < BinaryRecordWriter.MAX_INTERNED_MAPS)
+        {
+            this._maps.put(internKey, Integer.valueOf(this._maps.size()));
+            this.writeByte(BinaryRecordWriter.TAG_MAP_DEF);
+        }
+        else
+            this.writeByte(BinaryRecordWriter.TAG_MAP);
+
+        int count = 0;
+
+        for (String key : values.keySet())
+        {
+            if (key != null && values.get(key) != null)
+                count += 1;
+        }
+
+        this.writeVarint(count);
+
+        for (String key : values.keySet())
+        {
+            Object value = values.get(key);
+
+            if (key != null && value != null)
+            {
+                this.writeString(key);
+                this.writeValue(key, value, true);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(String key, Object value, boolean intern)
+    {
+        value = BinaryRecordWriter.portable(value);
+
+        if (value == null)
+            this.writeByte(BinaryRecordWriter.TAG_NULL);
+        else if (value instanceof String)
+            this.writeString((String) value);
+        else if (value instanceof Boolean)
+            this.writeByte(((Boolean) value).booleanValue() ? BinaryRecordWriter.TAG_TRUE : BinaryRecordWriter.TAG_FALSE);
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            this.writeByte(BinaryRecordWriter.TAG_INTEGER);
+            this.writeSignedVarint(((Number) value).longValue());
+        }
+        else if (value instanceof Float)
+        {
+            this.writeByte(BinaryRecordWriter.TAG_FLOAT);
+            this.writeFloat(((Float) value).floatValue());
+        }
+        else if (value instanceof Double)
+        {
+            double d = ((Double) value).doubleValue();
+
+            // Same substitution as StreamingJacksonUploadPlugin.writeBundle()...
+
+            if (Double.isInfinite(d))
+                d = Double.MAX_VALUE;
+
+            this.writeByte(BinaryRecordWriter.TAG_DOUBLE);
+            this.writeDouble(d);
+        }
+        else if (value instanceof float[])
+        {
+            float[] floats = (float[]) value;
+
+            this.writeByte(BinaryRecordWriter.TAG_FLOAT_ARRAY);
+            this.writeVarint(floats.length);
+
+            this.ensureCapacity(floats.length * 4);
+
+            for (float f : floats)
+                this.writeFloat(f);
+        }
+        else if (value instanceof double[])
+            this.writeDoubles((double[]) value);
+        else if (value instanceof int[])
+        {
+            int[] ints = (int[]) value;
+
+            this.writeByte(BinaryRecordWriter.TAG_INT_ARRAY);
+            this.writeVarint(ints.length);
+
+            for (int i : ints)
+                this.writeSignedVarint(i);
+        }
+        else if (value instanceof long[])
+        {
+            long[] longs = (long[]) value;
+
+            this.writeByte(BinaryRecordWriter.TAG_LONG_ARRAY);
+            this.writeVarint(longs.length);
+
+            for (long l : longs)
+                this.writeSignedVarint(l);
+        }
+        else if (value instanceof Bundle)
+            this.writeBundle((Bundle) value, intern);
+        else if (value instanceof List)
+        {
+            List<Object> list = (List<Object>) value;
+
+            this.writeByte(BinaryRecordWriter.TAG_LIST);
+            this.writeVarint(list.size());
+
+            // List items are mostly one-offs (scan results, tasks) - keep
+            // them out of the map table...
+
+            for (Object o : list)
+                this.writeValue(key, o, false);
+        }
+        else
+        {
+            // Keep the reading as a string rather than dropping the value,
+            // and report each unexpected type once per file...
+
+            String type = value.getClass().getName();
+
+            if (this._unknownTypes.add(type))
+            {
+                HashMap<String, Object> payload = new HashMap<String, Object>();
+                payload.put("type", type);
+                payload.put("key", key);
+
+                LogManager.getInstance(this._context).log("binary_record_unknown_type", payload);
+            }
+
+            this.writeString(value.toString());
+        }
+    }
+
+    /**
+     * Writes the values as scaled deltas if some power of ten up to
+     * MAX_DECIMALS turns all of them into integers that convert back exactly,
+     * and as a packed block otherwise.
+     */
+
+    private void writeDoubles(double[] doubles)
+    {
+        int decimals = BinaryRecordWriter.decimals(doubles);
+
+        if (decimals >= 0)
+        {
+            double scale = BinaryRecordWriter.SCALES[decimals];
+
+            this.writeByte(BinaryRecordWriter.TAG_SCALED_DOUBLE_ARRAY);
+            this.writeVarint(doubles.length);
+            this.writeByte(decimals);
+
+            long last = 0;
+
+            for (double d : doubles)
+            {
+                long scaled = Math.round(d * scale);
+
+                this.writeSignedVarint(scaled - last);
+
+                last = scaled;
+            }
+        }
+        else
+        {
+            this.writeByte(BinaryRecordWriter.TAG_DOUBLE_ARRAY);
+            this.writeVarint(doubles.length);
+
+            this.ensureCapacity(doubles.length * 8);
+
+            for (double d : doubles)
+                this.writeDouble(d);
+        }
+    }
+
+    private static int decimals(double[] doubles)
+    {
+        for (int decimals = 0; decimals <= BinaryRecordWriter.MAX_DECIMALS; decimals++)
+        {
+            double scale = BinaryRecordWriter.SCALES[decimals];
+
+            boolean exact = true;
+
+            for (int i = 0; exact && i < doubles.length; i++)
+            {
+                double scaled = doubles[i] * scale;
+
+                // Keep the deltas well inside the range of a long...
+
+                if (Math.abs(scaled) > 1e17)
+                    exact = false;
+                else if ((Math.round(scaled) / scale) != doubles[i])
+                    exact = false;
+                else if (doubles[i] == 0 && 1 / doubles[i] < 0)
+                    exact = false; // -0.0
+            }
+
+            if (exact)
+                return decimals;
+        }
+
+        return -1;
+    }
+
+    private void writeString(String value)
+    {
+        Integer index = this._strings.get(value);
+
+        if (index != null)
+        {
+            this.writeByte(BinaryRecordWriter.TAG_STRING_REF);
+            this.writeVarint(index.intValue());
+
+            return;
+        }
+
+        if (value.length() <= BinaryRecordWriter.MAX_INTERNED_LENGTH && this._strings.size() < BinaryRecordWriter.MAX_INTERNED_STRINGS)
+        {
+            this._strings.put(value, Integer.valueOf(this._strings.size()));
+            this.writeByte(BinaryRecordWriter.TAG_STRING_DEF);
+        }
+        else
+            this.writeByte(BinaryRecordWriter.TAG_STRING);
+
+        byte[] bytes;
+
+        try
+        {
+            bytes = value.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        this.writeVarint(bytes.length);
+        this.ensureCapacity(bytes.length);
+
+        System.arraycopy(bytes, 0, this._body, this._bodyLength, bytes.length);
+        this._bodyLength += bytes.length;
+    }
+
+    /**
+     * Returns a key identifying the contents of a Bundle holding only
+     * scalars, or null if it holds anything else.
+     */
+
+    private static String internKey(Map<String, Object> values)
+    {
+        TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+
+        for (String key : values.keySet())
+        {
+            Object value = values.get(key);
+
+            if (key == null || value == null)
+                continue;
+
+            if ((value instanceof String || value instanceof Number || value instanceof Boolean) == false)
+                return null;
+
+            if (value instanceof String && ((String) value).length() > BinaryRecordWriter.MAX_INTERNED_LENGTH)
+                return null;
+
+            sorted.put(key, value);
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (String key : sorted.keySet())
+        {
+            Object value = sorted.get(key);
+
+            sb.append(key);
+            sb.append('\u0000');
+            sb.append(value.getClass().getSimpleName());
+            sb.append('\u0000');
+            sb.append(value.toString());
+            sb.append('\u0001');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Converts the platform objects StreamingJacksonUploadPlugin.writeBundle()
+     * knows about to Bundles and Strings with the same fields.
+     */
+
+    private static Object portable(Object value)
+    {
+        if (value instanceof ScanResult)
+        {
+            ScanResult s = (ScanResult) value;
+
+            Bundle bundle = new Bundle();
+
+            if (s.BSSID != null)
+                bundle.putString("BSSID", s.BSSID);
+
+            if (s.SSID != null)
+                bundle.putString("SSID", s.SSID);
+
+            if (s.capabilities != null)
+                bundle.putString("Capabilities", s.capabilities);
+
+            bundle.putInt("Frequency", s.frequency);
+            bundle.putInt("Level dBm", s.level);
+
+            return bundle;
+        }
+        else if (value instanceof RunningTaskInfo)
+        {
+            RunningTaskInfo r = (RunningTaskInfo) value;
+
+            Bundle bundle = new Bundle();
+
+            if (r.baseActivity != null)
+                bundle.putString("Base Activity", r.baseActivity.getPackageName());
+
+            if (r.description != null)
+                bundle.putString("Description", r.description.toString());
+
+            bundle.putInt("Activity Count", r.numActivities);
+            bundle.putInt("Running Activity Count", r.numRunning);
+
+            return bundle;
+        }
+        else if (value instanceof ApplicationInfo)
+            return ((ApplicationInfo) value).packageName;
+        else if (value instanceof Location)
+        {
+            Location l = (Location) value;
+
+            Bundle bundle = new Bundle();
+
+            bundle.putFloat("Accuracy", l.getAccuracy());
+            bundle.putDouble("Altitude", l.getAltitude());
+            bundle.putFloat("Bearing", l.getBearing());
+            bundle.putDouble("Latitude", l.getLatitude());
+            bundle.putDouble("Longitude", l.getLongitude());
+            bundle.putFloat("Speed", l.getSpeed());
+            bundle.putLong("Timestamp", l.getTime());
+
+            if (l.getProvider() != null)
+                bundle.putString("Provider", l.getProvider());
+            else
+                bundle.putString("Provider", "Unknown");
+
+            return bundle;
+        }
+        else if (value instanceof BluetoothClass)
+            return value.toString();
+        else if (value instanceof BluetoothDevice)
+        {
+            BluetoothDevice device = (BluetoothDevice) value;
+
+            Bundle bundle = new Bundle();
+
+            if (device.getBondState() == BluetoothDevice.BOND_BONDED)
+                bundle.putString("Bond State", "Bonded");
+            else if (device.getBondState() == BluetoothDevice.BOND_BONDING)
+                bundle.putString("Bond State", "Bonding");
+            else
+                bundle.putString("Bond State", "None");
+
+            bundle.putString("Device Address", device.getAddress());
+            bundle.putString("Device Class", device.getBluetoothClass().toString());
+
+            return bundle;
+        }
+
+        return value;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if (this._bodyLength + extra > this._body.length)
+        {
+            byte[] body = new byte[Math.max(this._body.length * 2, this._bodyLength + extra)];
+
+            System.arraycopy(this._body, 0, body, 0, this._bodyLength);
+
+            this._body = body;
+        }
+    }
+
+    private void writeByte(int value)
+    {
+        this.ensureCapacity(1);
+
+        this._body[this._bodyLength] = (byte) value;
+        this._bodyLength += 1;
+    }
+
+    private void writeVarint(long value)
+    {
+        this.ensureCapacity(10);
+
+        while ((value & ~0x7fL) != 0)
+        {
+            this._body[this._bodyLength] = (byte) ((value & 0x7f) | 0x80);
+            this._bodyLength += 1;
+
+            value >>>= 7;
+        }
+
+        this._body[this._bodyLength] = (byte) value;
+        this._bodyLength += 1;
+    }
+
+    private void writeSignedVarint(long value)
+    {
+        this.writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeFloat(float value)
+    {
+        this.ensureCapacity(4);
+
+        int bits = Float.floatToRawIntBits(value);
+
+        this._body[this._bodyLength] = (byte) bits;
+        this._body[this._bodyLength + 1] = (byte) (bits >> 8);
+        this._body[this._bodyLength + 2] = (byte) (bits >> 16);
+        this._body[this._bodyLength + 3] = (byte) (bits >> 24);
+
+        this._bodyLength += 4;
+    }
+
+    private void writeDouble(double value)
+    {
+        this.ensureCapacity(8);
+
+        long bits = Double.doubleToRawLongBits(value);
+
+        for (int i = 0; i < 8; i++)
+            this._body[this._bodyLength + i] = (byte) (bits >> (8 * i));
+
+        this._bodyLength += 8;
+    }
+
+    private static int putVarint(byte[] buffer, int offset, long value)
+    {
+        while ((value & ~0x7fL) != 0)
+        {
+            buffer[offset] = (byte) ((value & 0x7f) | 0x80);
+            offset += 1;
+
+            value >>>= 7;
+        }
+
+        buffer[offset] = (byte) value;
+
+        return offset + 1;
+    }
+}
@@ -0,0 +1,254 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.json.JSONObject;
+
+/**
+ * Upload body that streams a pending payload file into the SubmitProbes
+ * envelope through gzip or deflate, without holding the payload in memory.
+ *
+ * The payload is copied byte by byte: line breaks are dropped and quotes,
+ * backslashes and control characters are escaped, none of which can occur
+ * inside a multi-byte UTF-8 sequence. The MD5 checksum over user hash,
+ * operation and payload is updated as the bytes go by and written after the
+ * payload, so the server sees the same document as the form-encoded upload.
+ *
+ * The body is encoded again from the pending file on every write, so the
+ * client can resend it after a redirect or authentication challenge.
+ */
+
+public class CompressedPayloadEntity extends AbstractHttpEntity
+{
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final File _payloadFile;
+    private final String _userHash;
+    private final String _operation;
+    private final String _encoding;
+
+    private long _payloadBytes = 0;
+    private long _wireBytes = 0;
+    private long _peakHeap = 0;
+
+    public CompressedPayloadEntity(File payloadFile, String userHash, String operation, String encoding)
+    {
+        this._payloadFile = payloadFile;
+        this._userHash = userHash;
+        this._operation = operation;
+        this._encoding = encoding;
+
+        this.setContentType("application/json; charset=UTF-8");
+        this.setContentEncoding(encoding);
+        this.setChunked(true);
+    }
+
+    public long getContentLength()
+    {
+        return -1;
+    }
+
+    public boolean isRepeatable()
+    {
+        return this._payloadFile.exists();
+    }
+
+    public boolean isStreaming()
+    {
+        return false;
+    }
+
+    /**
+     * Returns the encoded body, written to a temporary file so the payload is
+     * still never held in memory. The file is removed when the stream is
+     * closed.
+     */
+
+    public InputStream getContent() throws IOException
+    {
+        final File body = File.createTempFile("upload", ".body");
+        body.deleteOnExit();
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(body), CompressedPayloadEntity.BUFFER_SIZE);
+
+        try
+        {
+            this.writeTo(out);
+        }
+        catch (IOException e)
+        {
+            body.delete();
+
+            throw e;
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return new FileInputStream(body)
+        {
+            public void close() throws IOException
+            {
+                super.close();
+
+                body.delete();
+            }
+        };
+    }
+
+    public void writeTo(OutputStream out) throws IOException
+    {
+        MessageDigest md = null;
+
+        try
+        {
+            md = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e.toString());
+        }
+
+        CountingOutputStream counter = new CountingOutputStream(out);
+
+        DeflaterOutputStream compressed = null;
+
+        if (CompressedPayloadEntity.GZIP.equals(this._encoding))
+            compressed = new GZIPOutputStream(counter, CompressedPayloadEntity.BUFFER_SIZE);
+        else
+            compressed = new DeflaterOutputStream(counter);
+
+        byte[] userHash = this._userHash.getBytes("UTF-8");
+        byte[] operation = this._operation.getBytes("UTF-8");
+
+        md.update(userHash);
+        md.update(operation);
+
+        long checksummed = userHash.length + operation.length;
+
+        String header = "{\"" + DataUploadPlugin.OPERATION_KEY + "\":" + JSONObject.quote(this._operation) + ",\""
+                + DataUploadPlugin.USER_HASH_KEY + "\":" + JSONObject.quote(this._userHash) + ",\""
+                + DataUploadPlugin.PAYLOAD_KEY + "\":\"";
+
+        compressed.write(header.getBytes("UTF-8"));
+
+        byte[] buffer = new byte[CompressedPayloadEntity.BUFFER_SIZE];
+        byte[] escaped = new byte[CompressedPayloadEntity.BUFFER_SIZE * 6];
+
+        Runtime runtime = Runtime.getRuntime();
+
+        InputStream in = new BufferedInputStream(new FileInputStream(this._payloadFile), CompressedPayloadEntity.BUFFER_SIZE);
+
+        try
+        {
+            int read = 0;
+
+            while ((read = in.read(buffer, 0, buffer.length)) != -1)
+            {
+                int kept = 0;
+                int length = 0;
+
+                for (int i = 0; i < read; i++)
+                {
+                    byte b = buffer[i];
+
+                    if (b == '\r' || b == '\n')
+                        continue;
+
+                    buffer[kept] = b;
+                    kept += 1;
+
+                    if (b == '"' || b == '\\')
+                    {
+                        escaped[length++] = '\\';
+                        escaped[length++] = b;
+                    }
+                    else if (b >= 0 && b < 0x20)
+                    {
+                        escaped[length++] = '\\';
+                        escaped[length++] = 'u';
+                        escaped[length++] = '0';
+                        escaped[length++] = '0';
+                        escaped[length++] = CompressedPayloadEntity.HEX[b >> 4];
+                        escaped[length++] = CompressedPayloadEntity.HEX[b & 0x0f];
+                    }
+                    else
+                        escaped[length++] = b;
+                }
+
+                md.update(buffer, 0, kept);
+                checksummed += kept;
+
+                compressed.write(escaped, 0, length);
+
+                this._peakHeap = Math.max(this._peakHeap, runtime.totalMemory() - runtime.freeMemory());
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        String checksum = (new BigInteger(1, md.digest())).toString(16);
+
+        while (checksum.length() < 32)
+            checksum = "0" + checksum;
+
+        String trailer = "\",\"" + DataUploadPlugin.CONTENT_LENGTH_KEY + "\":" + checksummed + ",\""
+                + DataUploadPlugin.CHECKSUM_KEY + "\":\"" + checksum + "\"}";
+
+        compressed.write(trailer.getBytes("UTF-8"));
+        compressed.finish();
+        compressed.flush();
+
+        this._payloadBytes = checksummed - userHash.length - operation.length;
+        this._wireBytes = counter.getByteCount();
+    }
+
+    /**
+     * Payload bytes covered by the checksum, after line breaks are removed.
+     */
+
+    public long getPayloadBytes()
+    {
+        return this._payloadBytes;
+    }
+
+    /**
+     * Compressed bytes written to the connection, before chunk framing.
+     */
+
+    public long getWireBytes()
+    {
+        return this._wireBytes;
+    }
+
+    /**
+     * Largest heap use seen while the body was written.
+     */
+
+    public long getPeakHeap()
+    {
+        return this._peakHeap;
+    }
+}
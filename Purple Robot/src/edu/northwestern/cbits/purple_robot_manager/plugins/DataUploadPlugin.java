@@ -3,39 +3,32 @@ package edu.northwestern.cbits.purple_robot_manager.plugins;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.security.KeyStore;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLPeerUnverifiedException;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
@@ -56,7 +49,6 @@ import edu.northwestern.cbits.purple_robot_manager.PowerHelper;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.WiFiHelper;
 import edu.northwestern.cbits.purple_robot_manager.activities.StartActivity;
-import edu.northwestern.cbits.purple_robot_manager.logging.LiberalSSLSocketFactory;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
 @SuppressLint("NewApi")
@@ -86,6 +78,13 @@ public abstract class DataUploadPlugin extends OutputPlugin
     protected static final int RESULT_NO_CONNECTION = 1;
     protected static final int RESULT_ERROR = 2;
     protected static final int RESULT_NO_POWER = 3;
+    protected static final int RESULT_UNSUPPORTED_ENCODING = 4;
+    protected static final int RESULT_TIMEOUT = 5;
+
+    private static final String OPERATION_SUBMIT_PROBES = "SubmitProbes";
+
+    private static final String NEGOTIATED_ENCODING = "data_upload_negotiated_encoding";
+    private static final String NEGOTIATED_URI = "data_upload_negotiated_uri";
 
     public File getPendingFolder()
     {
@@ -177,15 +176,118 @@ public abstract class DataUploadPlugin extends OutputPlugin
         return true;
     }
 
-    @SuppressWarnings("deprecation")
     protected int transmitPayload(SharedPreferences prefs, String payload)
+    {
+        return this.transmit(prefs, payload, null, null);
+    }
+
+    /**
+     * Uploads a pending payload file. Once the server has advertised a
+     * compressed request encoding (an Accept-Encoding response header), the
+     * file is streamed straight into a gzip or deflate request body. Until
+     * then the file is read and sent form-encoded.
+     * 
+     * If the server refuses the encoding, the negotiated encoding is dropped
+     * and RESULT_UNSUPPORTED_ENCODING is returned, so the caller can send the
+     * file again (form-encoded) right away. Timeouts return RESULT_TIMEOUT
+     * and other failures RESULT_ERROR.
+     */
+
+    protected int transmitPayload(SharedPreferences prefs, File payloadFile) throws IOException
+    {
+        if (prefs == null)
+            prefs = PreferenceManager.getDefaultSharedPreferences(this.getContext());
+
+        String encoding = this.negotiatedEncoding(prefs);
+
+        if (encoding != null)
+            return this.transmit(prefs, null, payloadFile, encoding);
+
+        return this.transmit(prefs, FileUtils.readFileToString(payloadFile, "UTF-8"), null, null);
+    }
+
+    private String negotiatedEncoding(SharedPreferences prefs)
+    {
+        String uriString = prefs.getString(DataUploadPlugin.UPLOAD_URI, this.getContext().getString(R.string.sensor_upload_url));
+
+        if (uriString.equals(prefs.getString(DataUploadPlugin.NEGOTIATED_URI, null)))
+            return prefs.getString(DataUploadPlugin.NEGOTIATED_ENCODING, null);
+
+        return null;
+    }
+
+    private void updateNegotiatedEncoding(SharedPreferences prefs, String uriString, String encoding)
+    {
+        String current = this.negotiatedEncoding(prefs);
+
+        if ((encoding == null && current == null) || (encoding != null && encoding.equals(current)))
+            return;
+
+        Editor e = prefs.edit();
+
+        if (encoding != null)
+        {
+            e.putString(DataUploadPlugin.NEGOTIATED_URI, uriString);
+            e.putString(DataUploadPlugin.NEGOTIATED_ENCODING, encoding);
+        }
+        else
+        {
+            e.remove(DataUploadPlugin.NEGOTIATED_URI);
+            e.remove(DataUploadPlugin.NEGOTIATED_ENCODING);
+        }
+
+        e.commit();
+    }
+
+    /**
+     * Picks gzip or deflate from the request encodings a server lists in its
+     * Accept-Encoding response header (RFC 7694), or null.
+     */
+
+    private static String acceptedEncoding(HttpResponse response)
+    {
+        Header header = response.getFirstHeader("Accept-Encoding");
+
+        if (header == null)
+            return null;
+
+        boolean deflate = false;
+
+        for (String token : header.getValue().split(","))
+        {
+            String coding = token.trim().toLowerCase(Locale.ENGLISH);
+
+            if (coding.contains(";"))
+            {
+                // "q=0" marks a coding as not acceptable...
+
+                if (coding.replace(" ", "").matches(".*;q=0(\\.0*)?"))
+                    continue;
+
+                coding = coding.substring(0, coding.indexOf(";")).trim();
+            }
+
+            if (CompressedPayloadEntity.GZIP.equals(coding))
+                return CompressedPayloadEntity.GZIP;
+            else if (CompressedPayloadEntity.DEFLATE.equals(coding))
+                deflate = true;
+        }
+
+        if (deflate)
+            return CompressedPayloadEntity.DEFLATE;
+
+        return null;
+    }
+
+    @SuppressWarnings("deprecation")
+    private int transmit(SharedPreferences prefs, String payload, File payloadFile, String encoding)
     {
         Context context = this.getContext();
 
         if (prefs == null)
             prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
-        if (payload == null || payload.trim().length() == 0)
+        if ((payloadFile == null && (payload == null || payload.trim().length() == 0)) || (payloadFile != null && payloadFile.length() == 0))
         {
             LogManager.getInstance(context).log("null_or_empty_payload", null);
             return DataUploadPlugin.RESULT_SUCCESS;
@@ -195,7 +297,7 @@ public abstract class DataUploadPlugin extends OutputPlugin
 
         try
         {
-            AndroidHttpClient androidClient = AndroidHttpClient.newInstance("Purple Robot", context);
+            HttpEntity responseEntity = null;
 
             try
             {
@@ -219,64 +321,63 @@ public abstract class DataUploadPlugin extends OutputPlugin
                     }
                 }
 
-                JSONObject jsonMessage = new JSONObject();
+                String userHash = EncryptionManager.getInstance().getUserHash(me.getContext());
 
-                jsonMessage.put(OPERATION_KEY, "SubmitProbes");
+                MessageDigest md = MessageDigest.getInstance("MD5");
 
-                payload = payload.replaceAll("\r", "");
-                payload = payload.replaceAll("\n", "");
+                Runtime runtime = Runtime.getRuntime();
 
-                jsonMessage.put(PAYLOAD_KEY, payload);
+                HttpEntity entity = null;
+                CompressedPayloadEntity compressedEntity = null;
 
-                String userHash = EncryptionManager.getInstance().getUserHash(me.getContext());
+                long payloadBytes = 0;
+                long uploadSize = 0;
 
-                jsonMessage.put(USER_HASH_KEY, userHash);
+                if (payloadFile != null)
+                {
+                    compressedEntity = new CompressedPayloadEntity(payloadFile, userHash, DataUploadPlugin.OPERATION_SUBMIT_PROBES, encoding);
 
-                MessageDigest md = MessageDigest.getInstance("MD5");
+                    entity = compressedEntity;
+                    uploadSize = payloadFile.length();
+                }
+                else
+                {
+                    JSONObject jsonMessage = new JSONObject();
 
-                byte[] checksummed = (jsonMessage.get(USER_HASH_KEY).toString()
-                        + jsonMessage.get(OPERATION_KEY).toString() + jsonMessage.get(PAYLOAD_KEY).toString())
-                        .getBytes("UTF-8");
+                    jsonMessage.put(OPERATION_KEY, DataUploadPlugin.OPERATION_SUBMIT_PROBES);
 
-                byte[] digest = md.digest(checksummed);
+                    payload = payload.replaceAll("\r", "");
+                    payload = payload.replaceAll("\n", "");
 
-                String checksum = (new BigInteger(1, digest)).toString(16);
+                    jsonMessage.put(PAYLOAD_KEY, payload);
+                    jsonMessage.put(USER_HASH_KEY, userHash);
 
-                while (checksum.length() < 32)
-                    checksum = "0" + checksum;
+                    byte[] checksummed = (jsonMessage.get(USER_HASH_KEY).toString()
+                            + jsonMessage.get(OPERATION_KEY).toString() + jsonMessage.get(PAYLOAD_KEY).toString())
+                            .getBytes("UTF-8");
 
-                jsonMessage.put(CHECKSUM_KEY, checksum);
-                jsonMessage.put(CONTENT_LENGTH_KEY, checksummed.length);
+                    byte[] digest = md.digest(checksummed);
 
-                // Liberal HTTPS setup:
-                // http://stackoverflow.com/questions/2012497/accepting-a-certificate-for-https-on-android
+                    String checksum = (new BigInteger(1, digest)).toString(16);
 
-                HostnameVerifier hostnameVerifier = org.apache.http.conn.ssl.SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER;
+                    while (checksum.length() < 32)
+                        checksum = "0" + checksum;
 
-                SchemeRegistry registry = new SchemeRegistry();
-                registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+                    jsonMessage.put(CHECKSUM_KEY, checksum);
+                    jsonMessage.put(CONTENT_LENGTH_KEY, checksummed.length);
 
-                SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
+                    List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
+                    nameValuePairs.add(new BasicNameValuePair("json", jsonMessage.toString()));
 
-                if (prefs.getBoolean(DataUploadPlugin.ALLOW_ALL_SSL_CERTIFICATES,
-                        DataUploadPlugin.ALLOW_ALL_SSL_CERTIFICATES_DEFAULT))
-                {
-                    KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-                    trustStore.load(null, null);
+                    entity = new UrlEncodedFormEntity(nameValuePairs, HTTP.UTF_8);
 
-                    socketFactory = new LiberalSSLSocketFactory(trustStore);
+                    payloadBytes = payload.getBytes("UTF-8").length;
+                    uploadSize = entity.getContentLength();
                 }
 
-                registry.register(new Scheme("https", socketFactory, 443));
-
-                HttpParams params = androidClient.getParams();
-                HttpConnectionParams.setConnectionTimeout(params, 180000);
-                HttpConnectionParams.setSoTimeout(params, 180000);
+                long peakHeap = runtime.totalMemory() - runtime.freeMemory();
 
-                SingleClientConnManager mgr = new SingleClientConnManager(params, registry);
-                HttpClient httpClient = new DefaultHttpClient(mgr, params);
-
-                HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
+                HttpClient httpClient = UploadClient.getClient(context);
 
                 String title = me.getContext().getString(R.string.notify_upload_data);
 
@@ -294,21 +395,39 @@ public abstract class DataUploadPlugin extends OutputPlugin
                 URI siteUri = new URI(uriString);
 
                 HttpPost httpPost = new HttpPost(siteUri);
-                httpPost.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
-
-                String jsonString = jsonMessage.toString();
 
-                List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-                nameValuePairs.add(new BasicNameValuePair("json", jsonString));
-                HttpEntity entity = new UrlEncodedFormEntity(nameValuePairs, HTTP.UTF_8);
+                if (compressedEntity == null)
+                    httpPost.setHeader("Content-Type", "application/x-www-form-urlencoded;charset=UTF-8");
 
                 httpPost.setEntity(entity);
 
-                String uploadMessage = String.format(context.getString(R.string.message_transmit_bytes), (httpPost.getEntity().getContentLength() / 1024));
+                String uploadMessage = String.format(context.getString(R.string.message_transmit_bytes), (uploadSize / 1024));
                 me.broadcastMessage(uploadMessage, false);
 
+                long start = System.currentTimeMillis();
+
                 HttpResponse response = httpClient.execute(httpPost);
 
+                responseEntity = response.getEntity();
+
+                if (compressedEntity != null)
+                {
+                    if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE)
+                    {
+                        // Server no longer takes compressed bodies - fall back to form uploads...
+
+                        this.updateNegotiatedEncoding(prefs, uriString, null);
+
+                        return DataUploadPlugin.RESULT_UNSUPPORTED_ENCODING;
+                    }
+
+                    payloadBytes = compressedEntity.getPayloadBytes();
+                    uploadSize = compressedEntity.getWireBytes();
+                    peakHeap = Math.max(peakHeap, compressedEntity.getPeakHeap());
+                }
+
+                this.updateNegotiatedEncoding(prefs, uriString, DataUploadPlugin.acceptedEncoding(response));
+
                 HttpEntity httpEntity = response.getEntity();
 
                 String contentHeader = null;
@@ -335,6 +454,17 @@ public abstract class DataUploadPlugin extends OutputPlugin
                 else
                     body = EntityUtils.toString(httpEntity);
 
+                peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+
+                HashMap<String, Object> uploadPayload = new HashMap<String, Object>();
+                uploadPayload.put("encoding", (encoding != null) ? encoding : "identity");
+                uploadPayload.put("payload_bytes", payloadBytes);
+                uploadPayload.put("wire_bytes", uploadSize);
+                uploadPayload.put("peak_heap", peakHeap);
+                uploadPayload.put("duration", System.currentTimeMillis() - start);
+
+                LogManager.getInstance(context).log("data_upload_transmitted", uploadPayload);
+
                 JSONObject json = new JSONObject(body);
 
                 int index = body.length() - 512;
@@ -360,7 +490,7 @@ public abstract class DataUploadPlugin extends OutputPlugin
                     if (responseChecksum.equals(json.getString(CHECKSUM_KEY)))
                     {
                         String uploadedMessage = String.format(context.getString(R.string.message_upload_successful),
-                                (httpPost.getEntity().getContentLength() / 1024));
+                                (uploadSize / 1024));
 
                         me.broadcastMessage(uploadedMessage, false);
 
@@ -394,11 +524,15 @@ public abstract class DataUploadPlugin extends OutputPlugin
             {
                 me.broadcastMessage(context.getString(R.string.message_http_connection_error), true);
                 LogManager.getInstance(context).logException(e);
+
+                return DataUploadPlugin.RESULT_TIMEOUT;
             }
             catch (SocketTimeoutException e)
             {
                 me.broadcastMessage(context.getString(R.string.message_socket_timeout_error), true);
                 LogManager.getInstance(me.getContext()).logException(e);
+
+                return DataUploadPlugin.RESULT_TIMEOUT;
             }
             catch (SocketException e)
             {
@@ -432,7 +566,19 @@ public abstract class DataUploadPlugin extends OutputPlugin
             }
             finally
             {
-                androidClient.close();
+                // Returns the connection to the pool for the next batch...
+
+                if (responseEntity != null)
+                {
+                    try
+                    {
+                        responseEntity.consumeContent();
+                    }
+                    catch (IOException e)
+                    {
+                        LogManager.getInstance(context).logException(e);
+                    }
+                }
             }
         }
         catch (OutOfMemoryError e)
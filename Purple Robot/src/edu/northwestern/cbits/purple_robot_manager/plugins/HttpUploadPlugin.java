@@ -15,23 +15,14 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Random;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLPeerUnverifiedException;
 
 import org.apache.commons.io.FileUtils;
@@ -41,19 +32,11 @@ import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -74,14 +57,11 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
-import edu.emory.mathcs.backport.java.util.Arrays;
-import edu.emory.mathcs.backport.java.util.Collections;
 import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
 import edu.northwestern.cbits.purple_robot_manager.PurpleRobotApplication;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.WiFiHelper;
 import edu.northwestern.cbits.purple_robot_manager.activities.StartActivity;
-import edu.northwestern.cbits.purple_robot_manager.logging.LiberalSSLSocketFactory;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 
@@ -96,28 +76,28 @@ public class HttpUploadPlugin extends OutputPlugin
     private final static String CONTENT_LENGTH_KEY = "ContentLength";
     private final static String STATUS_KEY = "Status";
 
-    private final static int WIFI_MULTIPLIER = 2;
-
-    private final static long MAX_UPLOAD_PERIOD = 3600000;
     private final static long MIN_UPLOAD_PERIOD = 300000;
 
     private final static long MAX_RETRIES = 4;
 
     private final static long MAX_UPLOAD_SIZE = 262144; // 256KB
     private final static long MIN_UPLOAD_SIZE = 16384; // 16KB
+    private final static long MAX_BATCH_SIZE = 524288; // 512KB
 
     private List<String> _pendingSaves = new ArrayList<String>();
     private long _lastSave = 0;
     private long _lastUpload = 0;
 
+    private PendingJournal _journal = null;
+    private boolean _legacyPending = true;
+
     private double _throughput = 0.0;
     private double _accumulation = 0.0;
 
     private long _lastAccumulationMeasure = System.currentTimeMillis();
     private double _accumulationSum = 0.0;
 
-    private long _uploadSize = MIN_UPLOAD_SIZE;
-    private long _uploadPeriod = MIN_UPLOAD_PERIOD;
+    private final UploadController _controller = new UploadController(MIN_UPLOAD_SIZE, MAX_BATCH_SIZE, 1, MIN_UPLOAD_PERIOD);
 
     private boolean _uploading = false;
 
@@ -144,51 +124,30 @@ public class HttpUploadPlugin extends OutputPlugin
         return this._accumulation;
     }
 
-    private void logSuccess(boolean success)
-    {
-        if (success)
-        {
-            this._uploadSize *= 2;
-            this._uploadPeriod /= 2;
-        }
-        else
-        {
-            this._uploadSize /= 2;
-            this._uploadPeriod *= 2;
-        }
-
-        if (this._uploadSize > MAX_UPLOAD_SIZE)
-            this._uploadSize = MAX_UPLOAD_SIZE;
-        else if (this._uploadSize < MIN_UPLOAD_SIZE)
-            this._uploadSize = MIN_UPLOAD_SIZE;
-
-        if (this._uploadPeriod > MAX_UPLOAD_PERIOD)
-            this._uploadPeriod = MAX_UPLOAD_PERIOD;
-        else if (this._uploadPeriod < MIN_UPLOAD_PERIOD)
-            this._uploadPeriod = MIN_UPLOAD_PERIOD;
-    }
-
     private long savePeriod()
     {
         return 10000;
     }
 
+    /**
+     * Returns the time between uploads: the configured interval, or after
+     * failed uploads the upload controller's backoff, otherwise five
+     * minutes.
+     */
+
     private long uploadPeriod()
     {
-        long period = this._uploadPeriod;
-
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this.getContext());
 
         long prefPeriod = Long.parseLong(prefs.getString("config_http_upload_interval", "0"));
 
         if (prefPeriod != 0)
-        {
-            period = prefPeriod * 1000;
+            return prefPeriod * 1000;
 
-            this._uploadPeriod = period;
-        }
+        if (this._controller.failures() > 0)
+            return this._controller.retryDelay();
 
-        return period;
+        return MIN_UPLOAD_PERIOD;
     }
 
     private long maxUploadSize()
@@ -198,14 +157,7 @@ public class HttpUploadPlugin extends OutputPlugin
         long size = Long.parseLong(prefs.getString("config_http_upload_size", "0"));
 
         if (size == 0)
-        {
-            int multiplier = 1;
-
-            if (WiFiHelper.wifiAvailable(this.getContext()))
-                multiplier = WIFI_MULTIPLIER;
-
-            size = this._uploadSize * multiplier;
-        }
+            size = this._controller.batchSize();
 
         if (size < MIN_UPLOAD_SIZE)
             size = MIN_UPLOAD_SIZE;
@@ -242,7 +194,7 @@ public class HttpUploadPlugin extends OutputPlugin
             {
                 public void run()
                 {
-                    me.persistJSONObject(null);
+                    me.persistPendingSaves();
                     me.uploadPendingObjects();
                 }
             };
@@ -277,6 +229,7 @@ public class HttpUploadPlugin extends OutputPlugin
 
                 if (now - this._lastSave > this.savePeriod() || this._pendingSaves.size() > 128)
                 {
+                    this._lastSave = now;
                     this._failCount = 0;
 
                     final HttpUploadPlugin me = this;
@@ -285,7 +238,7 @@ public class HttpUploadPlugin extends OutputPlugin
                     {
                         public void run()
                         {
-                            me.persistJSONObject(jsonObject);
+                            me.persistPendingSaves();
                             me.uploadPendingObjects();
                         }
                     };
@@ -360,158 +313,30 @@ public class HttpUploadPlugin extends OutputPlugin
 
                     me.broadcastMessage(R.string.message_reading_files, false);
 
-                    String[] filenames = pendingFolder.list(new FilenameFilter()
-                    {
-                        public boolean accept(File dir, String filename)
-                        {
-                            return filename.endsWith(".json");
-                        }
-                    });
+                    String[] filenames = me.legacyFilenames();
 
-                    if (filenames == null)
-                        filenames = new String[0];
+                    PendingRecordSource reader = me.getJournal();
 
-                    Collections.shuffle(Arrays.asList(filenames));
+                    if (filenames.length > 0)
+                        reader = new PendingFileReader(me.getContext(), pendingFolder, filenames, me.encryptData(prefs));
 
-                    ArrayList<JSONObject> pendingObjects = new ArrayList<JSONObject>();
+                    String payload = reader.readBatch(maxUploadSize);
 
-                    int totalRead = 0;
+                    File archiveTarget = null;
 
-                    for (String filename : filenames)
-                    {
-                        if (totalRead <= maxUploadSize)
-                        {
-                            File f = new File(pendingFolder, filename);
+                    if (me.enableArchive(prefs))
+                        archiveTarget = archiveFolder;
 
-                            try
-                            {
-                                byte[] bytes = EncryptionManager.getInstance().readFromEncryptedStream(me.getContext(),
-                                        new FileInputStream(f), me.encryptData(prefs));
-
-                                JSONArray jsonArray = new JSONArray(new String(bytes, "UTF-8"));
-
-                                totalRead += bytes.length;
-
-                                for (int i = 0; i < jsonArray.length(); i++)
-                                {
-                                    JSONObject jsonObject = jsonArray.getJSONObject(i);
-
-                                    pendingObjects.add(jsonObject);
-                                }
-                            }
-                            catch (FileNotFoundException e)
-                            {
-                                LogManager.getInstance(me.getContext()).logException(e);
-                            }
-                            catch (IOException e)
-                            {
-                                LogManager.getInstance(me.getContext()).logException(e);
-                            }
-                            catch (JSONException e)
-                            {
-                                LogManager.getInstance(me.getContext()).logException(e);
-                            }
-
-                            if (me.enableArchive(prefs))
-                            {
-                                long now = System.currentTimeMillis();
-
-                                File archive = new File(archiveFolder, now + ".archive");
-
-                                f.renameTo(archive);
-                            }
-                            else
-                                f.delete();
-                        }
-                    }
-
-                    if (pendingObjects.size() > 0)
+                    if (reader.recordCount() > 0)
                     {
                         me.broadcastMessage(R.string.message_package_upload, false);
 
-                        long tally = 0;
-
-                        List<JSONObject> toUpload = new ArrayList<JSONObject>();
-
-                        for (int i = 0; i < pendingObjects.size() && tally < maxUploadSize; i++)
-                        {
-                            try
-                            {
-                                JSONObject json = pendingObjects.get(i);
-
-                                String jsonString = json.toString();
-
-                                int jsonSize = jsonString.toString().getBytes("UTF-8").length;
-
-                                if (i > 0 && jsonSize > maxUploadSize)
-                                {
-                                    // Skip until connection is better...
-                                }
-                                else if (i == 0 || jsonSize + tally < maxUploadSize)
-                                {
-                                    tally += jsonSize;
-
-                                    toUpload.add(json);
-                                }
-                            }
-                            catch (UnsupportedEncodingException e)
-                            {
-                                LogManager.getInstance(me.getContext()).logException(e);
-                            }
-                        }
-
-                        JSONArray uploadArray = new JSONArray();
-
-                        for (int i = 0; i < toUpload.size(); i++)
-                        {
-                            uploadArray.put(toUpload.get(i));
-                        }
-
-                        int l = 0;
-                        Random r = new Random(System.currentTimeMillis());
-
                         try
                         {
-                            if (uploadArray.length() == 0)
-                            {
-                                while (pendingObjects.size() > 0)
-                                {
-                                    JSONArray toSave = new JSONArray();
-
-                                    List<JSONObject> toRemove = new ArrayList<JSONObject>();
-
-                                    for (int i = 0; i < pendingObjects.size() && i < 100; i++)
-                                    {
-                                        toSave.put(pendingObjects.get(i));
-                                        toRemove.add(pendingObjects.get(i));
-                                    }
-
-                                    File f = new File(pendingFolder, "pending_" + l + ".json");
-
-                                    while (f.exists())
-                                    {
-                                        l += r.nextInt(10);
-
-                                        f = new File(pendingFolder, "pending_" + l + ".json");
-                                    }
-
-                                    byte[] jsonBytes = toSave.toString().getBytes("UTF-8");
-
-                                    EncryptionManager.getInstance().writeToEncryptedStream(me.getContext(),
-                                            new FileOutputStream(f), jsonBytes, me.encryptData(prefs));
-
-                                    pendingObjects.removeAll(toRemove);
-                                }
-
-                                throw new Exception(me.getContext().getString(R.string.error_empty_payload));
-                            }
-
                             JSONObject jsonMessage = new JSONObject();
 
                             jsonMessage.put(OPERATION_KEY, "SubmitProbes");
 
-                            String payload = uploadArray.toString();
-
                             // if (Build.VERSION.SDK_INT >=
                             // Build.VERSION_CODES.GINGERBREAD)
                             // payload = Normalizer.normalize(payload,
@@ -545,37 +370,11 @@ public class HttpUploadPlugin extends OutputPlugin
                             jsonMessage.put(CHECKSUM_KEY, checksum);
                             jsonMessage.put(CONTENT_LENGTH_KEY, checksummed.length);
 
-                            AndroidHttpClient androidClient = AndroidHttpClient.newInstance("Purple Robot",
-                                    me.getContext());
-
-                            // Liberal HTTPS setup:
-                            // http://stackoverflow.com/questions/2012497/accepting-a-certificate-for-https-on-android
-
-                            HostnameVerifier hostnameVerifier = org.apache.http.conn.ssl.SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER;
+                            // Coerces a string setting to the boolean the shared client reads...
 
-                            SchemeRegistry registry = new SchemeRegistry();
-                            registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+                            me.useLiberalSsl(prefs);
 
-                            SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
-
-                            if (me.useLiberalSsl(prefs))
-                            {
-                                KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-                                trustStore.load(null, null);
-
-                                socketFactory = new LiberalSSLSocketFactory(trustStore);
-                            }
-
-                            registry.register(new Scheme("https", socketFactory, 443));
-
-                            HttpParams params = androidClient.getParams();
-                            HttpConnectionParams.setConnectionTimeout(params, 180000);
-                            HttpConnectionParams.setSoTimeout(params, 180000);
-
-                            SingleClientConnManager mgr = new SingleClientConnManager(params, registry);
-                            HttpClient httpClient = new DefaultHttpClient(mgr, params);
-
-                            HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
+                            HttpClient httpClient = UploadClient.getClient(me.getContext());
 
                             String title = me.getContext().getString(R.string.notify_upload_data);
 
@@ -592,6 +391,11 @@ public class HttpUploadPlugin extends OutputPlugin
 
                             long payloadSize = -1;
 
+                            long requestSize = 0;
+                            long requestStart = 0;
+                            boolean reachable = true;
+                            boolean timedOut = false;
+
                             try
                             {
                                 String uriString = prefs.getString("config_data_server_uri", me.getContext()
@@ -616,6 +420,11 @@ public class HttpUploadPlugin extends OutputPlugin
 
                                 // noteManager.notify(12345, note);
 
+                                requestSize = httpPost.getEntity().getContentLength();
+                                requestStart = System.currentTimeMillis();
+
+                                me._controller.begin();
+
                                 HttpResponse response = httpClient.execute(httpPost);
 
                                 HttpEntity httpEntity = response.getEntity();
@@ -668,7 +477,7 @@ public class HttpUploadPlugin extends OutputPlugin
 
                                     if (responseChecksum.equals(json.getString(CHECKSUM_KEY)))
                                     {
-                                        pendingObjects.removeAll(toUpload);
+                                        reader.commit(archiveTarget);
 
                                         wasSuccessful = true;
 
@@ -712,6 +521,18 @@ public class HttpUploadPlugin extends OutputPlugin
 
                                 me._failCount += 1;
                                 me._throughput = 0.0;
+
+                                reachable = false;
+                            }
+                            catch (ConnectTimeoutException e)
+                            {
+                                me.broadcastMessage(R.string.message_http_connection_error, true);
+                                LogManager.getInstance(me.getContext()).logException(e);
+
+                                me._failCount += 1;
+                                me._throughput = 0.0;
+
+                                reachable = false;
                             }
                             catch (SocketTimeoutException e)
                             {
@@ -720,6 +541,8 @@ public class HttpUploadPlugin extends OutputPlugin
 
                                 me._failCount += 1;
                                 me._throughput = 0.0;
+
+                                timedOut = true;
                             }
                             catch (SocketException e)
                             {
@@ -737,6 +560,8 @@ public class HttpUploadPlugin extends OutputPlugin
 
                                 me._failCount += 1;
                                 me._throughput = 0.0;
+
+                                reachable = false;
                             }
                             catch (JSONException e)
                             {
@@ -764,38 +589,24 @@ public class HttpUploadPlugin extends OutputPlugin
                                 me._failCount += 1;
                                 me._throughput = 0.0;
                             }
-                            finally
-                            {
-                                androidClient.close();
-                            }
-
-                            while (pendingObjects.size() > 0)
-                            {
-                                JSONArray toSave = new JSONArray();
-
-                                List<JSONObject> toRemove = new ArrayList<JSONObject>();
-
-                                for (int i = 0; i < pendingObjects.size() && i < 100; i++)
-                                {
-                                    toSave.put(pendingObjects.get(i));
-                                    toRemove.add(pendingObjects.get(i));
-                                }
 
-                                File f = new File(pendingFolder, "pending_" + l + ".json");
+                            // Batches that never reached the server say nothing about the link...
 
-                                while (f.exists())
-                                {
-                                    l += r.nextInt(10);
-
-                                    f = new File(pendingFolder, "pending_" + l + ".json");
-                                }
-
-                                byte[] jsonBytes = toSave.toString().getBytes("UTF-8");
-
-                                EncryptionManager.getInstance().writeToEncryptedStream(me.getContext(),
-                                        new FileOutputStream(f), jsonBytes, me.encryptData(prefs));
+                            if (requestStart > 0)
+                            {
+                                long duration = System.currentTimeMillis() - requestStart;
 
-                                pendingObjects.removeAll(toRemove);
+                                if (wasSuccessful)
+                                    me._controller.success(requestSize, duration);
+                                else if (reachable)
+                                    me._controller.failure(requestSize, duration, timedOut);
+                                else
+                                    me._controller.unreachable();
+                            }
+                            else if (wasSuccessful == false)
+                            {
+                                me._controller.begin();
+                                me._controller.unreachable();
                             }
 
                             if (wasSuccessful == false && me._failCount < MAX_RETRIES)
@@ -827,68 +638,38 @@ public class HttpUploadPlugin extends OutputPlugin
                         {
                             throw new RuntimeException(e);
                         }
-                        catch (FileNotFoundException e)
-                        {
-                        }
-                        catch (IOException e)
-                        {
-                            LogManager.getInstance(me.getContext()).logException(e);
-                        }
-                        catch (KeyStoreException e)
-                        {
-                            LogManager.getInstance(me.getContext()).logException(e);
-                        }
-                        catch (CertificateException e)
-                        {
-                            LogManager.getInstance(me.getContext()).logException(e);
-                        }
-                        catch (KeyManagementException e)
-                        {
-                            LogManager.getInstance(me.getContext()).logException(e);
-                        }
-                        catch (UnrecoverableKeyException e)
-                        {
-                            LogManager.getInstance(me.getContext()).logException(e);
-                        }
                         catch (Exception e)
                         {
                             LogManager.getInstance(me.getContext()).logException(e);
                         }
-                        finally
-                        {
-                            me.logSuccess(wasSuccessful);
-                        }
                     }
+                    else
+                        reader.commit(archiveTarget);
 
-                    me._uploading = false;
-
-                    filenames = pendingFolder.list(new FilenameFilter()
-                    {
-                        public boolean accept(File dir, String filename)
-                        {
-                            return filename.endsWith(".json");
-                        }
-                    });
-
-                    if (filenames == null)
-                        filenames = new String[0];
-
-                    if (me._failCount < MAX_RETRIES && filenames.length > 0)
+                    if (me._failCount < MAX_RETRIES && me.pendingFilesCount() > 0)
                     {
-                        me._lastUpload = 0;
-
                         try
                         {
-                            Thread.sleep(500);
-                            me.uploadPendingObjects();
+                            Thread.sleep(Math.max(500, me._controller.retryDelay()));
                         }
                         catch (InterruptedException e)
                         {
 
                         }
+
+                        me._uploading = false;
+                        me._lastUpload = 0;
+
+                        me.uploadPendingObjects();
                     }
-                    else if (me._failCount == 0)
-                        me.broadcastMessage(R.string.message_reading_complete, false);
+                    else
+                    {
+                        me._uploading = false;
+
+                        if (me._failCount == 0)
+                            me.broadcastMessage(R.string.message_reading_complete, false);
+                    }
+
                 }
             };
 
@@ -984,63 +765,70 @@ public class HttpUploadPlugin extends OutputPlugin
         return archiveFolder;
     }
 
-    private void persistJSONObject(final JSONObject jsonObject)
+    private synchronized PendingJournal getJournal()
     {
-        long now = System.currentTimeMillis();
-
-        this._lastSave = now;
-
         File pendingFolder = this.getPendingFolder();
 
-        String filename = now + ".json";
+        if (this._journal == null || pendingFolder.equals(this._journal.getFolder()) == false)
+        {
+            if (this._journal != null)
+                this._journal.close();
 
-        File f = new File(pendingFolder, filename);
+            this._journal = new PendingJournal(this.getContext(), pendingFolder);
+        }
 
-        HashSet<String> toRemove = new HashSet<String>();
-        HashSet<String> invalidRemove = new HashSet<String>();
+        return this._journal;
+    }
 
-        JSONArray saveArray = new JSONArray();
+    private String[] legacyFilenames()
+    {
+        if (this._legacyPending == false)
+            return new String[0];
 
-        synchronized (this._pendingSaves)
+        File pendingFolder = this.getPendingFolder();
+
+        String[] filenames = pendingFolder.list(new FilenameFilter()
         {
-            for (String jsonString : this._pendingSaves)
+            public boolean accept(File dir, String filename)
             {
-                try
-                {
-                    JSONObject json = new JSONObject(jsonString);
+                return filename.endsWith(".json");
+            }
+        });
 
-                    if (saveArray.length() < 256)
-                    {
-                        saveArray.put(json);
+        if (filenames == null)
+            filenames = new String[0];
 
-                        toRemove.add(jsonString);
-                    }
-                }
-                catch (JSONException e)
-                {
-                    LogManager.getInstance(this.getContext()).logException(e);
-                    invalidRemove.add(jsonString);
-                }
-                catch (OutOfMemoryError e)
-                {
-                    LogManager.getInstance(this.getContext()).logException(e);
-                    invalidRemove.add(jsonString);
-                }
-            }
+        if (filenames.length == 0)
+            this._legacyPending = false;
+
+        return filenames;
+    }
+
+    private void persistPendingSaves()
+    {
+        long now = System.currentTimeMillis();
+
+        this._lastSave = now;
 
-            this._pendingSaves.removeAll(invalidRemove);
+        List<String> toSave = null;
+
+        synchronized (this._pendingSaves)
+        {
+            toSave = new ArrayList<String>(this._pendingSaves);
+
+            this._pendingSaves.clear();
         }
 
+        if (toSave.size() == 0)
+            return;
+
         try
         {
-            byte[] jsonBytes = saveArray.toString().getBytes("UTF-8");
-
             SharedPreferences prefs = HttpUploadPlugin.getPreferences(this.getContext());
 
-            EncryptionManager.getInstance().writeToEncryptedStream(this.getContext(), new FileOutputStream(f),
-                    jsonBytes, this.encryptData(prefs));
+            long written = this.getJournal().append(toSave, this.encryptData(prefs));
 
-            this._accumulationSum += jsonBytes.length;
+            this._accumulationSum += written;
 
             if (now - this._lastAccumulationMeasure > 10000)
             {
@@ -1051,47 +839,20 @@ public class HttpUploadPlugin extends OutputPlugin
                 this._accumulationSum = 0;
                 this._lastAccumulationMeasure = now;
             }
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this.getContext()).logException(e);
 
             synchronized (this._pendingSaves)
             {
-                this._pendingSaves.removeAll(toRemove);
+                this._pendingSaves.addAll(0, toSave);
             }
         }
-        catch (FileNotFoundException e)
-        {
-            LogManager.getInstance(this.getContext()).logException(e);
-        }
-        catch (UnsupportedEncodingException e)
-        {
-            throw new RuntimeException(e);
-        }
         catch (OutOfMemoryError e)
         {
             LogManager.getInstance(this.getContext()).logException(e);
         }
-        catch (IOException e)
-        {
-            LogManager.getInstance(this.getContext()).logException(e);
-        }
-
-        if (this._pendingSaves.size() > 128)
-        {
-            this._lastSave = 0;
-            this._failCount = 0;
-
-            final HttpUploadPlugin me = this;
-
-            Runnable r = new Runnable()
-            {
-                public void run()
-                {
-                    me.persistJSONObject(null);
-                }
-            };
-
-            Thread t = new Thread(r);
-            t.start();
-        }
     }
 
     public void mailArchiveFiles(final Context context)
@@ -1275,20 +1036,7 @@ public class HttpUploadPlugin extends OutputPlugin
 
     public int pendingFilesCount()
     {
-        File pendingFolder = this.getPendingFolder();
-
-        String[] filenames = pendingFolder.list(new FilenameFilter()
-        {
-            public boolean accept(File dir, String filename)
-            {
-                return filename.endsWith(".json");
-            }
-        });
-
-        if (filenames == null)
-            filenames = new String[0];
-
-        return filenames.length;
+        return this.legacyFilenames().length + this.getJournal().segmentCount();
     }
 
     public static void clearFiles(Context context)
@@ -1317,26 +1065,11 @@ public class HttpUploadPlugin extends OutputPlugin
     {
         File pendingFolder = this.getPendingFolder();
 
-        String[] filenames = pendingFolder.list(new FilenameFilter()
-        {
-            public boolean accept(File dir, String filename)
-            {
-                return filename.endsWith(".json");
-            }
-        });
+        long size = this.getJournal().size();
 
-        if (filenames.length < 1024)
-        {
-            try
-            {
-                return FileUtils.sizeOf(pendingFolder);
-            }
-            catch (IllegalArgumentException e)
-            {
+        for (String filename : this.legacyFilenames())
+            size += new File(pendingFolder, filename).length();
 
-            }
-        }
-
-        return 2 * 1024 * 1024 * 1024;
+        return size;
     }
 }
@@ -0,0 +1,282 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.util.HashMap;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Per-plugin dispatch queue: a bounded ring buffer of pending intents drained
+ * by a single long-lived worker thread. When the buffer is full the configured
+ * overload policy decides whether the caller blocks, the oldest pending intent
+ * is dropped, or the newest pending reading from the same probe is replaced
+ * (falling back to dropping the oldest intent if there is none).
+ *
+ * Intents are delivered from LocalBroadcastManager on the main thread, so the
+ * BLOCK policy never waits there: a full buffer drops the oldest intent, as
+ * under DROP_OLDEST. Only callers on other threads block.
+ */
+
+public class IntentDispatcher
+{
+    public static enum OverloadPolicy
+    {
+        BLOCK, DROP_OLDEST, COALESCE
+    }
+
+    private static final double LATENCY_WEIGHT = 0.05;
+
+    public static final String QUEUE_DEPTH = "QUEUE_DEPTH";
+    public static final String MAX_QUEUE_DEPTH = "MAX_QUEUE_DEPTH";
+    public static final String QUEUE_CAPACITY = "QUEUE_CAPACITY";
+    public static final String OVERLOAD_POLICY = "OVERLOAD_POLICY";
+    public static final String PROCESSED_COUNT = "PROCESSED_COUNT";
+    public static final String DROPPED_COUNT = "DROPPED_COUNT";
+    public static final String COALESCED_COUNT = "COALESCED_COUNT";
+    public static final String MEAN_LATENCY = "MEAN_LATENCY_MS";
+    public static final String MAX_LATENCY = "MAX_LATENCY_MS";
+
+    private final OutputPlugin _plugin;
+    private final OverloadPolicy _policy;
+
+    private final Intent[] _intents;
+    private final long[] _enqueued;
+    private final String[] _keys;
+
+    private final HashMap<String, Integer> _coalesceSlots = new HashMap<String, Integer>();
+
+    private int _head = 0;
+    private int _count = 0;
+
+    private Thread _worker = null;
+
+    private int _maxDepth = 0;
+    private long _processed = 0;
+    private long _dropped = 0;
+    private long _coalesced = 0;
+    private double _meanLatency = 0;
+    private long _maxLatency = 0;
+
+    public IntentDispatcher(OutputPlugin plugin, int capacity, OverloadPolicy policy)
+    {
+        if (capacity < 1)
+            capacity = 1;
+
+        this._plugin = plugin;
+        this._policy = policy;
+
+        this._intents = new Intent[capacity];
+        this._enqueued = new long[capacity];
+        this._keys = new String[capacity];
+    }
+
+    public OverloadPolicy getPolicy()
+    {
+        return this._policy;
+    }
+
+    public synchronized void enqueue(Intent intent)
+    {
+        String key = null;
+
+        if (this._policy == OverloadPolicy.COALESCE)
+            key = IntentDispatcher.coalesceKey(intent);
+
+        if (this._count == this._intents.length)
+        {
+            Integer slot = null;
+
+            if (key != null)
+                slot = this._coalesceSlots.get(key);
+
+            if (slot != null)
+            {
+                // Keep the original enqueue time so latency still reflects the wait.
+
+                this._intents[slot] = intent;
+                this._coalesced += 1;
+
+                return;
+            }
+
+            if (this._policy == OverloadPolicy.BLOCK && Looper.myLooper() != Looper.getMainLooper())
+            {
+                while (this._count == this._intents.length)
+                {
+                    try
+                    {
+                        this.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        break;
+                    }
+                }
+            }
+
+            if (this._count == this._intents.length)
+            {
+                this.removeHead();
+
+                this._dropped += 1;
+            }
+        }
+
+        int slot = (this._head + this._count) % this._intents.length;
+
+        this._intents[slot] = intent;
+        this._enqueued[slot] = System.currentTimeMillis();
+        this._keys[slot] = key;
+
+        if (key != null)
+            this._coalesceSlots.put(key, slot);
+
+        this._count += 1;
+
+        if (this._count > this._maxDepth)
+            this._maxDepth = this._count;
+
+        this.startWorker();
+
+        this.notifyAll();
+    }
+
+    private Intent removeHead()
+    {
+        Intent intent = this._intents[this._head];
+        String key = this._keys[this._head];
+
+        if (key != null)
+        {
+            Integer slot = this._coalesceSlots.get(key);
+
+            if (slot != null && slot.intValue() == this._head)
+                this._coalesceSlots.remove(key);
+        }
+
+        this._intents[this._head] = null;
+        this._keys[this._head] = null;
+
+        this._head = (this._head + 1) % this._intents.length;
+        this._count -= 1;
+
+        return intent;
+    }
+
+    private void startWorker()
+    {
+        if (this._worker != null)
+            return;
+
+        final IntentDispatcher me = this;
+
+        Runnable r = new Runnable()
+        {
+            public void run()
+            {
+                while (true)
+                {
+                    Intent intent = null;
+                    long enqueued = 0;
+
+                    synchronized (me)
+                    {
+                        while (me._count == 0)
+                        {
+                            try
+                            {
+                                me.wait();
+                            }
+                            catch (InterruptedException e)
+                            {
+                                me._worker = null;
+
+                                return;
+                            }
+                        }
+
+                        enqueued = me._enqueued[me._head];
+                        intent = me.removeHead();
+
+                        me.notifyAll();
+                    }
+
+                    try
+                    {
+                        me._plugin.processIntent(intent);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        LogManager.getInstance(me._plugin.getContext()).logException(e);
+                    }
+                    catch (OutOfMemoryError e)
+                    {
+                        LogManager.getInstance(me._plugin.getContext()).logException(e);
+                    }
+
+                    long latency = System.currentTimeMillis() - enqueued;
+
+                    synchronized (me)
+                    {
+                        me._processed += 1;
+
+                        if (me._processed == 1)
+                            me._meanLatency = latency;
+                        else
+                            me._meanLatency += IntentDispatcher.LATENCY_WEIGHT * (latency - me._meanLatency);
+
+                        if (latency > me._maxLatency)
+                            me._maxLatency = latency;
+                    }
+                }
+            }
+        };
+
+        try
+        {
+            this._worker = new Thread(r, "Output Plugin: " + this._plugin.getClass().getSimpleName());
+            this._worker.start();
+        }
+        catch (OutOfMemoryError e)
+        {
+            this._worker = null;
+
+            LogManager.getInstance(this._plugin.getContext()).logException(e);
+        }
+    }
+
+    public synchronized Bundle statistics()
+    {
+        Bundle bundle = new Bundle();
+
+        bundle.putInt(IntentDispatcher.QUEUE_DEPTH, this._count);
+        bundle.putInt(IntentDispatcher.MAX_QUEUE_DEPTH, this._maxDepth);
+        bundle.putInt(IntentDispatcher.QUEUE_CAPACITY, this._intents.length);
+        bundle.putString(IntentDispatcher.OVERLOAD_POLICY, this._policy.toString());
+        bundle.putLong(IntentDispatcher.PROCESSED_COUNT, this._processed);
+        bundle.putLong(IntentDispatcher.DROPPED_COUNT, this._dropped);
+        bundle.putLong(IntentDispatcher.COALESCED_COUNT, this._coalesced);
+        bundle.putDouble(IntentDispatcher.MEAN_LATENCY, this._meanLatency);
+        bundle.putLong(IntentDispatcher.MAX_LATENCY, this._maxLatency);
+
+        return bundle;
+    }
+
+    private static String coalesceKey(Intent intent)
+    {
+        Bundle extras = intent.getExtras();
+
+        if (extras == null)
+            return null;
+
+        String probe = extras.getString("PROBE");
+
+        if (probe == null)
+            return null;
+
+        return intent.getAction() + ":" + probe;
+    }
+}
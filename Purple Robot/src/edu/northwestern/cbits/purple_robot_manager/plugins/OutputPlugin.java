@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import org.json.JSONArray;
@@ -18,21 +19,25 @@ import android.bluetooth.BluetoothDevice;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.location.Location;
 import android.net.wifi.ScanResult;
 import android.os.BadParcelableException;
 import android.os.Bundle;
+import android.preference.PreferenceManager;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.SensorBatch;
 
 public abstract class OutputPlugin
 {
-    private ArrayList<Intent> _pendingIntents = new ArrayList<Intent>();
-
-    private boolean _isProcessing = false;
+    private IntentDispatcher _dispatcher = null;
+    private final Object _dispatcherLock = new Object();
 
     public static final String PAYLOAD = "edu.northwestern.cbits.purple_robot.OUTPUT_EVENT_PLUGIN";
     public static final String OUTPUT_EVENT = "edu.northwestern.cbits.purple_robot.OUTPUT_EVENT";
@@ -42,6 +47,10 @@ public abstract class OutputPlugin
 
     public static final String USE_EXTERNAL_STORAGE = "config_external_storage";
 
+    public static final String QUEUE_SIZE = "config_output_plugin_queue_size";
+    public static final String OVERLOAD_POLICY = "config_output_plugin_overload_policy";
+    private static final int DEFAULT_QUEUE_SIZE = 1024;
+
     public abstract String[] respondsTo();
 
     public abstract void processIntent(Intent intent);
@@ -100,6 +109,8 @@ public abstract class OutputPlugin
 
         IntentFilter intentFilter = new IntentFilter();
 
+        boolean wantsReadings = false;
+
         for (String className : probeClasses)
         {
             try
@@ -117,7 +128,9 @@ public abstract class OutputPlugin
 
                 for (String action : actions)
                 {
-                    if (intentFilter.hasAction(action) == false)
+                    if (Probe.PROBE_READING.equals(action))
+                        wantsReadings = true;
+                    else if (intentFilter.hasAction(action) == false)
                         intentFilter.addAction(action);
                 }
             }
@@ -151,6 +164,9 @@ public abstract class OutputPlugin
 
         LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
         localManager.registerReceiver(OutputPluginManager.sharedInstance, intentFilter);
+
+        if (wantsReadings)
+            ProbeReadingBus.getInstance(context).subscribe(null, OutputPluginManager.sharedInstance);
     }
 
     @SuppressWarnings("rawtypes")
@@ -166,56 +182,64 @@ public abstract class OutputPlugin
         return OutputPlugin._pluginClasses;
     }
 
-    public void process(final Intent intent)
+    protected IntentDispatcher.OverloadPolicy overloadPolicy()
     {
-        if (this.shouldRespond(intent.getAction()))
-        {
-            synchronized (this._pendingIntents)
-            {
-                this._pendingIntents.add(intent);
-            }
+        return IntentDispatcher.OverloadPolicy.DROP_OLDEST;
+    }
 
-            if (this._isProcessing == false)
+    private IntentDispatcher getDispatcher()
+    {
+        synchronized (this._dispatcherLock)
+        {
+            if (this._dispatcher == null)
             {
-                final OutputPlugin me = this;
-
-                Runnable r = new Runnable()
-                {
-                    public void run()
-                    {
-                        me._isProcessing = true;
-
-                        while (me._pendingIntents.size() > 0)
-                        {
-                            Intent nextIntent = null;
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
 
-                            synchronized (me._pendingIntents)
-                            {
-                                if (me._pendingIntents.size() > 0)
-                                    nextIntent = me._pendingIntents.remove(0);
-                            }
-
-                            if (nextIntent != null)
-                                me.processIntent(nextIntent);
-                        }
-
-                        me._isProcessing = false;
-                    }
-                };
+                int capacity = OutputPlugin.DEFAULT_QUEUE_SIZE;
 
                 try
                 {
-                    Thread t = new Thread(r);
-                    t.start();
+                    capacity = Integer.parseInt(prefs.getString(OutputPlugin.QUEUE_SIZE, "" + OutputPlugin.DEFAULT_QUEUE_SIZE));
                 }
-                catch (OutOfMemoryError e)
+                catch (NumberFormatException e)
                 {
                     LogManager.getInstance(this._context).logException(e);
                 }
+
+                IntentDispatcher.OverloadPolicy policy = this.overloadPolicy();
+
+                String policyName = prefs.getString(OutputPlugin.OVERLOAD_POLICY, null);
+
+                if (policyName != null && policyName.trim().length() > 0)
+                {
+                    try
+                    {
+                        policy = IntentDispatcher.OverloadPolicy.valueOf(policyName.trim().toUpperCase(Locale.ENGLISH));
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        LogManager.getInstance(this._context).logException(e);
+                    }
+                }
+
+                this._dispatcher = new IntentDispatcher(this, capacity, policy);
             }
+
+            return this._dispatcher;
         }
     }
 
+    public Bundle dispatchStatistics()
+    {
+        return this.getDispatcher().statistics();
+    }
+
+    public void process(final Intent intent)
+    {
+        if (this.shouldRespond(intent.getAction()))
+            this.getDispatcher().enqueue(intent);
+    }
+
     public static Map<String, Object> getValues(final Bundle bundle)
     {
         HashMap<String, Object> values = new HashMap<String, Object>();
@@ -242,6 +266,11 @@ public abstract class OutputPlugin
     {
         JSONObject json = new JSONObject();
 
+        SensorBatch batch = SensorBatch.fromBundle(bundle);
+
+        if (batch != null)
+            batch.putJson(json);
+
         Map<String, Object> values = OutputPlugin.getValues(bundle);
 
         for (String key : values.keySet())
@@ -252,6 +281,10 @@ public abstract class OutputPlugin
             {
                 // Skip
             }
+            else if (batch != null && batch.ownsKey(key))
+            {
+                // Already written above...
+            }
             else if (value instanceof String)
                 json.put(key, value);
             else if (value instanceof Bundle)
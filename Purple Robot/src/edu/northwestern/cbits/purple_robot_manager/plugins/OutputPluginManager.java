@@ -1,19 +1,25 @@
 package edu.northwestern.cbits.purple_robot_manager.plugins;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
 
-public class OutputPluginManager extends BroadcastReceiver
+public class OutputPluginManager extends BroadcastReceiver implements ProbeReadingBus.Subscriber
 {
     public static OutputPluginManager sharedInstance = new OutputPluginManager();
 
-    private Map<Class<OutputPlugin>, OutputPlugin> _plugins = new HashMap<Class<OutputPlugin>, OutputPlugin>();
+    // Read from the probe reading bus and the main thread alike...
+
+    private Map<Class<OutputPlugin>, OutputPlugin> _plugins = new ConcurrentHashMap<Class<OutputPlugin>, OutputPlugin>();
 
     public OutputPlugin pluginForClass(Context context, Class<?> c)
     {
@@ -27,6 +33,23 @@ public class OutputPluginManager extends BroadcastReceiver
         return this._plugins.get(c);
     }
 
+    public Bundle dispatchStatistics()
+    {
+        Bundle bundle = new Bundle();
+
+        ArrayList<OutputPlugin> plugins = new ArrayList<OutputPlugin>(this._plugins.values());
+
+        for (OutputPlugin plugin : plugins)
+            bundle.putBundle(plugin.getClass().getSimpleName(), plugin.dispatchStatistics());
+
+        return bundle;
+    }
+
+    public void onReading(Context context, ProbeReading reading)
+    {
+        this.onReceive(context, reading.toIntent());
+    }
+
     public void onReceive(Context context, Intent intent)
     {
         for (Class<OutputPlugin> pluginClass : OutputPlugin.availablePluginClasses())
@@ -37,8 +60,16 @@ public class OutputPluginManager extends BroadcastReceiver
 
                 if (plugin == null)
                 {
-                    plugin = pluginClass.newInstance();
-                    this._plugins.put(pluginClass, plugin);
+                    synchronized (this._plugins)
+                    {
+                        plugin = this._plugins.get(pluginClass);
+
+                        if (plugin == null)
+                        {
+                            plugin = pluginClass.newInstance();
+                            this._plugins.put(pluginClass, plugin);
+                        }
+                    }
                 }
 
                 plugin.setContext(context);
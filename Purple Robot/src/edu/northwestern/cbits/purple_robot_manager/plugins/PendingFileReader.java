@@ -0,0 +1,321 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.CipherInputStream;
+
+import org.apache.commons.io.FileUtils;
+
+import android.content.Context;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Pulls pending records one at a time out of the (optionally encrypted) JSON
+ * array files written by HttpUploadPlugin until a byte budget is filled.
+ *
+ * Files are never rewritten: fully consumed files are removed on commit() and
+ * a partially consumed file is tracked by a small cursor file holding the name
+ * of the file and the number of records already transmitted from it.
+ */
+
+public class PendingFileReader implements PendingRecordSource
+{
+    public static final String CURSOR_FILE = "pending.cursor";
+
+    private final Context _context;
+    private final File _folder;
+    private final String[] _filenames;
+    private final boolean _encrypted;
+
+    private final JsonFactory _factory = new JsonFactory();
+
+    private final List<File> _consumed = new ArrayList<File>();
+    private StringBuilder _payload = null;
+
+    private int _recordCount = 0;
+    private long _byteCount = 0;
+
+    private String _cursorName = null;
+    private int _cursorIndex = 0;
+
+    private String _nextCursorName = null;
+    private int _nextCursorIndex = 0;
+
+    public PendingFileReader(Context context, File folder, String[] filenames, boolean encrypted)
+    {
+        this._context = context;
+        this._folder = folder;
+        this._filenames = filenames;
+        this._encrypted = encrypted;
+
+        this.loadCursor();
+    }
+
+    public String readBatch(long maxSize)
+    {
+        this._consumed.clear();
+        this._payload = new StringBuilder();
+        this._recordCount = 0;
+        this._byteCount = 0;
+
+        this._nextCursorName = null;
+        this._nextCursorIndex = 0;
+
+        String[] ordered = this.orderFilenames(this._filenames);
+
+        this._payload.append("[");
+
+        boolean full = false;
+
+        for (int i = 0; i < ordered.length && full == false; i++)
+        {
+            String filename = ordered[i];
+
+            File f = new File(this._folder, filename);
+
+            int skip = 0;
+
+            if (filename.equals(this._cursorName))
+                skip = this._cursorIndex;
+
+            JsonParser parser = null;
+
+            try
+            {
+                InputStream in = new BufferedInputStream(new CipherInputStream(new FileInputStream(f),
+                        EncryptionManager.getInstance().decryptCipher(this._context, this._encrypted)));
+
+                parser = this._factory.createParser(in);
+
+                if (parser.nextToken() == JsonToken.START_ARRAY)
+                {
+                    int index = 0;
+
+                    while (full == false && parser.nextToken() == JsonToken.START_OBJECT)
+                    {
+                        if (index < skip)
+                            parser.skipChildren();
+                        else
+                        {
+                            StringWriter writer = new StringWriter();
+
+                            JsonGenerator generator = this._factory.createGenerator(writer);
+                            generator.copyCurrentStructure(parser);
+                            generator.close();
+
+                            String record = writer.toString();
+
+                            long size = PendingFileReader.utf8Length(record);
+
+                            if (this._recordCount > 0 && this._byteCount + size > maxSize)
+                            {
+                                this._nextCursorName = filename;
+                                this._nextCursorIndex = index;
+
+                                full = true;
+                            }
+                            else
+                            {
+                                if (this._recordCount > 0)
+                                    this._payload.append(",");
+
+                                this._payload.append(record);
+
+                                this._recordCount += 1;
+                                this._byteCount += size;
+                            }
+                        }
+
+                        if (full == false)
+                            index += 1;
+                    }
+                }
+
+                if (full == false)
+                    this._consumed.add(f);
+            }
+            catch (FileNotFoundException e)
+            {
+                // File went away since the listing - skip.
+            }
+            catch (JsonParseException e)
+            {
+                LogManager.getInstance(this._context).logException(e);
+
+                this._consumed.add(f);
+            }
+            catch (IOException e)
+            {
+                LogManager.getInstance(this._context).logException(e);
+
+                this._consumed.add(f);
+            }
+            finally
+            {
+                if (parser != null)
+                {
+                    try
+                    {
+                        parser.close();
+                    }
+                    catch (IOException e)
+                    {
+                        LogManager.getInstance(this._context).logException(e);
+                    }
+                }
+            }
+        }
+
+        this._payload.append("]");
+
+        return this._payload.toString();
+    }
+
+    public int recordCount()
+    {
+        return this._recordCount;
+    }
+
+    public long byteCount()
+    {
+        return this._byteCount;
+    }
+
+    public void commit(File archiveFolder)
+    {
+        for (File f : this._consumed)
+        {
+            if (archiveFolder != null)
+            {
+                File archive = new File(archiveFolder, System.currentTimeMillis() + ".archive");
+
+                for (int i = 1; archive.exists(); i++)
+                    archive = new File(archiveFolder, System.currentTimeMillis() + "-" + i + ".archive");
+
+                f.renameTo(archive);
+            }
+            else
+                f.delete();
+        }
+
+        this._consumed.clear();
+        this._payload = null;
+
+        this._cursorName = this._nextCursorName;
+        this._cursorIndex = this._nextCursorIndex;
+
+        this.saveCursor();
+    }
+
+    private String[] orderFilenames(String[] filenames)
+    {
+        String[] ordered = Arrays.copyOf(filenames, filenames.length);
+
+        Arrays.sort(ordered);
+
+        if (this._cursorName != null)
+        {
+            for (int i = 0; i < ordered.length; i++)
+            {
+                if (this._cursorName.equals(ordered[i]))
+                {
+                    System.arraycopy(ordered, 0, ordered, 1, i);
+                    ordered[0] = this._cursorName;
+
+                    break;
+                }
+            }
+        }
+
+        return ordered;
+    }
+
+    private void loadCursor()
+    {
+        File cursor = new File(this._folder, PendingFileReader.CURSOR_FILE);
+
+        if (cursor.exists() == false)
+            return;
+
+        try
+        {
+            String[] tokens = FileUtils.readFileToString(cursor, "UTF-8").trim().split("\t");
+
+            if (tokens.length == 2)
+            {
+                this._cursorName = tokens[0];
+                this._cursorIndex = Integer.parseInt(tokens[1]);
+            }
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+        catch (NumberFormatException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+    }
+
+    private void saveCursor()
+    {
+        File cursor = new File(this._folder, PendingFileReader.CURSOR_FILE);
+
+        if (this._cursorName == null)
+        {
+            cursor.delete();
+
+            return;
+        }
+
+        try
+        {
+            FileUtils.writeStringToFile(cursor, this._cursorName + "\t" + this._cursorIndex, "UTF-8");
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+    }
+
+    public static long utf8Length(CharSequence string)
+    {
+        long length = 0;
+
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+
+            if (c < 0x80)
+                length += 1;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c))
+            {
+                length += 4;
+                i += 1;
+            }
+            else
+                length += 3;
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,529 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+
+import org.apache.commons.io.FileUtils;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Append-only, segmented journal of pending readings.
+ *
+ * Records are appended to fixed-size segment files (0000000000000001.segment,
+ * ...) with a header of payload length, CRC32 and a flags byte (currently only
+ * marking encrypted payloads). A cursor file records the segment and offset of
+ * the oldest unacknowledged record, so both enqueue and dequeue are constant
+ * time and the folder is listed only once, when the journal is opened.
+ * Segments are deleted (or archived) once every record in them has been
+ * acknowledged.
+ */
+
+public class PendingJournal implements PendingRecordSource
+{
+    public static final String SEGMENT_EXTENSION = ".segment";
+    public static final String CURSOR_FILE = "journal.cursor";
+
+    private static final long SEGMENT_SIZE = 262144;
+    private static final int HEADER_SIZE = 9;
+
+    private static final byte FLAG_ENCRYPTED = 0x01;
+
+    private final Context _context;
+    private final File _folder;
+
+    private long _firstSegment = 1;
+    private long _lastSegment = 0;
+
+    private FileOutputStream _output = null;
+    private long _writeLength = 0;
+
+    private long _readSegment = 1;
+    private long _readOffset = 0;
+
+    private long _nextSegment = 1;
+    private long _nextOffset = 0;
+
+    private int _recordCount = 0;
+    private long _byteCount = 0;
+
+    private Cipher _encryptCipher = null;
+    private Cipher _decryptCipher = null;
+
+    public PendingJournal(Context context, File folder)
+    {
+        this._context = context;
+        this._folder = folder;
+
+        this.open();
+    }
+
+    public File getFolder()
+    {
+        return this._folder;
+    }
+
+    private void open()
+    {
+        this._firstSegment = Long.MAX_VALUE;
+        this._lastSegment = 0;
+
+        String[] filenames = this._folder.list();
+
+        if (filenames == null)
+            filenames = new String[0];
+
+        for (String filename : filenames)
+        {
+            if (filename.endsWith(PendingJournal.SEGMENT_EXTENSION))
+            {
+                try
+                {
+                    long segment = Long.parseLong(filename.substring(0, filename.length() - PendingJournal.SEGMENT_EXTENSION.length()));
+
+                    if (segment < this._firstSegment)
+                        this._firstSegment = segment;
+
+                    if (segment > this._lastSegment)
+                        this._lastSegment = segment;
+                }
+                catch (NumberFormatException e)
+                {
+                    // Not one of ours...
+                }
+            }
+        }
+
+        if (this._lastSegment == 0)
+            this._firstSegment = 1;
+
+        this._readSegment = this._firstSegment;
+        this._readOffset = 0;
+
+        File cursor = new File(this._folder, PendingJournal.CURSOR_FILE);
+
+        if (cursor.exists())
+        {
+            try
+            {
+                String[] tokens = FileUtils.readFileToString(cursor, "UTF-8").trim().split("\t");
+
+                if (tokens.length == 2)
+                {
+                    long segment = Long.parseLong(tokens[0]);
+
+                    if (segment >= this._firstSegment)
+                    {
+                        this._readSegment = segment;
+                        this._readOffset = Long.parseLong(tokens[1]);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                LogManager.getInstance(this._context).logException(e);
+            }
+            catch (NumberFormatException e)
+            {
+                LogManager.getInstance(this._context).logException(e);
+            }
+        }
+
+        this._nextSegment = this._readSegment;
+        this._nextOffset = this._readOffset;
+
+        // Never append after a possibly torn tail - always start a fresh
+        // segment when the journal is (re)opened.
+
+        this._output = null;
+        this._writeLength = 0;
+    }
+
+    private File segmentFile(long segment)
+    {
+        return new File(this._folder, String.format(Locale.ENGLISH, "%016d", segment) + PendingJournal.SEGMENT_EXTENSION);
+    }
+
+    public synchronized long append(List<String> records, boolean encrypt) throws IOException
+    {
+        if (records.size() == 0)
+            return 0;
+
+        if (this._output != null && this.segmentFile(this._lastSegment).exists() == false)
+        {
+            // Pending folder was cleared underneath us...
+
+            this._output.close();
+            this.open();
+        }
+
+        if (this._output == null)
+        {
+            this._lastSegment += 1;
+
+            if (this._firstSegment > this._lastSegment)
+                this._firstSegment = this._lastSegment;
+
+            this._output = new FileOutputStream(this.segmentFile(this._lastSegment), true);
+            this._writeLength = 0;
+        }
+
+        byte flags = 0;
+
+        if (encrypt)
+        {
+            flags |= PendingJournal.FLAG_ENCRYPTED;
+
+            if (this._encryptCipher == null)
+                this._encryptCipher = EncryptionManager.getInstance().encryptCipher(this._context, true);
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        CRC32 crc = new CRC32();
+
+        for (String record : records)
+        {
+            byte[] bytes = record.getBytes("UTF-8");
+
+            if (encrypt)
+            {
+                try
+                {
+                    bytes = this._encryptCipher.doFinal(bytes);
+                }
+                catch (IllegalBlockSizeException e)
+                {
+                    throw new IOException(e);
+                }
+                catch (BadPaddingException e)
+                {
+                    throw new IOException(e);
+                }
+            }
+
+            crc.reset();
+            crc.update(flags);
+            crc.update(bytes, 0, bytes.length);
+
+            out.writeInt(bytes.length);
+            out.writeInt((int) crc.getValue());
+            out.writeByte(flags);
+            out.write(bytes);
+        }
+
+        out.flush();
+
+        buffer.writeTo(this._output);
+        this._output.flush();
+
+        this._writeLength += buffer.size();
+
+        if (this._writeLength >= PendingJournal.SEGMENT_SIZE)
+        {
+            this._output.close();
+            this._output = null;
+        }
+
+        return buffer.size();
+    }
+
+    public String readBatch(long maxSize)
+    {
+        long segment = 0;
+        long offset = 0;
+        long lastSegment = 0;
+        long activeLength = -1;
+
+        synchronized (this)
+        {
+            segment = this._readSegment;
+            offset = this._readOffset;
+            lastSegment = this._lastSegment;
+
+            if (this._output != null)
+                activeLength = this._writeLength;
+        }
+
+        StringBuilder payload = new StringBuilder("[");
+
+        int count = 0;
+        long total = 0;
+
+        boolean full = false;
+
+        while (full == false && segment <= lastSegment)
+        {
+            File f = this.segmentFile(segment);
+
+            long limit = f.length();
+
+            if (segment == lastSegment && activeLength >= 0)
+                limit = activeLength;
+
+            if (f.exists() && offset < limit)
+            {
+                DataInputStream in = null;
+
+                try
+                {
+                    FileInputStream fin = new FileInputStream(f);
+                    fin.getChannel().position(offset);
+
+                    in = new DataInputStream(new BufferedInputStream(fin));
+
+                    while (full == false && offset + PendingJournal.HEADER_SIZE <= limit)
+                    {
+                        int length = in.readInt();
+                        int checksum = in.readInt();
+                        byte flags = in.readByte();
+
+                        if (length < 0 || offset + PendingJournal.HEADER_SIZE + length > limit)
+                        {
+                            // Torn or corrupt tail - nothing more to salvage in this segment.
+
+                            offset = limit;
+                            break;
+                        }
+
+                        byte[] bytes = new byte[length];
+                        in.readFully(bytes);
+
+                        CRC32 crc = new CRC32();
+                        crc.update(flags);
+                        crc.update(bytes, 0, bytes.length);
+
+                        if (((int) crc.getValue()) != checksum)
+                        {
+                            LogManager.getInstance(this._context).log("pending_journal_checksum", null);
+
+                            offset = limit;
+                            break;
+                        }
+
+                        String record = this.decode(bytes, flags);
+
+                        if (record != null)
+                        {
+                            long size = PendingFileReader.utf8Length(record);
+
+                            if (count > 0 && total + size > maxSize)
+                            {
+                                full = true;
+                                break;
+                            }
+
+                            if (count > 0)
+                                payload.append(",");
+
+                            payload.append(record);
+
+                            count += 1;
+                            total += size;
+                        }
+
+                        offset += PendingJournal.HEADER_SIZE + length;
+                    }
+                }
+                catch (EOFException e)
+                {
+                    offset = limit;
+                }
+                catch (IOException e)
+                {
+                    LogManager.getInstance(this._context).logException(e);
+
+                    offset = limit;
+                }
+                finally
+                {
+                    if (in != null)
+                    {
+                        try
+                        {
+                            in.close();
+                        }
+                        catch (IOException e)
+                        {
+                            LogManager.getInstance(this._context).logException(e);
+                        }
+                    }
+                }
+            }
+
+            if (full == false)
+            {
+                if (segment < lastSegment)
+                {
+                    segment += 1;
+                    offset = 0;
+                }
+                else
+                    break;
+            }
+        }
+
+        payload.append("]");
+
+        synchronized (this)
+        {
+            this._nextSegment = segment;
+            this._nextOffset = offset;
+
+            this._recordCount = count;
+            this._byteCount = total;
+        }
+
+        return payload.toString();
+    }
+
+    private String decode(byte[] bytes, byte flags)
+    {
+        try
+        {
+            if ((flags & PendingJournal.FLAG_ENCRYPTED) != 0)
+            {
+                if (this._decryptCipher == null)
+                    this._decryptCipher = EncryptionManager.getInstance().decryptCipher(this._context, true);
+
+                bytes = this._decryptCipher.doFinal(bytes);
+            }
+
+            return new String(bytes, "UTF-8");
+        }
+        catch (IllegalBlockSizeException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+        catch (BadPaddingException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+
+        return null;
+    }
+
+    public synchronized int recordCount()
+    {
+        return this._recordCount;
+    }
+
+    public synchronized long byteCount()
+    {
+        return this._byteCount;
+    }
+
+    public synchronized void commit(File archiveFolder)
+    {
+        for (long segment = this._readSegment; segment < this._nextSegment; segment++)
+        {
+            File f = this.segmentFile(segment);
+
+            if (archiveFolder != null)
+                f.renameTo(new File(archiveFolder, System.currentTimeMillis() + "-" + segment + ".archive"));
+            else
+                f.delete();
+        }
+
+        if (this._nextSegment > this._firstSegment)
+            this._firstSegment = this._nextSegment;
+
+        this._readSegment = this._nextSegment;
+        this._readOffset = this._nextOffset;
+
+        this._recordCount = 0;
+        this._byteCount = 0;
+
+        File cursor = new File(this._folder, PendingJournal.CURSOR_FILE);
+        File temp = new File(this._folder, PendingJournal.CURSOR_FILE + ".tmp");
+
+        try
+        {
+            FileUtils.writeStringToFile(temp, this._readSegment + "\t" + this._readOffset, "UTF-8");
+
+            if (temp.renameTo(cursor) == false)
+                FileUtils.copyFile(temp, cursor);
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        if (this._lastSegment == 0 || this._readSegment > this._lastSegment)
+            return true;
+
+        if (this._readSegment < this._lastSegment)
+            return false;
+
+        if (this._output != null)
+            return this._readOffset >= this._writeLength;
+
+        return this._readOffset >= this.segmentFile(this._lastSegment).length();
+    }
+
+    /**
+     * Closes the segment being appended to. A later append starts a new
+     * segment, as after reopening the journal.
+     */
+
+    public synchronized void close()
+    {
+        if (this._output == null)
+            return;
+
+        try
+        {
+            this._output.close();
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+
+        this._output = null;
+        this._writeLength = 0;
+    }
+
+    public synchronized int segmentCount()
+    {
+        if (this.isEmpty())
+            return 0;
+
+        return (int) (this._lastSegment - this._readSegment + 1);
+    }
+
+    public synchronized long size()
+    {
+        long size = 0;
+
+        for (long segment = this._readSegment; segment <= this._lastSegment; segment++)
+            size += this.segmentFile(segment).length();
+
+        return Math.max(0, size - this._readOffset);
+    }
+}
@@ -0,0 +1,14 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.File;
+
+public interface PendingRecordSource
+{
+    public String readBatch(long maxSize);
+
+    public int recordCount();
+
+    public long byteCount();
+
+    public void commit(File archiveFolder);
+}
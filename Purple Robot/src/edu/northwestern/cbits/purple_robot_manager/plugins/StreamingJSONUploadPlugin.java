@@ -10,8 +10,6 @@ import java.security.SecureRandom;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.io.FileUtils;
-
 import android.annotation.SuppressLint;
 import android.app.ActivityManager.RunningTaskInfo;
 import android.bluetooth.BluetoothClass;
@@ -91,9 +89,15 @@ public class StreamingJSONUploadPlugin extends DataUploadPlugin
                     int index = random.nextInt(filenames.length - 1);
 
                     File payloadFile = new File(pendingFolder, filenames[index]);
-                    String payload = FileUtils.readFileToString(payloadFile);
 
-                    if (me.transmitPayload(prefs, payload) == DataUploadPlugin.RESULT_SUCCESS)
+                    int result = me.transmitPayload(prefs, payloadFile);
+
+                    // Server refused the compressed body - send it form-encoded...
+
+                    if (result == DataUploadPlugin.RESULT_UNSUPPORTED_ENCODING)
+                        result = me.transmitPayload(prefs, payloadFile);
+
+                    if (result == DataUploadPlugin.RESULT_SUCCESS)
                     {
                         payloadFile.delete();
 
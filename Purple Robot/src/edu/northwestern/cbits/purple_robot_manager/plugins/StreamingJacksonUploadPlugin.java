@@ -1,14 +1,29 @@
 package edu.northwestern.cbits.purple_robot_manager.plugins;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.security.SecureRandom;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -31,10 +46,15 @@ import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.plugins.BinaryRecordReader.RecordException;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.SensorBatch;
 
 @SuppressLint("NewApi")
 public class StreamingJacksonUploadPlugin extends DataUploadPlugin
@@ -43,20 +63,47 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
     private final static String FILE_EXTENSION = ".jackson";
     private static final String TEMP_FILE_EXTENSION = ".jackson-temp";
     private static final String PRIORITY_FILE_EXTENSION = ".priority";
+    private static final String PRIORITY_TEMP_FILE_EXTENSION = ".priority-temp";
+    private static final String RECORDS_FILE_EXTENSION = ".records";
+    private static final String RECORDS_TEMP_FILE_EXTENSION = ".records-temp";
+    private static final String RECORDS_PRIORITY_FILE_EXTENSION = ".records-priority";
+    private static final String RECORDS_PRIORITY_TEMP_FILE_EXTENSION = ".records-priority-temp";
 
     private static final String ENABLED = "config_enable_streaming_jackson_data_server";
     private static final String UPLOAD_SIZE = "config_streaming_jackson_upload_size";
     private static final String UPLOAD_INTERVAL = "config_streaming_jackson_upload_interval";
+    private static final String BINARY_STORAGE = "config_streaming_jackson_binary_storage";
+    private static final String FLUSH_INTERVAL = "config_streaming_jackson_flush_interval";
 
     private static final String UPLOAD_SIZE_DEFAULT = "262114";
     private static final String UPLOAD_INTERVAL_DEFAULT = "300";
+    private static final String FLUSH_INTERVAL_DEFAULT = "1000";
+
+    private static final int FLUSH_SIZE = 64 * 1024;
+    private static final long MAX_RETRY_DELAY = 300000;
 
     private JsonGenerator _generator = null;
+    private CountingOutputStream _counter = null;
+    private BinaryRecordWriter _records = null;
     private boolean _priorityPayload = false;
 
-    private long _lastAttempt = 0;
     private File _currentFile = null;
 
+    private long _lastWrite = 0;
+    private long _flushedLength = 0;
+    private boolean _flushScheduled = false;
+    private boolean _uploadScheduled = false;
+    private Timer _timer = null;
+    private TimerTask _retry = null;
+
+    private final Object _uploadLock = new Object();
+
+    // Session files are already cut to the configured upload size, so only the
+    // controller's window and backoff are used here...
+
+    private final UploadController _controller = new UploadController(StreamingJacksonUploadPlugin.FLUSH_SIZE, StreamingJacksonUploadPlugin.FLUSH_SIZE, 1, StreamingJacksonUploadPlugin.MAX_RETRY_DELAY);
+    private final HashSet<File> _deferred = new HashSet<File>();
+
     public String[] respondsTo()
     {
         String[] activeActions = { Probe.PROBE_READING, OutputPlugin.FORCE_UPLOAD };
@@ -64,114 +111,403 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
         return activeActions;
     }
 
-    private void uploadFiles(final Context context, final SharedPreferences prefs)
-    {
-        long now = System.currentTimeMillis();
+    /**
+     * Uploads the pending files on a new thread. The upload timer decides when
+     * this runs; retries after a failure leave the open session alone and
+     * only send the files already pending.
+     */
 
-        long duration = Long.parseLong(prefs.getString(StreamingJacksonUploadPlugin.UPLOAD_INTERVAL, StreamingJacksonUploadPlugin.UPLOAD_INTERVAL_DEFAULT)) * 1000;
-
-        if (now - this._lastAttempt < duration || this.shouldAttemptUpload(context) == false)
+    private void uploadFiles(final Context context, final SharedPreferences prefs, final boolean closeSession)
+    {
+        if (this.shouldAttemptUpload(context) == false)
             return;
 
-        this._lastAttempt = now;
-
         final StreamingJacksonUploadPlugin me = this;
 
         Runnable r = new Runnable()
         {
-            @SuppressLint("TrulyRandom")
             public void run()
             {
-                synchronized (me)
+                try
                 {
-                    try
+                    if (closeSession)
                     {
-                        me.closeOpenSession();
+                        synchronized (me)
+                        {
+                            me.closeOpenSession();
+                        }
+                    }
+
+                    // Readings keep going to a new session while this one is
+                    // transmitted...
+
+                    synchronized (me._uploadLock)
+                    {
+                        List<File> files = me.pendingUploads();
+
+                        if (files.size() < 1)
+                            return;
 
-                        File pendingFolder = me.getPendingFolder();
+                        int uploaded = me.transmitFiles(context, prefs, files);
 
-                        String[] priorityFilenames = pendingFolder.list(new FilenameFilter()
+                        // Every file pending at the start of the pass has been
+                        // sent once the pass succeeds. Readings that arrived
+                        // meanwhile wait for the next interval...
+
+                        if (uploaded < files.size())
                         {
-                            public boolean accept(File dir, String filename)
+                            synchronized (me)
                             {
-                                return filename.endsWith(StreamingJacksonUploadPlugin.PRIORITY_FILE_EXTENSION);
+                                me.scheduleRetry(context, prefs);
                             }
-                        });
+                        }
+                    }
+                }
+                catch (IOException e)
+                {
+                    LogManager.getInstance(context).logException(e);
+                    me.broadcastMessage(context.getString(R.string.message_general_error), true);
+                }
+            }
+        };
 
-                        String[] filenames = null;
+        Thread t = new Thread(r);
+        t.start();
+    }
 
-                        if (priorityFilenames != null && priorityFilenames.length > 0)
-                            filenames = priorityFilenames;
-                        else
-                        {
-                            filenames = pendingFolder.list(new FilenameFilter()
-                            {
-                                public boolean accept(File dir, String filename)
-                                {
-                                    return filename.endsWith(StreamingJacksonUploadPlugin.FILE_EXTENSION);
-                                }
-                            });
+    /**
+     * Lists the closed pending files, priority files first and the oldest
+     * first within each group. Files that have failed to upload go to the
+     * end of their group, so a file the server keeps rejecting does not hold
+     * up the others.
+     */
 
-                            if (filenames == null)
-                                filenames = new String[0];
-                        }
+    private List<File> pendingUploads()
+    {
+        File pendingFolder = this.getPendingFolder();
 
-                        if (filenames.length < 1)
-                            return;
+        String[] priorityFilenames = pendingFolder.list(new FilenameFilter()
+        {
+            public boolean accept(File dir, String filename)
+            {
+                return (filename.endsWith(StreamingJacksonUploadPlugin.PRIORITY_FILE_EXTENSION) || filename
+                        .endsWith(StreamingJacksonUploadPlugin.RECORDS_PRIORITY_FILE_EXTENSION));
+            }
+        });
 
-                        SecureRandom random = new SecureRandom();
+        String[] filenames = pendingFolder.list(new FilenameFilter()
+        {
+            public boolean accept(File dir, String filename)
+            {
+                return (filename.endsWith(StreamingJacksonUploadPlugin.FILE_EXTENSION) || filename
+                        .endsWith(StreamingJacksonUploadPlugin.RECORDS_FILE_EXTENSION));
+            }
+        });
 
-                        int index = 0;
+        final StreamingJacksonUploadPlugin me = this;
 
-                        if (filenames.length > 1)
-                            index = random.nextInt(filenames.length);
+        ArrayList<File> files = new ArrayList<File>();
 
-                        File payloadFile = new File(pendingFolder, filenames[index]);
+        for (String[] group : new String[][] { priorityFilenames, filenames })
+        {
+            if (group == null || group.length < 1)
+                continue;
 
-                        String payload = FileUtils.readFileToString(payloadFile, "UTF-8");
+            ArrayList<File> groupFiles = new ArrayList<File>();
 
-                        if (me.transmitPayload(prefs, payload) == DataUploadPlugin.RESULT_SUCCESS)
-                        {
-                            payloadFile.delete();
+            for (String filename : group)
+                groupFiles.add(new File(pendingFolder, filename));
 
-                            me._lastAttempt = 0;
-                            me.uploadFiles(context, prefs);
-                        }
-                        else
+            Collections.sort(groupFiles, new Comparator<File>()
+            {
+                public int compare(File one, File two)
+                {
+                    boolean oneDeferred = me._deferred.contains(one);
+                    boolean twoDeferred = me._deferred.contains(two);
+
+                    if (oneDeferred != twoDeferred)
+                        return oneDeferred ? 1 : -1;
+
+                    long oneModified = one.lastModified();
+                    long twoModified = two.lastModified();
+
+                    if (oneModified < twoModified)
+                        return -1;
+                    else if (oneModified > twoModified)
+                        return 1;
+
+                    return one.getName().compareTo(two.getName());
+                }
+            });
+
+            files.addAll(groupFiles);
+        }
+
+        return files;
+    }
+
+    /**
+     * Uploads the files on the shared upload client, keeping as many batches
+     * in flight as the upload controller allows, up to the configured number.
+     * Results are acknowledged in the order the files were sent: each file is
+     * deleted once its own upload succeeds, and the first failure stops
+     * further batches from starting. Returns the number of files uploaded.
+     */
+
+    private int transmitFiles(final Context context, final SharedPreferences prefs, List<File> files)
+    {
+        final StreamingJacksonUploadPlugin me = this;
+
+        int inFlight = UploadClient.inFlight(prefs);
+
+        this._controller.setMaxInFlight(inFlight);
+
+        ExecutorService executor = Executors.newFixedThreadPool(inFlight);
+
+        LinkedList<File> sent = new LinkedList<File>();
+        LinkedList<Future<Integer>> pending = new LinkedList<Future<Integer>>();
+
+        int next = 0;
+        int uploaded = 0;
+        boolean failed = false;
+
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            while (next < files.size() || pending.size() > 0)
+            {
+                while (failed == false && next < files.size() && pending.size() < me._controller.inFlight())
+                {
+                    final File payloadFile = files.get(next);
+                    next += 1;
+
+                    sent.add(payloadFile);
+                    pending.add(executor.submit(new Callable<Integer>()
+                    {
+                        public Integer call() throws Exception
                         {
+                            long bytes = payloadFile.length();
+                            long fileStart = System.currentTimeMillis();
+
+                            me._controller.begin();
+
+                            int result = DataUploadPlugin.RESULT_ERROR;
+
                             try
                             {
-                                JSONArray jsonPayload = new JSONArray(payload);
+                                result = me.transmitFile(context, prefs, payloadFile);
+
+                                // The server refused the compressed body and the
+                                // negotiated encoding is gone - resend form-encoded
+                                // right away. The refusal says nothing about the link...
 
-                                // JSON is valid
+                                if (result == DataUploadPlugin.RESULT_UNSUPPORTED_ENCODING)
+                                {
+                                    fileStart = System.currentTimeMillis();
+
+                                    result = me.transmitFile(context, prefs, payloadFile);
+                                }
                             }
-                            catch (JSONException e)
+                            finally
                             {
-                                // Invalid JSON, log results.
+                                long elapsed = System.currentTimeMillis() - fileStart;
+
+                                if (result == DataUploadPlugin.RESULT_SUCCESS)
+                                    me._controller.success(bytes, elapsed);
+                                else if (result == DataUploadPlugin.RESULT_ERROR)
+                                    me._controller.failure(bytes, elapsed, false);
+                                else if (result == DataUploadPlugin.RESULT_TIMEOUT)
+                                    me._controller.failure(bytes, elapsed, true);
+                                else
+                                    me._controller.unreachable();
+                            }
 
-                                LogManager.getInstance(context).logException(e);
+                            return Integer.valueOf(result);
+                        }
+                    }));
+                }
 
-                                HashMap<String, Object> details = new HashMap<String, Object>();
-                                payloadFile.renameTo(new File(payloadFile.getAbsolutePath() + StreamingJacksonUploadPlugin.ERROR_EXTENSION));
+                if (pending.size() < 1)
+                    break;
 
-                                details.put("name", payloadFile.getAbsolutePath());
-                                details.put("size", payloadFile.length());
+                File payloadFile = sent.removeFirst();
 
-                                LogManager.getInstance(context).log("corrupted_file", details);
-                            }
-                        }
-                    }
-                    catch (IOException e)
+                int result = DataUploadPlugin.RESULT_ERROR;
+
+                try
+                {
+                    result = pending.removeFirst().get().intValue();
+                }
+                catch (InterruptedException e)
+                {
+                    LogManager.getInstance(context).logException(e);
+                }
+                catch (ExecutionException e)
+                {
+                    LogManager.getInstance(context).logException(e.getCause());
+                    me.broadcastMessage(context.getString(R.string.message_general_error), true);
+                }
+
+                if (result == DataUploadPlugin.RESULT_SUCCESS)
+                {
+                    payloadFile.delete();
+
+                    this._deferred.remove(payloadFile);
+
+                    uploaded += 1;
+                }
+                else
+                {
+                    failed = true;
+
+                    this._deferred.add(payloadFile);
+
+                    this.checkPayload(context, payloadFile);
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        long duration = System.currentTimeMillis() - start;
+
+        HashMap<String, Object> details = new HashMap<String, Object>();
+        details.put("batches", uploaded);
+        details.put("in_flight", inFlight);
+        details.put("controller_in_flight", this._controller.inFlight());
+        details.put("bandwidth", this._controller.bandwidth());
+        details.put("latency", this._controller.latency());
+        details.put("failure_rate", this._controller.failureRate());
+        details.put("duration", duration);
+        details.put("batches_per_second", (uploaded * 1000.0) / Math.max(1, duration));
+
+        LogManager.getInstance(context).log("data_upload_batches", details);
+
+        return uploaded;
+    }
+
+    private int transmitFile(Context context, SharedPreferences prefs, File payloadFile) throws IOException
+    {
+        if (payloadFile.getName().endsWith(StreamingJacksonUploadPlugin.RECORDS_FILE_EXTENSION)
+                || payloadFile.getName().endsWith(StreamingJacksonUploadPlugin.RECORDS_PRIORITY_FILE_EXTENSION))
+            return this.transmitRecords(context, prefs, payloadFile);
+
+        return this.transmitPayload(prefs, payloadFile);
+    }
+
+    /**
+     * Sets a JSON pending file that failed to upload aside with the error
+     * extension if it no longer parses. Unreadable binary record files are
+     * set aside by transmitRecords.
+     */
+
+    private void checkPayload(Context context, File payloadFile)
+    {
+        if (payloadFile.exists() == false || payloadFile.getName().endsWith(StreamingJacksonUploadPlugin.RECORDS_FILE_EXTENSION)
+                || payloadFile.getName().endsWith(StreamingJacksonUploadPlugin.RECORDS_PRIORITY_FILE_EXTENSION))
+            return;
+
+        try
+        {
+            String payload = FileUtils.readFileToString(payloadFile, "UTF-8");
+
+            JSONArray jsonPayload = new JSONArray(payload);
+
+            // JSON is valid
+        }
+        catch (JSONException e)
+        {
+            // Invalid JSON, log results.
+
+            LogManager.getInstance(context).logException(e);
+
+            HashMap<String, Object> details = new HashMap<String, Object>();
+            payloadFile.renameTo(new File(payloadFile.getAbsolutePath() + StreamingJacksonUploadPlugin.ERROR_EXTENSION));
+
+            details.put("name", payloadFile.getAbsolutePath());
+            details.put("size", payloadFile.length());
+
+            LogManager.getInstance(context).log("corrupted_file", details);
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+    }
+
+    /**
+     * Checks for pending files once per upload interval, independently of
+     * incoming readings. The check stops when the plugin is disabled and
+     * resumes with the next reading.
+     */
+
+    private void scheduleUploads(final Context context, final SharedPreferences prefs)
+    {
+        if (this._uploadScheduled)
+            return;
+
+        this._uploadScheduled = true;
+
+        long interval = Long.parseLong(prefs.getString(StreamingJacksonUploadPlugin.UPLOAD_INTERVAL, StreamingJacksonUploadPlugin.UPLOAD_INTERVAL_DEFAULT)) * 1000;
+
+        final StreamingJacksonUploadPlugin me = this;
+
+        this.timer().schedule(new TimerTask()
+        {
+            public void run()
+            {
+                synchronized (me)
+                {
+                    me._uploadScheduled = false;
+
+                    if (prefs.getBoolean(StreamingJacksonUploadPlugin.ENABLED, false))
                     {
-                        LogManager.getInstance(context).logException(e);
-                        me.broadcastMessage(context.getString(R.string.message_general_error), true);
+                        me.uploadFiles(context, prefs, true);
+                        me.scheduleUploads(context, prefs);
                     }
                 }
             }
+        }, interval);
+    }
+
+    /**
+     * Retries the backlog once after the upload controller's backoff instead
+     * of waiting for the next upload interval.
+     */
+
+    private void scheduleRetry(final Context context, final SharedPreferences prefs)
+    {
+        if (this._retry != null)
+            this._retry.cancel();
+
+        final StreamingJacksonUploadPlugin me = this;
+
+        this._retry = new TimerTask()
+        {
+            public void run()
+            {
+                synchronized (me)
+                {
+                    me._retry = null;
+
+                    if (prefs.getBoolean(StreamingJacksonUploadPlugin.ENABLED, false))
+                        me.uploadFiles(context, prefs, false);
+                }
+            }
         };
 
-        Thread t = new Thread(r);
-        t.start();
+        this.timer().schedule(this._retry, Math.max(1, this._controller.retryDelay()));
+    }
+
+    private Timer timer()
+    {
+        if (this._timer == null)
+            this._timer = new Timer(true);
+
+        return this._timer;
     }
 
     public void processIntent(final Intent intent)
@@ -187,11 +523,7 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
             String action = intent.getAction();
 
             if (OutputPlugin.FORCE_UPLOAD.equals(action))
-            {
-                this._lastAttempt = 0;
-
-                this.uploadFiles(context, prefs);
-            }
+                this.uploadFiles(context, prefs, true);
             else if (Probe.PROBE_READING.equals(action))
             {
                 Bundle extras = intent.getExtras();
@@ -206,79 +538,177 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
 
                     try
                     {
-                        File pendingFolder = this.getPendingFolder();
+                        // Rotate from the tracked session size and last write
+                        // instead of asking the file system...
 
                         if (this._currentFile != null)
                         {
-                            File f = this._currentFile.getAbsoluteFile();
-
-                            long length = f.length();
-                            long modDelta = now - f.lastModified();
-
                             long size = Long.parseLong(prefs.getString(StreamingJacksonUploadPlugin.UPLOAD_SIZE,
                                     StreamingJacksonUploadPlugin.UPLOAD_SIZE_DEFAULT));
 
-                            if (this._generator != null && (length > size || modDelta > 60000))
+                            if (this.sessionLength() > size || now - this._lastWrite > 60000)
                                 this.closeOpenSession();
                         }
 
-                        this.uploadFiles(context, prefs);
-
-                        if (this._generator == null)
+                        if (this._generator == null && this._records == null)
                         {
-                            this._currentFile = new File(pendingFolder, now + TEMP_FILE_EXTENSION);
+                            File pendingFolder = this.getPendingFolder();
 
-                            JsonFactory factory = new JsonFactory();
+                            if (prefs.getBoolean(StreamingJacksonUploadPlugin.BINARY_STORAGE, false))
+                            {
+                                this._currentFile = new File(pendingFolder, now + RECORDS_TEMP_FILE_EXTENSION);
+
+                                this._records = new BinaryRecordWriter(this.getContext(), this._currentFile);
+                            }
+                            else
+                            {
+                                this._currentFile = new File(pendingFolder, now + TEMP_FILE_EXTENSION);
 
-                            this._generator = factory.createGenerator(this._currentFile, JsonEncoding.UTF8);
+                                this._counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(this._currentFile),
+                                        StreamingJacksonUploadPlugin.FLUSH_SIZE));
 
-                            this._generator.writeStartArray();
+                                JsonFactory factory = new JsonFactory();
+
+                                this._generator = factory.createGenerator(this._counter, JsonEncoding.UTF8);
+
+                                this._generator.writeStartArray();
+                            }
+
+                            this._flushedLength = 0;
                         }
 
-                        if (extras.containsKey("PRIORITY") && extras.getBoolean("PRIORITY"))
+                        if (extras.containsKey("PRIORITY") && extras.getBoolean("PRIORITY") && this._priorityPayload == false)
+                        {
                             this._priorityPayload = true;
 
-                        StreamingJacksonUploadPlugin.writeBundle(this.getContext(), this._generator, extras);
-                        this._generator.flush();
+                            this.markPriority();
+                        }
+
+                        if (this._records != null)
+                            this._records.write(extras);
+                        else
+                            StreamingJacksonUploadPlugin.writeBundle(this.getContext(), this._generator, extras);
+
+                        this._lastWrite = now;
+
+                        this.commit(prefs);
                     }
                     catch (IOException e)
                     {
                         LogManager.getInstance(this.getContext()).logException(e);
                     }
+
+                    this.scheduleUploads(context, prefs);
                 }
             }
         }
     }
 
+    /**
+     * Group commit: readings are buffered in memory and handed to the file
+     * system once FLUSH_SIZE bytes are waiting or the flush interval has
+     * passed since the first unflushed reading, whichever comes first. A
+     * crash loses at most the flush interval's worth of readings. An interval
+     * of zero flushes every reading.
+     */
+
+    private void commit(SharedPreferences prefs) throws IOException
+    {
+        long interval = Long.parseLong(prefs.getString(StreamingJacksonUploadPlugin.FLUSH_INTERVAL, StreamingJacksonUploadPlugin.FLUSH_INTERVAL_DEFAULT));
+
+        if (interval <= 0 || this.sessionLength() - this._flushedLength >= StreamingJacksonUploadPlugin.FLUSH_SIZE)
+            this.flushSession();
+        else if (this._flushScheduled == false)
+        {
+            this._flushScheduled = true;
+
+            final StreamingJacksonUploadPlugin me = this;
+
+            this.timer().schedule(new TimerTask()
+            {
+                public void run()
+                {
+                    synchronized (me)
+                    {
+                        me._flushScheduled = false;
+
+                        try
+                        {
+                            me.flushSession();
+                        }
+                        catch (IOException e)
+                        {
+                            LogManager.getInstance(me.getContext()).logException(e);
+                        }
+                    }
+                }
+            }, interval);
+        }
+    }
+
+    private void flushSession() throws IOException
+    {
+        if (this._records != null)
+            this._records.flush();
+        else if (this._generator != null)
+            this._generator.flush();
+
+        this._flushedLength = this.sessionLength();
+    }
+
+    /**
+     * Bytes written to the open session so far. For JSON sessions this lags
+     * by whatever the generator still buffers (a few kilobytes at most).
+     */
+
+    private long sessionLength()
+    {
+        if (this._records != null)
+            return this._records.length();
+        else if (this._counter != null)
+            return this._counter.getByteCount();
+
+        return 0;
+    }
+
     private void closeOpenSession() throws JsonGenerationException, IOException
     {
-        if (this._generator == null || this._currentFile == null)
+        if ((this._generator == null && this._records == null) || this._currentFile == null)
             return;
 
         File pendingFolder = this.getPendingFolder();
 
-        this._generator.writeEndArray();
-        this._generator.flush();
-        this._generator.close();
+        String tempFile = this._currentFile.getAbsolutePath();
 
-        this._generator = null;
+        if (this._records != null)
+        {
+            this._records.close();
 
-        String tempFile = this._currentFile.getAbsolutePath();
-        String finalFile = tempFile.replace(TEMP_FILE_EXTENSION, FILE_EXTENSION);
+            this._records = null;
+        }
+        else
+        {
+            this._generator.writeEndArray();
+            this._generator.flush();
+            this._generator.close();
 
-        if (this._priorityPayload)
-            finalFile = finalFile.replace(FILE_EXTENSION, PRIORITY_FILE_EXTENSION);
+            this._generator = null;
+            this._counter = null;
+        }
 
         this._currentFile = null;
         this._priorityPayload = false;
 
-        FileUtils.moveFile(new File(tempFile), new File(finalFile));
+        FileUtils.moveFile(new File(tempFile), new File(StreamingJacksonUploadPlugin.pendingPath(tempFile)));
+
+        // Any other temporary files were left by a crash. Keep what they
+        // flushed before it...
 
         String[] filenames = pendingFolder.list(new FilenameFilter()
         {
             public boolean accept(File dir, String filename)
             {
-                return filename.endsWith(StreamingJacksonUploadPlugin.TEMP_FILE_EXTENSION);
+                return StreamingJacksonUploadPlugin.isTempFile(filename);
             }
         });
 
@@ -286,10 +716,192 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
             filenames = new String[0];
 
         for (String filename : filenames)
+            this.recoverFile(new File(pendingFolder, filename));
+    }
+
+    /**
+     * Moves the open session to a priority temporary file once it holds a
+     * priority reading, so a crash before the session closes still recovers
+     * it as a priority file.
+     */
+
+    private void markPriority()
+    {
+        String path = this._currentFile.getAbsolutePath();
+
+        File priorityFile = null;
+
+        if (this._records != null)
+            priorityFile = new File(path.replace(RECORDS_TEMP_FILE_EXTENSION, RECORDS_PRIORITY_TEMP_FILE_EXTENSION));
+        else
+            priorityFile = new File(path.replace(TEMP_FILE_EXTENSION, PRIORITY_TEMP_FILE_EXTENSION));
+
+        // The open stream follows the file to its new name...
+
+        if (this._currentFile.renameTo(priorityFile))
+            this._currentFile = priorityFile;
+        else
+        {
+            HashMap<String, Object> details = new HashMap<String, Object>();
+            details.put("name", path);
+
+            LogManager.getInstance(this.getContext()).log("priority_rename_failed", details);
+        }
+    }
+
+    private static boolean isTempFile(String filename)
+    {
+        return (filename.endsWith(StreamingJacksonUploadPlugin.TEMP_FILE_EXTENSION)
+                || filename.endsWith(StreamingJacksonUploadPlugin.PRIORITY_TEMP_FILE_EXTENSION)
+                || filename.endsWith(StreamingJacksonUploadPlugin.RECORDS_TEMP_FILE_EXTENSION)
+                || filename.endsWith(StreamingJacksonUploadPlugin.RECORDS_PRIORITY_TEMP_FILE_EXTENSION));
+    }
+
+    /**
+     * Returns the pending file name for a session's temporary file. Priority
+     * sessions become priority files.
+     */
+
+    private static String pendingPath(String path)
+    {
+        if (path.endsWith(StreamingJacksonUploadPlugin.RECORDS_PRIORITY_TEMP_FILE_EXTENSION))
+            return path.replace(RECORDS_PRIORITY_TEMP_FILE_EXTENSION, RECORDS_PRIORITY_FILE_EXTENSION);
+        else if (path.endsWith(StreamingJacksonUploadPlugin.RECORDS_TEMP_FILE_EXTENSION))
+            return path.replace(RECORDS_TEMP_FILE_EXTENSION, RECORDS_FILE_EXTENSION);
+        else if (path.endsWith(StreamingJacksonUploadPlugin.PRIORITY_TEMP_FILE_EXTENSION))
+            return path.replace(PRIORITY_TEMP_FILE_EXTENSION, PRIORITY_FILE_EXTENSION);
+
+        return path.replace(TEMP_FILE_EXTENSION, FILE_EXTENSION);
+    }
+
+    /**
+     * Turns a temporary file left by a crash into a pending file, keeping its
+     * priority. Binary record files are kept as they are (readers skip a torn
+     * last record). JSON files are cut after the last complete reading and
+     * closed. Files without a complete reading are deleted.
+     */
+
+    private void recoverFile(File file)
+    {
+        String path = file.getAbsolutePath();
+
+        try
+        {
+            if (path.endsWith(StreamingJacksonUploadPlugin.RECORDS_TEMP_FILE_EXTENSION)
+                    || path.endsWith(StreamingJacksonUploadPlugin.RECORDS_PRIORITY_TEMP_FILE_EXTENSION))
+            {
+                FileUtils.moveFile(file, new File(StreamingJacksonUploadPlugin.pendingPath(path)));
+
+                return;
+            }
+
+            long end = StreamingJacksonUploadPlugin.lastCompleteReading(file);
+
+            if (end < 0)
+            {
+                file.delete();
+
+                return;
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try
+            {
+                raf.setLength(end);
+                raf.seek(end);
+                raf.write(']');
+            }
+            finally
+            {
+                raf.close();
+            }
+
+            FileUtils.moveFile(file, new File(StreamingJacksonUploadPlugin.pendingPath(path)));
+        }
+        catch (IOException e)
+        {
+            LogManager.getInstance(this.getContext()).logException(e);
+
+            file.delete();
+        }
+    }
+
+    /**
+     * Returns the offset just past the last complete reading in a JSON
+     * session file, or -1 if it holds none.
+     */
+
+    private static long lastCompleteReading(File file) throws IOException
+    {
+        JsonParser parser = new JsonFactory().createParser(file);
+
+        long end = -1;
+        int depth = 0;
+
+        try
         {
-            File toDelete = new File(pendingFolder, filename);
+            JsonToken token = null;
 
-            toDelete.delete();
+            while ((token = parser.nextToken()) != null)
+            {
+                if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY)
+                    depth += 1;
+                else if (token == JsonToken.END_OBJECT || token == JsonToken.END_ARRAY)
+                {
+                    depth -= 1;
+
+                    if (depth == 1 && token == JsonToken.END_OBJECT)
+                        end = parser.getCurrentLocation().getByteOffset();
+                }
+            }
+        }
+        catch (JsonParseException e)
+        {
+            // Torn last reading...
+        }
+        finally
+        {
+            parser.close();
+        }
+
+        return end;
+    }
+
+    /**
+     * Uploads a binary record file. The records are converted back to the
+     * JSON array the server expects in a temporary file, so the upload itself
+     * is the same as for JSON pending files. Unreadable files are set aside
+     * with the error extension.
+     */
+
+    private int transmitRecords(Context context, SharedPreferences prefs, File recordsFile) throws IOException
+    {
+        File jsonFile = File.createTempFile("records", ".json", context.getCacheDir());
+
+        try
+        {
+            BinaryRecordReader.toJson(recordsFile, jsonFile);
+
+            return this.transmitPayload(prefs, jsonFile);
+        }
+        catch (RecordException e)
+        {
+            LogManager.getInstance(context).logException(e);
+
+            HashMap<String, Object> details = new HashMap<String, Object>();
+            details.put("name", recordsFile.getAbsolutePath());
+            details.put("size", recordsFile.length());
+
+            recordsFile.renameTo(new File(recordsFile.getAbsolutePath() + StreamingJacksonUploadPlugin.ERROR_EXTENSION));
+
+            LogManager.getInstance(context).log("corrupted_file", details);
+
+            return DataUploadPlugin.RESULT_ERROR;
+        }
+        finally
+        {
+            jsonFile.delete();
         }
     }
 
@@ -300,6 +912,11 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
         {
             generator.writeStartObject();
 
+            SensorBatch batch = SensorBatch.fromBundle(bundle);
+
+            if (batch != null)
+                batch.writeJson(generator);
+
             Map<String, Object> values = OutputPlugin.getValues(bundle);
 
             for (String key : values.keySet())
@@ -310,6 +927,10 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
                 {
                     // Skip
                 }
+                else if (batch != null && batch.ownsKey(key))
+                {
+                    // Already written above...
+                }
                 else
                 {
                     if (value instanceof String)
@@ -550,8 +1171,9 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
         {
             public boolean accept(File dir, String filename)
             {
-                return (filename.endsWith(StreamingJacksonUploadPlugin.FILE_EXTENSION) || filename
-                        .endsWith(StreamingJacksonUploadPlugin.TEMP_FILE_EXTENSION));
+                return (filename.endsWith(StreamingJacksonUploadPlugin.FILE_EXTENSION)
+                        || filename.endsWith(StreamingJacksonUploadPlugin.RECORDS_FILE_EXTENSION)
+                        || StreamingJacksonUploadPlugin.isTempFile(filename));
             }
         });
 
@@ -569,8 +1191,9 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
         {
             public boolean accept(File dir, String filename)
             {
-                return (filename.endsWith(StreamingJacksonUploadPlugin.FILE_EXTENSION) || filename
-                        .endsWith(StreamingJacksonUploadPlugin.TEMP_FILE_EXTENSION));
+                return (filename.endsWith(StreamingJacksonUploadPlugin.FILE_EXTENSION)
+                        || filename.endsWith(StreamingJacksonUploadPlugin.RECORDS_FILE_EXTENSION)
+                        || StreamingJacksonUploadPlugin.isTempFile(filename));
             }
         });
 
@@ -3,11 +3,9 @@ package edu.northwestern.cbits.purple_robot_manager.plugins;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.json.JSONException;
-
 import android.content.Context;
 import android.content.Intent;
-import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import android.os.Bundle;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 import edu.northwestern.cbits.purple_robot_manager.triggers.ProbeTrigger;
 import edu.northwestern.cbits.purple_robot_manager.triggers.Trigger;
@@ -15,6 +13,11 @@ import edu.northwestern.cbits.purple_robot_manager.triggers.TriggerManager;
 
 public class TriggerOutputPlugin extends OutputPlugin
 {
+    protected IntentDispatcher.OverloadPolicy overloadPolicy()
+    {
+        return IntentDispatcher.OverloadPolicy.COALESCE;
+    }
+
     public String[] respondsTo()
     {
         String[] activeActions =
@@ -27,6 +30,13 @@ public class TriggerOutputPlugin extends OutputPlugin
     {
         Context context = this.getContext();
 
+        Bundle extras = intent.getExtras();
+
+        if (extras == null)
+            return;
+
+        String probe = extras.getString("PROBE");
+
         synchronized (this)
         {
             List<Trigger> triggers = new ArrayList<Trigger>();
@@ -38,16 +48,8 @@ public class TriggerOutputPlugin extends OutputPlugin
                 {
                     ProbeTrigger probeTrigger = (ProbeTrigger) trigger;
 
-                    try
-                    {
-                        if (probeTrigger.matchesProbe(intent.getExtras().getString("PROBE"))
-                                && probeTrigger.matches(context, OutputPlugin.jsonForBundle(intent.getExtras())))
-                            trigger.execute(context, false);
-                    }
-                    catch (JSONException e)
-                    {
-                        LogManager.getInstance(context).logException(e);
-                    }
+                    if (probeTrigger.matchesProbe(probe) && probeTrigger.matches(context, extras))
+                        trigger.execute(context, false);
                 }
             }
         }
@@ -0,0 +1,162 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import edu.northwestern.cbits.purple_robot_manager.logging.LiberalSSLSocketFactory;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Long-lived HTTP client shared by the data upload plugins. Connections are
+ * pooled and kept alive between batches, and one SSL socket factory is kept
+ * for the life of the client so that later connections to the same server
+ * can resume the TLS session instead of repeating the full handshake.
+ *
+ * The pool holds one connection per batch allowed in flight. Callers must
+ * consume or close each response entity so its connection returns to the
+ * pool.
+ */
+
+public class UploadClient
+{
+    public static final String IN_FLIGHT = "config_data_upload_in_flight";
+    public static final String IN_FLIGHT_DEFAULT = "2";
+
+    private static final int MAX_IN_FLIGHT = 8;
+
+    private static final int CONNECT_TIMEOUT = 30000;
+    private static final int SOCKET_TIMEOUT = 180000;
+    private static final long IDLE_TIMEOUT = 30000;
+
+    private static DefaultHttpClient _client = null;
+    private static boolean _liberalSsl = false;
+    private static int _connections = 0;
+
+    /**
+     * Returns the number of batches that may be uploaded concurrently, from 1
+     * to 8.
+     */
+
+    public static int inFlight(SharedPreferences prefs)
+    {
+        try
+        {
+            int inFlight = Integer.parseInt(prefs.getString(UploadClient.IN_FLIGHT, UploadClient.IN_FLIGHT_DEFAULT));
+
+            return Math.max(1, Math.min(UploadClient.MAX_IN_FLIGHT, inFlight));
+        }
+        catch (NumberFormatException e)
+        {
+            return Integer.parseInt(UploadClient.IN_FLIGHT_DEFAULT);
+        }
+    }
+
+    /**
+     * Returns the shared client, creating it on first use. The client is
+     * rebuilt when the certificate or in-flight settings change. Pooled
+     * connections idle for longer than the server is likely to keep them
+     * open are closed first, so a batch does not start on a dead connection.
+     */
+
+    public static synchronized HttpClient getClient(Context context)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        boolean liberalSsl = prefs.getBoolean(DataUploadPlugin.ALLOW_ALL_SSL_CERTIFICATES, DataUploadPlugin.ALLOW_ALL_SSL_CERTIFICATES_DEFAULT);
+        int connections = UploadClient.inFlight(prefs);
+
+        if (UploadClient._client != null && (UploadClient._liberalSsl != liberalSsl || UploadClient._connections != connections))
+            UploadClient.shutdown();
+
+        if (UploadClient._client == null)
+        {
+            SchemeRegistry registry = new SchemeRegistry();
+            registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+
+            SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
+
+            if (liberalSsl)
+            {
+                // Liberal HTTPS setup:
+                // http://stackoverflow.com/questions/2012497/accepting-a-certificate-for-https-on-android
+
+                try
+                {
+                    KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                    trustStore.load(null, null);
+
+                    socketFactory = new LiberalSSLSocketFactory(trustStore);
+                }
+                catch (Exception e)
+                {
+                    LogManager.getInstance(context).logException(e);
+                }
+
+                HttpsURLConnection.setDefaultHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+            }
+
+            registry.register(new Scheme("https", socketFactory, 443));
+
+            HttpParams params = new BasicHttpParams();
+
+            HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+            HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+            HttpProtocolParams.setUserAgent(params, "Purple Robot");
+
+            HttpConnectionParams.setConnectionTimeout(params, UploadClient.CONNECT_TIMEOUT);
+            HttpConnectionParams.setSoTimeout(params, UploadClient.SOCKET_TIMEOUT);
+            HttpConnectionParams.setSocketBufferSize(params, 8192);
+            HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+            ConnManagerParams.setMaxTotalConnections(params, connections);
+            ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(connections));
+            ConnManagerParams.setTimeout(params, UploadClient.SOCKET_TIMEOUT);
+
+            ThreadSafeClientConnManager manager = new ThreadSafeClientConnManager(params, registry);
+
+            UploadClient._client = new DefaultHttpClient(manager, params);
+            UploadClient._liberalSsl = liberalSsl;
+            UploadClient._connections = connections;
+        }
+
+        UploadClient._client.getConnectionManager().closeIdleConnections(UploadClient.IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        return UploadClient._client;
+    }
+
+    /**
+     * Closes the pooled connections. Uploads still running on the old client
+     * fail and are retried with the next upload attempt.
+     */
+
+    public static synchronized void shutdown()
+    {
+        if (UploadClient._client != null)
+        {
+            UploadClient._client.getConnectionManager().shutdown();
+            UploadClient._client = null;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+/**
+ * Sizes upload batches and the number of batches in flight from measured
+ * goodput, latency and failures, in the manner of TCP congestion control.
+ *
+ * Batch sizes grow by doubling until the first failure and additively after
+ * it, and are halved on failure (to the minimum on a timeout). The largest
+ * goodput and the smallest per-batch latency over the last few uploads
+ * estimate the link, as in BBR. With the recent failure rate, they cap the
+ * batch at the transfer time that maximizes expected goodput: longer batches
+ * are more likely to be cut off on a flaky link, shorter ones spend more of
+ * their time on round trips. Enough batches are kept in flight to cover the
+ * per-batch latency, and failed uploads back off exponentially. Uploads that
+ * never reach the server only add to the backoff.
+ *
+ * The controller keeps no clock of its own - callers report the duration of
+ * each upload - so it can be driven by simulated links as well as real ones.
+ */
+
+public class UploadController
+{
+    private static final int WINDOW = 10;
+    private static final double DECAY = 0.9;
+
+    private static final long MIN_LATENCY = 100;
+    private static final long MIN_BACKOFF = 1000;
+
+    private final long _minBatchSize;
+    private final long _maxBatchSize;
+    private final long _maxBackoff;
+    private int _maxInFlight;
+
+    private long _batchSize;
+    private long _threshold;
+    private int _inFlight = 1;
+
+    private final double[] _goodput = new double[UploadController.WINDOW];
+    private final long[] _latency = new long[UploadController.WINDOW];
+    private int _samples = 0;
+
+    private double _transferSeconds = 0.0;
+    private double _failureWeight = 0.0;
+    private int _failures = 0;
+
+    private int _active = 0;
+    private int _sameRound = 0;
+
+    public UploadController(long minBatchSize, long maxBatchSize, int maxInFlight, long maxBackoff)
+    {
+        this._minBatchSize = minBatchSize;
+        this._maxBatchSize = Math.max(minBatchSize, maxBatchSize);
+        this._maxInFlight = Math.max(1, maxInFlight);
+        this._maxBackoff = maxBackoff;
+
+        this._batchSize = minBatchSize;
+        this._threshold = this._maxBatchSize;
+    }
+
+    public synchronized void setMaxInFlight(int maxInFlight)
+    {
+        this._maxInFlight = Math.max(1, maxInFlight);
+
+        this._inFlight = Math.min(this._inFlight, this._maxInFlight);
+    }
+
+    /**
+     * Returns the size of the next batch in bytes.
+     */
+
+    public synchronized long batchSize()
+    {
+        return this._batchSize;
+    }
+
+    /**
+     * Returns the number of batches to keep in flight.
+     */
+
+    public synchronized int inFlight()
+    {
+        return this._inFlight;
+    }
+
+    /**
+     * Returns how long to wait before the next attempt: nothing after a
+     * success, then from one second doubling with each consecutive failure.
+     */
+
+    public synchronized long retryDelay()
+    {
+        if (this._failures == 0)
+            return 0;
+
+        return Math.min(this._maxBackoff, UploadController.MIN_BACKOFF << Math.min(this._failures - 1, 20));
+    }
+
+    public synchronized int failures()
+    {
+        return this._failures;
+    }
+
+    /**
+     * Returns the estimated link goodput in bytes per second, or 0 before the
+     * first successful upload.
+     */
+
+    public synchronized double bandwidth()
+    {
+        double bandwidth = 0.0;
+
+        for (int i = 0; i < Math.min(this._samples, UploadController.WINDOW); i++)
+            bandwidth = Math.max(bandwidth, this._goodput[i]);
+
+        return bandwidth;
+    }
+
+    /**
+     * Returns the estimated time in milliseconds each batch spends on round
+     * trips and server processing rather than on the transfer itself.
+     */
+
+    public synchronized long latency()
+    {
+        long latency = Long.MAX_VALUE;
+
+        for (int i = 0; i < Math.min(this._samples, UploadController.WINDOW); i++)
+            latency = Math.min(latency, this._latency[i]);
+
+        if (latency == Long.MAX_VALUE)
+            return UploadController.MIN_LATENCY;
+
+        return Math.max(UploadController.MIN_LATENCY, latency);
+    }
+
+    /**
+     * Returns the recent number of failures per second of upload time.
+     */
+
+    public synchronized double failureRate()
+    {
+        if (this._transferSeconds <= 0.0)
+            return 0.0;
+
+        return this._failureWeight / this._transferSeconds;
+    }
+
+    /**
+     * Records that a batch was sent. Every batch must be followed by a call to
+     * success or failure.
+     */
+
+    public synchronized void begin()
+    {
+        this._active += 1;
+    }
+
+    public synchronized void success(long bytes, long duration)
+    {
+        duration = Math.max(1, duration);
+
+        int concurrent = Math.max(1, this._active);
+
+        this.finish();
+
+        // Batches in flight together share the link...
+
+        int index = this._samples % UploadController.WINDOW;
+
+        this._goodput[index] = (bytes * 1000.0 * concurrent) / duration;
+        this._samples += 1;
+
+        double bandwidth = this.bandwidth();
+
+        this._latency[index] = Math.max(0, duration - (long) ((bytes * 1000.0 * concurrent) / bandwidth));
+
+        this._transferSeconds = (this._transferSeconds * UploadController.DECAY) + (duration / 1000.0);
+        this._failureWeight = this._failureWeight * UploadController.DECAY;
+
+        this._failures = 0;
+
+        if (this._sameRound > 0)
+            this._sameRound -= 1;
+
+        if (this._batchSize < this._threshold)
+            this._batchSize *= 2;
+        else
+            this._batchSize += this._minBatchSize;
+
+        this._batchSize = Math.max(this._minBatchSize, Math.min(this._batchSize, this.targetBatchSize()));
+
+        int target = this.targetInFlight();
+
+        if (this._inFlight < target)
+            this._inFlight += 1;
+        else
+            this._inFlight = target;
+    }
+
+    /**
+     * Records a failed batch. Batches already in flight when the sizes are cut
+     * fail for the same reason, so their failures do not cut them again.
+     */
+
+    public synchronized void failure(long bytes, long duration, boolean timedOut)
+    {
+        int concurrent = this._active;
+
+        this.finish();
+
+        this._transferSeconds = (this._transferSeconds * UploadController.DECAY) + (Math.max(0, duration) / 1000.0);
+        this._failureWeight = (this._failureWeight * UploadController.DECAY) + 1.0;
+
+        this._failures += 1;
+
+        if (this._sameRound > 0)
+        {
+            this._sameRound -= 1;
+
+            return;
+        }
+
+        this._sameRound = Math.max(0, concurrent - 1);
+
+        this._threshold = Math.max(this._minBatchSize, this._batchSize / 2);
+
+        if (timedOut)
+            this._batchSize = this._minBatchSize;
+        else
+            this._batchSize = this._threshold;
+
+        this._inFlight = Math.max(1, this._inFlight / 2);
+    }
+
+    /**
+     * Records a batch that could not reach the server at all, such as while
+     * the device has no coverage. Nothing was learned about the link, so only
+     * the backoff grows.
+     */
+
+    public synchronized void unreachable()
+    {
+        this.finish();
+
+        this._failures += 1;
+    }
+
+    private void finish()
+    {
+        this._active = Math.max(0, this._active - 1);
+    }
+
+    private long targetBatchSize()
+    {
+        double bandwidth = this.bandwidth();
+        double rate = this.failureRate();
+
+        if (bandwidth <= 0.0 || rate <= 0.0)
+            return this._maxBatchSize;
+
+        // Expected goodput of a batch taking t seconds, on a link that fails
+        // at the given rate with the given latency per batch, is
+        // t * e^(-rate * t) / (t + latency). Its maximum is at the positive
+        // root of rate * t^2 + rate * latency * t - latency = 0...
+
+        double latency = this.latency() / 1000.0;
+
+        double seconds = (Math.sqrt((rate * rate * latency * latency) + (4 * rate * latency)) - (rate * latency)) / (2 * rate);
+
+        return (long) ((bandwidth / this._inFlight) * seconds);
+    }
+
+    private int targetInFlight()
+    {
+        double bandwidth = this.bandwidth();
+
+        if (bandwidth <= 0.0)
+            return 1;
+
+        // Enough batches to keep the link busy while each one waits on its
+        // round trip...
+
+        double transfer = (this._batchSize * 1000.0) / bandwidth;
+
+        long target = Math.round((transfer + this.latency()) / Math.max(1.0, transfer));
+
+        return (int) Math.max(1, Math.min(this._maxInFlight, target));
+    }
+}
@@ -5,7 +5,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 
 import org.json.JSONObject;
 
@@ -16,7 +15,6 @@ import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
@@ -184,16 +182,7 @@ public abstract class Probe
     protected void transmitData(Context context, Bundle data)
     {
         if (context != null)
-        {
-            UUID uuid = UUID.randomUUID();
-            data.putString("GUID", uuid.toString());
-
-            LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-            Intent intent = new Intent(edu.northwestern.cbits.purple_robot_manager.probes.Probe.PROBE_READING);
-            intent.putExtras(data);
-
-            localManager.sendBroadcast(intent);
-        }
+            ProbeReadingBus.getInstance(context).publish(data);
     }
 
     public Intent viewIntent(Context context)
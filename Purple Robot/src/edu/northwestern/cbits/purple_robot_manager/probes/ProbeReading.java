@@ -0,0 +1,109 @@
+package edu.northwestern.cbits.purple_robot_manager.probes;
+
+import java.util.Set;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+/**
+ * A single reading published on the ProbeReadingBus. The underlying Bundle is
+ * shared between every subscriber without copying and is only exposed through
+ * read accessors; subscribers that need a Bundle of their own ask for a copy
+ * with getBundle().
+ */
+
+public final class ProbeReading
+{
+    private final String _probe;
+    private final Bundle _bundle;
+
+    private Intent _intent = null;
+
+    ProbeReading(String probe, Bundle bundle)
+    {
+        this._probe = probe;
+        this._bundle = bundle;
+    }
+
+    public String getProbe()
+    {
+        return this._probe;
+    }
+
+    public String getGuid()
+    {
+        return this._bundle.getString("GUID");
+    }
+
+    public double getTimestamp()
+    {
+        Object timestamp = this._bundle.get("TIMESTAMP");
+
+        if (timestamp instanceof Number)
+            return ((Number) timestamp).doubleValue();
+
+        return 0;
+    }
+
+    public boolean containsKey(String key)
+    {
+        return this._bundle.containsKey(key);
+    }
+
+    public Set<String> keySet()
+    {
+        return this._bundle.keySet();
+    }
+
+    public Object get(String key)
+    {
+        return this._bundle.get(key);
+    }
+
+    public String getString(String key)
+    {
+        return this._bundle.getString(key);
+    }
+
+    public boolean getBoolean(String key)
+    {
+        return this._bundle.getBoolean(key);
+    }
+
+    public long getLong(String key)
+    {
+        return this._bundle.getLong(key);
+    }
+
+    public double getDouble(String key)
+    {
+        return this._bundle.getDouble(key);
+    }
+
+    /**
+     * Returns a shallow copy of the payload. Changes to the copy are not seen
+     * by other subscribers, but arrays and nested bundles are shared and must
+     * not be modified.
+     */
+
+    public Bundle getBundle()
+    {
+        return new Bundle(this._bundle);
+    }
+
+    /**
+     * Legacy PROBE_READING intent for receivers that still expect one. Built
+     * at most once per reading and shared by every adapted receiver.
+     */
+
+    public synchronized Intent toIntent()
+    {
+        if (this._intent == null)
+        {
+            this._intent = new Intent(Probe.PROBE_READING);
+            this._intent.putExtras(this._bundle);
+        }
+
+        return this._intent;
+    }
+}
@@ -0,0 +1,237 @@
+package edu.northwestern.cbits.purple_robot_manager.probes;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * In-process bus for probe readings, replacing the PROBE_READING broadcast.
+ *
+ * Subscribers register for the probe names they care about (or null for every
+ * reading) and receive the published reading itself - nothing is copied per
+ * subscriber and nobody has to filter on the PROBE key by hand. As with
+ * LocalBroadcastManager, readings are delivered asynchronously on the main
+ * thread in publication order. Code that still wants an Intent can register a
+ * BroadcastReceiver, which is fed a single shared PROBE_READING intent.
+ */
+
+public class ProbeReadingBus
+{
+    public interface Subscriber
+    {
+        public void onReading(Context context, ProbeReading reading);
+    }
+
+    private static final Subscriber[] EMPTY = new Subscriber[0];
+
+    private static ProbeReadingBus _instance = null;
+
+    private final Context _context;
+    private final Handler _handler;
+
+    // Copy-on-write so that delivery never holds the lock...
+
+    private final HashMap<String, Subscriber[]> _subscribers = new HashMap<String, Subscriber[]>();
+    private Subscriber[] _allSubscribers = ProbeReadingBus.EMPTY;
+
+    private final HashMap<BroadcastReceiver, Subscriber> _receivers = new HashMap<BroadcastReceiver, Subscriber>();
+
+    private ArrayList<ProbeReading> _pending = new ArrayList<ProbeReading>();
+    private boolean _drainScheduled = false;
+
+    private ProbeReadingBus(Context context)
+    {
+        this._context = context;
+        this._handler = new Handler(Looper.getMainLooper());
+    }
+
+    public static ProbeReadingBus getInstance(Context context)
+    {
+        synchronized (ProbeReadingBus.class)
+        {
+            if (ProbeReadingBus._instance == null)
+                ProbeReadingBus._instance = new ProbeReadingBus(context.getApplicationContext());
+        }
+
+        return ProbeReadingBus._instance;
+    }
+
+    public synchronized void subscribe(String probeName, Subscriber subscriber)
+    {
+        if (probeName == null)
+            this._allSubscribers = ProbeReadingBus.append(this._allSubscribers, subscriber);
+        else
+        {
+            Subscriber[] subscribers = this._subscribers.get(probeName);
+
+            if (subscribers == null)
+                subscribers = ProbeReadingBus.EMPTY;
+
+            this._subscribers.put(probeName, ProbeReadingBus.append(subscribers, subscriber));
+        }
+    }
+
+    public synchronized void unsubscribe(Subscriber subscriber)
+    {
+        this._allSubscribers = ProbeReadingBus.remove(this._allSubscribers, subscriber);
+
+        for (String probeName : new ArrayList<String>(this._subscribers.keySet()))
+        {
+            Subscriber[] subscribers = ProbeReadingBus.remove(this._subscribers.get(probeName), subscriber);
+
+            if (subscribers.length == 0)
+                this._subscribers.remove(probeName);
+            else
+                this._subscribers.put(probeName, subscribers);
+        }
+    }
+
+    public void registerReceiver(final BroadcastReceiver receiver, String probeName)
+    {
+        Subscriber adapter = new Subscriber()
+        {
+            public void onReading(Context context, ProbeReading reading)
+            {
+                receiver.onReceive(context, reading.toIntent());
+            }
+        };
+
+        synchronized (this)
+        {
+            if (this._receivers.containsKey(receiver))
+                return;
+
+            this._receivers.put(receiver, adapter);
+        }
+
+        this.subscribe(probeName, adapter);
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver)
+    {
+        Subscriber adapter = null;
+
+        synchronized (this)
+        {
+            adapter = this._receivers.remove(receiver);
+        }
+
+        if (adapter != null)
+            this.unsubscribe(adapter);
+    }
+
+    public void publish(Bundle data)
+    {
+        data.putString("GUID", UUID.randomUUID().toString());
+
+        ProbeReading reading = new ProbeReading(data.getString("PROBE"), data);
+
+        synchronized (this)
+        {
+            this._pending.add(reading);
+
+            if (this._drainScheduled)
+                return;
+
+            this._drainScheduled = true;
+        }
+
+        final ProbeReadingBus me = this;
+
+        this._handler.post(new Runnable()
+        {
+            public void run()
+            {
+                me.drain();
+            }
+        });
+    }
+
+    private void drain()
+    {
+        ArrayList<ProbeReading> readings = null;
+
+        synchronized (this)
+        {
+            readings = this._pending;
+
+            this._pending = new ArrayList<ProbeReading>();
+            this._drainScheduled = false;
+        }
+
+        for (ProbeReading reading : readings)
+        {
+            Subscriber[] subscribers = null;
+            Subscriber[] allSubscribers = null;
+
+            synchronized (this)
+            {
+                subscribers = this._subscribers.get(reading.getProbe());
+                allSubscribers = this._allSubscribers;
+            }
+
+            if (subscribers != null)
+            {
+                for (Subscriber subscriber : subscribers)
+                    this.deliver(subscriber, reading);
+            }
+
+            for (Subscriber subscriber : allSubscribers)
+                this.deliver(subscriber, reading);
+        }
+    }
+
+    private void deliver(Subscriber subscriber, ProbeReading reading)
+    {
+        try
+        {
+            subscriber.onReading(this._context, reading);
+        }
+        catch (RuntimeException e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+    }
+
+    private static Subscriber[] append(Subscriber[] subscribers, Subscriber subscriber)
+    {
+        for (Subscriber existing : subscribers)
+        {
+            if (existing == subscriber)
+                return subscribers;
+        }
+
+        Subscriber[] updated = new Subscriber[subscribers.length + 1];
+
+        System.arraycopy(subscribers, 0, updated, 0, subscribers.length);
+        updated[subscribers.length] = subscriber;
+
+        return updated;
+    }
+
+    private static Subscriber[] remove(Subscriber[] subscribers, Subscriber subscriber)
+    {
+        for (int i = 0; i < subscribers.length; i++)
+        {
+            if (subscribers[i] == subscriber)
+            {
+                Subscriber[] updated = new Subscriber[subscribers.length - 1];
+
+                System.arraycopy(subscribers, 0, updated, 0, i);
+                System.arraycopy(subscribers, i + 1, updated, i, subscribers.length - i - 1);
+
+                return updated;
+            }
+        }
+
+        return subscribers;
+    }
+}
@@ -1,9 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -22,6 +18,7 @@ import android.preference.PreferenceScreen;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.util.SpectralEngine;
 
 public class AudioFeaturesProbe extends Probe
 {
@@ -29,6 +26,7 @@ public class AudioFeaturesProbe extends Probe
     private static final String ENABLED = "config_probe_audio_feature_enabled";
 
     private final double[] samples = new double[32768];
+    private SpectralEngine _spectrum = null;
 
     private boolean _recording = false;
 
@@ -146,30 +144,17 @@ public class AudioFeaturesProbe extends Probe
 
                             recorder.release();
 
-                            FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+                            if (me._spectrum == null)
+                                me._spectrum = new SpectralEngine(me.samples.length);
 
-                            Complex[] values = fft.transform(me.samples, TransformType.FORWARD);
+                            me._spectrum.transform(me.samples, me.samples.length);
 
                             double maxFrequency = 0;
-                            double maxMagnitude = 0;
 
-                            double minMagnitude = Double.MAX_VALUE;
+                            int peak = me._spectrum.peak(0, me.samples.length / 2);
 
-                            for (int i = 0; i < values.length / 2; i++)
-                            {
-                                Complex value = values[i];
-
-                                double magnitude = value.abs();
-
-                                if (magnitude > maxMagnitude)
-                                {
-                                    maxMagnitude = magnitude;
-                                    maxFrequency = (i * recorder.getSampleRate()) / (double) me.samples.length;
-                                }
-
-                                if (magnitude < minMagnitude)
-                                    minMagnitude = magnitude;
-                            }
+                            if (peak >= 0)
+                                maxFrequency = me._spectrum.frequency(peak, recorder.getSampleRate());
 
                             bundle.putDouble("FREQUENCY", maxFrequency);
                             bundle.putDouble("NORMALIZED_AVG_MAGNITUDE", (sampleSum / Short.MAX_VALUE) / me.samples.length);
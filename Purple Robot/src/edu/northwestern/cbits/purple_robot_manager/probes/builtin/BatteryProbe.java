@@ -16,17 +16,17 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.database.Cursor;
 import android.os.BatteryManager;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
-import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
+import edu.northwestern.cbits.purple_robot_manager.charts.Chart;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValues;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -63,16 +63,7 @@ public class BatteryProbe extends Probe
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, BatteryProbe.DB_TABLE,
-                this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, BatteryProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
@@ -95,32 +86,12 @@ public class BatteryProbe extends Probe
 
             SplineChart c = new SplineChart();
 
-            ArrayList<Double> battery = new ArrayList<Double>();
-            ArrayList<Double> time = new ArrayList<Double>();
-
-            Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, BatteryProbe.DB_TABLE,
-                    this.databaseSchema());
-
-            int count = -1;
-
-            if (cursor != null)
-            {
-                count = cursor.getCount();
-
-                while (cursor.moveToNext())
-                {
-                    double d = cursor.getDouble(cursor.getColumnIndex(BatteryProbe.BATTERY_KEY));
-                    double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-                    battery.add(d);
-                    time.add(t);
-                }
+            ProbeValues values = ProbeValuesProvider.getProvider(activity).queryValues(activity, BatteryProbe.DB_TABLE, this.databaseSchema(), 0, Double.MAX_VALUE, null, Chart.pointCount(activity), ProbeValuesProvider.Downsample.MEAN);
 
-                cursor.close();
-            }
+            int count = values.getSourceCount();
 
-            c.addSeries(activity.getString(R.string.battery_level_label), battery);
-            c.addTime(activity.getString(R.string.battery_time_label), time);
+            c.addSeries(activity.getString(R.string.battery_level_label), values.getValues(BatteryProbe.BATTERY_KEY));
+            c.addTime(activity.getString(R.string.battery_time_label), values.getTimestamps());
 
             JSONObject json = c.dataJson(activity);
 
@@ -7,7 +7,6 @@ import org.json.JSONObject;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.hardware.Sensor;
 import android.hardware.SensorManager;
 import android.os.Build;
@@ -42,15 +41,7 @@ public class GeomagneticRotationProbe extends RotationProbe
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, GeomagneticRotationProbe.DB_TABLE, this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, GeomagneticRotationProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
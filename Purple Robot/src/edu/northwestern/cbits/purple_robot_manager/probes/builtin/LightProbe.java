@@ -10,7 +10,6 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.database.Cursor;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -79,15 +78,7 @@ public class LightProbe extends Continuous1DProbe implements SensorEventListener
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, LightProbe.DB_TABLE, this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, LightProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
@@ -16,7 +16,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -32,7 +31,9 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.FlexibleListPreference;
+import edu.northwestern.cbits.purple_robot_manager.charts.Chart;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValues;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -62,17 +63,12 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
     private double _lastY = Double.MAX_VALUE;
     private double _lastZ = Double.MAX_VALUE;
 
-    private final float valueBuffer[][] = new float[3][BUFFER_SIZE];
-    private final int accuracyBuffer[] = new int[BUFFER_SIZE];
-    private final double timeBuffer[] = new double[BUFFER_SIZE];
-    private final double sensorTimeBuffer[] = new double[BUFFER_SIZE];
+    private final SensorBatch.Builder _batch = new SensorBatch.Builder(fieldNames, BUFFER_SIZE);
 
     private Map<String, String> _schema = null;
 
     private int _lastFrequency = -1;
 
-    private int bufferIndex = 0;
-
     private static Handler _handler = null;
 
     @Override
@@ -98,15 +94,7 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, LinearAccelerationProbe.DB_TABLE, this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, LinearAccelerationProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
@@ -132,42 +120,16 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
         {
             String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-            ArrayList<Double> x = new ArrayList<Double>();
-            ArrayList<Double> y = new ArrayList<Double>();
-            ArrayList<Double> z = new ArrayList<Double>();
-            ArrayList<Double> time = new ArrayList<Double>();
-
-            Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, LinearAccelerationProbe.DB_TABLE, this.databaseSchema());
+            ProbeValues values = ProbeValuesProvider.getProvider(activity).queryValues(activity, LinearAccelerationProbe.DB_TABLE, this.databaseSchema(), 0, Double.MAX_VALUE, null, Chart.pointCount(activity), ProbeValuesProvider.Downsample.MEAN);
 
-            int count = -1;
-
-            if (cursor != null)
-            {
-                count = cursor.getCount();
-
-                while (cursor.moveToNext())
-                {
-                    double xd = cursor.getDouble(cursor.getColumnIndex(Continuous3DProbe.X_KEY));
-                    double yd = cursor.getDouble(cursor.getColumnIndex(Continuous3DProbe.Y_KEY));
-                    double zd = cursor.getDouble(cursor.getColumnIndex(Continuous3DProbe.Z_KEY));
-
-                    double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-                    x.add(xd);
-                    y.add(yd);
-                    z.add(zd);
-                    time.add(t);
-                }
-
-                cursor.close();
-            }
+            int count = values.getSourceCount();
 
             SplineChart c = new SplineChart();
-            c.addSeries("X", x);
-            c.addSeries("Y", y);
-            c.addSeries("Z", z);
+            c.addSeries("X", values.getValues(Continuous3DProbe.X_KEY));
+            c.addSeries("Y", values.getValues(Continuous3DProbe.Y_KEY));
+            c.addSeries("Z", values.getValues(Continuous3DProbe.Z_KEY));
 
-            c.addTime("tIME", time);
+            c.addTime("tIME", values.getTimestamps());
 
             JSONObject json = c.dataJson(activity);
 
@@ -443,20 +405,12 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
         {
             synchronized (this)
             {
-                sensorTimeBuffer[bufferIndex] = event.timestamp;
-                timeBuffer[bufferIndex] = now / 1000;
+                this._batch.append(now / 1000, event.timestamp, event.accuracy, event.values);
 
-                accuracyBuffer[bufferIndex] = event.accuracy;
-
-                for (int i = 0; i < event.values.length; i++)
+                if (this._batch.isFull())
                 {
-                    valueBuffer[i][bufferIndex] = event.values[i];
-                }
-
-                bufferIndex += 1;
+                    SensorBatch batch = this._batch.seal();
 
-                if (bufferIndex >= timeBuffer.length)
-                {
                     Sensor sensor = event.sensor;
 
                     Bundle data = new Bundle();
@@ -475,18 +429,11 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
 
                     data.putBundle(ContinuousProbe.BUNDLE_SENSOR, sensorBundle);
 
-                    data.putDoubleArray(ContinuousProbe.EVENT_TIMESTAMP, timeBuffer);
-                    data.putDoubleArray(ContinuousProbe.SENSOR_TIMESTAMP, sensorTimeBuffer);
-                    data.putIntArray(ContinuousProbe.SENSOR_ACCURACY, accuracyBuffer);
-
-                    for (int i = 0; i < fieldNames.length; i++)
-                    {
-                        data.putFloatArray(fieldNames[i], valueBuffer[i]);
-                    }
+                    batch.writeToBundle(data);
 
                     this.transmitData(this._context, data);
 
-                    for (int j = 0; j < timeBuffer.length; j++)
+                    for (int j = 0; j < batch.size(); j++)
                     {
                         Double x = null;
                         Double y = null;
@@ -495,11 +442,11 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
                         for (int i = 0; i < fieldNames.length; i++)
                         {
                             if (fieldNames[i].equals(Continuous3DProbe.X_KEY))
-                                x = Double.valueOf(valueBuffer[i][j]);
+                                x = Double.valueOf(batch.value(i, j));
                             else if (fieldNames[i].equals(Continuous3DProbe.Y_KEY))
-                                y = Double.valueOf(valueBuffer[i][j]);
+                                y = Double.valueOf(batch.value(i, j));
                             else if (fieldNames[i].equals(Continuous3DProbe.Z_KEY))
-                                z = Double.valueOf(valueBuffer[i][j]);
+                                z = Double.valueOf(batch.value(i, j));
                         }
 
                         if (x != null && y != null && z != null)
@@ -510,13 +457,11 @@ public class LinearAccelerationProbe extends Continuous3DProbe implements Sensor
                             values.put(Continuous3DProbe.Y_KEY, y);
                             values.put(Continuous3DProbe.Z_KEY, z);
 
-                            values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
+                            values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(batch.eventTimestamp(j) / 1000));
 
                             ProbeValuesProvider.getProvider(this._context).insertValue(this._context, LinearAccelerationProbe.DB_TABLE, this.databaseSchema(), values);
                         }
                     }
-
-                    bufferIndex = 0;
                 }
             }
         }
@@ -57,15 +57,10 @@ public class MagneticFieldProbe extends Continuous3DProbe implements SensorEvent
     private long lastThresholdLookup = 0;
     private double lastThreshold = 1.0;
 
-    private final float valueBuffer[][] = new float[3][BUFFER_SIZE];
-    private final int accuracyBuffer[] = new int[BUFFER_SIZE];
-    private final double timeBuffer[] = new double[BUFFER_SIZE];
-    private final double sensorTimeBuffer[] = new double[BUFFER_SIZE];
+    private final SensorBatch.Builder _batch = new SensorBatch.Builder(fieldNames, BUFFER_SIZE);
 
     private Map<String, String> _schema = null;
 
-    private int bufferIndex = 0;
-
     private int _lastFrequency = -1;
 
     private static Handler _handler = null;
@@ -285,26 +280,18 @@ public class MagneticFieldProbe extends Continuous3DProbe implements SensorEvent
         {
             synchronized (this)
             {
-                sensorTimeBuffer[bufferIndex] = event.timestamp;
-                timeBuffer[bufferIndex] = now / 1000;
-
-                accuracyBuffer[bufferIndex] = event.accuracy;
-
-                for (int i = 0; i < event.values.length; i++)
-                {
-                    valueBuffer[i][bufferIndex] = event.values[i];
-                }
+                this._batch.append(now / 1000, event.timestamp, event.accuracy, event.values);
 
-                double[] plotValues = { timeBuffer[0] / 1000,
-                                        valueBuffer[0][bufferIndex],
-                                        valueBuffer[1][bufferIndex],
-                                        valueBuffer[2][bufferIndex] };
+                double[] plotValues = { this._batch.eventTimestamp(0) / 1000,
+                                        event.values[0],
+                                        event.values[1],
+                                        event.values[2] };
                 RealTimeProbeViewActivity.plotIfVisible(this.getTitleResource(), plotValues);
 
-                bufferIndex += 1;
-
-                if (bufferIndex >= timeBuffer.length)
+                if (this._batch.isFull())
                 {
+                    SensorBatch batch = this._batch.seal();
+
                     Sensor sensor = event.sensor;
 
                     Bundle data = new Bundle();
@@ -323,18 +310,11 @@ public class MagneticFieldProbe extends Continuous3DProbe implements SensorEvent
 
                     data.putBundle(ContinuousProbe.BUNDLE_SENSOR, sensorBundle);
 
-                    data.putDoubleArray(ContinuousProbe.EVENT_TIMESTAMP, timeBuffer);
-                    data.putDoubleArray(ContinuousProbe.SENSOR_TIMESTAMP, sensorTimeBuffer);
-                    data.putIntArray(ContinuousProbe.SENSOR_ACCURACY, accuracyBuffer);
-
-                    for (int i = 0; i < fieldNames.length; i++)
-                    {
-                        data.putFloatArray(fieldNames[i], valueBuffer[i]);
-                    }
+                    batch.writeToBundle(data);
 
                     this.transmitData(this._context, data);
 
-                    if (timeBuffer.length > 0)
+                    if (batch.size() > 0)
                     {
                         double x = Double.NaN;
                         double y = Double.NaN;
@@ -343,11 +323,11 @@ public class MagneticFieldProbe extends Continuous3DProbe implements SensorEvent
                         for (int i = 0; i < fieldNames.length; i++)
                         {
                             if (fieldNames[i].equals(Continuous3DProbe.X_KEY))
-                                x = valueBuffer[i][0];
+                                x = batch.value(i, 0);
                             else if (fieldNames[i].equals(Continuous3DProbe.Y_KEY))
-                                y = valueBuffer[i][0];
+                                y = batch.value(i, 0);
                             else if (fieldNames[i].equals(Continuous3DProbe.Z_KEY))
-                                z = valueBuffer[i][0];
+                                z = batch.value(i, 0);
                         }
 
                         if (Double.isNaN(x) == false && Double.isNaN(y) == false && Double.isNaN(z) == false)
@@ -358,13 +338,11 @@ public class MagneticFieldProbe extends Continuous3DProbe implements SensorEvent
                             values.put(Continuous3DProbe.Y_KEY, y);
                             values.put(Continuous3DProbe.Z_KEY, z);
 
-                            values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[0] / 1000));
+                            values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(batch.eventTimestamp(0) / 1000));
 
                             ProbeValuesProvider.getProvider(this._context).insertValue(this._context, MagneticFieldProbe.DB_TABLE, this.databaseSchema(), values);
                         }
                     }
-
-                    bufferIndex = 0;
                 }
             }
         }
@@ -16,7 +16,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -32,7 +31,9 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.FlexibleListPreference;
+import edu.northwestern.cbits.purple_robot_manager.charts.Chart;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValues;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -91,15 +92,7 @@ public class ProximityProbe extends ContinuousProbe implements SensorEventListen
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, ProximityProbe.DB_TABLE, this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, ProximityProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
@@ -120,33 +113,14 @@ public class ProximityProbe extends ContinuousProbe implements SensorEventListen
         {
             String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-            ArrayList<Double> distance = new ArrayList<Double>();
-            ArrayList<Double> time = new ArrayList<Double>();
+            ProbeValues values = ProbeValuesProvider.getProvider(activity).queryValues(activity, ProximityProbe.DB_TABLE, this.databaseSchema(), 0, Double.MAX_VALUE, null, Chart.pointCount(activity), ProbeValuesProvider.Downsample.MEAN);
 
-            Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, ProximityProbe.DB_TABLE, this.databaseSchema());
-
-            int count = -1;
-
-            if (cursor != null)
-            {
-                count = cursor.getCount();
-
-                while (cursor.moveToNext())
-                {
-                    double d = cursor.getDouble(cursor.getColumnIndex(ProximityProbe.DISTANCE_KEY));
-                    double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-                    distance.add(d);
-                    time.add(t);
-                }
-
-                cursor.close();
-            }
+            int count = values.getSourceCount();
 
             SplineChart c = new SplineChart();
-            c.addSeries(activity.getString(R.string.proximity_label), distance);
+            c.addSeries(activity.getString(R.string.proximity_label), values.getValues(ProximityProbe.DISTANCE_KEY));
 
-            c.addTime("tIME", time);
+            c.addTime("tIME", values.getTimestamps());
 
             JSONObject json = c.dataJson(activity);
 
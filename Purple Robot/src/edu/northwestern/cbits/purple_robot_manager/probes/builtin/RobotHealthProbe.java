@@ -3,8 +3,6 @@ package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.net.InetAddress;
-import java.net.SocketTimeoutException;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -33,6 +31,7 @@ import edu.northwestern.cbits.purple_robot_manager.ShutdownReceiver;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.FlexibleListPreference;
 import edu.northwestern.cbits.purple_robot_manager.config.JSONConfigFile;
 import edu.northwestern.cbits.purple_robot_manager.config.SchemeConfigFile;
+import edu.northwestern.cbits.purple_robot_manager.http.LocalHttpServer;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.logging.SanityManager;
 import edu.northwestern.cbits.purple_robot_manager.plugins.HttpUploadPlugin;
@@ -40,6 +39,7 @@ import edu.northwestern.cbits.purple_robot_manager.plugins.OutputPlugin;
 import edu.northwestern.cbits.purple_robot_manager.plugins.OutputPluginManager;
 import edu.northwestern.cbits.purple_robot_manager.plugins.StreamingJacksonUploadPlugin;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeInterpreterPool;
 import edu.northwestern.cbits.purple_robot_manager.triggers.TriggerManager;
 // import org.apache.commons.net.ntp.NTPUDPClient;
 // import org.apache.commons.net.ntp.TimeInfo;
@@ -52,6 +52,10 @@ public class RobotHealthProbe extends Probe
     // private static final String ARCHIVE_SIZE = "ARCHIVE_SIZE";
     private static final String THROUGHPUT = "THROUGHPUT";
     private static final String CLEAR_TIME = "CLEAR_TIME";
+    private static final String OUTPUT_PLUGINS = "OUTPUT_PLUGINS";
+    private static final String TRIGGER_SCHEDULER = "TRIGGER_SCHEDULER";
+    private static final String LOCAL_HTTP_SERVER = "LOCAL_HTTP_SERVER";
+    private static final String SCHEME_INTERPRETERS = "SCHEME_INTERPRETERS";
     protected static final String APP_VERSION_NAME = "APP_VERSION_NAME";
     protected static final String APP_VERSION_CODE = "APP_VERSION_CODE";
     protected static final String ACTIVE_RUNTIME = "ACTIVE_RUNTIME";
@@ -276,6 +280,8 @@ public class RobotHealthProbe extends Probe
 
                                     bundle.putLong(RobotHealthProbe.CLEAR_TIME, cleartime);
 
+                                    bundle.putBundle(RobotHealthProbe.OUTPUT_PLUGINS, OutputPluginManager.sharedInstance.dispatchStatistics());
+
                                     // Version checks
 
                                     try
@@ -393,6 +399,9 @@ public class RobotHealthProbe extends Probe
                                         bundle.putStringArrayList("CHECK_WARNINGS", warnings);
 
                                     bundle.putParcelableArrayList("TRIGGERS", TriggerManager.getInstance(context).allTriggersBundles(context));
+                                    bundle.putBundle(RobotHealthProbe.TRIGGER_SCHEDULER, TriggerManager.getInstance(context).schedulerStatistics());
+                                    bundle.putBundle(RobotHealthProbe.LOCAL_HTTP_SERVER, LocalHttpServer.statistics());
+                                    bundle.putBundle(RobotHealthProbe.SCHEME_INTERPRETERS, SchemeInterpreterPool.getInstance(context).statistics());
 
                                     long later = System.currentTimeMillis();
 
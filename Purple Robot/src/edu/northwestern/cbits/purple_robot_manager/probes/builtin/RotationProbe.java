@@ -16,7 +16,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -32,7 +31,9 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.FlexibleListPreference;
+import edu.northwestern.cbits.purple_robot_manager.charts.Chart;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValues;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -66,17 +67,12 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
     private double _lastZ = Double.MAX_VALUE;
     private double _lastC = Double.MAX_VALUE;
 
-    private final float valueBuffer[][] = new float[5][BUFFER_SIZE];
-    private final int accuracyBuffer[] = new int[BUFFER_SIZE];
-    private final double timeBuffer[] = new double[BUFFER_SIZE];
-    private final double sensorTimeBuffer[] = new double[BUFFER_SIZE];
+    private final SensorBatch.Builder _batch = new SensorBatch.Builder(fieldNames, BUFFER_SIZE);
 
     private Map<String, String> _schema = null;
 
     protected int _lastFrequency = -1;
 
-    protected int bufferIndex = 0;
-
     private static Handler _handler = null;
 
     @Override
@@ -96,15 +92,7 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, RotationProbe.DB_TABLE, this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, RotationProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
@@ -132,51 +120,18 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
         {
             String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-            ArrayList<Double> x = new ArrayList<Double>();
-            ArrayList<Double> y = new ArrayList<Double>();
-            ArrayList<Double> z = new ArrayList<Double>();
-            ArrayList<Double> c = new ArrayList<Double>();
-            ArrayList<Double> a = new ArrayList<Double>();
-            ArrayList<Double> time = new ArrayList<Double>();
-
-            Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, RotationProbe.DB_TABLE, this.databaseSchema());
-
-            int count = -1;
-
-            if (cursor != null)
-            {
-                count = cursor.getCount();
-
-                while (cursor.moveToNext())
-                {
-                    double xd = cursor.getDouble(cursor.getColumnIndex(Continuous3DProbe.X_KEY));
-                    double yd = cursor.getDouble(cursor.getColumnIndex(Continuous3DProbe.Y_KEY));
-                    double zd = cursor.getDouble(cursor.getColumnIndex(Continuous3DProbe.Z_KEY));
-                    double cd = cursor.getDouble(cursor.getColumnIndex(RotationProbe.COSINE));
-                    double ad = cursor.getDouble(cursor.getColumnIndex(RotationProbe.ACCURACY));
-
-                    double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
+            ProbeValues values = ProbeValuesProvider.getProvider(activity).queryValues(activity, RotationProbe.DB_TABLE, this.databaseSchema(), 0, Double.MAX_VALUE, null, Chart.pointCount(activity), ProbeValuesProvider.Downsample.MEAN);
 
-                    x.add(xd);
-                    y.add(yd);
-                    z.add(zd);
-                    c.add(cd);
-                    a.add(ad);
-
-                    time.add(t);
-                }
-
-                cursor.close();
-            }
+            int count = values.getSourceCount();
 
             SplineChart ch = new SplineChart();
-            ch.addSeries("X", x);
-            ch.addSeries("Y", y);
-            ch.addSeries("Z", z);
-            ch.addSeries("Cosine", c);
-            ch.addSeries("Accuracy", a);
+            ch.addSeries("X", values.getValues(Continuous3DProbe.X_KEY));
+            ch.addSeries("Y", values.getValues(Continuous3DProbe.Y_KEY));
+            ch.addSeries("Z", values.getValues(Continuous3DProbe.Z_KEY));
+            ch.addSeries("Cosine", values.getValues(RotationProbe.COSINE));
+            ch.addSeries("Accuracy", values.getValues(RotationProbe.ACCURACY));
 
-            ch.addTime("tIME", time);
+            ch.addTime("tIME", values.getTimestamps());
 
             JSONObject json = ch.dataJson(activity);
 
@@ -458,19 +413,12 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
         {
             synchronized (this)
             {
-                sensorTimeBuffer[bufferIndex] = event.timestamp;
-                timeBuffer[bufferIndex] = now / 1000;
-                accuracyBuffer[bufferIndex] = event.accuracy;
+                this._batch.append(now / 1000, event.timestamp, event.accuracy, event.values);
 
-                for (int i = 0; i < event.values.length; i++)
+                if (this._batch.isFull())
                 {
-                    valueBuffer[i][bufferIndex] = event.values[i];
-                }
-
-                bufferIndex += 1;
+                    SensorBatch batch = this._batch.seal();
 
-                if (bufferIndex >= timeBuffer.length)
-                {
                     Sensor sensor = event.sensor;
 
                     Bundle data = new Bundle();
@@ -489,18 +437,11 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
 
                     data.putBundle(ContinuousProbe.BUNDLE_SENSOR, sensorBundle);
 
-                    data.putDoubleArray(ContinuousProbe.EVENT_TIMESTAMP, timeBuffer);
-                    data.putDoubleArray(ContinuousProbe.SENSOR_TIMESTAMP, sensorTimeBuffer);
-                    data.putIntArray(ContinuousProbe.SENSOR_ACCURACY, accuracyBuffer);
-
-                    for (int i = 0; i < fieldNames.length; i++)
-                    {
-                        data.putFloatArray(fieldNames[i], valueBuffer[i]);
-                    }
+                    batch.writeToBundle(data);
 
                     this.transmitData(this._context, data);
 
-                    for (int j = 0; j < timeBuffer.length; j++)
+                    for (int j = 0; j < batch.size(); j++)
                     {
                         Double x = null;
                         Double y = null;
@@ -511,15 +452,15 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
                         for (int i = 0; i < fieldNames.length; i++)
                         {
                             if (fieldNames[i].equals(Continuous3DProbe.X_KEY))
-                                x = Double.valueOf(valueBuffer[i][j]);
+                                x = Double.valueOf(batch.value(i, j));
                             else if (fieldNames[i].equals(Continuous3DProbe.Y_KEY))
-                                y = Double.valueOf(valueBuffer[i][j]);
+                                y = Double.valueOf(batch.value(i, j));
                             else if (fieldNames[i].equals(Continuous3DProbe.Z_KEY))
-                                z = Double.valueOf(valueBuffer[i][j]);
+                                z = Double.valueOf(batch.value(i, j));
                             else if (fieldNames[i].equals(RotationProbe.COSINE))
-                                c = Double.valueOf(valueBuffer[i][j]);
+                                c = Double.valueOf(batch.value(i, j));
                             else if (fieldNames[i].equals(RotationProbe.ACCURACY))
-                                a = Double.valueOf(valueBuffer[i][j]);
+                                a = Double.valueOf(batch.value(i, j));
                         }
 
                         if (x != null && y != null && z != null)
@@ -532,13 +473,11 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
                             values.put(RotationProbe.COSINE, c);
                             values.put(RotationProbe.ACCURACY, a);
 
-                            values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
+                            values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(batch.eventTimestamp(j) / 1000));
 
                             ProbeValuesProvider.getProvider(this._context).insertValue(this._context, this.dbTable(), this.databaseSchema(), values);
                         }
                     }
-
-                    bufferIndex = 0;
                 }
             }
         }
@@ -0,0 +1,370 @@
+package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
+
+import java.io.IOException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.Bundle;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Immutable, column-oriented batch of sensor events: event timestamps, sensor
+ * timestamps, accuracies and one float column per value field.
+ *
+ * Continuous probes fill a Builder one event at a time. When the batch is full
+ * the Builder hands its columns over to a new SensorBatch and continues with a
+ * fresh set, so a published batch is never written to again - readers see a
+ * consistent snapshot instead of the probe's live buffers.
+ *
+ * The columns are exposed in the reading Bundle under the usual keys, so
+ * SensorBatch.fromBundle() can wrap them again (without copying) on the
+ * serialization side.
+ */
+
+public final class SensorBatch
+{
+    private final String[] _fieldNames;
+    private final double[] _eventTimestamps;
+    private final double[] _sensorTimestamps;
+    private final int[] _accuracies;
+    private final float[][] _values;
+
+    private SensorBatch(String[] fieldNames, double[] eventTimestamps, double[] sensorTimestamps, int[] accuracies, float[][] values)
+    {
+        this._fieldNames = fieldNames;
+        this._eventTimestamps = eventTimestamps;
+        this._sensorTimestamps = sensorTimestamps;
+        this._accuracies = accuracies;
+        this._values = values;
+    }
+
+    public int size()
+    {
+        return this._eventTimestamps.length;
+    }
+
+    public int fieldCount()
+    {
+        return this._fieldNames.length;
+    }
+
+    public String fieldName(int field)
+    {
+        return this._fieldNames[field];
+    }
+
+    public double eventTimestamp(int index)
+    {
+        return this._eventTimestamps[index];
+    }
+
+    public double sensorTimestamp(int index)
+    {
+        return this._sensorTimestamps[index];
+    }
+
+    public int accuracy(int index)
+    {
+        if (this._accuracies == null)
+            return 0;
+
+        return this._accuracies[index];
+    }
+
+    public float value(int field, int index)
+    {
+        return this._values[field][index];
+    }
+
+    public boolean ownsKey(String key)
+    {
+        if (ContinuousProbe.EVENT_TIMESTAMP.equals(key) || ContinuousProbe.SENSOR_TIMESTAMP.equals(key))
+            return true;
+
+        if (this._accuracies != null && ContinuousProbe.SENSOR_ACCURACY.equals(key))
+            return true;
+
+        for (String fieldName : this._fieldNames)
+        {
+            if (fieldName.equals(key))
+                return true;
+        }
+
+        return false;
+    }
+
+    public void writeToBundle(Bundle bundle)
+    {
+        bundle.putDoubleArray(ContinuousProbe.EVENT_TIMESTAMP, this._eventTimestamps);
+        bundle.putDoubleArray(ContinuousProbe.SENSOR_TIMESTAMP, this._sensorTimestamps);
+
+        if (this._accuracies != null)
+            bundle.putIntArray(ContinuousProbe.SENSOR_ACCURACY, this._accuracies);
+
+        for (int i = 0; i < this._fieldNames.length; i++)
+        {
+            bundle.putFloatArray(this._fieldNames[i], this._values[i]);
+        }
+    }
+
+    /**
+     * Wraps the columns of a continuous probe reading, or returns null if the
+     * Bundle does not hold one. Any float[] of the same length as the event
+     * timestamps is treated as a value column.
+     */
+
+    public static SensorBatch fromBundle(Bundle bundle)
+    {
+        Object eventTimestamps = bundle.get(ContinuousProbe.EVENT_TIMESTAMP);
+        Object sensorTimestamps = bundle.get(ContinuousProbe.SENSOR_TIMESTAMP);
+
+        if ((eventTimestamps instanceof double[]) == false || (sensorTimestamps instanceof double[]) == false)
+            return null;
+
+        int size = ((double[]) eventTimestamps).length;
+
+        if (((double[]) sensorTimestamps).length != size)
+            return null;
+
+        Object accuracies = bundle.get(ContinuousProbe.SENSOR_ACCURACY);
+
+        int fieldCount = 0;
+
+        for (String key : bundle.keySet())
+        {
+            Object value = bundle.get(key);
+
+            if (value instanceof float[] && ((float[]) value).length == size)
+                fieldCount += 1;
+        }
+
+        if (fieldCount == 0)
+            return null;
+
+        String[] fieldNames = new String[fieldCount];
+        float[][] values = new float[fieldCount][];
+
+        int field = 0;
+
+        for (String key : bundle.keySet())
+        {
+            Object value = bundle.get(key);
+
+            if (value instanceof float[] && ((float[]) value).length == size)
+            {
+                fieldNames[field] = key;
+                values[field] = (float[]) value;
+
+                field += 1;
+            }
+        }
+
+        // RotationProbe reuses the ACCURACY key for a value column...
+
+        if ((accuracies instanceof int[]) == false || ((int[]) accuracies).length != size)
+            accuracies = null;
+
+        return new SensorBatch(fieldNames, (double[]) eventTimestamps, (double[]) sensorTimestamps, (int[]) accuracies, values);
+    }
+
+    public void writeJson(JsonGenerator generator) throws IOException
+    {
+        SensorBatch.writeArray(generator, ContinuousProbe.EVENT_TIMESTAMP, this._eventTimestamps);
+        SensorBatch.writeArray(generator, ContinuousProbe.SENSOR_TIMESTAMP, this._sensorTimestamps);
+
+        if (this.hasAccuracyColumn())
+        {
+            generator.writeArrayFieldStart(ContinuousProbe.SENSOR_ACCURACY);
+
+            for (int accuracy : this._accuracies)
+                generator.writeNumber(accuracy);
+
+            generator.writeEndArray();
+        }
+
+        for (int i = 0; i < this._fieldNames.length; i++)
+        {
+            generator.writeArrayFieldStart(this._fieldNames[i]);
+
+            for (float value : this._values[i])
+                generator.writeNumber(value);
+
+            generator.writeEndArray();
+        }
+    }
+
+    public void putJson(JSONObject json) throws JSONException
+    {
+        json.put(ContinuousProbe.EVENT_TIMESTAMP, SensorBatch.jsonArray(this._eventTimestamps));
+        json.put(ContinuousProbe.SENSOR_TIMESTAMP, SensorBatch.jsonArray(this._sensorTimestamps));
+
+        if (this.hasAccuracyColumn())
+        {
+            JSONArray accuracies = new JSONArray();
+
+            for (int accuracy : this._accuracies)
+                accuracies.put(accuracy);
+
+            json.put(ContinuousProbe.SENSOR_ACCURACY, accuracies);
+        }
+
+        for (int i = 0; i < this._fieldNames.length; i++)
+        {
+            JSONArray values = new JSONArray();
+
+            for (float value : this._values[i])
+                values.put((double) value);
+
+            json.put(this._fieldNames[i], values);
+        }
+    }
+
+    private boolean hasAccuracyColumn()
+    {
+        if (this._accuracies == null)
+            return false;
+
+        for (String fieldName : this._fieldNames)
+        {
+            if (ContinuousProbe.SENSOR_ACCURACY.equals(fieldName))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static void writeArray(JsonGenerator generator, String key, double[] values) throws IOException
+    {
+        generator.writeArrayFieldStart(key);
+
+        for (double value : values)
+            generator.writeNumber(value);
+
+        generator.writeEndArray();
+    }
+
+    private static JSONArray jsonArray(double[] values) throws JSONException
+    {
+        JSONArray array = new JSONArray();
+
+        for (double value : values)
+            array.put(value);
+
+        return array;
+    }
+
+    /**
+     * Write side of a batch, owned by a single probe and guarded by its lock.
+     */
+
+    public static class Builder
+    {
+        private final String[] _fieldNames;
+        private final int _capacity;
+
+        private double[] _eventTimestamps;
+        private double[] _sensorTimestamps;
+        private int[] _accuracies;
+        private float[][] _values;
+
+        private int _index = 0;
+
+        public Builder(String[] fieldNames, int capacity)
+        {
+            this._fieldNames = fieldNames;
+            this._capacity = capacity;
+
+            this.allocate();
+        }
+
+        private void allocate()
+        {
+            this._eventTimestamps = new double[this._capacity];
+            this._sensorTimestamps = new double[this._capacity];
+            this._accuracies = new int[this._capacity];
+            this._values = new float[this._fieldNames.length][this._capacity];
+
+            this._index = 0;
+        }
+
+        public void append(double eventTimestamp, double sensorTimestamp, int accuracy, float[] values)
+        {
+            if (this._index >= this._capacity)
+                return;
+
+            this._eventTimestamps[this._index] = eventTimestamp;
+            this._sensorTimestamps[this._index] = sensorTimestamp;
+            this._accuracies[this._index] = accuracy;
+
+            int count = Math.min(values.length, this._values.length);
+
+            for (int i = 0; i < count; i++)
+                this._values[i][this._index] = values[i];
+
+            this._index += 1;
+        }
+
+        public int size()
+        {
+            return this._index;
+        }
+
+        public boolean isFull()
+        {
+            return this._index >= this._capacity;
+        }
+
+        public double eventTimestamp(int index)
+        {
+            return this._eventTimestamps[index];
+        }
+
+        public void clear()
+        {
+            this._index = 0;
+        }
+
+        /**
+         * Hands the current columns over to an immutable batch and starts
+         * filling a fresh set. A partial batch is copied out instead, keeping
+         * the current columns for reuse.
+         */
+
+        public SensorBatch seal()
+        {
+            if (this._index == this._capacity)
+            {
+                SensorBatch batch = new SensorBatch(this._fieldNames, this._eventTimestamps, this._sensorTimestamps, this._accuracies, this._values);
+
+                this.allocate();
+
+                return batch;
+            }
+            else
+            {
+                float[][] values = new float[this._values.length][];
+
+                for (int i = 0; i < values.length; i++)
+                {
+                    values[i] = new float[this._index];
+                    System.arraycopy(this._values[i], 0, values[i], 0, this._index);
+                }
+
+                double[] eventTimestamps = new double[this._index];
+                double[] sensorTimestamps = new double[this._index];
+                int[] accuracies = new int[this._index];
+
+                System.arraycopy(this._eventTimestamps, 0, eventTimestamps, 0, this._index);
+                System.arraycopy(this._sensorTimestamps, 0, sensorTimestamps, 0, this._index);
+                System.arraycopy(this._accuracies, 0, accuracies, 0, this._index);
+
+                this._index = 0;
+
+                return new SensorBatch(this._fieldNames, eventTimestamps, sensorTimestamps, accuracies, values);
+            }
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,7 +14,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.database.Cursor;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -23,13 +21,14 @@ import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
-import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
+import edu.northwestern.cbits.purple_robot_manager.charts.Chart;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValues;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -67,15 +66,7 @@ public class StepCounterProbe extends Probe implements SensorEventListener
     @Override
     public String contentSubtitle(Context context)
     {
-        Cursor c = ProbeValuesProvider.getProvider(context).retrieveValues(context, StepCounterProbe.DB_TABLE, this.databaseSchema());
-
-        int count = -1;
-
-        if (c != null)
-        {
-            count = c.getCount();
-            c.close();
-        }
+        int count = ProbeValuesProvider.getProvider(context).count(context, StepCounterProbe.DB_TABLE, this.databaseSchema());
 
         return String.format(context.getString(R.string.display_item_count), count);
     }
@@ -98,31 +89,12 @@ public class StepCounterProbe extends Probe implements SensorEventListener
 
             SplineChart c = new SplineChart();
 
-            ArrayList<Double> battery = new ArrayList<Double>();
-            ArrayList<Double> time = new ArrayList<Double>();
-
-            Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, StepCounterProbe.DB_TABLE, this.databaseSchema());
-
-            int count = -1;
+            ProbeValues values = ProbeValuesProvider.getProvider(activity).queryValues(activity, StepCounterProbe.DB_TABLE, this.databaseSchema(), 0, Double.MAX_VALUE, null, Chart.pointCount(activity), ProbeValuesProvider.Downsample.MEAN);
 
-            if (cursor != null)
-            {
-                count = cursor.getCount();
-
-                while (cursor.moveToNext())
-                {
-                    double d = cursor.getDouble(cursor.getColumnIndex(StepCounterProbe.STEPS_KEY));
-                    double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-                    battery.add(d);
-                    time.add(t);
-                }
-
-                cursor.close();
-            }
+            int count = values.getSourceCount();
 
-            c.addSeries(activity.getString(R.string.step_count_label), battery);
-            c.addTime(activity.getString(R.string.step_count_time_label), time);
+            c.addSeries(activity.getString(R.string.step_count_label), values.getValues(StepCounterProbe.STEPS_KEY));
+            c.addTime(activity.getString(R.string.step_count_time_label), values.getTimestamps());
 
             JSONObject json = c.dataJson(activity);
 
@@ -4,16 +4,14 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 
 public abstract class ContinuousProbeFeature extends Feature
 {
@@ -33,7 +31,7 @@ public abstract class ContinuousProbeFeature extends Feature
 
     protected abstract void processData(Context context, Bundle dataBundle);
 
-    private BroadcastReceiver _receiver = null;
+    private ProbeReadingBus.Subscriber _subscriber = null;
 
     @Override
     public boolean isEnabled(Context context)
@@ -44,28 +42,19 @@ public abstract class ContinuousProbeFeature extends Feature
 
             if (prefs.getBoolean("config_feature_" + this.featureKey() + "_enabled", false))
             {
-                if (this._receiver == null)
+                if (this._subscriber == null)
                 {
-                    IntentFilter intentFilter = new IntentFilter(Probe.PROBE_READING);
-
                     final ContinuousProbeFeature me = this;
 
-                    this._receiver = new BroadcastReceiver()
+                    this._subscriber = new ProbeReadingBus.Subscriber()
                     {
-                        @Override
-                        public void onReceive(final Context context, Intent intent)
+                        public void onReading(Context context, ProbeReading reading)
                         {
-                            Bundle extras = intent.getExtras();
-
-                            String probeName = extras.getString("PROBE");
-
-                            if (probeName != null && (me.source(context).equals(probeName)))
-                                me.processData(context, extras);
+                            me.processData(context, reading.getBundle());
                         }
                     };
 
-                    LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-                    localManager.registerReceiver(this._receiver, intentFilter);
+                    ProbeReadingBus.getInstance(context).subscribe(this.source(context), this._subscriber);
                 }
 
                 return true;
@@ -89,12 +78,11 @@ public abstract class ContinuousProbeFeature extends Feature
 
         e.commit();
 
-        if (this._receiver != null)
+        if (this._subscriber != null)
         {
-            LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-            localManager.unregisterReceiver(this._receiver);
+            ProbeReadingBus.getInstance(context).unsubscribe(this._subscriber);
 
-            this._receiver = null;
+            this._subscriber = null;
         }
     }
 
@@ -4,17 +4,15 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.CallStateProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.ScreenProbe;
 
@@ -85,58 +83,53 @@ public class DeviceInUseFeature extends Feature
 
         if (!this._isInited)
         {
-            IntentFilter intentFilter = new IntentFilter(Probe.PROBE_READING);
-
             final DeviceInUseFeature me = this;
 
-            BroadcastReceiver receiver = new BroadcastReceiver()
+            ProbeReadingBus.Subscriber subscriber = new ProbeReadingBus.Subscriber()
             {
-                @Override
-                public void onReceive(Context context, Intent intent)
+                public void onReading(Context context, ProbeReading reading)
                 {
                     if (me._isEnabled == false)
                         return;
 
-                    Bundle extras = intent.getExtras();
+                    Bundle extras = reading.getBundle();
 
-                    String probeName = extras.getString("PROBE");
+                    String probeName = reading.getProbe();
 
-                    if (probeName != null && (ScreenProbe.NAME.equals(probeName) || CallStateProbe.NAME.equals(probeName)))
-                    {
-                        boolean xmit = false;
+                    boolean xmit = false;
 
-                        if (ScreenProbe.NAME.equals(probeName))
-                            me._screenActive = extras.getBoolean(ScreenProbe.SCREEN_ACTIVE);
-                        else if (CallStateProbe.NAME.equals(probeName))
-                        {
-                            String state = extras.getString(CallStateProbe.CALL_STATE);
+                    if (ScreenProbe.NAME.equals(probeName))
+                        me._screenActive = extras.getBoolean(ScreenProbe.SCREEN_ACTIVE);
+                    else if (CallStateProbe.NAME.equals(probeName))
+                    {
+                        String state = extras.getString(CallStateProbe.CALL_STATE);
 
-                            me._callActive = CallStateProbe.STATE_OFF_HOOK.equals(state);
-                        }
+                        me._callActive = CallStateProbe.STATE_OFF_HOOK.equals(state);
+                    }
 
-                        xmit = me._callActive || me._screenActive;
+                    xmit = me._callActive || me._screenActive;
 
-                        if (me._lastXmit != xmit)
+                    if (me._lastXmit != xmit)
+                    {
+                        if (me._isEnabled)
                         {
-                            if (me._isEnabled)
-                            {
-                                Bundle bundle = new Bundle();
-                                bundle.putString("PROBE", me.name(context));
-                                bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
+                            Bundle bundle = new Bundle();
+                            bundle.putString("PROBE", me.name(context));
+                            bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
 
-                                bundle.putBoolean(DeviceInUseFeature.DEVICE_ACTIVE, xmit);
+                            bundle.putBoolean(DeviceInUseFeature.DEVICE_ACTIVE, xmit);
 
-                                me.transmitData(context, bundle);
-                            }
-
-                            me._lastXmit = xmit;
+                            me.transmitData(context, bundle);
                         }
+
+                        me._lastXmit = xmit;
                     }
                 }
             };
 
-            LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-            localManager.registerReceiver(receiver, intentFilter);
+            ProbeReadingBus bus = ProbeReadingBus.getInstance(context);
+            bus.subscribe(ScreenProbe.NAME, subscriber);
+            bus.subscribe(CallStateProbe.NAME, subscriber);
 
             this._isInited = true;
         }
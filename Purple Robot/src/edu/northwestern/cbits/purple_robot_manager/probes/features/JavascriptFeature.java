@@ -199,15 +199,11 @@ public class JavascriptFeature extends Feature
             {
                 Looper.prepare();
 
-                String script = me._script;
-
-                script = "var probe = " + json.toString() + "; " + script;
-
                 JavaScriptEngine engine = new JavaScriptEngine(context);
 
                 try
                 {
-                    Object o = engine.runScript(script);
+                    Object o = engine.runScript(me._script, "probe", json);
 
                     Bundle bundle = new Bundle();
                     bundle.putString("PROBE", me.name(context));
@@ -307,27 +303,25 @@ public class JavascriptFeature extends Feature
         if (this._formatter == null)
             return String.format(context.getString(R.string.summary_javascript_feature), this._name, value);
 
-        String script = this._formatter;
+        Object result = value;
 
-        if (value instanceof Double || value instanceof Integer)
-            script = "var result = " + value + "; " + script;
-        else if (value instanceof Bundle)
+        if (value instanceof Bundle)
         {
             try
             {
-                script = "var result = " + OutputPlugin.jsonForBundle((Bundle) value).toString() + "; " + script;
+                result = OutputPlugin.jsonForBundle((Bundle) value);
             }
             catch (JSONException e)
             {
                 LogManager.getInstance(context).logException(e);
             }
         }
-        else
-            script = "var result = '" + value.toString() + "'; " + script;
+        else if ((value instanceof Double || value instanceof Integer) == false)
+            result = value.toString();
 
         JavaScriptEngine engine = new JavaScriptEngine(context);
 
-        Object o = engine.runScript(script);
+        Object o = engine.runScript(this._formatter, "result", result);
 
         return o.toString();
     }
@@ -6,14 +6,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 
 import com.luckycatlabs.sunrisesunset.SunriseSunsetCalculator;
 import com.luckycatlabs.sunrisesunset.dto.Location;
@@ -21,6 +17,8 @@ import com.luckycatlabs.sunrisesunset.dto.Location;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.LocationProbe;
 
 public class SunriseSunsetFeature extends Feature
@@ -122,73 +120,64 @@ public class SunriseSunsetFeature extends Feature
     {
         if (!this._isInited)
         {
-            IntentFilter intentFilter = new IntentFilter(Probe.PROBE_READING);
-
             final SunriseSunsetFeature me = this;
 
-            BroadcastReceiver receiver = new BroadcastReceiver()
+            ProbeReadingBus.Subscriber subscriber = new ProbeReadingBus.Subscriber()
             {
-                @Override
-                public void onReceive(final Context context, Intent intent)
+                public void onReading(final Context context, ProbeReading reading)
                 {
-                    Bundle extras = intent.getExtras();
+                    Bundle extras = reading.getBundle();
 
-                    String probeName = extras.getString("PROBE");
+                    final double latitude = extras.getDouble(LocationProbe.LATITUDE);
+                    final double longitude = extras.getDouble(LocationProbe.LONGITUDE);
 
-                    if (probeName != null && (LocationProbe.NAME.equals(probeName)))
+                    Runnable r = new Runnable()
                     {
-                        final double latitude = extras.getDouble(LocationProbe.LATITUDE);
-                        final double longitude = extras.getDouble(LocationProbe.LONGITUDE);
-
-                        Runnable r = new Runnable()
+                        @Override
+                        public void run()
                         {
-                            @Override
-                            public void run()
-                            {
-                                if (me._isEnabled == false)
-                                    return;
+                            if (me._isEnabled == false)
+                                return;
 
-                                Calendar c = Calendar.getInstance();
-                                Location location = new Location("" + latitude, "" + longitude);
-                                SunriseSunsetCalculator calc = new SunriseSunsetCalculator(location, c.getTimeZone());
+                            Calendar c = Calendar.getInstance();
+                            Location location = new Location("" + latitude, "" + longitude);
+                            SunriseSunsetCalculator calc = new SunriseSunsetCalculator(location, c.getTimeZone());
 
-                                Bundle bundle = new Bundle();
-                                bundle.putString("PROBE", me.name(context));
-                                bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
+                            Bundle bundle = new Bundle();
+                            bundle.putString("PROBE", me.name(context));
+                            bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
 
-                                bundle.putDouble(SunriseSunsetFeature.LATITUDE, latitude);
-                                bundle.putDouble(SunriseSunsetFeature.LONGITUDE, longitude);
+                            bundle.putDouble(SunriseSunsetFeature.LATITUDE, latitude);
+                            bundle.putDouble(SunriseSunsetFeature.LONGITUDE, longitude);
 
-                                Calendar civilSunrise = calc.getCivilSunriseCalendarForDate(c);
-                                Calendar civilSunset = calc.getCivilSunsetCalendarForDate(c);
+                            Calendar civilSunrise = calc.getCivilSunriseCalendarForDate(c);
+                            Calendar civilSunset = calc.getCivilSunsetCalendarForDate(c);
 
-                                long now = c.getTime().getTime();
+                            long now = c.getTime().getTime();
 
-                                long sunrise = civilSunrise.getTime().getTime();
-                                long sunset = civilSunset.getTime().getTime();
+                            long sunrise = civilSunrise.getTime().getTime();
+                            long sunset = civilSunset.getTime().getTime();
 
-                                bundle.putLong(SunriseSunsetFeature.SUNRISE, sunrise);
-                                bundle.putLong(SunriseSunsetFeature.SUNSET, sunset);
-                                bundle.putLong(SunriseSunsetFeature.DAY_DURATION, sunset - sunrise);
-                                bundle.putLong(SunriseSunsetFeature.SUNRISE_DISTANCE, now - sunrise);
-                                bundle.putLong(SunriseSunsetFeature.SUNSET_DISTANCE, now - sunset);
+                            bundle.putLong(SunriseSunsetFeature.SUNRISE, sunrise);
+                            bundle.putLong(SunriseSunsetFeature.SUNSET, sunset);
+                            bundle.putLong(SunriseSunsetFeature.DAY_DURATION, sunset - sunrise);
+                            bundle.putLong(SunriseSunsetFeature.SUNRISE_DISTANCE, now - sunrise);
+                            bundle.putLong(SunriseSunsetFeature.SUNSET_DISTANCE, now - sunset);
 
-                                boolean isDay = (now >= sunrise && now <= sunset);
+                            boolean isDay = (now >= sunrise && now <= sunset);
 
-                                bundle.putBoolean(SunriseSunsetFeature.IS_DAY, isDay);
+                            bundle.putBoolean(SunriseSunsetFeature.IS_DAY, isDay);
 
-                                me.transmitData(context, bundle);
-                            }
-                        };
+                            me.transmitData(context, bundle);
+                        }
+                    };
 
-                        Thread t = new Thread(r);
-                        t.start();
-                    }
+                    Thread t = new Thread(r);
+                    t.start();
                 }
             };
 
-            LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-            localManager.registerReceiver(receiver, intentFilter);
+            ProbeReadingBus.getInstance(context).subscribe(LocationProbe.NAME, subscriber);
 
             this._isInited = true;
         }
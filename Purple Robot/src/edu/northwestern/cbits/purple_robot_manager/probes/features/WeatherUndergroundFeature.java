@@ -12,18 +12,16 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.WiFiHelper;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.LocationProbe;
 
 public class WeatherUndergroundFeature extends Feature
@@ -122,131 +120,122 @@ public class WeatherUndergroundFeature extends Feature
     {
         if (!this._isInited)
         {
-            IntentFilter intentFilter = new IntentFilter(Probe.PROBE_READING);
-
             final WeatherUndergroundFeature me = this;
 
-            BroadcastReceiver receiver = new BroadcastReceiver()
+            ProbeReadingBus.Subscriber subscriber = new ProbeReadingBus.Subscriber()
             {
-                @Override
-                public void onReceive(final Context context, Intent intent)
+                public void onReading(final Context context, ProbeReading reading)
                 {
-                    Bundle extras = intent.getExtras();
+                    Bundle extras = reading.getBundle();
 
-                    String probeName = extras.getString("PROBE");
+                    long now = System.currentTimeMillis();
 
-                    if (probeName != null && (LocationProbe.NAME.equals(probeName)))
+                    if (now - me.lastCheck(context) > (1000 * 60 * 60))
                     {
-                        long now = System.currentTimeMillis();
+                        SharedPreferences prefs = Probe.getPreferences(context);
 
-                        if (now - me.lastCheck(context) > (1000 * 60 * 60))
+                        if (prefs.getBoolean("config_restrict_data_wifi", true))
                         {
-                            SharedPreferences prefs = Probe.getPreferences(context);
-
-                            if (prefs.getBoolean("config_restrict_data_wifi", true))
-                            {
-                                if (WiFiHelper.wifiAvailable(context) == false)
-                                    return;
-                            }
+                            if (WiFiHelper.wifiAvailable(context) == false)
+                                return;
+                        }
 
-                            Editor e = prefs.edit();
+                        Editor e = prefs.edit();
 
-                            e.putLong("config_last_weather_underground_check", now);
-                            e.commit();
+                        e.putLong("config_last_weather_underground_check", now);
+                        e.commit();
 
-                            final double latitude = extras.getDouble(LocationProbe.LATITUDE);
-                            final double longitude = extras.getDouble(LocationProbe.LONGITUDE);
+                        final double latitude = extras.getDouble(LocationProbe.LATITUDE);
+                        final double longitude = extras.getDouble(LocationProbe.LONGITUDE);
 
-                            Runnable r = new Runnable()
+                        Runnable r = new Runnable()
+                        {
+                            @Override
+                            public void run()
                             {
-                                @Override
-                                public void run()
+                                try
                                 {
-                                    try
-                                    {
-                                        URL u = new URL("http://api.wunderground.com/api/eb50926364bb4c4f/conditions/q/" + latitude + "," + longitude + ".json");
+                                    URL u = new URL("http://api.wunderground.com/api/eb50926364bb4c4f/conditions/q/" + latitude + "," + longitude + ".json");
 
-                                        HttpURLConnection conn = (HttpURLConnection) u.openConnection();
+                                    HttpURLConnection conn = (HttpURLConnection) u.openConnection();
 
-                                        BufferedInputStream bin = new BufferedInputStream(conn.getInputStream());
-                                        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                                    BufferedInputStream bin = new BufferedInputStream(conn.getInputStream());
+                                    ByteArrayOutputStream bout = new ByteArrayOutputStream();
 
-                                        byte[] buffer = new byte[4096];
-                                        int read = 0;
+                                    byte[] buffer = new byte[4096];
+                                    int read = 0;
 
-                                        while ((read = bin.read(buffer, 0, buffer.length)) != -1)
-                                        {
-                                            bout.write(buffer, 0, read);
-                                        }
+                                    while ((read = bin.read(buffer, 0, buffer.length)) != -1)
+                                    {
+                                        bout.write(buffer, 0, read);
+                                    }
 
-                                        bin.close();
+                                    bin.close();
 
-                                        String json = new String(bout.toByteArray(), "UTF-8");
+                                    String json = new String(bout.toByteArray(), "UTF-8");
 
-                                        JSONObject conditions = new JSONObject(json);
-                                        JSONObject obs = conditions.getJSONObject("current_observation");
+                                    JSONObject conditions = new JSONObject(json);
+                                    JSONObject obs = conditions.getJSONObject("current_observation");
 
-                                        String location = obs.getJSONObject("observation_location").getString("full");
-                                        String stationId = obs.getString("station_id");
+                                    String location = obs.getJSONObject("observation_location").getString("full");
+                                    String stationId = obs.getString("station_id");
 
-                                        long obsTimestamp = Long.parseLong(obs.getString("observation_epoch"));
+                                    long obsTimestamp = Long.parseLong(obs.getString("observation_epoch"));
 
-                                        String weather = obs.getString("weather");
+                                    String weather = obs.getString("weather");
 
-                                        double temp = Double.parseDouble(obs.getString("temp_c"));
+                                    double temp = Double.parseDouble(obs.getString("temp_c"));
 
-                                        String windDir = obs.getString("wind_dir");
-                                        double windDegrees = obs.getDouble("wind_degrees");
-                                        double windSpeed = obs.getDouble("wind_kph");
-                                        double gustSpeed = obs.getDouble("wind_gust_kph");
+                                    String windDir = obs.getString("wind_dir");
+                                    double windDegrees = obs.getDouble("wind_degrees");
+                                    double windSpeed = obs.getDouble("wind_kph");
+                                    double gustSpeed = obs.getDouble("wind_gust_kph");
 
-                                        double dewPoint = obs.getDouble("dewpoint_c");
-                                        double visiblility = obs.getDouble("visibility_km");
+                                    double dewPoint = obs.getDouble("dewpoint_c");
+                                    double visiblility = obs.getDouble("visibility_km");
 
-                                        double pressure = Double.parseDouble(obs.getString("pressure_mb"));
-                                        String pressureTrend = obs.getString("pressure_trend");
+                                    double pressure = Double.parseDouble(obs.getString("pressure_mb"));
+                                    String pressureTrend = obs.getString("pressure_trend");
 
-                                        Bundle bundle = new Bundle();
-                                        bundle.putString("PROBE", me.name(context));
-                                        bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
+                                    Bundle bundle = new Bundle();
+                                    bundle.putString("PROBE", me.name(context));
+                                    bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
 
-                                        bundle.putLong(WeatherUndergroundFeature.OBS_TIMESTAMP, obsTimestamp);
-                                        bundle.putString(WeatherUndergroundFeature.STATION_ID, stationId);
-                                        bundle.putString(WeatherUndergroundFeature.LOCATION, location);
-                                        bundle.putString(WeatherUndergroundFeature.WEATHER, weather);
-                                        bundle.putDouble(WeatherUndergroundFeature.TEMPERATURE, temp);
-                                        bundle.putString(WeatherUndergroundFeature.WIND_DIR, windDir);
-                                        bundle.putDouble(WeatherUndergroundFeature.WIND_DEGREES, windDegrees);
-                                        bundle.putDouble(WeatherUndergroundFeature.WIND_SPEED, windSpeed);
-                                        bundle.putDouble(WeatherUndergroundFeature.GUST_SPEED, gustSpeed);
-                                        bundle.putString(WeatherUndergroundFeature.PRESSURE_TREND, pressureTrend);
-                                        bundle.putDouble(WeatherUndergroundFeature.PRESSURE, pressure);
+                                    bundle.putLong(WeatherUndergroundFeature.OBS_TIMESTAMP, obsTimestamp);
+                                    bundle.putString(WeatherUndergroundFeature.STATION_ID, stationId);
+                                    bundle.putString(WeatherUndergroundFeature.LOCATION, location);
+                                    bundle.putString(WeatherUndergroundFeature.WEATHER, weather);
+                                    bundle.putDouble(WeatherUndergroundFeature.TEMPERATURE, temp);
+                                    bundle.putString(WeatherUndergroundFeature.WIND_DIR, windDir);
+                                    bundle.putDouble(WeatherUndergroundFeature.WIND_DEGREES, windDegrees);
+                                    bundle.putDouble(WeatherUndergroundFeature.WIND_SPEED, windSpeed);
+                                    bundle.putDouble(WeatherUndergroundFeature.GUST_SPEED, gustSpeed);
+                                    bundle.putString(WeatherUndergroundFeature.PRESSURE_TREND, pressureTrend);
+                                    bundle.putDouble(WeatherUndergroundFeature.PRESSURE, pressure);
 
-                                        bundle.putDouble(WeatherUndergroundFeature.DEWPOINT, dewPoint);
-                                        bundle.putDouble(WeatherUndergroundFeature.VISIBILITY, visiblility);
+                                    bundle.putDouble(WeatherUndergroundFeature.DEWPOINT, dewPoint);
+                                    bundle.putDouble(WeatherUndergroundFeature.VISIBILITY, visiblility);
 
-                                        me.transmitData(context, bundle);
-                                    }
-                                    catch (ConnectException e)
-                                    {
-                                        LogManager.getInstance(context).logException(e);
-                                    }
-                                    catch (Exception e)
-                                    {
-                                        LogManager.getInstance(context).logException(e);
-                                    }
+                                    me.transmitData(context, bundle);
+                                }
+                                catch (ConnectException e)
+                                {
+                                    LogManager.getInstance(context).logException(e);
+                                }
+                                catch (Exception e)
+                                {
+                                    LogManager.getInstance(context).logException(e);
                                 }
-                            };
+                            }
+                        };
 
-                            Thread t = new Thread(r);
-                            t.start();
-                        }
+                        Thread t = new Thread(r);
+                        t.start();
                     }
                 }
             };
 
-            LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-            localManager.registerReceiver(receiver, intentFilter);
+            ProbeReadingBus.getInstance(context).subscribe(LocationProbe.NAME, subscriber);
 
             SharedPreferences prefs = Probe.getPreferences(context);
             prefs.edit().putLong("config_last_weather_underground_check", 0).commit();
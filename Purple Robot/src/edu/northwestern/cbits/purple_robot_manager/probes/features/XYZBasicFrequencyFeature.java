@@ -3,13 +3,7 @@ package edu.northwestern.cbits.purple_robot_manager.probes.features;
 import java.util.ArrayList;
 import java.util.Comparator;
 
-import org.apache.commons.math3.analysis.interpolation.LinearInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.exception.NonMonotonicSequenceException;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 import org.apache.commons.math3.util.MathArrays;
 
 import android.content.Context;
@@ -23,6 +17,7 @@ import edu.emory.mathcs.backport.java.util.Collections;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.settings.FlexibleListPreference;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.ContinuousProbe;
+import edu.northwestern.cbits.purple_robot_manager.util.SpectralEngine;
 
 public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 {
@@ -55,7 +50,20 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
     private int _currentIndex = 0;
     private long _lastUpdate = 0;
 
-    double interTimes[];
+    private SpectralEngine _spectrum = new SpectralEngine(BUFFER_SIZE);
+
+    private double[] _interTimes = new double[BUFFER_SIZE];
+    private double[] _interX = new double[BUFFER_SIZE];
+    private double[] _interY = new double[BUFFER_SIZE];
+    private double[] _interZ = new double[BUFFER_SIZE];
+
+    private double[] _dynamicX = new double[BUFFER_SIZE];
+    private double[] _dynamicY = new double[BUFFER_SIZE];
+    private double[] _dynamicZ = new double[BUFFER_SIZE];
+
+    private double[] _staticX = new double[BUFFER_SIZE];
+    private double[] _staticY = new double[BUFFER_SIZE];
+    private double[] _staticZ = new double[BUFFER_SIZE];
 
     private class Reading
     {
@@ -204,190 +212,153 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
             {
                 this._lastUpdate = now;
 
-                LinearInterpolator interpolator = new LinearInterpolator();
-
-                double[] xs = _xValues;
-                double[] ys = _yValues;
-                double[] zs = _zValues;
-                double[] ts = _timestamps;
+                int count = BUFFER_SIZE;
 
                 if (this._currentIndex < BUFFER_SIZE - 1)
-                {
-                    xs = Arrays.copyOfRange(_xValues, 0, this._currentIndex);
-                    ys = Arrays.copyOfRange(_yValues, 0, this._currentIndex);
-                    zs = Arrays.copyOfRange(_zValues, 0, this._currentIndex);
-                    ts = Arrays.copyOfRange(_timestamps, 0, this._currentIndex);
-                }
+                    count = this._currentIndex;
 
-                // Log.e("PR", "FIRST RAW TIME: " + ts[0] + " LAST RAW TIME: " +
-                // ts[ts.length - 1]);
+                if (count < 2)
+                    return;
 
-                // Log.e("PR", "RAW TIME[0]: " + ts[0]);
-                // Log.e("PR", "RAW TIME[1]: " + ts[1]);
-
-                PolynomialSplineFunction fX = interpolator.interpolate(ts, xs);
-                PolynomialSplineFunction fY = interpolator.interpolate(ts, ys);
-                PolynomialSplineFunction fZ = interpolator.interpolate(ts, zs);
+                double[] ts = this._timestamps;
 
                 // double lowFreq = 0.6;
                 // double highFreq = 7.0;
 
                 double durationOffset = ts[0];
-                double bufferDuration = ts[ts.length - 1] - durationOffset;
+                double lastTime = ts[count - 1];
+                double bufferDuration = lastTime - durationOffset;
 
                 double interval = 1.0 / 120.0;
 
-                // Log.e("PR", "TS/0: " + ts[0] + " -- TS/-1: " + ts[ts.length -
-                // 1] + " -- LEN TS: " + ts.length);
-                // Log.e("PR", "BD: " + bufferDuration + " INT: " + interval);
-
-                int twoPow = ts.length == 0 ? 0 : (32 - Integer.numberOfLeadingZeros(ts.length - 1));
-                int bufferSize = (int) Math.pow(2, twoPow);
-
-                // Log.e("PR", "BUFF SIZE: " + bufferSize);
+                int bufferSize = SpectralEngine.nextPowerOfTwo(count);
 
-                final double[] _interX = new double[bufferSize];
-                final double[] _interY = new double[bufferSize];
-                final double[] _interZ = new double[bufferSize];
+                // Linear interpolation onto the regular times, walking the
+                // (sorted) readings alongside...
 
-                Arrays.fill(_interX, 0.0);
-                Arrays.fill(_interY, 0.0);
-                Arrays.fill(_interZ, 0.0);
-
-                interTimes = new double[bufferSize];
+                int segment = 0;
 
                 for (int i = 0; i < bufferSize; i++)
                 {
-                    interTimes[i] = durationOffset + (i * interval);
-
-                    // Log.e("PR", "TIME REQUEST: " + time);
-                    // Log.e("PR", "TIME DIFFERENCE: " + (oldTime - time));
-
-                    if (interTimes[i] > ts[ts.length - 1]) // If the current
-                                                           // timestamp is
-                                                           // greater than the
-                                                           // last recorded
-                                                           // timestamp, set it
-                                                           // to the last
-                                                           // timestamp
-                        interTimes[i] = ts[ts.length - 1];
+                    double time = durationOffset + (i * interval);
 
-                    _interX[i] = fX.value(interTimes[i]);
-                    _interY[i] = fY.value(interTimes[i]);
-                    _interZ[i] = fZ.value(interTimes[i]);
+                    // If the current timestamp is greater than the last
+                    // recorded timestamp, set it to the last timestamp
 
-                }
-
-                // double timeDifference = interTimes[bufferSize - 1] -
-                // interTimes[0];
+                    if (time > lastTime)
+                        time = lastTime;
 
-                // Log.e("PR", "INTERP TIME: " + timeDifference +
-                // " BUFFER SIZE: " + bufferSize);
-                // Log.e("PR", "FIRST INTERP TIME: " + interTimes[0] +
-                // " LAST INTERP TIME: " + interTimes[interTimes.length - 1]);
+                    while (segment < count - 2 && ts[segment + 1] <= time)
+                        segment += 1;
 
-                // Log.e("PR", "INTERP SAMPLE: " + interX[bufferSize - 1] +
-                // " - " + interY[bufferSize - 1] + " - " + interZ[bufferSize -
-                // 1]);
+                    double span = ts[segment + 1] - ts[segment];
+                    double offset = time - ts[segment];
 
-                final double[] _dynamicX = new double[_interX.length];
-                final double[] _dynamicY = new double[_interY.length];
-                final double[] _dynamicZ = new double[_interZ.length];
+                    this._interTimes[i] = time;
 
-                final double[] _staticX = new double[_interX.length];
-                final double[] _staticY = new double[_interY.length];
-                final double[] _staticZ = new double[_interZ.length];
+                    this._interX[i] = XYZBasicFrequencyFeature.interpolate(this._xValues, segment, offset, span);
+                    this._interY[i] = XYZBasicFrequencyFeature.interpolate(this._yValues, segment, offset, span);
+                    this._interZ[i] = XYZBasicFrequencyFeature.interpolate(this._zValues, segment, offset, span);
+                }
 
-                for (int i = 0; i < _interX.length; i++)
+                for (int i = 0; i < bufferSize; i++)
                 {
                     if (i < 2)
                     {
-                        _dynamicX[i] = 0;
-                        _dynamicY[i] = 0;
-                        _dynamicZ[i] = 0;
+                        this._dynamicX[i] = 0;
+                        this._dynamicY[i] = 0;
+                        this._dynamicZ[i] = 0;
 
-                        _staticX[i] = 0;
-                        _staticY[i] = 0;
-                        _staticZ[i] = 0;
+                        this._staticX[i] = 0;
+                        this._staticY[i] = 0;
+                        this._staticZ[i] = 0;
                     }
                     else
                     {
-                        if (i == _dynamicX.length - 1)
-                        {
-                            _dynamicX[i] = XYZBasicFrequencyFeature.bpFilter(_interX, this._xBPHistory, i, "X");
-                            _dynamicY[i] = XYZBasicFrequencyFeature.bpFilter(_interY, this._yBPHistory, i, "Y");
-                            _dynamicZ[i] = XYZBasicFrequencyFeature.bpFilter(_interZ, this._zBPHistory, i, "Z");
+                        String x = null;
+                        String y = null;
+                        String z = null;
 
-                            _staticX[i] = XYZBasicFrequencyFeature.lpFilter(_interX, this._xLPHistory, i, "X");
-                            _staticY[i] = XYZBasicFrequencyFeature.lpFilter(_interY, this._yLPHistory, i, "Y");
-                            _staticZ[i] = XYZBasicFrequencyFeature.lpFilter(_interZ, this._zLPHistory, i, "Z");
-                        }
-                        else
+                        if (i == bufferSize - 1)
                         {
-                            _dynamicX[i] = XYZBasicFrequencyFeature.bpFilter(_interX, this._xBPHistory, i, null);
-                            _dynamicY[i] = XYZBasicFrequencyFeature.bpFilter(_interY, this._yBPHistory, i, null);
-                            _dynamicZ[i] = XYZBasicFrequencyFeature.bpFilter(_interZ, this._zBPHistory, i, null);
-
-                            _staticX[i] = XYZBasicFrequencyFeature.lpFilter(_interX, this._xLPHistory, i, null);
-                            _staticY[i] = XYZBasicFrequencyFeature.lpFilter(_interY, this._yLPHistory, i, null);
-                            _staticZ[i] = XYZBasicFrequencyFeature.lpFilter(_interZ, this._zLPHistory, i, null);
+                            x = "X";
+                            y = "Y";
+                            z = "Z";
                         }
 
+                        this._dynamicX[i] = XYZBasicFrequencyFeature.bpFilter(this._interX, this._xBPHistory, i, x);
+                        this._dynamicY[i] = XYZBasicFrequencyFeature.bpFilter(this._interY, this._yBPHistory, i, y);
+                        this._dynamicZ[i] = XYZBasicFrequencyFeature.bpFilter(this._interZ, this._zBPHistory, i, z);
+
+                        this._staticX[i] = XYZBasicFrequencyFeature.lpFilter(this._interX, this._xLPHistory, i, x);
+                        this._staticY[i] = XYZBasicFrequencyFeature.lpFilter(this._interY, this._yLPHistory, i, y);
+                        this._staticZ[i] = XYZBasicFrequencyFeature.lpFilter(this._interZ, this._zLPHistory, i, z);
+
                         this._xBPHistory[1] = this._xBPHistory[0];
-                        this._xBPHistory[0] = _dynamicX[i];
+                        this._xBPHistory[0] = this._dynamicX[i];
 
                         this._yBPHistory[1] = this._yBPHistory[0];
-                        this._yBPHistory[0] = _dynamicY[i];
+                        this._yBPHistory[0] = this._dynamicY[i];
 
                         this._zBPHistory[1] = this._zBPHistory[0];
-                        this._zBPHistory[0] = _dynamicZ[i];
+                        this._zBPHistory[0] = this._dynamicZ[i];
 
                         this._xLPHistory[1] = this._xLPHistory[0];
-                        this._xLPHistory[0] = _staticX[i];
+                        this._xLPHistory[0] = this._staticX[i];
 
                         this._yLPHistory[1] = this._yLPHistory[0];
-                        this._yLPHistory[0] = _staticY[i];
+                        this._yLPHistory[0] = this._staticY[i];
 
                         this._zLPHistory[1] = this._zLPHistory[0];
-                        this._zLPHistory[0] = _staticZ[i];
+                        this._zLPHistory[0] = this._staticZ[i];
                     }
                 }
 
-                // Log.e("PR", "Inter Sample: " + _interX[_interX.length - 1] +
-                // " - " + _interY[_interX.length - 1] + " - " +
-                // _interZ[_interX.length - 1]);
-                // Log.e("PR", "DY Sample: " + _dynamicX[_dynamicX.length - 1] +
-                // " - " + _dynamicY[_dynamicX.length - 1] + " - " +
-                // _dynamicZ[_interX.length - 1]);
-                // Log.e("PR", "GR Sample: " + _staticX[_staticX.length - 1] +
-                // " - " + _staticY[_staticY.length - 1] + " - " +
-                // _staticZ[_staticZ.length - 1]);
+                double observedFreq = bufferSize / bufferDuration;
 
-                double observedFreq = _interX.length / bufferDuration; // (((double)
-                                                                       // this._currentIndex)
-                                                                       // /
-                                                                       // bufferDuration);
+                final double[] _xMaxFreqPowPair = this.findPeakFrequency(this._dynamicX, bufferSize, observedFreq);
+                final double[] _yMaxFreqPowPair = this.findPeakFrequency(this._dynamicY, bufferSize, observedFreq);
+                final double[] _zMaxFreqPowPair = this.findPeakFrequency(this._dynamicZ, bufferSize, observedFreq);
 
-                // Log.e("PR", "IL: + " + _interX.length + " / BD: " +
-                // bufferDuration);
-                // Log.e("PR", "OBS HZ: " + observedFreq);
+                final boolean incInterpolated = prefs.getBoolean("config_probe_" + key + "_interpolated_enabled",
+                        XYZBasicFrequencyFeature.INTERPOLATED_ENABLED);
+                final boolean incBandpass = prefs.getBoolean("config_probe_" + key + "_bandpass_enabled",
+                        XYZBasicFrequencyFeature.BANDPASS_ENABLED);
+                final boolean incLowpass = prefs.getBoolean("config_probe_" + key + "_lowpass_enabled",
+                        XYZBasicFrequencyFeature.LOWPASS_ENABLED);
 
-                FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+                final double windowTimestamp = this._interTimes[0];
 
-                Complex[] xFFT = fft.transform(_dynamicX, TransformType.FORWARD);
-                Complex[] yFFT = fft.transform(_dynamicY, TransformType.FORWARD);
-                Complex[] zFFT = fft.transform(_dynamicZ, TransformType.FORWARD);
+                // The workspaces are reused by the next update, so anything
+                // transmitted is copied out first...
 
-                double[] frequencies = XYZBasicFrequencyFeature.calculateFreqArray(_interX.length, observedFreq);
+                final Bundle sensorData = new Bundle();
 
-                final double[] _xMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(xFFT, frequencies);
-                final double[] _yMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(yFFT, frequencies);
-                final double[] _zMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(zFFT, frequencies);
+                if (incInterpolated || incBandpass || incLowpass)
+                {
+                    sensorData.putDoubleArray("INTERP_TIMESTAMPS", Arrays.copyOf(this._interTimes, bufferSize));
 
-                // Log.e("PR", "FREQS & GEEKS: x:" + _xMaxFreqPowPair[0] + " - "
-                // + _xMaxFreqPowPair[1] + " y:" + _yMaxFreqPowPair[0] + " - " +
-                // _yMaxFreqPowPair[1] + " z:" + _zMaxFreqPowPair[0] + " - " +
-                // _zMaxFreqPowPair[1] );
+                    if (incInterpolated)
+                    {
+                        sensorData.putDoubleArray("INTER_X", Arrays.copyOf(this._interX, bufferSize));
+                        sensorData.putDoubleArray("INTER_Y", Arrays.copyOf(this._interY, bufferSize));
+                        sensorData.putDoubleArray("INTER_Z", Arrays.copyOf(this._interZ, bufferSize));
+                    }
+
+                    if (incBandpass)
+                    {
+                        sensorData.putDoubleArray("DYNAMIC_X", Arrays.copyOf(this._dynamicX, bufferSize));
+                        sensorData.putDoubleArray("DYNAMIC_Y", Arrays.copyOf(this._dynamicY, bufferSize));
+                        sensorData.putDoubleArray("DYNAMIC_Z", Arrays.copyOf(this._dynamicZ, bufferSize));
+                    }
+
+                    if (incLowpass)
+                    {
+                        sensorData.putDoubleArray("STATIC_X", Arrays.copyOf(this._staticX, bufferSize));
+                        sensorData.putDoubleArray("STATIC_Y", Arrays.copyOf(this._staticY, bufferSize));
+                        sensorData.putDoubleArray("STATIC_Z", Arrays.copyOf(this._staticZ, bufferSize));
+                    }
+                }
 
                 final XYZBasicFrequencyFeature me = this;
 
@@ -400,47 +371,10 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
                         data.putDouble("TIMESTAMP", now / 1000);
                         data.putString("PROBE", me.name(context));
 
-                        boolean incInterpolated = prefs.getBoolean("config_probe_" + key + "_interpolated_enabled",
-                                XYZBasicFrequencyFeature.INTERPOLATED_ENABLED);
-                        boolean incBandpass = prefs.getBoolean("config_probe_" + key + "_bandpass_enabled",
-                                XYZBasicFrequencyFeature.BANDPASS_ENABLED);
-                        boolean incLowpass = prefs.getBoolean("config_probe_" + key + "_lowpass_enabled",
-                                XYZBasicFrequencyFeature.LOWPASS_ENABLED);
-
                         if (incInterpolated || incBandpass || incLowpass)
-                        {
-                            Bundle sensorData = new Bundle();
-
-                            synchronized (me)
-                            {
-                                sensorData.putDoubleArray("INTERP_TIMESTAMPS", interTimes);
-
-                                if (incInterpolated)
-                                {
-                                    sensorData.putDoubleArray("INTER_X", _interX);
-                                    sensorData.putDoubleArray("INTER_Y", _interY);
-                                    sensorData.putDoubleArray("INTER_Z", _interZ);
-                                }
-
-                                if (incBandpass)
-                                {
-                                    sensorData.putDoubleArray("DYNAMIC_X", _dynamicX);
-                                    sensorData.putDoubleArray("DYNAMIC_Y", _dynamicY);
-                                    sensorData.putDoubleArray("DYNAMIC_Z", _dynamicZ);
-                                }
-
-                                if (incLowpass)
-                                {
-                                    sensorData.putDoubleArray("STATIC_X", _staticX);
-                                    sensorData.putDoubleArray("STATIC_Y", _staticY);
-                                    sensorData.putDoubleArray("STATIC_Z", _staticZ);
-                                }
-
-                                data.putBundle("CALCULATIONS", sensorData);
-                            }
-                        }
+                            data.putBundle("CALCULATIONS", sensorData);
 
-                        data.putDouble("WINDOW_TIMESTAMP", interTimes[0]);
+                        data.putDouble("WINDOW_TIMESTAMP", windowTimestamp);
 
                         data.putDouble("POWER_X", _xMaxFreqPowPair[1]);
                         data.putDouble("POWER_Y", _yMaxFreqPowPair[1]);
@@ -461,7 +395,18 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
         }
     }
 
-    private static double[] findPeakFrequency(Complex[] samples, double[] frequencies)
+    private static double interpolate(double[] values, int segment, double offset, double span)
+    {
+        return values[segment] + (((values[segment + 1] - values[segment]) / span) * offset);
+    }
+
+    /**
+     * Returns the frequency and power of the largest real component in the
+     * lower half of the spectrum, with frequencies spread evenly from zero to
+     * half the sampling frequency.
+     */
+
+    private double[] findPeakFrequency(double[] values, int length, double maxFrequency)
     {
         int FREQUENCY_INDEX = 0;
         int POWER_INDEX = 1;
@@ -471,11 +416,13 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
         double max = Double.MIN_NORMAL;
         int index = -1;
 
-        int singleSide = (samples.length / 2);
+        this._spectrum.transform(values, length);
+
+        int singleSide = (length / 2);
 
         for (int i = 0; i < singleSide; i++)
         {
-            double value = 2 * Math.abs(samples[i].getReal());
+            double value = 2 * Math.abs(this._spectrum.real(i));
 
             if (value > max)
             {
@@ -486,30 +433,13 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 
         if (index >= 0)
         {
-            returnFrequencyPowerPair[FREQUENCY_INDEX] = frequencies[index];
-            returnFrequencyPowerPair[POWER_INDEX] = 2 * Math.abs(samples[index].getReal());
+            returnFrequencyPowerPair[FREQUENCY_INDEX] = (maxFrequency / 2) * (index / (double) (length - 1));
+            returnFrequencyPowerPair[POWER_INDEX] = max;
         }
-        // return frequencies[index];
 
         return returnFrequencyPowerPair;
     }
 
-    private static double[] calculateFreqArray(int numSamples, double maxFrequency)
-    {
-        double[] freqs = new double[numSamples];
-        double stepSize = 1.0 / (double) (numSamples - 1);
-
-        for (int i = 0; i < freqs.length; i++)
-        {
-            freqs[i] = (maxFrequency / 2) * (stepSize * i);
-        }
-
-        // Log.e("PR", "STATED: " + maxFrequency + " -- OBS: " +
-        // freqs[freqs.length - 1]);
-
-        return freqs;
-    }
-
     public static double bpFilter(double[] inputs, double[] outputs, int offset, String label)
     {
         // Magic numbers: M is for MatLab...
@@ -7,35 +7,36 @@ import edu.emory.mathcs.backport.java.util.Arrays;
 
 import android.util.Log;
 
+/**
+ * Window of raw sensor samples, held in a primitive ring buffer that grows
+ * when full. Appended samples are also fed to a SignalWindow, which keeps the
+ * resampled signal and the running statistics read by FeatureExtractor.
+ */
+
 public class Clip
 {
     public static final int ACCELEROMETER = 1;
     public static final int GYROSCOPE = 2;
     public static final int BAROMETER = 3;
 
-    private List<double[]> _values;
-    private List<Long> _timestamps;
+    private long[] _timestamps = new long[64];
+    private double[] _values;
+    private int _head = 0;
+    private int _size = 0;
     private int _dimensions = -1;
     private long _windowSize = -1;
     private int _clipType = -1;
 
+    private SignalWindow _window = null;
+
     public Clip(int dimension, long windowSize, int clipType)
     {
-        this._values = new ArrayList<double[]>();
-        this._timestamps = new ArrayList<Long>();
+        this._values = new double[this._timestamps.length * dimension];
         this._dimensions = dimension;
         this._windowSize = windowSize;
         this._clipType = clipType;
-    }
 
-    // Copy Constructor
-    public Clip(Clip another)
-    {
-        this._values = new ArrayList<double[]>(another._values);
-        this._timestamps = new ArrayList<Long>(another._timestamps);
-        this._dimensions = another._dimensions;
-        this._windowSize = another._windowSize;
-        this._clipType = another._clipType;
+        this._window = new SignalWindow(dimension, windowSize, FeatureExtractor.SAMPLE_FREQUENCY);
     }
 
     public static class ClipException extends Exception
@@ -59,55 +60,101 @@ public class Clip
         {
             synchronized (this)
             {
-                if (this._timestamps.size() == 0)
+                if (this._size > 0)
                 {
-                    this.pushValues(values, timestamp);
-                }
-                else
-                {
-                    Long first = this._timestamps.get(0);
-
-                    while ((timestamp - first > this._windowSize) && (this._timestamps.size() > 1))
+                    if (timestamp <= this.getLastTimestamp())
                     {
-                        this._timestamps.remove(0);
-                        this._values.remove(0);
+                        Log.e("PR", "Clip: Non-increasing timestamp found!");
+
+                        return;
+                    }
 
-                        first = this._timestamps.get(0);
+                    while ((timestamp - this._timestamps[this._head] > this._windowSize) && (this._size > 1))
+                    {
+                        this._head = (this._head + 1) % this._timestamps.length;
+                        this._size -= 1;
                     }
 
-                    if (timestamp - first > this._windowSize)
+                    if (timestamp - this._timestamps[this._head] > this._windowSize)
                     {
                         // Clear values if gap larger than _windowSize...
 
-                        this._values.clear();
-                        this._timestamps.clear();
+                        this._head = 0;
+                        this._size = 0;
+
+                        this._window.clear();
 
                         Log.e("PR", "Clip: There has been a gap longer than " + this._windowSize + "ms.");
                     }
-
-                    this.pushValues(values, timestamp);
                 }
+
+                this.pushValues(values, timestamp);
             }
         }
     }
 
     private void pushValues(double[] values, long timestamp)
     {
-        synchronized (this)
+        if (this._size == this._timestamps.length)
         {
-            this._timestamps.add(timestamp);
+            int capacity = this._timestamps.length * 2;
+
+            long[] timestamps = new long[capacity];
+            double[] buffer = new double[capacity * this._dimensions];
+
+            for (int i = 0; i < this._size; i++)
+            {
+                int index = (this._head + i) % this._timestamps.length;
+
+                timestamps[i] = this._timestamps[index];
+                System.arraycopy(this._values, index * this._dimensions, buffer, i * this._dimensions, this._dimensions);
+            }
+
+            this._timestamps = timestamps;
+            this._values = buffer;
+            this._head = 0;
+        }
+
+        int index = (this._head + this._size) % this._timestamps.length;
+
+        this._timestamps[index] = timestamp;
+        System.arraycopy(values, 0, this._values, index * this._dimensions, this._dimensions);
 
-            this._values.add(Arrays.copyOf(values, values.length));
+        this._size += 1;
+
+        this._window.add(timestamp, values);
+    }
+
+    public int size()
+    {
+        synchronized (this)
+        {
+            return this._size;
         }
     }
 
+    /**
+     * Resampled signal and running statistics. Callers must hold the clip's
+     * lock while reading it.
+     */
+
+    public SignalWindow getWindow()
+    {
+        return this._window;
+    }
+
     public List<double[]> getValues()
     {
         List<double[]> values = new ArrayList<double[]>();
 
         synchronized (this)
         {
-            values.addAll(this._values);
+            for (int i = 0; i < this._size; i++)
+            {
+                int index = ((this._head + i) % this._timestamps.length) * this._dimensions;
+
+                values.add(Arrays.copyOfRange(this._values, index, index + this._dimensions));
+            }
         }
 
         return values;
@@ -119,7 +166,8 @@ public class Clip
 
         synchronized (this)
         {
-            timestamps.addAll(this._timestamps);
+            for (int i = 0; i < this._size; i++)
+                timestamps.add(this._timestamps[(this._head + i) % this._timestamps.length]);
         }
 
         return timestamps;
@@ -131,7 +179,7 @@ public class Clip
 
         synchronized (this)
         {
-            timestamp = this._timestamps.get(this._timestamps.size() - 1);
+            timestamp = this._timestamps[(this._head + this._size - 1) % this._timestamps.length];
         }
 
         return timestamp;
@@ -141,4 +189,4 @@ public class Clip
     {
         return this._clipType;
     }
-}
\ No newline at end of file
+}
@@ -1,18 +1,16 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.features.p20;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-
 import android.util.Log;
 import edu.emory.mathcs.backport.java.util.Arrays;
 
 public class FeatureExtractor
 {
+    public static final int SAMPLE_FREQUENCY = 50;
+
     private long _windowSize = -1;
     private int _dimensions = -1;
 
@@ -67,15 +65,16 @@ public class FeatureExtractor
         this._binEdges = Arrays.copyOf(edges, edges.length);
     }
 
-    public Map<Feature, Double> extractFeatures(Clip clp)
+    /**
+     * Reads the features from the clip's running statistics. Callers must hold
+     * the clip's lock.
+     */
+
+    public Map<Feature, Double> extractFeatures(Clip clip)
     {
         HashMap<Feature, Double> features = new HashMap<Feature, Double>();
 
-        // build a copy of the clip. because it sometimes crashes suspiciously.
-        Clip clip = new Clip(clp);
-
-        // Spline Interpolation
-        List<double[]> signal = this.interpolate(clip.getValues(), clip.getTimestamps(), 50);
+        SignalWindow signal = clip.getWindow();
 
         // Calculating the statistical moments
         double[] mean = new double[this._dimensions];
@@ -83,9 +82,11 @@ public class FeatureExtractor
         double[] skewness = new double[this._dimensions];
         double[] kurtosis = new double[this._dimensions];
 
+        double[] moments = new double[4];
+
         for (int i = 0; i < this._dimensions; i++)
         {
-            double[] moments = this.getMoments(signal, i);
+            signal.moments(i, moments);
 
             mean[i] = moments[0];
             std[i] = moments[1];
@@ -97,23 +98,23 @@ public class FeatureExtractor
         {
         case Clip.ACCELEROMETER:
             features.put(Feature.ACC_NUM_SAMPLES, (double) signal.size());
-            features.put(Feature.ACC_MEAN, this.getOverallMean(signal));
+            features.put(Feature.ACC_MEAN, signal.overallMeanSquare());
 
-            features.put(Feature.ACCX_MAX, this.getMax(signal, 0));
-            features.put(Feature.ACCY_MAX, this.getMax(signal, 1));
-            features.put(Feature.ACCZ_MAX, this.getMax(signal, 2));
+            features.put(Feature.ACCX_MAX, signal.max(0));
+            features.put(Feature.ACCY_MAX, signal.max(1));
+            features.put(Feature.ACCZ_MAX, signal.max(2));
 
-            features.put(Feature.ACCX_MIN, this.getMin(signal, 0));
-            features.put(Feature.ACCY_MIN, this.getMin(signal, 1));
-            features.put(Feature.ACCZ_MIN, this.getMin(signal, 2));
+            features.put(Feature.ACCX_MIN, signal.min(0));
+            features.put(Feature.ACCY_MIN, signal.min(1));
+            features.put(Feature.ACCZ_MIN, signal.min(2));
 
-            features.put(Feature.ACCX_MAX_ABS, Math.abs(this.getMax(signal, 0)));
-            features.put(Feature.ACCY_MAX_ABS, Math.abs(this.getMax(signal, 1)));
-            features.put(Feature.ACCZ_MAX_ABS, Math.abs(this.getMax(signal, 2)));
+            features.put(Feature.ACCX_MAX_ABS, Math.abs(signal.max(0)));
+            features.put(Feature.ACCY_MAX_ABS, Math.abs(signal.max(1)));
+            features.put(Feature.ACCZ_MAX_ABS, Math.abs(signal.max(2)));
 
-            features.put(Feature.ACCX_MIN_ABS, Math.abs(this.getMin(signal, 0)));
-            features.put(Feature.ACCY_MIN_ABS, Math.abs(this.getMin(signal, 1)));
-            features.put(Feature.ACCZ_MIN_ABS, Math.abs(this.getMin(signal, 2)));
+            features.put(Feature.ACCX_MIN_ABS, Math.abs(signal.min(0)));
+            features.put(Feature.ACCY_MIN_ABS, Math.abs(signal.min(1)));
+            features.put(Feature.ACCZ_MIN_ABS, Math.abs(signal.min(2)));
 
             features.put(Feature.ACCX_MEAN, mean[0]);
             features.put(Feature.ACCY_MEAN, mean[1]);
@@ -135,30 +136,30 @@ public class FeatureExtractor
             features.put(Feature.ACCY_KURT, kurtosis[1]);
             features.put(Feature.ACCZ_KURT, kurtosis[2]);
 
-            features.put(Feature.ACCX_RMS, this.getRMS(signal, 0));
-            features.put(Feature.ACCY_RMS, this.getRMS(signal, 1));
-            features.put(Feature.ACCZ_RMS, this.getRMS(signal, 2));
+            features.put(Feature.ACCX_RMS, signal.meanSquare(0));
+            features.put(Feature.ACCY_RMS, signal.meanSquare(1));
+            features.put(Feature.ACCZ_RMS, signal.meanSquare(2));
 
             break;
         case Clip.GYROSCOPE:
             features.put(Feature.GYR_NUM_SAMPLES, (double) signal.size());
-            features.put(Feature.GYR_MEAN, this.getOverallMean(signal));
+            features.put(Feature.GYR_MEAN, signal.overallMeanSquare());
 
-            features.put(Feature.GYRX_MAX, this.getMax(signal, 0));
-            features.put(Feature.GYRY_MAX, this.getMax(signal, 1));
-            features.put(Feature.GYRZ_MAX, this.getMax(signal, 2));
+            features.put(Feature.GYRX_MAX, signal.max(0));
+            features.put(Feature.GYRY_MAX, signal.max(1));
+            features.put(Feature.GYRZ_MAX, signal.max(2));
 
-            features.put(Feature.GYRX_MIN, this.getMin(signal, 0));
-            features.put(Feature.GYRY_MIN, this.getMin(signal, 1));
-            features.put(Feature.GYRZ_MIN, this.getMin(signal, 2));
+            features.put(Feature.GYRX_MIN, signal.min(0));
+            features.put(Feature.GYRY_MIN, signal.min(1));
+            features.put(Feature.GYRZ_MIN, signal.min(2));
 
-            features.put(Feature.GYRX_MAX_ABS, Math.abs(this.getMax(signal, 0)));
-            features.put(Feature.GYRY_MAX_ABS, Math.abs(this.getMax(signal, 1)));
-            features.put(Feature.GYRZ_MAX_ABS, Math.abs(this.getMax(signal, 2)));
+            features.put(Feature.GYRX_MAX_ABS, Math.abs(signal.max(0)));
+            features.put(Feature.GYRY_MAX_ABS, Math.abs(signal.max(1)));
+            features.put(Feature.GYRZ_MAX_ABS, Math.abs(signal.max(2)));
 
-            features.put(Feature.GYRX_MIN_ABS, Math.abs(this.getMin(signal, 0)));
-            features.put(Feature.GYRY_MIN_ABS, Math.abs(this.getMin(signal, 1)));
-            features.put(Feature.GYRZ_MIN_ABS, Math.abs(this.getMin(signal, 2)));
+            features.put(Feature.GYRX_MIN_ABS, Math.abs(signal.min(0)));
+            features.put(Feature.GYRY_MIN_ABS, Math.abs(signal.min(1)));
+            features.put(Feature.GYRZ_MIN_ABS, Math.abs(signal.min(2)));
 
             features.put(Feature.GYRX_MEAN, mean[0]);
             features.put(Feature.GYRY_MEAN, mean[1]);
@@ -180,9 +181,9 @@ public class FeatureExtractor
             features.put(Feature.GYRY_KURT, kurtosis[1]);
             features.put(Feature.GYRZ_KURT, kurtosis[2]);
 
-            features.put(Feature.GYRX_RMS, this.getRMS(signal, 0));
-            features.put(Feature.GYRY_RMS, this.getRMS(signal, 1));
-            features.put(Feature.GYRZ_RMS, this.getRMS(signal, 2));
+            features.put(Feature.GYRX_RMS, signal.meanSquare(0));
+            features.put(Feature.GYRY_RMS, signal.meanSquare(1));
+            features.put(Feature.GYRZ_RMS, signal.meanSquare(2));
 
             break;
         }
@@ -194,14 +195,11 @@ public class FeatureExtractor
             double[] diffSkewness = new double[this._dimensions];
             double[] diffKurtosis = new double[this._dimensions];
 
-            List<double[]> signalDiff = new ArrayList<double[]>();
-
-            signalDiff = this.getDiff(signal);
-
             // Calculating the statistical moments of the difference signal
             for (int i = 0; i < this._dimensions; i++)
             {
-                double[] moments = this.getMoments(signalDiff, i);
+                signal.diffMoments(i, moments);
+
                 diffMean[i] = moments[0];
                 diffStd[i] = moments[1];
                 diffSkewness[i] = moments[2];
@@ -255,30 +253,8 @@ public class FeatureExtractor
 
             int[][] hist = new int[this._dimensions][this._binEdges.length - 1];
 
-            int bin = 0;
-
-            List<double[]> signalZScore = this.getZScore(signal, mean, std);
-
             for (int i = 0; i < this._dimensions; i++)
-            {
-                for (int j = 0; j < this._binEdges.length - 1; j++)
-                    hist[i][j] = 0;
-
-                // TODO: Pull out into it's own variable: signalZScore.size()
-
-                for (int j = 0; j < signalZScore.size(); j++)
-                {
-                    bin = (int) ((signalZScore.get(j)[i] - this._binEdges[0]) / (this._binEdges[1] - this._binEdges[0]));
-
-                    if ((bin < this._binEdges.length - 1) && (bin >= 0)) // values
-                                                                         // outside
-                                                                         // the
-                                                                         // range
-                                                                         // are
-                                                                         // neglected
-                        hist[i][bin]++;
-                }
-            }
+                signal.zScoreHistogram(i, mean[i], std[i], this._binEdges, hist[i]);
 
             // TODO
             // Add another set of histograms on raw signals (not zscore)
@@ -344,7 +320,7 @@ public class FeatureExtractor
 
             if (this._dimensions == 3)
             {
-                cross = this.get3DInnerProds(signal);
+                signal.innerProducts(cross);
 
                 switch (clip.getType())
                 {
@@ -384,7 +360,7 @@ public class FeatureExtractor
 
             if (this._dimensions == 3)
             {
-                crossNorm = this.get3DNormInnerProds(signal);
+                signal.normInnerProducts(crossNorm);
 
                 switch (clip.getType())
                 {
@@ -505,357 +481,4 @@ public class FeatureExtractor
 
         return features;
     }
-
-    private List<double[]> interpolate(List<double[]> signal, List<Long> ts, int freq)
-    {
-        List<double[]> signalOut = new ArrayList<double[]>();
-
-        if (ts.size() < 2) // CJK TODO: Ok returning uninitialized signalOut?
-            return signalOut;
-
-        double stepSize = (double) 1e9 / (double) freq; // step size in nanosec
-
-        // checking if the timestamps are incremental - if not, the datapoint is
-        // removed
-
-        List<Long> t2 = new ArrayList<Long>();
-
-        List<double[]> signal2 = new ArrayList<double[]>();
-
-        t2.add(ts.get(0));
-
-        signal2.add(Arrays.copyOf(signal.get(0), signal.get(0).length));
-
-        // TODO: Pull out into own variable: ts.size()
-
-        for (int j = 1; j < ts.size(); j++)
-        {
-            // TODO: Pull out into own variable: ts.get(j)
-            // TODO: Pull out into own variable: t2.size()
-
-            if (ts.get(j) > t2.get(t2.size() - 1))
-            {
-                t2.add(ts.get(j));
-
-                // TODO: Pull out into own variable: signal.get(j)
-
-                signal2.add(Arrays.copyOf(signal.get(j), signal.get(j).length));
-            }
-            else
-            {
-                Log.e("PR", "FeatureExtractor: Non-increasing timestamp found!");
-            }
-        }
-
-        // converting time instances to double and getting rid of big numbers
-        long tStart = t2.get(0);
-        double[] tDouble = new double[signal2.size()];
-
-        // TODO: Pull out into own variable: signal2.size()
-
-        for (int j = 0; j < signal2.size(); j++)
-            tDouble[j] = t2.get(j) - tStart;
-
-        // calculating the number of interpolated samples
-        int nSamp = (int) Math.floor(tDouble[signal2.size() - 1] / stepSize);
-
-        // creating new, regular time instances
-
-        // TODO: Reminder - pull out into own variable: signal2.size()
-
-        double[] tNew = new double[nSamp];
-        for (int j = 0; j < nSamp; j++)
-            tNew[j] = tDouble[signal2.size() - 1] - (double) j * stepSize;
-
-        double[][] signalOutTemp = new double[nSamp][this._dimensions];
-
-        for (int i = 0; i < this._dimensions; i++)
-        {
-            // building a separate array for the current axis
-            double[] signal1D = new double[signal2.size()];
-
-            for (int j = 0; j < signal2.size(); j++)
-                signal1D[j] = signal2.get(j)[i];
-
-            // spline interpolation
-            SplineInterpolator interp = new SplineInterpolator();
-            PolynomialSplineFunction func = interp.interpolate(tDouble, signal1D);
-
-            // interpolating onto new instances
-            for (int j = 0; j < nSamp; j++)
-                signalOutTemp[j][i] = func.value(tNew[j]);
-        }
-
-        // TODO: Pull out into own variable: signalOut.size()
-
-        for (int i = 0; i < nSamp; i++)
-        {
-            signalOut.add(new double[this._dimensions]);
-            signalOut.set(signalOut.size() - 1, signalOutTemp[i]);
-        }
-
-        return signalOut;
-    }
-
-    private List<double[]> getDiff(List<double[]> signal)
-    {
-        List<double[]> signalDiff = new ArrayList<double[]>();
-
-        // TODO: Pull out into own variable: signal.size()
-
-        for (int i = 0; i < signal.size() - 1; i++)
-        {
-            double[] sig = signal.get(i);
-            double[] sigNext = signal.get(i + 1);
-
-            double[] sigDiff = new double[sig.length];
-
-            for (int j = 0; j < sig.length; j++)
-                sigDiff[j] = sigNext[j] - sig[j];
-
-            signalDiff.add(sigDiff);
-        }
-
-        return signalDiff;
-    }
-
-    private List<double[]> getZScore(List<double[]> signal, double[] mean, double[] std)
-    {
-        List<double[]> signalZScore = new ArrayList<double[]>();
-
-        // TODO: Pull out into own variable: signal.size()
-
-        for (int i = 0; i < signal.size(); i++)
-        {
-            double[] sig = signal.get(i);
-            double[] sigZScore = new double[this._dimensions];
-
-            for (int j = 0; j < this._dimensions; j++)
-                sigZScore[j] = (sig[j] - mean[j]) / std[j];
-
-            signalZScore.add(sigZScore);
-        }
-
-        return signalZScore;
-    }
-
-    // This method will calculate mean, standard deviation, skewness, and
-    // kurtosis.
-    // each member of the list is one statistical moment, which consists of an
-    // array, with
-    // each element accounting for one dimension
-
-    private double[] getMoments(List<double[]> signal, int axis)
-    {
-        double[][] signalArray = new double[signal.size()][this._dimensions];
-
-        for (int i = 0; i < signalArray.length; i++)
-        {
-            signalArray[i] = signal.get(i);
-        }
-
-        if (signalArray.length < 2)
-        {
-            double[] out =
-            { 0.0, 0.0, 0.0, 0.0 };
-
-            return out;
-        }
-
-        double sum = 0.0;
-
-        // For some reason, the following commented-out code generates
-        // "concurrent modification exception"!
-        // for (double[] value : signal)
-        // sum += value[axis];
-        // CJK TODO: Solve mystery ^
-
-        for (int i = 0; i < signalArray.length; i++)
-            sum += signalArray[i][axis];
-
-        double mean = sum / signalArray.length;
-
-        double m2 = 0.0;
-        double m3 = 0.0;
-        double m4 = 0.0;
-
-        double t2 = 0.0;
-        double t3 = 0.0;
-        double t4 = 0.0;
-
-        for (int i = 0; i < signalArray.length; i++)
-        {
-            t2 = (signalArray[i][axis] - mean) * (signalArray[i][axis] - mean);
-            m2 += t2;
-
-            t3 = t2 * (signalArray[i][axis] - mean);
-            m3 += t3;
-
-            t4 = t3 * (signalArray[i][axis] - mean);
-            m4 += t4;
-        }
-
-        double std = (double) Math.sqrt(m2 / (signalArray.length - 1)); // unbiased
-
-        m2 /= signalArray.length;
-        m3 /= signalArray.length;
-        m4 /= signalArray.length;
-
-        double skewness = m3 / (std * std * std); // unbiased
-
-        double kurtosis = m4 / (m2 * m2) - 3; // unbiased
-
-        double out[] =
-        { mean, std, skewness, kurtosis };
-        return out;
-    }
-
-    // overall mean of squares
-    private double getOverallMean(List<double[]> signal)
-    {
-        double[][] signalArray = new double[signal.size()][this._dimensions];
-
-        for (int i = 0; i < signalArray.length; i++)
-        {
-            signalArray[i] = signal.get(i);
-        }
-
-        double ms = 0;
-
-        // TODO: Pull out into own variable: signal.size()
-
-        /*
-         * for (int i = 0; i < signal.size(); i++) { for (int j = 0; j <
-         * this._dimensions; j++) ms += signal.get(i)[j] * signal.get(i)[j] /
-         * this._dimensions; }
-         */
-
-        for (int i = 0; i < signalArray.length; i++)
-        {
-            for (int j = 0; j < this._dimensions; j++)
-                ms += signalArray[i][j] * signalArray[i][j] / this._dimensions;
-        }
-
-        ms /= signalArray.length;
-
-        return ms;
-    }
-
-    private double getRMS(List<double[]> signal, int axis)
-    {
-        double rms = 0;
-
-        // TODO: Pull out into own variable: signal.size()
-
-        for (int i = 0; i < signal.size(); i++)
-            rms += signal.get(i)[axis] * signal.get(i)[axis];
-
-        rms /= (double) signal.size();
-
-        return rms;
-    }
-
-    private double getMax(List<double[]> signal, int axis)
-    {
-        if (signal.size() == 0) // CJK Question / TODO: Is this always the right
-                                // answer?
-            return 0;
-
-        double max = signal.get(0)[axis];
-
-        // TODO: Pull out into own variable: signal.size()
-
-        for (int i = 1; i < signal.size(); i++)
-        {
-            if (max < signal.get(i)[axis])
-                max = signal.get(i)[axis];
-        }
-
-        return max;
-    }
-
-    private double getMin(List<double[]> signal, int axis)
-    {
-        if (signal.size() == 0) // CJK Question / TODO: Is this always the right
-                                // answer?
-            return 0;
-
-        double min = signal.get(0)[axis];
-
-        // TODO: Pull out into own variable: signal.size()
-
-        for (int i = 1; i < signal.size(); i++)
-        {
-            if (min > signal.get(i)[axis])
-                min = signal.get(i)[axis];
-        }
-
-        return min;
-    }
-
-    private double[] get3DInnerProds(List<double[]> signal)
-    {
-        // This feature only works for 3D signals (acceleration, magnetic field,
-        // etc).
-
-        double[] innerProds = new double[3];
-
-        if (this._dimensions != 3)
-            return innerProds; // double-check for dimension
-
-        // CJK Question / TODO: what's in the uninitialized double above^?
-
-        innerProds[0] = 0;
-
-        // TODO: Pull out into own variable: signal.size()
-
-        for (int j = 0; j < signal.size(); j++)
-            innerProds[0] += signal.get(j)[0] * signal.get(j)[1];
-        innerProds[0] /= (double) signal.size(); // mean
-
-        innerProds[1] = 0;
-        for (int j = 0; j < signal.size(); j++)
-            innerProds[1] += signal.get(j)[1] * signal.get(j)[2];
-        innerProds[1] /= (double) signal.size(); // mean
-
-        innerProds[2] = 0;
-        for (int j = 0; j < signal.size(); j++)
-            innerProds[2] += signal.get(j)[2] * signal.get(j)[0];
-        innerProds[2] /= (double) signal.size(); // mean
-
-        return innerProds;
-    }
-
-    private double[] get3DNormInnerProds(List<double[]> signal)
-    {
-        double[] innerProds = new double[3];
-
-        if (this._dimensions != 3)
-            return innerProds; // double-check for dimension
-
-        double[] magnitude = new double[signal.size()];
-
-        for (int j = 0; j < signal.size(); j++)
-        {
-            magnitude[j] = (signal.get(j)[0] * signal.get(j)[0]) + (signal.get(j)[1] * signal.get(j)[1])
-                    + (signal.get(j)[2] * signal.get(j)[2]);
-        }
-
-        innerProds[0] = 0;
-        for (int j = 0; j < signal.size(); j++)
-            innerProds[0] += signal.get(j)[0] * signal.get(j)[1] / magnitude[j];
-        innerProds[0] /= (double) signal.size(); // mean
-
-        innerProds[1] = 0;
-        for (int j = 0; j < signal.size(); j++)
-            innerProds[1] += signal.get(j)[1] * signal.get(j)[2] / magnitude[j];
-        innerProds[1] /= (double) signal.size(); // mean
-
-        innerProds[2] = 0;
-        for (int j = 0; j < signal.size(); j++)
-            innerProds[2] += signal.get(j)[2] * signal.get(j)[0] / magnitude[j];
-        innerProds[2] /= (double) signal.size(); // mean
-
-        return innerProds;
-    }
 }
\ No newline at end of file
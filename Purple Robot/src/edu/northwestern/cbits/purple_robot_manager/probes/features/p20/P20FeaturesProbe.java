@@ -131,7 +131,7 @@ public class P20FeaturesProbe extends Probe implements SensorEventListener
                     boolean generateTone = false;
 
                     // checking if the clip has moved since last time
-                    if (me._accelerometerClip.getTimestamps().size() > 0)
+                    if (me._accelerometerClip.size() > 0)
                     {
                         if (me._accelerometerClip.getLastTimestamp() == last_timestamp)
                         {
@@ -141,7 +141,7 @@ public class P20FeaturesProbe extends Probe implements SensorEventListener
                         else
                         {
                             last_timestamp = me._accelerometerClip.getLastTimestamp();
-                            Log.e("PR", "P20FeaturesProbe: n_samp = " + me._accelerometerClip.getTimestamps().size());
+                            Log.e("PR", "P20FeaturesProbe: n_samp = " + me._accelerometerClip.size());
                         }
                     }
 
@@ -151,7 +151,7 @@ public class P20FeaturesProbe extends Probe implements SensorEventListener
                         {
                             me._featureValues.putAll(me._accelerometerExtractor.extractFeatures(me._accelerometerClip));
 
-                            if (me._accelerometerClip.getValues().size() < 100)
+                            if (me._accelerometerClip.size() < 100)
                                 generateTone = true;
                         }
                     }
@@ -162,7 +162,7 @@ public class P20FeaturesProbe extends Probe implements SensorEventListener
                         {
                             me._featureValues.putAll(me._gyroscopeExtractor.extractFeatures(me._gyroscopeClip));
 
-                            if (me._gyroscopeClip.getValues().size() < 100)
+                            if (me._gyroscopeClip.size() < 100)
                                 generateTone = true;
                         }
                     }
@@ -173,7 +173,7 @@ public class P20FeaturesProbe extends Probe implements SensorEventListener
                         {
                             me._featureValues.putAll(me._barometerExtractor.extractFeatures(me._barometerClip));
 
-                            if (me._barometerClip.getValues().size() < 100)
+                            if (me._barometerClip.size() < 100)
                                 generateTone = true;
                         }
                     }
@@ -0,0 +1,639 @@
+package edu.northwestern.cbits.purple_robot_manager.probes.features.p20;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window over a signal resampled onto a regular grid, with running
+ * accumulators for the statistics used by FeatureExtractor.
+ *
+ * Raw samples are resampled as they arrive with a cubic Hermite segment
+ * between the previous two samples (tangents from their neighbours), so a
+ * grid point is emitted one raw sample after it is passed. Grid points sit at
+ * multiples of the step rather than being re-anchored to the newest sample,
+ * which lets each one be computed exactly once.
+ *
+ * Each emitted or evicted grid point updates shifted power sums (moments),
+ * power sums of successive differences, cross products, monotonic queues
+ * (maximum and minimum) and a sorted copy of each axis (z-score histograms),
+ * so reading the statistics never walks the window. Power sums are rebuilt
+ * from the buffer once per window length to stop rounding errors from
+ * accumulating.
+ */
+
+public class SignalWindow
+{
+    private final int _dimensions;
+    private final long _windowSize;
+    private final long _step;
+    private final int _capacity;
+
+    // Resampled ring, indexed by sequence number modulo capacity...
+
+    private final long[] _times;
+    private final double[][] _samples;
+    private long _first = 0;
+    private long _next = 0;
+
+    // Last raw samples, oldest first...
+
+    private final long[] _rawTimes = new long[4];
+    private final double[][] _raw;
+    private int _rawCount = 0;
+    private long _nextGrid = Long.MIN_VALUE;
+
+    private final double[] _shift;
+    private final double[][] _sums;
+    private final double[][] _diffSums;
+    private final double[] _cross = new double[3];
+    private final double[] _normCross = new double[3];
+    private int _evictions = 0;
+
+    private final long[][] _maxQueue;
+    private final long[][] _minQueue;
+    private final int[] _maxHead;
+    private final int[] _maxSize;
+    private final int[] _minHead;
+    private final int[] _minSize;
+
+    private final double[][] _sorted;
+
+    public SignalWindow(int dimensions, long windowSize, int frequency)
+    {
+        this._dimensions = dimensions;
+        this._windowSize = windowSize;
+        this._step = 1000000000L / frequency;
+        this._capacity = (int) (windowSize / this._step) + 2;
+
+        this._times = new long[this._capacity];
+        this._samples = new double[dimensions][this._capacity];
+        this._raw = new double[4][dimensions];
+
+        this._shift = new double[dimensions];
+        this._sums = new double[dimensions][4];
+        this._diffSums = new double[dimensions][4];
+
+        this._maxQueue = new long[dimensions][this._capacity];
+        this._minQueue = new long[dimensions][this._capacity];
+        this._maxHead = new int[dimensions];
+        this._maxSize = new int[dimensions];
+        this._minHead = new int[dimensions];
+        this._minSize = new int[dimensions];
+
+        this._sorted = new double[dimensions][this._capacity];
+    }
+
+    public void clear()
+    {
+        this._first = 0;
+        this._next = 0;
+        this._rawCount = 0;
+        this._nextGrid = Long.MIN_VALUE;
+        this._evictions = 0;
+
+        for (int i = 0; i < this._dimensions; i++)
+        {
+            Arrays.fill(this._sums[i], 0);
+            Arrays.fill(this._diffSums[i], 0);
+
+            this._shift[i] = 0;
+            this._maxSize[i] = 0;
+            this._minSize[i] = 0;
+        }
+
+        Arrays.fill(this._cross, 0);
+        Arrays.fill(this._normCross, 0);
+    }
+
+    /**
+     * Adds a raw sample. Timestamps must be increasing.
+     */
+
+    public void add(long timestamp, double[] values)
+    {
+        if (this._rawCount == 4)
+        {
+            double[] recycled = this._raw[0];
+
+            for (int i = 0; i < 3; i++)
+            {
+                this._rawTimes[i] = this._rawTimes[i + 1];
+                this._raw[i] = this._raw[i + 1];
+            }
+
+            this._raw[3] = recycled;
+            this._rawCount = 3;
+        }
+
+        this._rawTimes[this._rawCount] = timestamp;
+        System.arraycopy(values, 0, this._raw[this._rawCount], 0, this._dimensions);
+        this._rawCount += 1;
+
+        if (this._nextGrid == Long.MIN_VALUE)
+            this._nextGrid = ((timestamp + this._step - 1) / this._step) * this._step;
+
+        if (this._rawCount >= 3)
+            this.resample();
+
+        long oldest = timestamp - this._windowSize;
+
+        while (this._next > this._first && this._times[this.slot(this._first)] < oldest)
+            this.evict();
+    }
+
+    public int size()
+    {
+        return (int) (this._next - this._first);
+    }
+
+    /**
+     * Returns mean, standard deviation (n - 1), skewness and excess kurtosis
+     * of the axis, or zeros when there are fewer than two samples.
+     */
+
+    public void moments(int axis, double[] out)
+    {
+        int n = this.size();
+
+        if (n < 2)
+        {
+            Arrays.fill(out, 0.0);
+
+            return;
+        }
+
+        SignalWindow.moments(this._sums[axis], n, out);
+
+        out[0] += this._shift[axis];
+    }
+
+    /**
+     * Moments of the successive differences of the axis.
+     */
+
+    public void diffMoments(int axis, double[] out)
+    {
+        int n = this.size() - 1;
+
+        if (n < 2)
+        {
+            Arrays.fill(out, 0.0);
+
+            return;
+        }
+
+        SignalWindow.moments(this._diffSums[axis], n, out);
+    }
+
+    /**
+     * Mean of the squared values of the axis.
+     */
+
+    public double meanSquare(int axis)
+    {
+        double shift = this._shift[axis];
+        double[] sums = this._sums[axis];
+        int n = this.size();
+
+        return (sums[1] + (2 * shift * sums[0]) + (n * shift * shift)) / n;
+    }
+
+    /**
+     * Mean over every axis of the squared values.
+     */
+
+    public double overallMeanSquare()
+    {
+        double ms = 0;
+
+        for (int i = 0; i < this._dimensions; i++)
+            ms += this.meanSquare(i) / this._dimensions;
+
+        return ms;
+    }
+
+    public double max(int axis)
+    {
+        if (this._maxSize[axis] == 0)
+            return 0;
+
+        return this._samples[axis][this.slot(this._maxQueue[axis][this._maxHead[axis]])];
+    }
+
+    public double min(int axis)
+    {
+        if (this._minSize[axis] == 0)
+            return 0;
+
+        return this._samples[axis][this.slot(this._minQueue[axis][this._minHead[axis]])];
+    }
+
+    /**
+     * Means of x * y, y * z and z * x (3D signals only).
+     */
+
+    public void innerProducts(double[] out)
+    {
+        int n = this.size();
+
+        for (int i = 0; i < 3; i++)
+            out[i] = this._cross[i] / n;
+    }
+
+    /**
+     * Means of the inner products divided by the squared magnitude.
+     */
+
+    public void normInnerProducts(double[] out)
+    {
+        int n = this.size();
+
+        for (int i = 0; i < 3; i++)
+            out[i] = this._normCross[i] / n;
+    }
+
+    /**
+     * Counts the z-scores of the axis into the bins delimited by the equally
+     * spaced edges. Matches truncating (z - edges[0]) / width towards zero,
+     * so the first bin also takes the width below the first edge.
+     */
+
+    public void zScoreHistogram(int axis, double mean, double std, double[] edges, int[] out)
+    {
+        int n = this.size();
+        double[] sorted = this._sorted[axis];
+
+        Arrays.fill(out, 0);
+
+        if (std == 0 || Double.isNaN(std))
+        {
+            // Every z-score is NaN or infinite - NaN truncates into bin 0...
+
+            out[0] = SignalWindow.countBelow(sorted, n, mean, true) - SignalWindow.countBelow(sorted, n, mean, false);
+
+            return;
+        }
+
+        double width = edges[1] - edges[0];
+
+        for (int i = 0; i < out.length; i++)
+        {
+            double low = edges[0] + (i * width);
+            double high = low + width;
+
+            if (i == 0)
+                out[i] = SignalWindow.countBelow(sorted, n, mean + (high * std), false) - SignalWindow.countBelow(sorted, n, mean + ((low - width) * std), true);
+            else
+                out[i] = SignalWindow.countBelow(sorted, n, mean + (high * std), false) - SignalWindow.countBelow(sorted, n, mean + (low * std), false);
+        }
+    }
+
+    /**
+     * Copies the resampled values of the axis, oldest first.
+     */
+
+    public double[] values(int axis)
+    {
+        double[] values = new double[this.size()];
+
+        for (long seq = this._first; seq < this._next; seq++)
+            values[(int) (seq - this._first)] = this._samples[axis][this.slot(seq)];
+
+        return values;
+    }
+
+    private int slot(long seq)
+    {
+        return (int) (seq % this._capacity);
+    }
+
+    /**
+     * Emits the grid points between the middle two of the last raw samples.
+     */
+
+    private void resample()
+    {
+        int p1 = this._rawCount - 3;
+        int p2 = this._rawCount - 2;
+        int p3 = this._rawCount - 1;
+        int p0 = p1 - 1;
+
+        long t1 = this._rawTimes[p1];
+        long t2 = this._rawTimes[p2];
+
+        double h = t2 - t1;
+
+        while (this._nextGrid < t2)
+        {
+            double s = (this._nextGrid - t1) / h;
+
+            double s2 = s * s;
+            double s3 = s2 * s;
+
+            double h00 = (2 * s3) - (3 * s2) + 1;
+            double h10 = s3 - (2 * s2) + s;
+            double h01 = (3 * s2) - (2 * s3);
+            double h11 = s3 - s2;
+
+            if (this.size() == this._capacity)
+                this.evict();
+
+            long seq = this._next;
+            int slot = this.slot(seq);
+
+            this._times[slot] = this._nextGrid;
+
+            for (int i = 0; i < this._dimensions; i++)
+            {
+                double v1 = this._raw[p1][i];
+                double v2 = this._raw[p2][i];
+
+                double m1 = (v2 - v1) / h;
+
+                if (p0 >= 0)
+                    m1 = (v2 - this._raw[p0][i]) / (t2 - this._rawTimes[p0]);
+
+                double m2 = (this._raw[p3][i] - v1) / (this._rawTimes[p3] - t1);
+
+                this._samples[i][slot] = (h00 * v1) + (h10 * h * m1) + (h01 * v2) + (h11 * h * m2);
+            }
+
+            this._next += 1;
+
+            this.accumulate(seq, 1);
+
+            this._nextGrid += this._step;
+        }
+    }
+
+    private void evict()
+    {
+        this.accumulate(this._first, -1);
+
+        this._first += 1;
+        this._evictions += 1;
+
+        if (this._evictions >= this._capacity)
+            this.rebuild();
+    }
+
+    /**
+     * Adds (sign 1, newest) or removes (sign -1, oldest) the sample from every
+     * accumulator.
+     */
+
+    private void accumulate(long seq, int sign)
+    {
+        int slot = this.slot(seq);
+
+        boolean hasNeighbour = false;
+        long neighbour = seq - 1;
+
+        if (sign > 0)
+            hasNeighbour = seq > this._first;
+        else
+        {
+            neighbour = seq + 1;
+            hasNeighbour = neighbour < this._next;
+        }
+
+        for (int i = 0; i < this._dimensions; i++)
+        {
+            double value = this._samples[i][slot];
+
+            SignalWindow.addPowers(this._sums[i], value - this._shift[i], sign);
+
+            if (hasNeighbour)
+            {
+                double other = this._samples[i][this.slot(neighbour)];
+
+                if (sign > 0)
+                    SignalWindow.addPowers(this._diffSums[i], value - other, 1);
+                else
+                    SignalWindow.addPowers(this._diffSums[i], other - value, -1);
+            }
+
+            if (sign > 0)
+            {
+                this.pushQueue(i, seq, value);
+                this.insertSorted(i, value);
+            }
+            else
+            {
+                this.popQueue(i, seq);
+                this.removeSorted(i, value);
+            }
+        }
+
+        if (this._dimensions == 3)
+        {
+            double x = this._samples[0][slot];
+            double y = this._samples[1][slot];
+            double z = this._samples[2][slot];
+
+            double magnitude = (x * x) + (y * y) + (z * z);
+
+            this._cross[0] += sign * x * y;
+            this._cross[1] += sign * y * z;
+            this._cross[2] += sign * z * x;
+
+            this._normCross[0] += sign * x * y / magnitude;
+            this._normCross[1] += sign * y * z / magnitude;
+            this._normCross[2] += sign * z * x / magnitude;
+        }
+    }
+
+    /**
+     * Recomputes the power sums around the current mean.
+     */
+
+    private void rebuild()
+    {
+        this._evictions = 0;
+
+        int n = this.size();
+
+        Arrays.fill(this._cross, 0);
+        Arrays.fill(this._normCross, 0);
+
+        for (int i = 0; i < this._dimensions; i++)
+        {
+            double[] samples = this._samples[i];
+
+            double shift = 0;
+
+            if (n > 0)
+                shift = this._shift[i] + (this._sums[i][0] / n);
+
+            this._shift[i] = shift;
+
+            Arrays.fill(this._sums[i], 0);
+            Arrays.fill(this._diffSums[i], 0);
+
+            for (long seq = this._first; seq < this._next; seq++)
+            {
+                double value = samples[this.slot(seq)];
+
+                SignalWindow.addPowers(this._sums[i], value - shift, 1);
+
+                if (seq > this._first)
+                    SignalWindow.addPowers(this._diffSums[i], value - samples[this.slot(seq - 1)], 1);
+            }
+        }
+
+        if (this._dimensions == 3)
+        {
+            for (long seq = this._first; seq < this._next; seq++)
+            {
+                int slot = this.slot(seq);
+
+                double x = this._samples[0][slot];
+                double y = this._samples[1][slot];
+                double z = this._samples[2][slot];
+
+                double magnitude = (x * x) + (y * y) + (z * z);
+
+                this._cross[0] += x * y;
+                this._cross[1] += y * z;
+                this._cross[2] += z * x;
+
+                this._normCross[0] += x * y / magnitude;
+                this._normCross[1] += y * z / magnitude;
+                this._normCross[2] += z * x / magnitude;
+            }
+        }
+    }
+
+    private void pushQueue(int axis, long seq, double value)
+    {
+        double[] samples = this._samples[axis];
+
+        long[] maxQueue = this._maxQueue[axis];
+
+        while (this._maxSize[axis] > 0)
+        {
+            int tail = (this._maxHead[axis] + this._maxSize[axis] - 1) % this._capacity;
+
+            if (samples[this.slot(maxQueue[tail])] > value)
+                break;
+
+            this._maxSize[axis] -= 1;
+        }
+
+        maxQueue[(this._maxHead[axis] + this._maxSize[axis]) % this._capacity] = seq;
+        this._maxSize[axis] += 1;
+
+        long[] minQueue = this._minQueue[axis];
+
+        while (this._minSize[axis] > 0)
+        {
+            int tail = (this._minHead[axis] + this._minSize[axis] - 1) % this._capacity;
+
+            if (samples[this.slot(minQueue[tail])] < value)
+                break;
+
+            this._minSize[axis] -= 1;
+        }
+
+        minQueue[(this._minHead[axis] + this._minSize[axis]) % this._capacity] = seq;
+        this._minSize[axis] += 1;
+    }
+
+    private void popQueue(int axis, long seq)
+    {
+        if (this._maxSize[axis] > 0 && this._maxQueue[axis][this._maxHead[axis]] == seq)
+        {
+            this._maxHead[axis] = (this._maxHead[axis] + 1) % this._capacity;
+            this._maxSize[axis] -= 1;
+        }
+
+        if (this._minSize[axis] > 0 && this._minQueue[axis][this._minHead[axis]] == seq)
+        {
+            this._minHead[axis] = (this._minHead[axis] + 1) % this._capacity;
+            this._minSize[axis] -= 1;
+        }
+    }
+
+    private void insertSorted(int axis, double value)
+    {
+        double[] sorted = this._sorted[axis];
+        int n = this.size() - 1;
+
+        int index = SignalWindow.countBelow(sorted, n, value, false);
+
+        System.arraycopy(sorted, index, sorted, index + 1, n - index);
+        sorted[index] = value;
+    }
+
+    private void removeSorted(int axis, double value)
+    {
+        double[] sorted = this._sorted[axis];
+        int n = this.size();
+
+        int index = SignalWindow.countBelow(sorted, n, value, false);
+
+        if (index < n)
+            System.arraycopy(sorted, index + 1, sorted, index, n - index - 1);
+    }
+
+    /**
+     * Returns the number of values below the limit (or at or below it when
+     * inclusive) in the sorted prefix.
+     */
+
+    private static int countBelow(double[] sorted, int n, double limit, boolean inclusive)
+    {
+        int low = 0;
+        int high = n;
+
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (sorted[mid] < limit || (inclusive && sorted[mid] == limit))
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        return low;
+    }
+
+    private static void addPowers(double[] sums, double value, int sign)
+    {
+        double value2 = value * value;
+
+        sums[0] += sign * value;
+        sums[1] += sign * value2;
+        sums[2] += sign * value2 * value;
+        sums[3] += sign * value2 * value2;
+    }
+
+    /**
+     * Turns power sums of n values into mean, standard deviation (n - 1),
+     * skewness and excess kurtosis, computed as in the original batch
+     * implementation.
+     */
+
+    private static void moments(double[] sums, int n, double[] out)
+    {
+        double mean = sums[0] / n;
+
+        double m2 = sums[1] - (n * mean * mean);
+        double m3 = sums[2] - (3 * mean * sums[1]) + (2 * n * mean * mean * mean);
+        double m4 = sums[3] - (4 * mean * sums[2]) + (6 * mean * mean * sums[1]) - (3 * n * mean * mean * mean * mean);
+
+        if (m2 < 0)
+            m2 = 0;
+
+        double std = Math.sqrt(m2 / (n - 1));
+
+        m2 /= n;
+        m3 /= n;
+        m4 /= n;
+
+        out[0] = mean;
+        out[1] = std;
+        out[2] = m3 / (std * std * std);
+        out[3] = (m4 / (m2 * m2)) - 3;
+    }
+}
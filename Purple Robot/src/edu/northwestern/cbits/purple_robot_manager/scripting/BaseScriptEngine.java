@@ -13,7 +13,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.UUID;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -68,6 +67,7 @@ import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.models.ModelManager;
 import edu.northwestern.cbits.purple_robot_manager.plugins.DataUploadPlugin;
 import edu.northwestern.cbits.purple_robot_manager.probes.ProbeManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.snapshots.EmptySnapshotException;
 import edu.northwestern.cbits.purple_robot_manager.snapshots.SnapshotManager;
 import edu.northwestern.cbits.purple_robot_manager.triggers.Trigger;
@@ -543,6 +543,39 @@ public abstract class BaseScriptEngine
         return editor.commit();
     }
 
+    /**
+     * Persists several values with a single commit, which is much cheaper than
+     * committing each one. Null values remove their keys. An empty or null
+     * namespace stores the values outside any namespace.
+     */
+
+    public boolean persistStrings(String namespace, Map<String, String> values)
+    {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+        Editor editor = prefs.edit();
+
+        String prefix = SCRIPT_ENGINE_PERSISTENCE_PREFIX;
+
+        if (namespace != null && namespace.length() > 0)
+        {
+            this.addNamespace(namespace);
+
+            prefix = namespace + " - " + prefix;
+        }
+
+        for (String key : values.keySet())
+        {
+            String value = values.get(key);
+
+            if (value != null)
+                editor.putString(prefix + key, value);
+            else
+                editor.remove(prefix + key);
+        }
+
+        return editor.commit();
+    }
+
     public String fetchString(String namespace, String key)
     {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
@@ -665,14 +698,7 @@ public abstract class BaseScriptEngine
 
     protected void transmitData(Bundle data)
     {
-        UUID uuid = UUID.randomUUID();
-        data.putString("GUID", uuid.toString());
-
-        LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(this._context);
-        Intent intent = new Intent(edu.northwestern.cbits.purple_robot_manager.probes.Probe.PROBE_READING);
-        intent.putExtras(data);
-
-        localManager.sendBroadcast(intent);
+        ProbeReadingBus.getInstance(this._context).publish(data);
     }
 
     @ScriptingEngineMethod(language = "All")
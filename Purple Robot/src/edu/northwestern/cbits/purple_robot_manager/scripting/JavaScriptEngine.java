@@ -3,6 +3,8 @@ package edu.northwestern.cbits.purple_robot_manager.scripting;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -15,8 +17,8 @@ import org.mozilla.javascript.Context;
 import org.mozilla.javascript.EcmaError;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.NativeArray;
-import org.mozilla.javascript.NativeJSON;
 import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 
@@ -34,6 +36,32 @@ import edu.northwestern.cbits.purple_robot_manager.probes.features.JavascriptFea
 
 public class JavaScriptEngine extends BaseScriptEngine
 {
+    private static final int SCRIPT_CACHE_SIZE = 64;
+
+    private static ScriptableObject _sharedScope = null;
+
+    private static class CachedScript
+    {
+        private final Script _script;
+        private boolean _privateScope = false;
+
+        private CachedScript(Script script)
+        {
+            this._script = script;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final LinkedHashMap<String, CachedScript> _scripts = new LinkedHashMap<String, CachedScript>(16, 0.75f, true)
+    {
+        protected boolean removeEldestEntry(Map.Entry<String, CachedScript> eldest)
+        {
+            return this.size() > JavaScriptEngine.SCRIPT_CACHE_SIZE;
+        }
+    };
+
+    private static final HashMap<String, Script> _libraries = new HashMap<String, Script>();
+
     private Context _jsContext = null;
     private Scriptable _scope = null;
 
@@ -48,38 +76,118 @@ public class JavaScriptEngine extends BaseScriptEngine
         return this.runScript(script, null, null);
     }
 
-    @SuppressWarnings("unchecked")
     @ScriptingEngineMethod(language = "JavaScript")
     public Object runScript(String script, String extrasName, Object extras) throws EvaluatorException, EcmaError
     {
         this._jsContext = Context.enter();
         this._jsContext.setOptimizationLevel(-1);
 
-        this._scope = _jsContext.initStandardObjects();
+        CachedScript compiled = JavaScriptEngine.compile(this._jsContext, script);
+
+        if (compiled._privateScope == false)
+        {
+            try
+            {
+                return this.exec(compiled._script, JavaScriptEngine.childScope(this._jsContext), extrasName, extras);
+            }
+            catch (EvaluatorException e)
+            {
+                if (JavaScriptEngine.isSealedWrite(e) == false)
+                    throw e;
+
+                // The script (or a library it loads, such as date.js) extends
+                // the built-in objects - run it again with its own copy...
+
+                synchronized (JavaScriptEngine._scripts)
+                {
+                    compiled._privateScope = true;
+                }
+            }
+        }
+
+        return this.exec(compiled._script, this._jsContext.initStandardObjects(), extrasName, extras);
+    }
+
+    private Object exec(Script compiled, Scriptable scope, String extrasName, Object extras)
+    {
+        this._scope = scope;
 
         Object thisWrapper = Context.javaToJS(this, this._scope);
         ScriptableObject.putProperty(this._scope, "PurpleRobot", thisWrapper);
 
-        if (extras instanceof Map<?, ?>)
+        if (extras != null && extrasName != null)
+            ScriptableObject.putProperty(this._scope, extrasName, JavaScriptEngine.toNative(this._jsContext, this._scope, extras));
+
+        return compiled.exec(this._jsContext, this._scope);
+    }
+
+    private static boolean isSealedWrite(EvaluatorException e)
+    {
+        String message = e.details();
+
+        return message != null && message.contains("sealed object");
+    }
+
+    /**
+     * Scripts share one sealed set of standard objects and only pay for a
+     * small child scope per call. A script that tries to change the shared
+     * objects fails with an EvaluatorException and is run again, now and on
+     * later calls, in a private standard scope.
+     */
+
+    private static Scriptable childScope(Context jsContext)
+    {
+        ScriptableObject shared = null;
+
+        synchronized (JavaScriptEngine.class)
         {
-            extras = JavaScriptEngine.mapToNative(this._jsContext, this._scope, (Map<String, Object>) extras);
+            if (JavaScriptEngine._sharedScope == null)
+            {
+                JavaScriptEngine._sharedScope = jsContext.initStandardObjects(null, true);
+                JavaScriptEngine._sharedScope.sealObject();
+            }
 
-            extras = NativeJSON.stringify(this._jsContext, this._scope, extras, null, null);
+            shared = JavaScriptEngine._sharedScope;
         }
 
-        if (extras != null && extrasName != null)
-            script = "var " + extrasName + " = " + extras.toString() + "; " + script;
+        Scriptable scope = jsContext.newObject(shared);
+        scope.setPrototype(shared);
+        scope.setParentScope(null);
+
+        return scope;
+    }
+
+    private static CachedScript compile(Context jsContext, String script)
+    {
+        synchronized (JavaScriptEngine._scripts)
+        {
+            CachedScript compiled = JavaScriptEngine._scripts.get(script);
+
+            if (compiled != null)
+                return compiled;
+        }
 
-        Log.e("PR", "JS SCRIPT LENGTH: " + script.length());
+        CachedScript compiled = new CachedScript(jsContext.compileString(script, "<engine>", 1, null));
 
-        int end = script.length() - 512;
+        synchronized (JavaScriptEngine._scripts)
+        {
+            JavaScriptEngine._scripts.put(script, compiled);
+        }
 
-        if (end < 0)
-            end = 0;
+        return compiled;
+    }
 
-        Log.e("PR", "JS SCRIPT END: " + script.substring(end));
+    public static void clearScriptCache()
+    {
+        synchronized (JavaScriptEngine._scripts)
+        {
+            JavaScriptEngine._scripts.clear();
+        }
 
-        return this._jsContext.evaluateString(this._scope, script, "<engine>", 0, null);
+        synchronized (JavaScriptEngine._libraries)
+        {
+            JavaScriptEngine._libraries.clear();
+        }
     }
 
     @ScriptingEngineMethod(language = "JavaScript")
@@ -102,21 +210,38 @@ public class JavaScriptEngine extends BaseScriptEngine
                 if (libraryName.endsWith(".js") == false)
                     libraryName += ".js";
 
-                AssetManager am = this._context.getAssets();
+                Script library = null;
+
+                synchronized (JavaScriptEngine._libraries)
+                {
+                    library = JavaScriptEngine._libraries.get(libraryName);
+                }
 
-                InputStream jsStream = am.open("js/" + libraryName);
+                if (library == null)
+                {
+                    AssetManager am = this._context.getAssets();
 
-                // http://stackoverflow.com/questions/309424/read-convert-an-inputstream-to-a-string
-                Scanner s = new Scanner(jsStream).useDelimiter("\\A");
+                    InputStream jsStream = am.open("js/" + libraryName);
 
-                String script = "";
+                    // http://stackoverflow.com/questions/309424/read-convert-an-inputstream-to-a-string
+                    Scanner s = new Scanner(jsStream).useDelimiter("\\A");
 
-                if (s.hasNext())
-                    script = s.next();
-                else
-                    return false;
+                    String script = "";
 
-                this._jsContext.evaluateString(this._scope, script, "<engine>", 1, null);
+                    if (s.hasNext())
+                        script = s.next();
+                    else
+                        return false;
+
+                    library = this._jsContext.compileString(script, libraryName, 1, null);
+
+                    synchronized (JavaScriptEngine._libraries)
+                    {
+                        JavaScriptEngine._libraries.put(libraryName, library);
+                    }
+                }
+
+                library.exec(this._jsContext, this._scope);
 
                 return true;
             }
@@ -326,6 +451,72 @@ public class JavaScriptEngine extends BaseScriptEngine
         return obj;
     }
 
+    /**
+     * Converts maps, JSON values and lists into native JavaScript objects and
+     * arrays, leaving numbers, strings and booleans as they are.
+     */
+
+    @SuppressWarnings("unchecked")
+    private static Object toNative(Context context, Scriptable scope, Object value)
+    {
+        if (value == null || value == JSONObject.NULL)
+            return null;
+        else if (value instanceof Number || value instanceof String || value instanceof Boolean || value instanceof Scriptable)
+            return value;
+        else if (value instanceof Map)
+        {
+            Map<String, Object> map = (Map<String, Object>) value;
+
+            NativeObject obj = (NativeObject) context.newObject(scope);
+
+            for (Entry<String, Object> e : map.entrySet())
+                obj.put(e.getKey(), obj, JavaScriptEngine.toNative(context, scope, e.getValue()));
+
+            return obj;
+        }
+        else if (value instanceof JSONObject)
+        {
+            JSONObject json = (JSONObject) value;
+
+            NativeObject obj = (NativeObject) context.newObject(scope);
+
+            Iterator<String> keys = json.keys();
+
+            while (keys.hasNext())
+            {
+                String key = keys.next();
+
+                obj.put(key, obj, JavaScriptEngine.toNative(context, scope, json.opt(key)));
+            }
+
+            return obj;
+        }
+        else if (value instanceof JSONArray)
+        {
+            JSONArray json = (JSONArray) value;
+
+            Object[] items = new Object[json.length()];
+
+            for (int i = 0; i < items.length; i++)
+                items[i] = JavaScriptEngine.toNative(context, scope, json.opt(i));
+
+            return context.newArray(scope, items);
+        }
+        else if (value instanceof List)
+        {
+            List<Object> list = (List<Object>) value;
+
+            Object[] items = new Object[list.size()];
+
+            for (int i = 0; i < items.length; i++)
+                items[i] = JavaScriptEngine.toNative(context, scope, list.get(i));
+
+            return context.newArray(scope, items);
+        }
+
+        return Context.javaToJS(value, scope);
+    }
+
     @ScriptingEngineMethod(language = "JavaScript")
     public String fetchConfig()
     {
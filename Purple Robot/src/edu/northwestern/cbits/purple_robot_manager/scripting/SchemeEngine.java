@@ -1,7 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.scripting;
 
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -10,8 +8,6 @@ import java.util.Map;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.annotation.ScriptingEngineMethod;
-import jscheme.JScheme;
-import jsint.Evaluator;
 import jsint.Pair;
 import jsint.Symbol;
 import android.annotation.SuppressLint;
@@ -45,9 +41,7 @@ public class SchemeEngine extends BaseScriptEngine
                 return false;
             else
             {
-                JScheme scheme = new JScheme();
-
-                Object pair = scheme.read(script);
+                Object pair = SchemeInterpreterPool.read(script);
 
                 if ((pair instanceof Pair) == false)
                     return false;
@@ -66,57 +60,26 @@ public class SchemeEngine extends BaseScriptEngine
         if (source.trim().toLowerCase().equals("(begin)"))
             return null;
 
-        Evaluator eval = new Evaluator();
-        eval.getInteractionEnvironment().setValue(Symbol.intern("PurpleRobot"), this);
-        eval.getInteractionEnvironment().setValue(Symbol.intern("JSONHelper"), new JSONHelper());
-        JScheme scheme = new JScheme(eval);
+        SchemeInterpreterPool pool = SchemeInterpreterPool.getInstance(this._context);
+        SchemeInterpreterPool.Interpreter interpreter = pool.acquire();
 
-        try
-        {
-            scheme.load(new InputStreamReader(this._context.getAssets().open("scheme/pregexp.scm")));
-        }
-        catch (IOException e)
-        {
-            LogManager.getInstance(this._context).logException(e);
-        }
-        catch (StackOverflowError e)
-        {
-            LogManager.getInstance(this._context).logException(e);
-        }
+        boolean reusable = false;
 
         try
         {
-            scheme.load(new InputStreamReader(this._context.getAssets().open("scheme/json.scm")));
-        }
-        catch (IOException e)
-        {
-            LogManager.getInstance(this._context).logException(e);
-        }
-        catch (StackOverflowError e)
-        {
-            LogManager.getInstance(this._context).logException(e);
-        }
+            Object result = interpreter.begin(this).eval(source);
 
-        try
-        {
-            scheme.load(new InputStreamReader(this._context.getAssets().open("scheme/purple-robot.scm")));
-        }
-        catch (IOException e)
-        {
-            LogManager.getInstance(this._context).logException(e);
+            reusable = true;
+
+            return result;
         }
         catch (StackOverflowError e)
         {
             LogManager.getInstance(this._context).logException(e);
         }
-
-        try
+        finally
         {
-            return scheme.eval(source);
-        }
-        catch (StackOverflowError e)
-        {
-            LogManager.getInstance(this._context).logException(e);
+            pool.release(interpreter, reusable);
         }
 
         return Boolean.valueOf(false);
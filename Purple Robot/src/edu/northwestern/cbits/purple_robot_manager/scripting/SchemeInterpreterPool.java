@@ -0,0 +1,278 @@
+package edu.northwestern.cbits.purple_robot_manager.scripting;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import jscheme.JScheme;
+import jsint.DynamicEnvironment;
+import jsint.DynamicVariable;
+import jsint.Evaluator;
+import jsint.Symbol;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Pool of Scheme interpreters with the standard Purple Robot libraries already
+ * loaded.
+ *
+ * Each evaluation runs in a fresh copy of the interpreter's library
+ * environment, so top-level definitions made by a script disappear when it
+ * finishes. Library bindings themselves are shared with the copy; when an
+ * interpreter is returned, its library bindings are compared against a
+ * snapshot taken after loading and an interpreter whose libraries were
+ * modified (via set! or a redefinition) is discarded instead of being reused.
+ *
+ * At most MAX_IDLE interpreters are retained. When none is idle a new one is
+ * created rather than waiting, so nested evaluations can never deadlock.
+ */
+
+public class SchemeInterpreterPool
+{
+    private static final int MAX_IDLE = 3;
+
+    private static final String[] LIBRARIES =
+    { "scheme/pregexp.scm", "scheme/json.scm", "scheme/purple-robot.scm" };
+
+    private static final Symbol PURPLE_ROBOT = Symbol.intern("PurpleRobot");
+    private static final Symbol JSON_HELPER = Symbol.intern("JSONHelper");
+
+    private static final Object UNDEFINED = new Object();
+
+    public static final String CREATED_COUNT = "CREATED_COUNT";
+    public static final String REUSED_COUNT = "REUSED_COUNT";
+    public static final String DISCARDED_COUNT = "DISCARDED_COUNT";
+    public static final String IDLE_COUNT = "IDLE_COUNT";
+
+    private static SchemeInterpreterPool _instance = null;
+    private static JScheme _reader = null;
+
+    private static class LibraryEnvironment extends DynamicEnvironment
+    {
+        private static final long serialVersionUID = 1L;
+
+        public LibraryEnvironment(DynamicEnvironment environment)
+        {
+            super(environment);
+        }
+
+        public Map<DynamicVariable, Object> snapshot()
+        {
+            HashMap<DynamicVariable, Object> snapshot = new HashMap<DynamicVariable, Object>();
+
+            for (Object value : this.rep.values())
+            {
+                DynamicVariable variable = (DynamicVariable) value;
+
+                snapshot.put(variable, SchemeInterpreterPool.valueOf(variable));
+            }
+
+            return snapshot;
+        }
+
+        public int size()
+        {
+            return this.rep.size();
+        }
+    }
+
+    public static class Interpreter
+    {
+        private final Evaluator _evaluator;
+        private final JScheme _scheme;
+        private final LibraryEnvironment _libraries;
+        private final Map<DynamicVariable, Object> _snapshot;
+        private final DynamicVariable _purpleRobot;
+
+        private Interpreter(Context context)
+        {
+            this._evaluator = new Evaluator();
+            this._evaluator.getInteractionEnvironment().setValue(SchemeInterpreterPool.JSON_HELPER, new JSONHelper());
+            this._evaluator.getInteractionEnvironment().setValue(SchemeInterpreterPool.PURPLE_ROBOT, null);
+
+            this._scheme = new JScheme(this._evaluator);
+
+            for (String library : SchemeInterpreterPool.LIBRARIES)
+            {
+                try
+                {
+                    this._scheme.load(new InputStreamReader(context.getAssets().open(library)));
+                }
+                catch (IOException e)
+                {
+                    LogManager.getInstance(context).logException(e);
+                }
+                catch (StackOverflowError e)
+                {
+                    LogManager.getInstance(context).logException(e);
+                }
+            }
+
+            this._libraries = new LibraryEnvironment(this._evaluator.getInteractionEnvironment());
+            this._purpleRobot = this._libraries.intern(SchemeInterpreterPool.PURPLE_ROBOT);
+
+            this._snapshot = this._libraries.snapshot();
+        }
+
+        /**
+         * Prepares a clean environment bound to the engine and returns the
+         * interpreter to evaluate with.
+         */
+
+        public JScheme begin(SchemeEngine engine)
+        {
+            this._purpleRobot.setDynamicValue(engine);
+
+            this._evaluator.interactionEnvironment = new DynamicEnvironment(this._libraries);
+
+            return this._scheme;
+        }
+
+        private void end()
+        {
+            this._purpleRobot.setDynamicValue(null);
+
+            this._evaluator.interactionEnvironment = this._libraries;
+        }
+
+        private boolean isClean()
+        {
+            if (this._libraries.size() != this._snapshot.size())
+                return false;
+
+            for (Map.Entry<DynamicVariable, Object> e : this._snapshot.entrySet())
+            {
+                if (SchemeInterpreterPool.valueOf(e.getKey()) != e.getValue())
+                    return false;
+            }
+
+            return true;
+        }
+    }
+
+    private final Context _context;
+    private final ArrayList<Interpreter> _idle = new ArrayList<Interpreter>();
+
+    private long _created = 0;
+    private long _reused = 0;
+    private long _discarded = 0;
+
+    private SchemeInterpreterPool(Context context)
+    {
+        this._context = context;
+    }
+
+    public static synchronized SchemeInterpreterPool getInstance(Context context)
+    {
+        if (SchemeInterpreterPool._instance == null)
+            SchemeInterpreterPool._instance = new SchemeInterpreterPool(context.getApplicationContext());
+
+        return SchemeInterpreterPool._instance;
+    }
+
+    /**
+     * Parses source without evaluating it, sharing a single reader.
+     */
+
+    public static synchronized Object read(String source)
+    {
+        if (SchemeInterpreterPool._reader == null)
+            SchemeInterpreterPool._reader = new JScheme();
+
+        return SchemeInterpreterPool._reader.read(source);
+    }
+
+    /**
+     * Loads an interpreter in the background so the first evaluation does
+     * not pay for it.
+     */
+
+    public void prepare()
+    {
+        synchronized (this)
+        {
+            if (this._idle.size() > 0 || this._created > 0)
+                return;
+        }
+
+        final SchemeInterpreterPool me = this;
+
+        Runnable r = new Runnable()
+        {
+            public void run()
+            {
+                me.release(me.acquire(), true);
+            }
+        };
+
+        try
+        {
+            Thread t = new Thread(r, "Scheme Interpreter Pool");
+            t.start();
+        }
+        catch (OutOfMemoryError e)
+        {
+            LogManager.getInstance(this._context).logException(e);
+        }
+    }
+
+    public Interpreter acquire()
+    {
+        synchronized (this)
+        {
+            if (this._idle.size() > 0)
+            {
+                this._reused += 1;
+
+                return this._idle.remove(this._idle.size() - 1);
+            }
+
+            this._created += 1;
+        }
+
+        return new Interpreter(this._context);
+    }
+
+    /**
+     * Returns an interpreter to the pool. Interpreters that failed or whose
+     * library bindings changed are dropped.
+     */
+
+    public void release(Interpreter interpreter, boolean reusable)
+    {
+        interpreter.end();
+
+        synchronized (this)
+        {
+            if (reusable && this._idle.size() < SchemeInterpreterPool.MAX_IDLE && interpreter.isClean())
+                this._idle.add(interpreter);
+            else
+                this._discarded += 1;
+        }
+    }
+
+    public synchronized Bundle statistics()
+    {
+        Bundle bundle = new Bundle();
+
+        bundle.putLong(SchemeInterpreterPool.CREATED_COUNT, this._created);
+        bundle.putLong(SchemeInterpreterPool.REUSED_COUNT, this._reused);
+        bundle.putLong(SchemeInterpreterPool.DISCARDED_COUNT, this._discarded);
+        bundle.putInt(SchemeInterpreterPool.IDLE_COUNT, this._idle.size());
+
+        return bundle;
+    }
+
+    private static Object valueOf(DynamicVariable variable)
+    {
+        if (variable.isDefined())
+            return variable.getDynamicValue();
+
+        return SchemeInterpreterPool.UNDEFINED;
+    }
+}
@@ -5,13 +5,12 @@ import android.content.BroadcastReceiver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 import edu.northwestern.cbits.purple_robot_manager.probes.ProbeManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.AccelerometerProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.ContinuousProbe;
 
@@ -64,11 +63,8 @@ public class AccelerometerProbeTestCase extends RobotTestCase
             }
         };
 
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Probe.PROBE_READING);
-
-        LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(this._context);
-        localManager.registerReceiver(receiver, intentFilter);
+        ProbeReadingBus bus = ProbeReadingBus.getInstance(this._context);
+        bus.registerReceiver(receiver, AccelerometerProbe.NAME);
 
         try
         {
@@ -106,7 +102,7 @@ public class AccelerometerProbeTestCase extends RobotTestCase
             Thread.sleep(15000);
 
             this.broadcastUpdate("Halting data collection...", 0);
-            localManager.unregisterReceiver(receiver);
+            bus.unregisterReceiver(receiver);
             Thread.sleep(2000);
         }
         catch (InterruptedException e)
@@ -0,0 +1,216 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.http.commands.BatchCommand;
+import edu.northwestern.cbits.purple_robot_manager.http.commands.FetchStringCommand;
+import edu.northwestern.cbits.purple_robot_manager.http.commands.JSONCommand;
+import edu.northwestern.cbits.purple_robot_manager.http.commands.PersistStringCommand;
+import edu.northwestern.cbits.purple_robot_manager.scripting.JavaScriptEngine;
+
+public class BatchCommandTestCase extends RobotTestCase
+{
+    private static final String NAMESPACE = "batch-command-test";
+    private static final int KEY_COUNT = 500;
+
+    public BatchCommandTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        JavaScriptEngine engine = new JavaScriptEngine(this._context);
+
+        try
+        {
+            this.broadcastUpdate("Persisting keys one at a time...", 0);
+
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < BatchCommandTestCase.KEY_COUNT; i++)
+            {
+                JSONObject persist = BatchCommandTestCase.persist(i, "single-" + i);
+
+                new PersistStringCommand(persist, this._context).execute(this._context);
+            }
+
+            long singleTime = System.currentTimeMillis() - start;
+
+            Assert.assertEquals("BC0", "single-0", engine.fetchString(BatchCommandTestCase.NAMESPACE, "key-0"));
+
+            this.broadcastUpdate("Persisting keys in a batch...", 0);
+
+            JSONArray commands = new JSONArray();
+
+            for (int i = 0; i < BatchCommandTestCase.KEY_COUNT; i++)
+                commands.put(BatchCommandTestCase.persist(i, "batch-" + i));
+
+            JSONObject batch = new JSONObject();
+            batch.put(JSONCommand.COMMAND, BatchCommand.COMMAND_NAME);
+            batch.put(BatchCommand.COMMANDS, commands);
+
+            start = System.currentTimeMillis();
+
+            JSONObject result = new BatchCommand(batch, this._context).execute(this._context);
+
+            long batchTime = System.currentTimeMillis() - start;
+
+            Assert.assertEquals("BC1", JSONCommand.STATUS_OK, result.getString(JSONCommand.STATUS));
+
+            JSONArray results = result.getJSONArray(JSONCommand.PAYLOAD);
+
+            Assert.assertEquals("BC2", BatchCommandTestCase.KEY_COUNT, results.length());
+
+            for (int i = 0; i < results.length(); i++)
+                Assert.assertEquals("BC3", JSONCommand.STATUS_OK, results.getJSONObject(i).getString(JSONCommand.STATUS));
+
+            Assert.assertEquals("BC4", "batch-499", engine.fetchString(BatchCommandTestCase.NAMESPACE, "key-499"));
+
+            this.broadcastUpdate("Fetching keys over HTTP...", 0);
+
+            commands = new JSONArray();
+
+            for (int i = 0; i < BatchCommandTestCase.KEY_COUNT; i++)
+            {
+                JSONObject fetch = new JSONObject();
+                fetch.put(JSONCommand.COMMAND, FetchStringCommand.COMMAND_NAME);
+                fetch.put(FetchStringCommand.NAMESPACE, BatchCommandTestCase.NAMESPACE);
+                fetch.put(FetchStringCommand.KEY, "key-" + i);
+
+                commands.put(fetch);
+
+                if (i == 100)
+                {
+                    JSONObject unknown = new JSONObject();
+                    unknown.put(JSONCommand.COMMAND, "not-a-command");
+
+                    commands.put(unknown);
+                }
+            }
+
+            batch.put(BatchCommand.COMMANDS, commands);
+
+            HashMap<String, String> payload = new HashMap<String, String>();
+            payload.put("json", batch.toString());
+
+            start = System.currentTimeMillis();
+
+            String response = this.syncHttpPost("http://127.0.0.1:12345/json/submit", payload);
+
+            long fetchTime = System.currentTimeMillis() - start;
+
+            Assert.assertNotNull("BC5", response);
+
+            result = new JSONObject(response);
+
+            Assert.assertEquals("BC6", JSONCommand.STATUS_OK, result.getString(JSONCommand.STATUS));
+
+            results = result.getJSONArray(JSONCommand.PAYLOAD);
+
+            Assert.assertEquals("BC7", BatchCommandTestCase.KEY_COUNT + 1, results.length());
+            Assert.assertEquals("BC8", JSONCommand.STATUS_ERROR, results.getJSONObject(101).getString(JSONCommand.STATUS));
+
+            for (int i = 0; i < results.length(); i++)
+            {
+                if (i != 101)
+                {
+                    int key = (i < 101) ? i : i - 1;
+
+                    Assert.assertEquals("BC9", "batch-" + key, results.getJSONObject(i).getString(FetchStringCommand.VALUE));
+                }
+            }
+
+            Assert.assertTrue("BC10", batchTime < singleTime);
+
+            String summary = String.format(Locale.ENGLISH, "%d keys - single: %d ms, batch: %d ms, batch fetch over HTTP: %d ms", BatchCommandTestCase.KEY_COUNT, singleTime, batchTime, fetchTime);
+
+            this.broadcastUpdate(summary, 5000);
+        }
+        catch (JSONException e)
+        {
+            Assert.fail("BC100");
+        }
+        catch (KeyManagementException e)
+        {
+            Assert.fail("BC101");
+        }
+        catch (UnrecoverableKeyException e)
+        {
+            Assert.fail("BC102");
+        }
+        catch (KeyStoreException e)
+        {
+            Assert.fail("BC103");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            Assert.fail("BC104");
+        }
+        catch (CertificateException e)
+        {
+            Assert.fail("BC105");
+        }
+        catch (IOException e)
+        {
+            Assert.fail("BC106");
+        }
+        catch (URISyntaxException e)
+        {
+            Assert.fail("BC107");
+        }
+        finally
+        {
+            HashMap<String, String> values = new HashMap<String, String>();
+
+            for (int i = 0; i < BatchCommandTestCase.KEY_COUNT; i++)
+                values.put("key-" + i, null);
+
+            engine.persistStrings(BatchCommandTestCase.NAMESPACE, values);
+        }
+    }
+
+    private static JSONObject persist(int index, String value) throws JSONException
+    {
+        JSONObject persist = new JSONObject();
+        persist.put(JSONCommand.COMMAND, PersistStringCommand.COMMAND_NAME);
+        persist.put(PersistStringCommand.NAMESPACE, BatchCommandTestCase.NAMESPACE);
+        persist.put(PersistStringCommand.KEY, "key-" + index);
+        persist.put(PersistStringCommand.VALUE, value);
+
+        return persist;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_batch_command_test);
+    }
+}
@@ -0,0 +1,413 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.BinaryRecordReader;
+import edu.northwestern.cbits.purple_robot_manager.plugins.BinaryRecordWriter;
+import edu.northwestern.cbits.purple_robot_manager.plugins.StreamingJacksonUploadPlugin;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.ContinuousProbe;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.SensorBatch;
+
+public class BinaryRecordTestCase extends RobotTestCase
+{
+    // Five minutes of accelerometer readings at 100 Hz, in AccelerometerProbe
+    // batches...
+
+    private static final int BATCH_COUNT = 30;
+    private static final int BATCH_SIZE = 1024;
+    private static final float RESOLUTION = 0.0011971008f;
+    private static final int ITERATIONS = 5;
+
+    private static final String[] FIELD_NAMES =
+    { "X", "Y", "Z" };
+
+    public BinaryRecordTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        File jsonFile = new File(this._context.getCacheDir(), "binary-record-test.json");
+        File recordsFile = new File(this._context.getCacheDir(), "binary-record-test.records");
+        File convertedFile = new File(this._context.getCacheDir(), "binary-record-test-converted.json");
+        File unknownFile = new File(this._context.getCacheDir(), "binary-record-test-unknown.records");
+
+        try
+        {
+            this.broadcastUpdate("Generating accelerometer trace...", 0);
+
+            ArrayList<Bundle> readings = BinaryRecordTestCase.trace(new Random(20140715));
+
+            this.broadcastUpdate("Benchmarking encoders...", 0);
+
+            long jsonEncode = Long.MAX_VALUE;
+            long binaryEncode = Long.MAX_VALUE;
+
+            for (int i = 0; i < BinaryRecordTestCase.ITERATIONS; i++)
+            {
+                long start = System.nanoTime();
+
+                JsonGenerator generator = new JsonFactory().createGenerator(jsonFile, JsonEncoding.UTF8);
+                generator.writeStartArray();
+
+                for (Bundle reading : readings)
+                {
+                    StreamingJacksonUploadPlugin.writeBundle(this._context, generator, reading);
+                    generator.flush();
+                }
+
+                generator.writeEndArray();
+                generator.close();
+
+                jsonEncode = Math.min(jsonEncode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+
+                BinaryRecordWriter writer = new BinaryRecordWriter(this._context, recordsFile);
+
+                for (Bundle reading : readings)
+                    writer.write(reading);
+
+                writer.close();
+
+                binaryEncode = Math.min(binaryEncode, System.nanoTime() - start);
+
+                Assert.assertEquals("BR0", readings.size(), writer.records());
+                Assert.assertEquals("BR1", recordsFile.length(), writer.length());
+            }
+
+            this.broadcastUpdate("Benchmarking decoders...", 0);
+
+            long jsonDecode = Long.MAX_VALUE;
+            long binaryDecode = Long.MAX_VALUE;
+
+            for (int i = 0; i < BinaryRecordTestCase.ITERATIONS; i++)
+            {
+                long start = System.nanoTime();
+
+                JsonParser parser = new JsonFactory().createParser(jsonFile);
+
+                while (parser.nextToken() != null)
+                {
+                    if (parser.getCurrentToken().isNumeric())
+                        parser.getDoubleValue();
+                }
+
+                parser.close();
+
+                jsonDecode = Math.min(jsonDecode, System.nanoTime() - start);
+
+                start = System.nanoTime();
+
+                BinaryRecordReader reader = new BinaryRecordReader(new BufferedInputStream(new FileInputStream(recordsFile)));
+
+                int count = 0;
+
+                while (reader.next() != null)
+                    count += 1;
+
+                reader.close();
+
+                binaryDecode = Math.min(binaryDecode, System.nanoTime() - start);
+
+                Assert.assertEquals("BR2", readings.size(), count);
+            }
+
+            this.broadcastUpdate("Verifying records...", 0);
+
+            BinaryRecordReader reader = new BinaryRecordReader(new BufferedInputStream(new FileInputStream(recordsFile)));
+
+            for (Bundle reading : readings)
+                BinaryRecordTestCase.assertSameReading(reading, (Map<?, ?>) reader.next());
+
+            Assert.assertNull("BR3", reader.next());
+            Assert.assertFalse("BR4", reader.isTruncated());
+
+            reader.close();
+
+            // Converted records carry the same readings as the JSON pending
+            // file...
+
+            Assert.assertEquals("BR5", readings.size(), BinaryRecordReader.toJson(recordsFile, convertedFile));
+
+            JSONArray expected = new JSONArray(FileUtils.readFileToString(jsonFile, "UTF-8"));
+            JSONArray converted = new JSONArray(FileUtils.readFileToString(convertedFile, "UTF-8"));
+
+            Assert.assertEquals("BR6", expected.length(), converted.length());
+
+            for (int i = 0; i < expected.length(); i++)
+                BinaryRecordTestCase.assertSameJson(expected.getJSONObject(i), converted.getJSONObject(i));
+
+            // A torn last record ends the file early...
+
+            byte[] bytes = FileUtils.readFileToByteArray(recordsFile);
+
+            reader = new BinaryRecordReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 10)));
+
+            int count = 0;
+
+            while (reader.next() != null)
+                count += 1;
+
+            Assert.assertEquals("BR7", readings.size() - 1, count);
+            Assert.assertTrue("BR8", reader.isTruncated());
+
+            // ...without reading into the torn record when the size is known...
+
+            reader = new BinaryRecordReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 10)), bytes.length - 10);
+
+            count = 0;
+
+            while (reader.next() != null)
+                count += 1;
+
+            Assert.assertEquals("BR12", readings.size() - 1, count);
+            Assert.assertTrue("BR13", reader.isTruncated());
+
+            // A length no record can have is rejected before it is allocated...
+
+            byte[] oversized = { 'P', 'R', 'B', 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0 };
+
+            try
+            {
+                new BinaryRecordReader(new ByteArrayInputStream(oversized)).next();
+
+                Assert.fail("BR14");
+            }
+            catch (BinaryRecordReader.RecordException e)
+            {
+                // Expected - record length out of range...
+            }
+
+            try
+            {
+                new BinaryRecordReader(new ByteArrayInputStream("[{}]".getBytes("UTF-8")));
+
+                Assert.fail("BR9");
+            }
+            catch (BinaryRecordReader.RecordException e)
+            {
+                // Expected - not a record file...
+            }
+
+            double ratio = ((double) jsonFile.length()) / recordsFile.length();
+
+            Assert.assertTrue("BR10", ratio > 5);
+
+            // Values of unexpected types are kept as strings...
+
+            Date date = new Date(1405382400000L);
+
+            Bundle unknown = new Bundle();
+            unknown.putString("PROBE", "Unknown Type Probe");
+            unknown.putSerializable("DATE", date);
+
+            BinaryRecordWriter unknownWriter = new BinaryRecordWriter(this._context, unknownFile);
+            unknownWriter.write(unknown);
+            unknownWriter.close();
+
+            reader = new BinaryRecordReader(new BufferedInputStream(new FileInputStream(unknownFile)));
+
+            Assert.assertEquals("BR11", date.toString(), ((Map<?, ?>) reader.next()).get("DATE"));
+
+            reader.close();
+
+            String summary = String.format(Locale.ENGLISH, "%d readings - JSON: %d KB, binary: %d KB (%.1fx), encode: %.1f ms vs %.1f ms, decode: %.1f ms vs %.1f ms", readings.size(), jsonFile.length() / 1024,
+                    recordsFile.length() / 1024, ratio, jsonEncode / 1000000.0, binaryEncode / 1000000.0, jsonDecode / 1000000.0, binaryDecode / 1000000.0);
+
+            this.broadcastUpdate(summary, 5000);
+        }
+        catch (IOException e)
+        {
+            Assert.fail("BR100: " + e.getMessage());
+        }
+        catch (JSONException e)
+        {
+            Assert.fail("BR101: " + e.getMessage());
+        }
+        finally
+        {
+            jsonFile.delete();
+            recordsFile.delete();
+            convertedFile.delete();
+            unknownFile.delete();
+        }
+    }
+
+    /**
+     * Builds readings the way AccelerometerProbe does, from a device lying on
+     * a table: values are quantized to the sensor resolution and samples
+     * arrive every 10 ms with some jitter.
+     */
+
+    private static ArrayList<Bundle> trace(Random random)
+    {
+        ArrayList<Bundle> readings = new ArrayList<Bundle>();
+
+        SensorBatch.Builder builder = new SensorBatch.Builder(BinaryRecordTestCase.FIELD_NAMES, BinaryRecordTestCase.BATCH_SIZE);
+
+        long now = 1405382400000L;
+        long sensorTime = 86400000000000L;
+
+        float[] values = new float[3];
+        float[] means = { 0.2f, 0.1f, 9.81f };
+
+        for (int i = 0; i < BinaryRecordTestCase.BATCH_COUNT; i++)
+        {
+            while (builder.isFull() == false)
+            {
+                now += 9 + random.nextInt(3);
+                sensorTime += 10000000 + random.nextInt(200000) - 100000;
+
+                for (int j = 0; j < values.length; j++)
+                    values[j] = Math.round((means[j] + (random.nextGaussian() * 0.05)) / BinaryRecordTestCase.RESOLUTION) * BinaryRecordTestCase.RESOLUTION;
+
+                builder.append(((double) now) / 1000, sensorTime, 3, values);
+            }
+
+            SensorBatch batch = builder.seal();
+
+            Bundle sensorBundle = new Bundle();
+            sensorBundle.putFloat(ContinuousProbe.SENSOR_MAXIMUM_RANGE, 19.6133f);
+            sensorBundle.putString(ContinuousProbe.SENSOR_NAME, "BMA150 3-axis Accelerometer");
+            sensorBundle.putFloat(ContinuousProbe.SENSOR_POWER, 0.13f);
+            sensorBundle.putFloat(ContinuousProbe.SENSOR_RESOLUTION, BinaryRecordTestCase.RESOLUTION);
+            sensorBundle.putInt(ContinuousProbe.SENSOR_TYPE, 1);
+            sensorBundle.putString(ContinuousProbe.SENSOR_VENDOR, "Bosch Sensortec");
+            sensorBundle.putInt(ContinuousProbe.SENSOR_VERSION, 1);
+
+            Bundle data = new Bundle();
+            data.putDouble("TIMESTAMP", ((double) now) / 1000);
+            data.putString("PROBE", "edu.northwestern.cbits.purple_robot_manager.probes.builtin.AccelerometerProbe");
+            data.putBundle(ContinuousProbe.BUNDLE_SENSOR, sensorBundle);
+
+            double[] normalBuffer = new double[batch.size()];
+
+            double start = batch.sensorTimestamp(0);
+            double end = batch.sensorTimestamp(batch.size() - 1);
+            double tick = (end - start) / batch.size();
+
+            start = batch.eventTimestamp(0) * (1000 * 1000);
+
+            for (int j = 0; j < normalBuffer.length; j++)
+                normalBuffer[j] = (start + (tick * j)) / (1000 * 1000);
+
+            batch.writeToBundle(data);
+            data.putDoubleArray(ContinuousProbe.NORMALIZED_TIMESTAMP, normalBuffer);
+
+            readings.add(data);
+        }
+
+        return readings;
+    }
+
+    private static void assertSameReading(Bundle reading, Map<?, ?> record)
+    {
+        Assert.assertNotNull("BR20", record);
+        Assert.assertEquals("BR21", reading.keySet().size(), record.size());
+
+        for (String key : reading.keySet())
+        {
+            Object value = reading.get(key);
+            Object decoded = record.get(key);
+
+            if (value instanceof double[])
+                Assert.assertTrue("BR22", Arrays.equals((double[]) value, (double[]) decoded));
+            else if (value instanceof float[])
+                Assert.assertTrue("BR23", Arrays.equals((float[]) value, (float[]) decoded));
+            else if (value instanceof int[])
+                Assert.assertTrue("BR24", Arrays.equals((int[]) value, (int[]) decoded));
+            else if (value instanceof Bundle)
+            {
+                Bundle bundle = (Bundle) value;
+                Map<?, ?> map = (Map<?, ?>) decoded;
+
+                Assert.assertEquals("BR25", bundle.keySet().size(), map.size());
+
+                for (String bundleKey : bundle.keySet())
+                {
+                    Object bundleValue = bundle.get(bundleKey);
+
+                    if (bundleValue instanceof Integer)
+                        Assert.assertEquals("BR26", ((Integer) bundleValue).longValue(), ((Long) map.get(bundleKey)).longValue());
+                    else
+                        Assert.assertEquals("BR27", bundleValue, map.get(bundleKey));
+                }
+            }
+            else
+                Assert.assertEquals("BR28", value, decoded);
+        }
+    }
+
+    private static void assertSameJson(JSONObject expected, JSONObject converted) throws JSONException
+    {
+        Assert.assertEquals("BR30", expected.length(), converted.length());
+
+        JSONArray names = expected.names();
+
+        for (int i = 0; i < names.length(); i++)
+        {
+            String name = names.getString(i);
+
+            Object value = expected.get(name);
+
+            if (value instanceof JSONArray)
+            {
+                JSONArray array = (JSONArray) value;
+                JSONArray convertedArray = converted.getJSONArray(name);
+
+                Assert.assertEquals("BR31", array.length(), convertedArray.length());
+
+                for (int j = 0; j < array.length(); j++)
+                    Assert.assertEquals("BR32", array.getDouble(j), convertedArray.getDouble(j), 0.0);
+            }
+            else if (value instanceof JSONObject)
+                BinaryRecordTestCase.assertSameJson((JSONObject) value, converted.getJSONObject(name));
+            else
+                Assert.assertEquals("BR33", value.toString(), converted.get(name).toString());
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_binary_record_test);
+    }
+}
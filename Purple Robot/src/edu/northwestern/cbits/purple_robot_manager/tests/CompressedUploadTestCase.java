@@ -0,0 +1,177 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.CompressedPayloadEntity;
+import edu.northwestern.cbits.purple_robot_manager.plugins.DataUploadPlugin;
+
+public class CompressedUploadTestCase extends RobotTestCase
+{
+    private static final int READING_COUNT = 2000;
+    private static final String USER_HASH = "compressed-upload-test";
+    private static final String OPERATION = "SubmitProbes";
+
+    public CompressedUploadTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        File payloadFile = new File(this._context.getCacheDir(), "compressed-upload-test.json");
+
+        try
+        {
+            this.broadcastUpdate("Writing test payload...", 0);
+
+            Random random = new Random(20140701);
+
+            JSONArray readings = new JSONArray();
+
+            for (int i = 0; i < CompressedUploadTestCase.READING_COUNT; i++)
+            {
+                JSONObject reading = new JSONObject();
+                reading.put("PROBE", "edu.northwestern.cbits.purple_robot_manager.probes.builtin.AccelerometerProbe");
+                reading.put("TIMESTAMP", 1404172800 + i);
+                reading.put("X", random.nextGaussian());
+                reading.put("Y", random.nextGaussian());
+                reading.put("Z", 9.8 + random.nextGaussian());
+                reading.put("NOTE", "Quote \" backslash \\ tab \t café");
+
+                readings.put(reading);
+            }
+
+            String payload = readings.toString(2).replace("\n", "\r\n");
+
+            FileUtils.writeStringToFile(payloadFile, payload, "UTF-8");
+
+            String expected = payload.replace("\r", "").replace("\n", "");
+
+            MessageDigest md = MessageDigest.getInstance("MD5");
+
+            String checksum = (new BigInteger(1, md.digest((CompressedUploadTestCase.USER_HASH + CompressedUploadTestCase.OPERATION + expected).getBytes("UTF-8")))).toString(16);
+
+            while (checksum.length() < 32)
+                checksum = "0" + checksum;
+
+            StringBuffer summary = new StringBuffer();
+
+            String[] encodings = { CompressedPayloadEntity.GZIP, CompressedPayloadEntity.DEFLATE };
+
+            for (String encoding : encodings)
+            {
+                this.broadcastUpdate("Streaming " + encoding + " body...", 0);
+
+                CompressedPayloadEntity entity = new CompressedPayloadEntity(payloadFile, CompressedUploadTestCase.USER_HASH, CompressedUploadTestCase.OPERATION, encoding);
+
+                Assert.assertEquals("CU0", encoding, entity.getContentEncoding().getValue());
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+                long start = System.currentTimeMillis();
+
+                entity.writeTo(out);
+
+                long elapsed = System.currentTimeMillis() - start;
+
+                byte[] body = out.toByteArray();
+
+                Assert.assertEquals("CU1", body.length, entity.getWireBytes());
+
+                InputStream in = null;
+
+                if (CompressedPayloadEntity.GZIP.equals(encoding))
+                    in = new GZIPInputStream(new ByteArrayInputStream(body));
+                else
+                    in = new InflaterInputStream(new ByteArrayInputStream(body));
+
+                JSONObject envelope = new JSONObject(IOUtils.toString(in, "UTF-8"));
+
+                Assert.assertEquals("CU2", CompressedUploadTestCase.OPERATION, envelope.getString(DataUploadPlugin.OPERATION_KEY));
+                Assert.assertEquals("CU3", CompressedUploadTestCase.USER_HASH, envelope.getString(DataUploadPlugin.USER_HASH_KEY));
+                Assert.assertEquals("CU4", expected, envelope.getString(DataUploadPlugin.PAYLOAD_KEY));
+                Assert.assertEquals("CU5", checksum, envelope.getString(DataUploadPlugin.CHECKSUM_KEY));
+                Assert.assertEquals("CU6", (CompressedUploadTestCase.USER_HASH + CompressedUploadTestCase.OPERATION + expected).getBytes("UTF-8").length, envelope.getLong(DataUploadPlugin.CONTENT_LENGTH_KEY));
+                Assert.assertEquals("CU7", expected.getBytes("UTF-8").length, entity.getPayloadBytes());
+                Assert.assertTrue("CU8", entity.getWireBytes() < entity.getPayloadBytes() / 2);
+
+                // The body can be read again for a resend...
+
+                Assert.assertTrue("CU9", entity.isRepeatable());
+
+                InputStream content = entity.getContent();
+
+                try
+                {
+                    Assert.assertTrue("CU10", Arrays.equals(body, IOUtils.toByteArray(content)));
+                }
+                finally
+                {
+                    content.close();
+                }
+
+                if (summary.length() > 0)
+                    summary.append(", ");
+
+                summary.append(String.format(Locale.ENGLISH, "%s: %d -> %d bytes in %d ms", encoding, entity.getPayloadBytes(), entity.getWireBytes(), elapsed));
+            }
+
+            this.broadcastUpdate(summary.toString(), 5000);
+        }
+        catch (JSONException e)
+        {
+            Assert.fail("CU100");
+        }
+        catch (IOException e)
+        {
+            Assert.fail("CU101");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            Assert.fail("CU102");
+        }
+        finally
+        {
+            payloadFile.delete();
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_compressed_upload_test);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.util.DBSCAN;
+import edu.northwestern.cbits.purple_robot_manager.util.DBSCAN.Cluster;
+import edu.northwestern.cbits.purple_robot_manager.util.DBSCAN.Places;
+import edu.northwestern.cbits.purple_robot_manager.util.DBSCAN.Point;
+
+public class DBSCANTestCase extends RobotTestCase
+{
+    // A month of fixes every five minutes...
+
+    private static final int FIX_COUNT = 30 * 24 * 12;
+    private static final int LOOKUP_COUNT = 1000;
+    private static final long BENCHMARK_MS = 1000;
+
+    private static final double[][] PLACES =
+    {
+    { 42.0565, -87.6753 },
+    { 41.8955, -87.6193 },
+    { 41.8789, -87.6359 } };
+
+    public DBSCANTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        Random random = new Random(20140601);
+
+        DBSCAN dbscan = new DBSCAN(DBSCAN.DISTANCE, DBSCAN.POPULATION);
+
+        for (int i = 0; i < DBSCANTestCase.FIX_COUNT; i++)
+        {
+            if (i % 10 == 0)
+            {
+                // In transit - scattered across the city...
+
+                dbscan.addPoint(new Point(41.8 + (random.nextDouble() * 0.3), -87.8 + (random.nextDouble() * 0.3)));
+            }
+            else
+            {
+                double[] place = DBSCANTestCase.PLACES[random.nextInt(DBSCANTestCase.PLACES.length)];
+
+                dbscan.addPoint(new Point(place[0] + (random.nextGaussian() * 0.0002), place[1] + (random.nextGaussian() * 0.0002)));
+            }
+        }
+
+        this.broadcastUpdate("Clustering a month of fixes...", 0);
+
+        long start = System.currentTimeMillis();
+
+        Collection<Cluster> clusters = dbscan.calculate(this._context);
+
+        long clusterTime = System.currentTimeMillis() - start;
+
+        Assert.assertEquals("DB0", DBSCANTestCase.PLACES.length, clusters.size());
+
+        ArrayList<Cluster> named = new ArrayList<Cluster>();
+
+        for (Cluster cluster : clusters)
+        {
+            Point first = cluster.getPoints().iterator().next();
+
+            for (int i = 0; i < DBSCANTestCase.PLACES.length; i++)
+            {
+                double[] place = DBSCANTestCase.PLACES[i];
+
+                if (Math.abs(first.x() - place[0]) < 0.01 && Math.abs(first.y() - place[1]) < 0.01)
+                    cluster.setName("place-" + i);
+            }
+
+            Assert.assertNotNull("DB1", cluster.getName());
+
+            named.add(cluster);
+        }
+
+        Places places = new Places(named);
+
+        for (int i = 0; i < DBSCANTestCase.PLACES.length; i++)
+            Assert.assertEquals("DB2", "place-" + i, places.nameAt(DBSCANTestCase.PLACES[i][0], DBSCANTestCase.PLACES[i][1]));
+
+        Assert.assertNull("DB3", places.nameAt(0, 0));
+
+        double[][] lookups = new double[DBSCANTestCase.LOOKUP_COUNT][2];
+
+        for (int i = 0; i < lookups.length; i++)
+        {
+            double[] place = DBSCANTestCase.PLACES[random.nextInt(DBSCANTestCase.PLACES.length)];
+
+            lookups[i][0] = place[0] + (random.nextGaussian() * 0.001);
+            lookups[i][1] = place[1] + (random.nextGaussian() * 0.001);
+
+            Point point = new Point(lookups[i][0], lookups[i][1]);
+
+            // Places are far apart, so at most one cluster is in range...
+
+            String expected = null;
+
+            for (Cluster cluster : named)
+            {
+                for (Point p : cluster.getPoints())
+                {
+                    if (point.distanceFrom(p) <= DBSCAN.DISTANCE)
+                        expected = cluster.getName();
+                }
+            }
+
+            Assert.assertEquals("DB4", expected, places.nameAt(lookups[i][0], lookups[i][1]));
+        }
+
+        this.broadcastUpdate("Benchmarking place lookups...", 0);
+
+        long lookupCount = 0;
+        long elapsed = 0;
+        start = System.currentTimeMillis();
+
+        while ((elapsed = System.currentTimeMillis() - start) < DBSCANTestCase.BENCHMARK_MS)
+        {
+            double[] lookup = lookups[(int) (lookupCount % lookups.length)];
+
+            places.nameAt(lookup[0], lookup[1]);
+
+            lookupCount += 1;
+        }
+
+        double lookupMicros = (elapsed * 1000.0) / lookupCount;
+
+        Assert.assertTrue("DB5", clusterTime < 10000);
+
+        String summary = String.format(Locale.ENGLISH, "%d fixes clustered in %d ms, place lookup: %.1f us", DBSCANTestCase.FIX_COUNT, clusterTime, lookupMicros);
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_dbscan_test);
+    }
+}
@@ -0,0 +1,252 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.IntentDispatcher;
+import edu.northwestern.cbits.purple_robot_manager.plugins.OutputPlugin;
+
+public class IntentDispatcherTestCase extends RobotTestCase
+{
+    private static final String ACTION = "edu.northwestern.cbits.purple_robot_manager.tests.DISPATCH_TEST";
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Records the intents it processes and holds the worker on the first one
+     * until released, so the buffer behind it can be filled.
+     */
+
+    private static class GatedPlugin extends OutputPlugin
+    {
+        private final ArrayList<String> _processed = new ArrayList<String>();
+        private boolean _open = false;
+
+        public String[] respondsTo()
+        {
+            return new String[] { IntentDispatcherTestCase.ACTION };
+        }
+
+        public void processIntent(Intent intent)
+        {
+            synchronized (this)
+            {
+                this._processed.add(intent.getStringExtra("NAME"));
+                this.notifyAll();
+
+                while (this._open == false)
+                {
+                    try
+                    {
+                        this.wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private synchronized void awaitProcessed(int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + IntentDispatcherTestCase.TIMEOUT;
+
+            while (this._processed.size() < count && System.currentTimeMillis() < deadline)
+                this.wait(deadline - System.currentTimeMillis());
+        }
+
+        private synchronized void open()
+        {
+            this._open = true;
+            this.notifyAll();
+        }
+
+        private synchronized List<String> processed()
+        {
+            return new ArrayList<String>(this._processed);
+        }
+    }
+
+    public IntentDispatcherTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        try
+        {
+            this.broadcastUpdate("Dropping the oldest intent...", 0);
+
+            GatedPlugin plugin = new GatedPlugin();
+            plugin.setContext(this._context);
+
+            IntentDispatcher dispatcher = new IntentDispatcher(plugin, 2, IntentDispatcher.OverloadPolicy.DROP_OLDEST);
+
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a1", "A"));
+            plugin.awaitProcessed(1);
+
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a2", "A"));
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a3", "A"));
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a4", "A"));
+
+            Assert.assertEquals("ID0", 1, dispatcher.statistics().getLong(IntentDispatcher.DROPPED_COUNT));
+
+            plugin.open();
+            plugin.awaitProcessed(3);
+
+            Assert.assertEquals("ID1", "[a1, a3, a4]", plugin.processed().toString());
+
+            this.broadcastUpdate("Coalescing readings from one probe...", 0);
+
+            plugin = new GatedPlugin();
+            plugin.setContext(this._context);
+
+            dispatcher = new IntentDispatcher(plugin, 2, IntentDispatcher.OverloadPolicy.COALESCE);
+
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a1", "A"));
+            plugin.awaitProcessed(1);
+
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a2", "A"));
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("b1", "B"));
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("a3", "A"));
+
+            // No pending reading from C to replace - falls back to dropping a3...
+
+            dispatcher.enqueue(IntentDispatcherTestCase.intent("c1", "C"));
+
+            Bundle stats = dispatcher.statistics();
+
+            Assert.assertEquals("ID2", 1, stats.getLong(IntentDispatcher.COALESCED_COUNT));
+            Assert.assertEquals("ID3", 1, stats.getLong(IntentDispatcher.DROPPED_COUNT));
+
+            plugin.open();
+            plugin.awaitProcessed(3);
+
+            Assert.assertEquals("ID4", "[a1, b1, c1]", plugin.processed().toString());
+
+            this.broadcastUpdate("Blocking a background caller...", 0);
+
+            plugin = new GatedPlugin();
+            plugin.setContext(this._context);
+
+            final IntentDispatcher blocking = new IntentDispatcher(plugin, 1, IntentDispatcher.OverloadPolicy.BLOCK);
+
+            blocking.enqueue(IntentDispatcherTestCase.intent("a1", "A"));
+            plugin.awaitProcessed(1);
+
+            blocking.enqueue(IntentDispatcherTestCase.intent("a2", "A"));
+
+            Thread caller = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    blocking.enqueue(IntentDispatcherTestCase.intent("a3", "A"));
+                }
+            });
+
+            caller.start();
+            caller.join(500);
+
+            Assert.assertTrue("ID5", caller.isAlive());
+
+            plugin.open();
+            caller.join(IntentDispatcherTestCase.TIMEOUT);
+
+            Assert.assertFalse("ID6", caller.isAlive());
+
+            plugin.awaitProcessed(3);
+
+            Assert.assertEquals("ID7", "[a1, a2, a3]", plugin.processed().toString());
+            Assert.assertEquals("ID8", 0, blocking.statistics().getLong(IntentDispatcher.DROPPED_COUNT));
+
+            this.broadcastUpdate("Never blocking the main thread...", 0);
+
+            plugin = new GatedPlugin();
+            plugin.setContext(this._context);
+
+            final IntentDispatcher mainDispatcher = new IntentDispatcher(plugin, 1, IntentDispatcher.OverloadPolicy.BLOCK);
+
+            mainDispatcher.enqueue(IntentDispatcherTestCase.intent("a1", "A"));
+            plugin.awaitProcessed(1);
+
+            mainDispatcher.enqueue(IntentDispatcherTestCase.intent("a2", "A"));
+
+            final long[] elapsed = { -1 };
+
+            Handler handler = new Handler(Looper.getMainLooper());
+
+            handler.post(new Runnable()
+            {
+                public void run()
+                {
+                    long start = System.currentTimeMillis();
+
+                    mainDispatcher.enqueue(IntentDispatcherTestCase.intent("a3", "A"));
+
+                    synchronized (elapsed)
+                    {
+                        elapsed[0] = System.currentTimeMillis() - start;
+                        elapsed.notifyAll();
+                    }
+                }
+            });
+
+            synchronized (elapsed)
+            {
+                long deadline = System.currentTimeMillis() + IntentDispatcherTestCase.TIMEOUT;
+
+                while (elapsed[0] < 0 && System.currentTimeMillis() < deadline)
+                    elapsed.wait(deadline - System.currentTimeMillis());
+            }
+
+            Assert.assertTrue("ID9", elapsed[0] >= 0 && elapsed[0] < 250);
+            Assert.assertEquals("ID10", 1, mainDispatcher.statistics().getLong(IntentDispatcher.DROPPED_COUNT));
+
+            plugin.open();
+            plugin.awaitProcessed(2);
+
+            Assert.assertEquals("ID11", "[a1, a3]", plugin.processed().toString());
+
+            this.broadcastUpdate("Overload policies honoured.", 1000);
+        }
+        catch (InterruptedException e)
+        {
+            Assert.fail("ID12");
+        }
+    }
+
+    private static Intent intent(String name, String probe)
+    {
+        Intent intent = new Intent(IntentDispatcherTestCase.ACTION);
+        intent.putExtra("NAME", name);
+        intent.putExtra("PROBE", probe);
+
+        return intent;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_intent_dispatcher_test);
+    }
+}
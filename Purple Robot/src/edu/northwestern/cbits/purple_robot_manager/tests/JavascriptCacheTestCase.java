@@ -0,0 +1,121 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.scripting.JavaScriptEngine;
+
+public class JavascriptCacheTestCase extends RobotTestCase
+{
+    private static final int ITERATIONS = 200;
+
+    private static final String SCRIPT = "var total = 0; for (var i = 0; i < extras.VALUES.length; i++) { total += extras.VALUES[i]; } "
+            + "var mean = total / extras.VALUES.length; (extras.PROBE == 'test' && mean > extras.THRESHOLD);";
+
+    private static final String EXTENDING_SCRIPT = "Date.prototype.testExtension = function() { return 42; }; (new Date().testExtension() == 42);";
+
+    public JavascriptCacheTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        try
+        {
+            JSONArray values = new JSONArray();
+
+            for (int i = 0; i < 32; i++)
+                values.put(Math.sin(i) + 1.0);
+
+            HashMap<String, Object> extras = new HashMap<String, Object>();
+            extras.put("PROBE", "test");
+            extras.put("THRESHOLD", Double.valueOf(0.5));
+            extras.put("VALUES", values);
+
+            this.broadcastUpdate("Cold script evaluation...", 0);
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < JavascriptCacheTestCase.ITERATIONS; i++)
+            {
+                JavaScriptEngine.clearScriptCache();
+
+                Object result = new JavaScriptEngine(this._context).runScript(JavascriptCacheTestCase.SCRIPT, "extras", extras);
+
+                Assert.assertEquals("JSC0", Boolean.TRUE, result);
+            }
+
+            double cold = (System.nanoTime() - start) / (1000000.0 * JavascriptCacheTestCase.ITERATIONS);
+
+            this.broadcastUpdate("Warm script evaluation...", 0);
+
+            start = System.nanoTime();
+
+            for (int i = 0; i < JavascriptCacheTestCase.ITERATIONS; i++)
+            {
+                Object result = new JavaScriptEngine(this._context).runScript(JavascriptCacheTestCase.SCRIPT, "extras", extras);
+
+                Assert.assertEquals("JSC1", Boolean.TRUE, result);
+            }
+
+            double warm = (System.nanoTime() - start) / (1000000.0 * JavascriptCacheTestCase.ITERATIONS);
+
+            extras.put("THRESHOLD", Double.valueOf(5.0));
+
+            Object result = new JavaScriptEngine(this._context).runScript(JavascriptCacheTestCase.SCRIPT, "extras", extras);
+
+            Assert.assertEquals("JSC2", Boolean.FALSE, result);
+
+            Object leaked = new JavaScriptEngine(this._context).runScript("typeof mean;", null, null);
+
+            Assert.assertEquals("JSC3", "undefined", leaked);
+
+            // Extending a built-in prototype falls back to a private scope,
+            // both on the first run and once the script is cached...
+
+            for (int i = 0; i < 2; i++)
+            {
+                result = new JavaScriptEngine(this._context).runScript(JavascriptCacheTestCase.EXTENDING_SCRIPT, null, null);
+
+                Assert.assertEquals("JSC5", Boolean.TRUE, result);
+            }
+
+            leaked = new JavaScriptEngine(this._context).runScript("typeof Date.prototype.testExtension;", null, null);
+
+            Assert.assertEquals("JSC6", "undefined", leaked);
+
+            String summary = String.format(Locale.ENGLISH, "Cold: %.2f ms/run, warm: %.2f ms/run", cold, warm);
+
+            this.broadcastUpdate(summary, 5000);
+        }
+        catch (JSONException e)
+        {
+            Assert.fail("JSC4");
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_javascript_cache_test);
+    }
+}
@@ -0,0 +1,230 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.DefaultHttpClientConnection;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.http.LocalHttpServer;
+
+public class LocalHttpServerLoadTestCase extends RobotTestCase
+{
+    private static final String HOST = "127.0.0.1";
+    private static final int PORT = 12345;
+
+    private static final int CLIENTS = 32;
+    private static final int REQUESTS_PER_CLIENT = 50;
+
+    public LocalHttpServerLoadTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+        int workers = Integer.parseInt(prefs.getString(LocalHttpServer.BUILTIN_HTTP_SERVER_WORKERS, LocalHttpServer.BUILTIN_HTTP_SERVER_WORKERS_DEFAULT));
+
+        try
+        {
+            this.broadcastUpdate("Testing pipelined requests...", 0);
+
+            DefaultHttpClientConnection conn = LocalHttpServerLoadTestCase.connect();
+
+            String[] paths =
+            { "/index.html", "/missing.html", "/index.html" };
+
+            for (String path : paths)
+                conn.sendRequestHeader(LocalHttpServerLoadTestCase.request(path));
+
+            conn.flush();
+
+            int[] statuses = new int[paths.length];
+
+            for (int i = 0; i < paths.length; i++)
+            {
+                HttpResponse response = conn.receiveResponseHeader();
+                conn.receiveResponseEntity(response);
+                EntityUtils.toByteArray(response.getEntity());
+
+                statuses[i] = response.getStatusLine().getStatusCode();
+            }
+
+            conn.close();
+
+            Assert.assertEquals("LHL0", statuses[0], statuses[2]);
+            Assert.assertTrue("LHL1", statuses[1] == 404 || statuses[1] == 401);
+        }
+        catch (IOException e)
+        {
+            Assert.fail("LHL100");
+        }
+        catch (HttpException e)
+        {
+            Assert.fail("LHL101");
+        }
+
+        this.broadcastUpdate("Generating load...", 0);
+
+        Bundle before = LocalHttpServer.statistics();
+
+        final AtomicInteger completed = new AtomicInteger(0);
+        final AtomicInteger failed = new AtomicInteger(0);
+
+        ArrayList<Thread> clients = new ArrayList<Thread>();
+
+        for (int i = 0; i < LocalHttpServerLoadTestCase.CLIENTS; i++)
+        {
+            Thread client = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    DefaultHttpClientConnection conn = null;
+                    DefaultConnectionReuseStrategy reuse = new DefaultConnectionReuseStrategy();
+
+                    try
+                    {
+                        for (int j = 0; j < LocalHttpServerLoadTestCase.REQUESTS_PER_CLIENT; j++)
+                        {
+                            if (conn == null)
+                                conn = LocalHttpServerLoadTestCase.connect();
+
+                            conn.sendRequestHeader(LocalHttpServerLoadTestCase.request("/index.html"));
+                            conn.flush();
+
+                            HttpResponse response = conn.receiveResponseHeader();
+                            conn.receiveResponseEntity(response);
+                            EntityUtils.toByteArray(response.getEntity());
+
+                            completed.incrementAndGet();
+
+                            if (reuse.keepAlive(response, new BasicHttpContext()) == false)
+                            {
+                                conn.close();
+                                conn = null;
+                            }
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        failed.incrementAndGet();
+                    }
+                    catch (HttpException e)
+                    {
+                        failed.incrementAndGet();
+                    }
+                    finally
+                    {
+                        try
+                        {
+                            if (conn != null)
+                                conn.close();
+                        }
+                        catch (IOException e)
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            });
+
+            clients.add(client);
+        }
+
+        int peakConnections = 0;
+
+        long start = System.currentTimeMillis();
+
+        for (Thread client : clients)
+            client.start();
+
+        try
+        {
+            for (Thread client : clients)
+            {
+                while (client.isAlive())
+                {
+                    peakConnections = Math.max(peakConnections, LocalHttpServer.statistics().getInt("active_connections"));
+
+                    client.join(10);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Assert.fail("LHL102");
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+
+        Bundle after = LocalHttpServer.statistics();
+
+        int total = LocalHttpServerLoadTestCase.CLIENTS * LocalHttpServerLoadTestCase.REQUESTS_PER_CLIENT;
+
+        Assert.assertEquals("LHL2", 0, failed.get());
+        Assert.assertEquals("LHL3", total, completed.get());
+        Assert.assertTrue("LHL4", after.getLong("requests") - before.getLong("requests") >= total);
+        Assert.assertEquals("LHL5", before.getLong("rejected_connections"), after.getLong("rejected_connections"));
+        Assert.assertTrue("LHL6", peakConnections <= workers);
+
+        double rate = (total * 1000.0) / Math.max(1, elapsed);
+
+        String summary = String.format(Locale.ENGLISH, "%d requests from %d clients: %.0f req/s, mean latency %.2f ms, max latency %.2f ms, peak connections %d", total, LocalHttpServerLoadTestCase.CLIENTS, rate, after.getDouble("mean_latency_ms"), after.getDouble("max_latency_ms"), peakConnections);
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    private static DefaultHttpClientConnection connect() throws IOException
+    {
+        HttpParams params = new BasicHttpParams();
+
+        DefaultHttpClientConnection conn = new DefaultHttpClientConnection();
+        conn.bind(new Socket(LocalHttpServerLoadTestCase.HOST, LocalHttpServerLoadTestCase.PORT), params);
+
+        return conn;
+    }
+
+    private static BasicHttpRequest request(String path)
+    {
+        BasicHttpRequest request = new BasicHttpRequest("GET", path);
+        request.setHeader("Host", LocalHttpServerLoadTestCase.HOST + ":" + LocalHttpServerLoadTestCase.PORT);
+
+        return request;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_local_http_server_load_test);
+    }
+}
@@ -0,0 +1,193 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.PendingFileReader;
+
+public class PendingFileReaderTestCase extends RobotTestCase
+{
+    private static final long BACKLOG_SIZE = 50 * 1024 * 1024;
+    private static final long BATCH_SIZE = 262144;
+    private static final int RECORDS_PER_FILE = 256;
+
+    public PendingFileReaderTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        File folder = new File(this._context.getCacheDir(), "pending_reader_test");
+
+        try
+        {
+            if (folder.exists())
+                FileUtils.deleteDirectory(folder);
+
+            folder.mkdirs();
+
+            this.broadcastUpdate("Writing 50 MB backlog...", 0);
+
+            long written = 0;
+            int records = 0;
+
+            for (int fileIndex = 0; written < PendingFileReaderTestCase.BACKLOG_SIZE; fileIndex++)
+            {
+                StringBuilder sb = new StringBuilder("[");
+
+                for (int i = 0; i < PendingFileReaderTestCase.RECORDS_PER_FILE; i++)
+                {
+                    if (i > 0)
+                        sb.append(",");
+
+                    sb.append(this.sampleRecord(records));
+
+                    records += 1;
+                }
+
+                sb.append("]");
+
+                byte[] bytes = sb.toString().getBytes("UTF-8");
+
+                File f = new File(folder, String.format(Locale.ENGLISH, "%013d.json", fileIndex));
+
+                EncryptionManager.getInstance().writeToEncryptedStream(this._context, new FileOutputStream(f), bytes,
+                        true);
+
+                written += bytes.length;
+            }
+
+            this.broadcastUpdate("Reading backlog in upload-sized batches...", 0);
+
+            Runtime runtime = Runtime.getRuntime();
+            runtime.gc();
+
+            long baseline = runtime.totalMemory() - runtime.freeMemory();
+            long peak = 0;
+
+            int read = 0;
+            int cycles = 0;
+            long maxCycle = 0;
+
+            long start = System.currentTimeMillis();
+
+            String[] filenames = this.jsonFiles(folder);
+
+            while (filenames.length > 0)
+            {
+                long cycleStart = System.currentTimeMillis();
+
+                PendingFileReader reader = new PendingFileReader(this._context, folder, filenames, true);
+
+                String payload = reader.readBatch(PendingFileReaderTestCase.BATCH_SIZE);
+
+                Assert.assertTrue("PFR0", payload.startsWith("[") && payload.endsWith("]"));
+                Assert.assertTrue("PFR1", reader.recordCount() > 0);
+                Assert.assertTrue("PFR2", reader.byteCount() <= PendingFileReaderTestCase.BATCH_SIZE);
+
+                read += reader.recordCount();
+
+                long used = runtime.totalMemory() - runtime.freeMemory() - baseline;
+
+                if (used > peak)
+                    peak = used;
+
+                reader.commit(null);
+
+                long cycle = System.currentTimeMillis() - cycleStart;
+
+                if (cycle > maxCycle)
+                    maxCycle = cycle;
+
+                cycles += 1;
+
+                filenames = this.jsonFiles(folder);
+            }
+
+            long elapsed = System.currentTimeMillis() - start;
+
+            Assert.assertEquals("PFR3", records, read);
+
+            String summary = String.format(Locale.ENGLISH,
+                    "%d cycles, %.1f ms/cycle (max %d ms), peak heap +%d KB", cycles, ((double) elapsed) / cycles,
+                    maxCycle, peak / 1024);
+
+            this.broadcastUpdate(summary, 5000);
+
+            FileUtils.deleteDirectory(folder);
+        }
+        catch (IOException e)
+        {
+            Assert.fail("PFR4");
+        }
+    }
+
+    private String[] jsonFiles(File folder)
+    {
+        String[] filenames = folder.list();
+
+        if (filenames == null)
+            return new String[0];
+
+        int count = 0;
+
+        for (String filename : filenames)
+        {
+            if (filename.endsWith(".json"))
+                filenames[count++] = filename;
+        }
+
+        String[] jsonFiles = new String[count];
+        System.arraycopy(filenames, 0, jsonFiles, 0, count);
+
+        return jsonFiles;
+    }
+
+    private String sampleRecord(int index)
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("{\"PROBE\":\"edu.northwestern.cbits.purple_robot_manager.probes.builtin.AccelerometerProbe\",");
+        sb.append("\"GUID\":\"record-").append(index).append("\",");
+        sb.append("\"TIMESTAMP\":").append(1400000000 + index).append(",\"X\":[");
+
+        for (int i = 0; i < 25; i++)
+        {
+            if (i > 0)
+                sb.append(",");
+
+            sb.append(Math.sin(index + i));
+        }
+
+        sb.append("]}");
+
+        return sb.toString();
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 5;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_pending_file_reader_test);
+    }
+}
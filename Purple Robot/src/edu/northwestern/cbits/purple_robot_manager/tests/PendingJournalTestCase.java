@@ -0,0 +1,206 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.apache.commons.io.FileUtils;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.PendingJournal;
+
+public class PendingJournalTestCase extends RobotTestCase
+{
+    private static final long BATCH_SIZE = 262144;
+    private static final int HEADER_SIZE = 9;
+
+    private static final String FIRST = "{\"GUID\":\"first\"}";
+    private static final String SECOND = "{\"GUID\":\"second\"}";
+    private static final String THIRD = "{\"GUID\":\"third\"}";
+
+    public PendingJournalTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        File folder = new File(this._context.getCacheDir(), "pending_journal_test");
+
+        try
+        {
+            this.broadcastUpdate("Appending and committing records...", 0);
+
+            this.reset(folder);
+
+            PendingJournal journal = new PendingJournal(this._context, folder);
+
+            Assert.assertTrue("PJ0", journal.isEmpty());
+
+            journal.append(Arrays.asList(PendingJournalTestCase.FIRST, PendingJournalTestCase.SECOND), false);
+
+            Assert.assertFalse("PJ1", journal.isEmpty());
+            Assert.assertEquals("PJ2", "[" + PendingJournalTestCase.FIRST + "," + PendingJournalTestCase.SECOND + "]", journal.readBatch(PendingJournalTestCase.BATCH_SIZE));
+            Assert.assertEquals("PJ3", 2, journal.recordCount());
+
+            // Nothing moves until the batch is committed...
+
+            Assert.assertEquals("PJ4", "[" + PendingJournalTestCase.FIRST + "," + PendingJournalTestCase.SECOND + "]", journal.readBatch(PendingJournalTestCase.BATCH_SIZE));
+
+            journal.commit(null);
+
+            Assert.assertTrue("PJ5", journal.isEmpty());
+
+            journal.append(Arrays.asList(PendingJournalTestCase.THIRD), false);
+
+            Assert.assertEquals("PJ6", "[" + PendingJournalTestCase.THIRD + "]", journal.readBatch(PendingJournalTestCase.BATCH_SIZE));
+
+            journal.close();
+
+            this.broadcastUpdate("Reopening after a crash...", 0);
+
+            this.reset(folder);
+
+            journal = new PendingJournal(this._context, folder);
+            journal.append(Arrays.asList(PendingJournalTestCase.FIRST), false);
+            journal.readBatch(PendingJournalTestCase.BATCH_SIZE);
+            journal.commit(null);
+
+            journal.append(Arrays.asList(PendingJournalTestCase.SECOND), false);
+
+            // Abandon the journal without closing it, as a killed process would...
+
+            PendingJournal reopened = new PendingJournal(this._context, folder);
+
+            Assert.assertFalse("PJ7", reopened.isEmpty());
+            Assert.assertEquals("PJ8", "[" + PendingJournalTestCase.SECOND + "]", reopened.readBatch(PendingJournalTestCase.BATCH_SIZE));
+
+            reopened.append(Arrays.asList(PendingJournalTestCase.THIRD), false);
+
+            Assert.assertEquals("PJ9", "[" + PendingJournalTestCase.SECOND + "," + PendingJournalTestCase.THIRD + "]", reopened.readBatch(PendingJournalTestCase.BATCH_SIZE));
+
+            reopened.commit(null);
+
+            Assert.assertTrue("PJ10", reopened.isEmpty());
+
+            journal.close();
+            reopened.close();
+
+            this.broadcastUpdate("Skipping a torn tail...", 0);
+
+            this.reset(folder);
+
+            journal = new PendingJournal(this._context, folder);
+            journal.append(Arrays.asList(PendingJournalTestCase.FIRST, PendingJournalTestCase.SECOND), false);
+            journal.close();
+
+            // Header promising more bytes than were written before the crash...
+
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(this.segment(folder), true));
+            out.writeInt(64);
+            out.writeInt(0);
+            out.writeByte(0);
+            out.write(new byte[5]);
+            out.close();
+
+            reopened = new PendingJournal(this._context, folder);
+
+            Assert.assertEquals("PJ11", "[" + PendingJournalTestCase.FIRST + "," + PendingJournalTestCase.SECOND + "]", reopened.readBatch(PendingJournalTestCase.BATCH_SIZE));
+
+            reopened.commit(null);
+
+            Assert.assertTrue("PJ12", reopened.isEmpty());
+
+            reopened.append(Arrays.asList(PendingJournalTestCase.THIRD), false);
+
+            Assert.assertEquals("PJ13", "[" + PendingJournalTestCase.THIRD + "]", reopened.readBatch(PendingJournalTestCase.BATCH_SIZE));
+
+            reopened.close();
+
+            this.broadcastUpdate("Stopping at a checksum mismatch...", 0);
+
+            this.reset(folder);
+
+            journal = new PendingJournal(this._context, folder);
+            journal.append(Arrays.asList(PendingJournalTestCase.FIRST), false);
+            journal.append(Arrays.asList(PendingJournalTestCase.SECOND), false);
+            journal.close();
+
+            // Flip one payload byte of the second record...
+
+            long offset = (PendingJournalTestCase.HEADER_SIZE * 2) + PendingJournalTestCase.FIRST.getBytes("UTF-8").length + 2;
+
+            RandomAccessFile segment = new RandomAccessFile(this.segment(folder), "rw");
+            segment.seek(offset);
+
+            int original = segment.read();
+
+            segment.seek(offset);
+            segment.write(original ^ 0xff);
+            segment.close();
+
+            reopened = new PendingJournal(this._context, folder);
+
+            Assert.assertEquals("PJ14", "[" + PendingJournalTestCase.FIRST + "]", reopened.readBatch(PendingJournalTestCase.BATCH_SIZE));
+            Assert.assertEquals("PJ15", 1, reopened.recordCount());
+
+            reopened.close();
+
+            FileUtils.deleteDirectory(folder);
+
+            this.broadcastUpdate("Journal records recovered.", 1000);
+        }
+        catch (IOException e)
+        {
+            Assert.fail("PJ16");
+        }
+    }
+
+    private void reset(File folder) throws IOException
+    {
+        if (folder.exists())
+            FileUtils.deleteDirectory(folder);
+
+        folder.mkdirs();
+    }
+
+    private File segment(File folder)
+    {
+        String[] filenames = folder.list();
+
+        Assert.assertNotNull("PJ17", filenames);
+
+        for (String filename : filenames)
+        {
+            if (filename.endsWith(PendingJournal.SEGMENT_EXTENSION))
+                return new File(folder, filename);
+        }
+
+        Assert.fail("PJ18");
+
+        return null;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_pending_journal_test);
+    }
+}
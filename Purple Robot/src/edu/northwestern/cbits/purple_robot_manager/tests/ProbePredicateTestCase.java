@@ -0,0 +1,156 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.OutputPlugin;
+import edu.northwestern.cbits.purple_robot_manager.scripting.BaseScriptEngine;
+import edu.northwestern.cbits.purple_robot_manager.triggers.ProbePredicate;
+import edu.northwestern.cbits.purple_robot_manager.triggers.ProbeTrigger;
+import edu.northwestern.cbits.purple_robot_manager.triggers.Trigger;
+
+public class ProbePredicateTestCase extends RobotTestCase
+{
+    private static final int READINGS = 3000; // 60 seconds at 50 Hz
+
+    private static final String[] COMPILED_TESTS =
+    { "extras.LEVEL < 20", "extras.LEVEL >= 20 && extras.PLUGGED == false", "(extras.LEVEL > 90) || extras['STATUS'] == 'FULL';",
+            "!(extras.TEMPERATURE > 400) && extras.VOLTAGE != -1", "extras.MISSING == null", "extras.STATUS === 'CHARGING'" };
+
+    private static final String[] SCRIPT_TESTS =
+    { "extras.STATUS.length > 3", "Math.abs(extras.LEVEL - 50) < 10" };
+
+    public ProbePredicateTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        for (String test : ProbePredicateTestCase.COMPILED_TESTS)
+            Assert.assertNotNull("PPT0", ProbePredicate.compile(test));
+
+        for (String test : ProbePredicateTestCase.SCRIPT_TESTS)
+            Assert.assertNull("PPT1", ProbePredicate.compile(test));
+
+        this.broadcastUpdate("Comparing predicates with scripts...", 0);
+
+        String[] statuses = { "FULL", "CHARGING", "DISCHARGING" };
+
+        try
+        {
+            for (int i = 0; i < 30; i++)
+            {
+                Bundle reading = ProbePredicateTestCase.reading(i * 7 % 101, statuses[i % statuses.length], i % 2 == 0);
+
+                HashMap<String, Object> extras = new HashMap<String, Object>();
+
+                JSONObject json = OutputPlugin.jsonForBundle(reading);
+
+                for (int j = 0; j < json.names().length(); j++)
+                {
+                    String name = json.names().getString(j);
+
+                    extras.put(name, json.get(name));
+                }
+
+                for (String test : ProbePredicateTestCase.COMPILED_TESTS)
+                {
+                    Object expected = BaseScriptEngine.runScript(this._context, test, extras);
+
+                    Assert.assertEquals("PPT2 " + test, expected, Boolean.valueOf(ProbePredicate.compile(test).evaluate(reading)));
+                }
+            }
+        }
+        catch (JSONException e)
+        {
+            Assert.fail("PPT3");
+        }
+
+        this.broadcastUpdate("Evaluating 50 Hz readings...", 0);
+
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put(Trigger.NAME, "Predicate Test");
+        map.put(Trigger.IDENTIFIER, "probe-predicate-test");
+        map.put(Trigger.ACTION, "PurpleRobot.testLog('Predicate Test: Fired!');");
+        map.put("probe", "edu.northwestern.cbits.purple_robot_manager.probes.builtin.BatteryProbe");
+        map.put("test", ProbePredicateTestCase.COMPILED_TESTS[1]);
+        map.put("rate_limit", Long.valueOf(1000));
+
+        ProbeTrigger trigger = new ProbeTrigger(this._context, map);
+
+        Assert.assertTrue("PPT4", trigger.isCompiled());
+
+        Bundle[] readings = new Bundle[ProbePredicateTestCase.READINGS];
+
+        for (int i = 0; i < readings.length; i++)
+            readings[i] = ProbePredicateTestCase.reading(i % 100, statuses[i % statuses.length], i % 3 == 0);
+
+        int matches = 0;
+
+        long start = System.nanoTime();
+
+        for (Bundle reading : readings)
+        {
+            if (trigger.matches(this._context, reading))
+                matches += 1;
+        }
+
+        double compiled = (System.nanoTime() - start) / (1000.0 * readings.length);
+
+        // Everything happens within the one-second rate limit...
+
+        Assert.assertEquals("PPT5", 1, matches);
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < 50; i++)
+            BaseScriptEngine.runScript(this._context, ProbePredicateTestCase.COMPILED_TESTS[1], new HashMap<String, Object>());
+
+        double script = (System.nanoTime() - start) / (1000.0 * 50);
+
+        String summary = String.format(Locale.ENGLISH, "Compiled: %.2f us/reading, script: %.0f us/reading", compiled, script);
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    private static Bundle reading(int level, String status, boolean plugged)
+    {
+        Bundle bundle = new Bundle();
+
+        bundle.putString("PROBE", "edu.northwestern.cbits.purple_robot_manager.probes.builtin.BatteryProbe");
+        bundle.putDouble("TIMESTAMP", System.currentTimeMillis() / 1000.0);
+        bundle.putInt("LEVEL", level);
+        bundle.putString("STATUS", status);
+        bundle.putBoolean("PLUGGED", plugged);
+        bundle.putInt("TEMPERATURE", 250 + level * 2);
+        bundle.putInt("VOLTAGE", plugged ? -1 : 4100);
+
+        return bundle;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_probe_predicate_test);
+    }
+}
@@ -0,0 +1,138 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
+
+public class ProbeReadingBusTestCase extends RobotTestCase
+{
+    private static final String PROBE_A = "edu.northwestern.cbits.purple_robot_manager.tests.BusTestProbeA";
+    private static final String PROBE_B = "edu.northwestern.cbits.purple_robot_manager.tests.BusTestProbeB";
+
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Records the readings it receives as "probe:index" and edits its own copy
+     * of each payload, which later subscribers must not see.
+     */
+
+    private static class Recorder implements ProbeReadingBus.Subscriber
+    {
+        private final ArrayList<String> _readings = new ArrayList<String>();
+
+        public void onReading(Context context, ProbeReading reading)
+        {
+            String name = reading.getProbe().equals(ProbeReadingBusTestCase.PROBE_A) ? "A" : "B";
+
+            Bundle copy = reading.getBundle();
+            copy.putString("INDEX", "changed");
+
+            synchronized (this)
+            {
+                this._readings.add(name + ":" + reading.getString("INDEX"));
+                this.notifyAll();
+            }
+        }
+
+        private synchronized List<String> await(int count) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + ProbeReadingBusTestCase.TIMEOUT;
+
+            while (this._readings.size() < count && System.currentTimeMillis() < deadline)
+                this.wait(deadline - System.currentTimeMillis());
+
+            return new ArrayList<String>(this._readings);
+        }
+    }
+
+    public ProbeReadingBusTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        ProbeReadingBus bus = ProbeReadingBus.getInstance(this._context);
+
+        Recorder alpha = new Recorder();
+        Recorder beta = new Recorder();
+        Recorder all = new Recorder();
+
+        try
+        {
+            this.broadcastUpdate("Routing readings by probe...", 0);
+
+            bus.subscribe(ProbeReadingBusTestCase.PROBE_A, alpha);
+            bus.subscribe(ProbeReadingBusTestCase.PROBE_B, beta);
+            bus.subscribe(ProbeReadingBusTestCase.PROBE_B, beta);
+            bus.subscribe(null, all);
+
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_A, 0);
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_B, 0);
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_A, 1);
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_A, 2);
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_B, 1);
+
+            Assert.assertEquals("PRB0", "[A:0, B:0, A:1, A:2, B:1]", all.await(5).toString());
+            Assert.assertEquals("PRB1", "[A:0, A:1, A:2]", alpha.await(3).toString());
+            Assert.assertEquals("PRB2", "[B:0, B:1]", beta.await(2).toString());
+
+            this.broadcastUpdate("Unsubscribing...", 0);
+
+            bus.unsubscribe(alpha);
+
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_A, 3);
+            this.publish(bus, ProbeReadingBusTestCase.PROBE_B, 2);
+
+            Assert.assertEquals("PRB3", "[A:0, B:0, A:1, A:2, B:1, A:3, B:2]", all.await(7).toString());
+            Assert.assertEquals("PRB4", "[B:0, B:1, B:2]", beta.await(3).toString());
+            Assert.assertEquals("PRB5", "[A:0, A:1, A:2]", alpha.await(3).toString());
+
+            this.broadcastUpdate("Readings routed in order.", 1000);
+        }
+        catch (InterruptedException e)
+        {
+            Assert.fail("PRB6");
+        }
+        finally
+        {
+            bus.unsubscribe(alpha);
+            bus.unsubscribe(beta);
+            bus.unsubscribe(all);
+        }
+    }
+
+    private void publish(ProbeReadingBus bus, String probe, int index)
+    {
+        Bundle data = new Bundle();
+        data.putString("PROBE", probe);
+        data.putString("INDEX", "" + index);
+        data.putDouble("TIMESTAMP", System.currentTimeMillis() / 1000.0);
+
+        bus.publish(data);
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_probe_reading_bus_test);
+    }
+}
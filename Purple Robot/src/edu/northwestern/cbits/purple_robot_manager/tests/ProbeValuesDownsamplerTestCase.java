@@ -0,0 +1,193 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValues;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesDownsampler;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider.Downsample;
+
+public class ProbeValuesDownsamplerTestCase extends RobotTestCase
+{
+    private static final String DATABASE_NAME = "probe_values_downsampler_test.db";
+
+    private static final String RAMP_TABLE = "table_downsampler_ramp";
+    private static final String SPIKE_TABLE = "table_downsampler_spike";
+    private static final String SHORT_TABLE = "table_downsampler_short";
+
+    private static final String[] COLUMNS = { "X" };
+
+    public ProbeValuesDownsamplerTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        this._context.deleteDatabase(ProbeValuesDownsamplerTestCase.DATABASE_NAME);
+
+        SQLiteDatabase database = this._context.openOrCreateDatabase(ProbeValuesDownsamplerTestCase.DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        try
+        {
+            // One row per second for 1000 seconds, X equal to the timestamp...
+
+            double[] ramp = new double[1000];
+
+            for (int i = 0; i < ramp.length; i++)
+                ramp[i] = i;
+
+            this.fill(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ramp);
+
+            this.broadcastUpdate("Bucketing in SQLite...", 0);
+
+            // 10 buckets of width 99.9: every bucket holds exactly 100 rows and
+            // the last row lands in the last bucket rather than an extra one...
+
+            ProbeValues mean = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 999, 10, Downsample.MEAN);
+            ProbeValues min = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 999, 10, Downsample.MIN);
+            ProbeValues max = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 999, 10, Downsample.MAX);
+
+            Assert.assertEquals("PVD0", 10, mean.size());
+            Assert.assertEquals("PVD1", 1000, mean.getSourceCount());
+            Assert.assertEquals("PVD2", 10, min.size());
+            Assert.assertEquals("PVD3", 10, max.size());
+
+            for (int i = 0; i < 10; i++)
+            {
+                Assert.assertEquals("PVD4", (i * 100) + 49.5, mean.getTimestamps()[i], 0.0001);
+                Assert.assertEquals("PVD5", (i * 100) + 49.5, mean.getValues("X")[i], 0.0001);
+                Assert.assertEquals("PVD6", i * 100, min.getValues("X")[i], 0.0001);
+                Assert.assertEquals("PVD7", (i * 100) + 99, max.getValues("X")[i], 0.0001);
+            }
+
+            // Range bounds are inclusive...
+
+            ProbeValues range = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 100, 199, 0, Downsample.NONE);
+
+            Assert.assertEquals("PVD8", 100, range.size());
+            Assert.assertEquals("PVD9", 100, range.getTimestamps()[0], 0.0);
+            Assert.assertEquals("PVD10", 199, range.getTimestamps()[99], 0.0);
+
+            ProbeValues latest = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 999, 10, Downsample.NONE);
+
+            Assert.assertEquals("PVD11", 10, latest.size());
+            Assert.assertEquals("PVD12", 990, latest.getTimestamps()[0], 0.0);
+            Assert.assertEquals("PVD13", 999, latest.getTimestamps()[9], 0.0);
+
+            // Fewer rows than the limit come back untouched...
+
+            ProbeValues few = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.RAMP_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 4, 10, Downsample.MEAN);
+
+            Assert.assertEquals("PVD14", 5, few.size());
+
+            this.broadcastUpdate("Picking LTTB points...", 0);
+
+            double[] spike = new double[1000];
+            spike[500] = 100;
+
+            this.fill(database, ProbeValuesDownsamplerTestCase.SPIKE_TABLE, spike);
+
+            // 1000 rows are pre-bucketed to 80 means before LTTB picks 20...
+
+            ProbeValues lttb = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.SPIKE_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 999, 20, Downsample.LTTB);
+
+            Assert.assertEquals("PVD15", 20, lttb.size());
+            Assert.assertEquals("PVD16", 1000, lttb.getSourceCount());
+
+            double peak = 0;
+
+            for (int i = 0; i < lttb.size(); i++)
+            {
+                if (i > 0)
+                    Assert.assertTrue("PVD17", lttb.getTimestamps()[i] > lttb.getTimestamps()[i - 1]);
+
+                peak = Math.max(peak, lttb.getValues("X")[i]);
+            }
+
+            Assert.assertTrue("PVD18", peak > 0);
+            Assert.assertTrue("PVD19", lttb.getTimestamps()[0] < 13);
+            Assert.assertTrue("PVD20", lttb.getTimestamps()[19] > 986);
+
+            // Below the pre-bucketing threshold LTTB works on the rows themselves
+            // and keeps the first and last row exactly...
+
+            double[] shortSpike = new double[50];
+            shortSpike[25] = 100;
+
+            this.fill(database, ProbeValuesDownsamplerTestCase.SHORT_TABLE, shortSpike);
+
+            ProbeValues rows = ProbeValuesDownsampler.query(database, ProbeValuesDownsamplerTestCase.SHORT_TABLE, ProbeValuesDownsamplerTestCase.COLUMNS, 0, 49, 20, Downsample.LTTB);
+
+            Assert.assertEquals("PVD21", 20, rows.size());
+            Assert.assertEquals("PVD22", 0, rows.getTimestamps()[0], 0.0);
+            Assert.assertEquals("PVD23", 49, rows.getTimestamps()[19], 0.0);
+
+            boolean hasSpike = false;
+
+            for (double value : rows.getValues("X"))
+            {
+                if (value == 100)
+                    hasSpike = true;
+            }
+
+            Assert.assertTrue("PVD24", hasSpike);
+
+            this.broadcastUpdate("Downsampled ranges match.", 1000);
+        }
+        finally
+        {
+            database.close();
+
+            this._context.deleteDatabase(ProbeValuesDownsamplerTestCase.DATABASE_NAME);
+        }
+    }
+
+    private void fill(SQLiteDatabase database, String table, double[] values)
+    {
+        database.execSQL("create table " + table + " (_id integer primary key autoincrement, " + ProbeValuesProvider.TIMESTAMP + " real, X real);");
+
+        SQLiteStatement insert = database.compileStatement("insert into " + table + " (" + ProbeValuesProvider.TIMESTAMP + ", X) values (?, ?);");
+
+        database.beginTransaction();
+
+        try
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                insert.bindDouble(1, i);
+                insert.bindDouble(2, values[i]);
+                insert.executeInsert();
+            }
+
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+
+            insert.close();
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_probe_values_downsampler_test);
+    }
+}
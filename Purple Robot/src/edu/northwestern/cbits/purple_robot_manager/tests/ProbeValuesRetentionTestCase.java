@@ -0,0 +1,186 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesRetention;
+
+public class ProbeValuesRetentionTestCase extends RobotTestCase
+{
+    private static final String DATABASE_NAME = "probe_values_retention_test.db";
+
+    private static final String ROWS_TABLE = "table_retention_rows";
+    private static final String AGED_TABLE = "table_retention_aged";
+    private static final String BUDGET_TABLE = "table_retention_budget";
+    private static final String KEPT_TABLE = "table_retention_kept";
+
+    private static final int CHUNK_SIZE = 256;
+    private static final int MAX_STEPS = 1000;
+
+    private static final String LABEL = "0123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789";
+
+    public ProbeValuesRetentionTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        this._context.deleteDatabase(ProbeValuesRetentionTestCase.DATABASE_NAME);
+
+        SQLiteDatabase database = this._context.openOrCreateDatabase(ProbeValuesRetentionTestCase.DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        try
+        {
+            this.broadcastUpdate("Filling probe tables...", 0);
+
+            double now = System.currentTimeMillis() / 1000.0;
+
+            this.fill(database, ProbeValuesRetentionTestCase.ROWS_TABLE, 1000, now);
+            this.fill(database, ProbeValuesRetentionTestCase.AGED_TABLE, 500, now - 7200);
+            this.fill(database, ProbeValuesRetentionTestCase.AGED_TABLE, 500, now);
+            this.fill(database, ProbeValuesRetentionTestCase.BUDGET_TABLE, 1000, now);
+            this.fill(database, ProbeValuesRetentionTestCase.KEPT_TABLE, 300, now);
+
+            // Default keeps the latest 100 rows; named probes override it...
+
+            ProbeValuesRetention retention = new ProbeValuesRetention(this._context, new ProbeValuesRetention.Policy(100, 0, 0));
+            retention.setPolicy("aged", new ProbeValuesRetention.Policy(0, 3600000, 0));
+            retention.setPolicy("budget", new ProbeValuesRetention.Policy(0, 0, 100 * 120));
+            retention.setPolicy("kept", new ProbeValuesRetention.Policy(0, 0, 0));
+
+            retention.track("rows", ProbeValuesRetentionTestCase.ROWS_TABLE);
+            retention.track("aged", ProbeValuesRetentionTestCase.AGED_TABLE);
+            retention.track("budget", ProbeValuesRetentionTestCase.BUDGET_TABLE);
+            retention.track("kept", ProbeValuesRetentionTestCase.KEPT_TABLE);
+
+            this.broadcastUpdate("Trimming one step at a time...", 0);
+
+            long total = this.totalRows(database);
+
+            int steps = 0;
+
+            while (retention.hasWork() && steps < ProbeValuesRetentionTestCase.MAX_STEPS)
+            {
+                synchronized (database)
+                {
+                    retention.step(database);
+                }
+
+                long remaining = this.totalRows(database);
+
+                Assert.assertTrue("PVR0", total - remaining <= ProbeValuesRetentionTestCase.CHUNK_SIZE);
+
+                total = remaining;
+                steps += 1;
+            }
+
+            Assert.assertFalse("PVR1", retention.hasWork());
+
+            // One step lists the tables and each table is planned in a step of its own...
+
+            Assert.assertTrue("PVR2", steps >= 5);
+
+            Assert.assertEquals("PVR3", 100, this.count(database, ProbeValuesRetentionTestCase.ROWS_TABLE, null));
+            Assert.assertEquals("PVR4", 901, this.minId(database, ProbeValuesRetentionTestCase.ROWS_TABLE));
+
+            Assert.assertEquals("PVR5", 500, this.count(database, ProbeValuesRetentionTestCase.AGED_TABLE, null));
+            Assert.assertEquals("PVR6", 0, this.count(database, ProbeValuesRetentionTestCase.AGED_TABLE, ProbeValuesProvider.TIMESTAMP + " < " + (now - 3600)));
+
+            long budgetRows = this.count(database, ProbeValuesRetentionTestCase.BUDGET_TABLE, null);
+
+            Assert.assertTrue("PVR7", budgetRows >= 50 && budgetRows <= 120);
+
+            Assert.assertEquals("PVR8", 300, this.count(database, ProbeValuesRetentionTestCase.KEPT_TABLE, null));
+
+            this.broadcastUpdate("Retention policies applied in " + steps + " steps.", 1000);
+        }
+        finally
+        {
+            database.close();
+
+            this._context.deleteDatabase(ProbeValuesRetentionTestCase.DATABASE_NAME);
+        }
+    }
+
+    private void fill(SQLiteDatabase database, String table, int rows, double start)
+    {
+        database.execSQL("create table if not exists " + table + " (_id integer primary key autoincrement, " + ProbeValuesProvider.TIMESTAMP + " real, LABEL text);");
+
+        SQLiteStatement insert = database.compileStatement("insert into " + table + " (" + ProbeValuesProvider.TIMESTAMP + ", LABEL) values (?, ?);");
+
+        database.beginTransaction();
+
+        try
+        {
+            for (int i = 0; i < rows; i++)
+            {
+                insert.bindDouble(1, start + (i / 10.0));
+                insert.bindString(2, ProbeValuesRetentionTestCase.LABEL);
+                insert.executeInsert();
+            }
+
+            database.setTransactionSuccessful();
+        }
+        finally
+        {
+            database.endTransaction();
+
+            insert.close();
+        }
+    }
+
+    private long count(SQLiteDatabase database, String table, String where)
+    {
+        return this.queryLong(database, "select count(*) from " + table + (where == null ? "" : " where " + where));
+    }
+
+    private long minId(SQLiteDatabase database, String table)
+    {
+        return this.queryLong(database, "select min(_id) from " + table);
+    }
+
+    private long totalRows(SQLiteDatabase database)
+    {
+        return this.count(database, ProbeValuesRetentionTestCase.ROWS_TABLE, null) + this.count(database, ProbeValuesRetentionTestCase.AGED_TABLE, null) + this.count(database, ProbeValuesRetentionTestCase.BUDGET_TABLE, null) + this.count(database, ProbeValuesRetentionTestCase.KEPT_TABLE, null);
+    }
+
+    private long queryLong(SQLiteDatabase database, String sql)
+    {
+        Cursor c = database.rawQuery(sql, null);
+
+        try
+        {
+            if (c.moveToNext())
+                return c.getLong(0);
+
+            return 0;
+        }
+        finally
+        {
+            c.close();
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_probe_values_retention_test);
+    }
+}
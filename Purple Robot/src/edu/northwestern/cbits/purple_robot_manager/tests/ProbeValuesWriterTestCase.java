@@ -0,0 +1,236 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesWriter;
+
+public class ProbeValuesWriterTestCase extends RobotTestCase
+{
+    private static final String DATABASE_NAME = "probe_values_writer_test.db";
+
+    private static final int PROBE_COUNT = 10;
+    private static final int SIMULATED_SECONDS = 60;
+
+    public ProbeValuesWriterTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        StringBuilder summary = new StringBuilder();
+
+        int[] rates = { 1, 50 };
+
+        for (int rate : rates)
+        {
+            int rows = ProbeValuesWriterTestCase.PROBE_COUNT * rate * ProbeValuesWriterTestCase.SIMULATED_SECONDS;
+
+            this.broadcastUpdate(String.format(Locale.ENGLISH, "%d probes at %d Hz: row-at-a-time inserts...", ProbeValuesWriterTestCase.PROBE_COUNT, rate), 0);
+
+            double legacyRate = this.legacyInserts(rate);
+
+            this.broadcastUpdate(String.format(Locale.ENGLISH, "%d probes at %d Hz: batched writer...", ProbeValuesWriterTestCase.PROBE_COUNT, rate), 0);
+
+            double writerRate = this.writerInserts(rate);
+
+            String line = String.format(Locale.ENGLISH, "%d x %d Hz (%d rows): %.0f rows/s single, %.0f rows/s batched", ProbeValuesWriterTestCase.PROBE_COUNT, rate, rows, legacyRate, writerRate);
+
+            if (summary.length() > 0)
+                summary.append("\n");
+
+            summary.append(line);
+        }
+
+        this.broadcastUpdate(summary.toString(), 5000);
+
+        this._context.deleteDatabase(ProbeValuesWriterTestCase.DATABASE_NAME);
+    }
+
+    private double legacyInserts(int rate)
+    {
+        this._context.deleteDatabase(ProbeValuesWriterTestCase.DATABASE_NAME);
+
+        SQLiteDatabase database = this._context.openOrCreateDatabase(ProbeValuesWriterTestCase.DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        try
+        {
+            Map<String, String> schema = this.schema();
+
+            ArrayList<String> tables = new ArrayList<String>();
+
+            for (int p = 0; p < ProbeValuesWriterTestCase.PROBE_COUNT; p++)
+            {
+                String table = ProbeValuesWriter.tableName(this._context, "probe_" + p, schema);
+
+                database.execSQL("create table " + table + " (_id integer primary key autoincrement, " + ProbeValuesProvider.TIMESTAMP + " real, X real, Y real, Z real, ACCURACY integer, LABEL text);");
+
+                tables.add(table);
+            }
+
+            List<Map<String, Object>> values = this.values(rate);
+
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < values.size(); i++)
+            {
+                Map<String, Object> row = values.get(i);
+
+                ContentValues toInsert = new ContentValues();
+
+                toInsert.put(ProbeValuesProvider.TIMESTAMP, (Double) row.get(ProbeValuesProvider.TIMESTAMP));
+                toInsert.put("X", (Double) row.get("X"));
+                toInsert.put("Y", (Double) row.get("Y"));
+                toInsert.put("Z", (Double) row.get("Z"));
+                toInsert.put("ACCURACY", (Integer) row.get("ACCURACY"));
+                toInsert.put("LABEL", row.get("LABEL").toString());
+
+                database.insert(tables.get(i % ProbeValuesWriterTestCase.PROBE_COUNT), null, toInsert);
+            }
+
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+            Assert.assertEquals("PVW0", values.size(), this.countRows(database, tables));
+
+            return (1000.0 * values.size()) / elapsed;
+        }
+        finally
+        {
+            database.close();
+        }
+    }
+
+    private double writerInserts(int rate)
+    {
+        this._context.deleteDatabase(ProbeValuesWriterTestCase.DATABASE_NAME);
+
+        SQLiteDatabase database = this._context.openOrCreateDatabase(ProbeValuesWriterTestCase.DATABASE_NAME, Context.MODE_PRIVATE, null);
+
+        try
+        {
+            Map<String, String> schema = this.schema();
+
+            ProbeValuesWriter writer = new ProbeValuesWriter(this._context, database, null);
+
+            ArrayList<String> tables = new ArrayList<String>();
+
+            for (int p = 0; p < ProbeValuesWriterTestCase.PROBE_COUNT; p++)
+                tables.add(writer.table("probe_" + p, schema).getTableName());
+
+            List<Map<String, Object>> values = this.values(rate);
+
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < values.size(); i++)
+                writer.insert("probe_" + (i % ProbeValuesWriterTestCase.PROBE_COUNT), schema, values.get(i));
+
+            writer.flush();
+
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+            writer.shutdown();
+
+            Assert.assertEquals("PVW1", values.size(), writer.rowsWritten());
+            Assert.assertEquals("PVW2", values.size(), this.countRows(database, tables));
+
+            return (1000.0 * values.size()) / elapsed;
+        }
+        catch (InterruptedException e)
+        {
+            Assert.fail("PVW3");
+        }
+        finally
+        {
+            database.close();
+        }
+
+        return 0;
+    }
+
+    private Map<String, String> schema()
+    {
+        HashMap<String, String> schema = new HashMap<String, String>();
+
+        schema.put("X", ProbeValuesProvider.REAL_TYPE);
+        schema.put("Y", ProbeValuesProvider.REAL_TYPE);
+        schema.put("Z", ProbeValuesProvider.REAL_TYPE);
+        schema.put("ACCURACY", ProbeValuesProvider.INTEGER_TYPE);
+        schema.put("LABEL", ProbeValuesProvider.TEXT_TYPE);
+
+        return schema;
+    }
+
+    private List<Map<String, Object>> values(int rate)
+    {
+        ArrayList<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+
+        double now = System.currentTimeMillis() / 1000.0;
+
+        for (int s = 0; s < ProbeValuesWriterTestCase.SIMULATED_SECONDS * rate; s++)
+        {
+            double timestamp = now + (((double) s) / rate);
+
+            for (int p = 0; p < ProbeValuesWriterTestCase.PROBE_COUNT; p++)
+            {
+                HashMap<String, Object> row = new HashMap<String, Object>();
+
+                row.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timestamp));
+                row.put("X", Double.valueOf(Math.sin(s + p)));
+                row.put("Y", Double.valueOf(Math.cos(s + p)));
+                row.put("Z", Double.valueOf(9.81));
+                row.put("ACCURACY", Integer.valueOf(3));
+                row.put("LABEL", "probe_" + p);
+
+                values.add(row);
+            }
+        }
+
+        return values;
+    }
+
+    private int countRows(SQLiteDatabase database, List<String> tables)
+    {
+        int count = 0;
+
+        for (String table : tables)
+        {
+            Cursor c = database.rawQuery("select count(*) from " + table, null);
+
+            if (c.moveToNext())
+                count += c.getInt(0);
+
+            c.close();
+        }
+
+        return count;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 2;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_probe_values_writer_test);
+    }
+}
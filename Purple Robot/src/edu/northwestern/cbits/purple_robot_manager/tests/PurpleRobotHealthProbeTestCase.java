@@ -5,14 +5,13 @@ import android.content.BroadcastReceiver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.preference.PreferenceManager;
-import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 import edu.northwestern.cbits.purple_robot_manager.probes.ProbeManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.RobotHealthProbe;
 
 public class PurpleRobotHealthProbeTestCase extends RobotTestCase
@@ -59,11 +58,8 @@ public class PurpleRobotHealthProbeTestCase extends RobotTestCase
             }
         };
 
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Probe.PROBE_READING);
-
-        LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(this._context);
-        localManager.registerReceiver(receiver, intentFilter);
+        ProbeReadingBus bus = ProbeReadingBus.getInstance(this._context);
+        bus.registerReceiver(receiver, RobotHealthProbe.NAME);
 
         try
         {
@@ -114,7 +110,7 @@ public class PurpleRobotHealthProbeTestCase extends RobotTestCase
             Thread.sleep(30000);
 
             this.broadcastUpdate("Halting data collection...", 0);
-            localManager.unregisterReceiver(receiver);
+            bus.unregisterReceiver(receiver);
             Thread.sleep(2000);
         }
         catch (InterruptedException e)
@@ -0,0 +1,142 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import net.fortuna.ical4j.data.CalendarBuilder;
+import net.fortuna.ical4j.data.ParserException;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateRange;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.triggers.DateTrigger;
+import edu.northwestern.cbits.purple_robot_manager.triggers.Trigger;
+
+public class RecurrenceIndexTestCase extends RobotTestCase
+{
+    private static final long RANGE = 24 * 60 * 60 * 1000;
+
+    public RecurrenceIndexTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.getDefault());
+
+        long now = System.currentTimeMillis();
+        now = now - (now % 60000);
+
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put(Trigger.NAME, "Recurrence Index Test");
+        map.put(Trigger.IDENTIFIER, "recurrence-index-test");
+        map.put(Trigger.ACTION, "PurpleRobot.testLog('Recurrence Index Test: Fired!');");
+        map.put(DateTrigger.DATETIME_START, sdf.format(new Date(now - (30 * 60000))));
+        map.put(DateTrigger.DATETIME_END, sdf.format(new Date(now - (20 * 60000))));
+        map.put(DateTrigger.DATETIME_REPEATS, "FREQ=HOURLY;INTERVAL=1");
+
+        DateTrigger trigger = new DateTrigger(this._context, map);
+
+        Calendar calendar = null;
+
+        try
+        {
+            calendar = new CalendarBuilder().build(new StringReader(trigger.getCalendarString()));
+        }
+        catch (IOException e)
+        {
+            Assert.fail("RIT0");
+        }
+        catch (ParserException e)
+        {
+            Assert.fail("RIT1");
+        }
+
+        this.broadcastUpdate("Expanding recurrences minute by minute...", 0);
+
+        long start = System.nanoTime();
+
+        ArrayList<Long> expected = new ArrayList<Long>();
+
+        for (long offset = 0; offset <= RecurrenceIndexTestCase.RANGE; offset += 60000)
+        {
+            if (RecurrenceIndexTestCase.inPeriod(calendar, now + offset))
+                expected.add(Long.valueOf(now + offset + 5000));
+        }
+
+        double walk = (System.nanoTime() - start) / 1000000.0;
+
+        this.broadcastUpdate("Querying recurrence index...", 0);
+
+        start = System.nanoTime();
+
+        List<Long> actual = trigger.fireTimes(this._context, now, now + RecurrenceIndexTestCase.RANGE);
+
+        double indexed = (System.nanoTime() - start) / 1000000.0;
+
+        Assert.assertTrue("RIT2", expected.size() > 0);
+        Assert.assertEquals("RIT3", expected, actual);
+
+        for (int i = 0; i < 1440; i++)
+        {
+            long timestamp = now + (i * 60000L);
+
+            Assert.assertEquals("RIT4", RecurrenceIndexTestCase.inPeriod(calendar, timestamp), trigger.matches(this._context, new Date(timestamp)));
+        }
+
+        String summary = String.format(Locale.ENGLISH, "24h fire times: %.1f ms walking, %.1f ms indexed (%d fires)", walk, indexed, actual.size());
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    private static boolean inPeriod(Calendar calendar, long timestamp)
+    {
+        Period window = new Period(new DateTime(new Date(timestamp - 5000)), new DateTime(new Date(timestamp + (15 * 60 * 1000))));
+
+        for (Object o : calendar.getComponents("VEVENT"))
+        {
+            PeriodList l = ((Component) o).calculateRecurrenceSet(window);
+
+            for (Object po : l)
+            {
+                Period p = (Period) po;
+
+                if (new DateRange(p.getStart(), p.getEnd()).includes(new Date(timestamp), DateRange.INCLUSIVE_START | DateRange.INCLUSIVE_END))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_recurrence_index_test);
+    }
+}
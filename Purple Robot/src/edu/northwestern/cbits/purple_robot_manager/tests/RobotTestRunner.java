@@ -11,6 +11,8 @@ import junit.framework.TestCase;
 import junit.framework.TestResult;
 import android.content.Context;
 import android.test.AndroidTestRunner;
+import edu.northwestern.cbits.purple_robot_manager.tests.models.FeatureStoreTestCase;
+import edu.northwestern.cbits.purple_robot_manager.tests.models.FlatForestTestCase;
 import edu.northwestern.cbits.purple_robot_manager.tests.models.MatlabForestModelTestCase;
 import edu.northwestern.cbits.purple_robot_manager.tests.models.MatlabTreeModelTestCase;
 import edu.northwestern.cbits.purple_robot_manager.tests.models.WekaTreeModelTestCase;
@@ -34,18 +36,42 @@ public class RobotTestRunner extends AndroidTestRunner
         this._suite.addTest(new SnapshotsTestCase(context, 0));
         this._suite.addTest(new UserIdTestCase(context, 3));
         this._suite.addTest(new LocalHttpEndpointTestCase(context, 3));
+        this._suite.addTest(new LocalHttpServerLoadTestCase(context, 3));
+        this._suite.addTest(new BatchCommandTestCase(context, 3));
         this._suite.addTest(new NonAsciiDialogTestCase(context, 5));
         this._suite.addTest(new NotificationTestCase(context, 5));
         this._suite.addTest(new JavascriptTestCase(context, 6));
         this._suite.addTest(new JavascriptProbeSettingsTest(context, 6));
+        this._suite.addTest(new JavascriptCacheTestCase(context, 6));
+        this._suite.addTest(new SchemeInterpreterPoolTestCase(context, 6));
         this._suite.addTest(new LocalLogServerTestCase(context, 8));
         this._suite.addTest(new AccelerometerProbeTestCase(context, 8));
+        this._suite.addTest(new SensorBatchTestCase(context, 8));
         this._suite.addTest(new WekaTreeModelTestCase(context, 8));
         this._suite.addTest(new MatlabTreeModelTestCase(context, 8));
         this._suite.addTest(new MatlabForestModelTestCase(context, 8));
+        this._suite.addTest(new FlatForestTestCase(context, 8));
+        this._suite.addTest(new FeatureStoreTestCase(context, 8));
+        this._suite.addTest(new SignalWindowTestCase(context, 8));
+        this._suite.addTest(new SpectralEngineTestCase(context, 8));
+        this._suite.addTest(new DBSCANTestCase(context, 8));
         this._suite.addTest(new PurpleRobotHealthProbeTestCase(context, 8));
+        this._suite.addTest(new PendingFileReaderTestCase(context, 8));
+        this._suite.addTest(new PendingJournalTestCase(context, 8));
+        this._suite.addTest(new IntentDispatcherTestCase(context, 8));
+        this._suite.addTest(new ProbeReadingBusTestCase(context, 8));
+        this._suite.addTest(new CompressedUploadTestCase(context, 8));
+        this._suite.addTest(new BinaryRecordTestCase(context, 8));
+        this._suite.addTest(new UploadClientTestCase(context, 8));
+        this._suite.addTest(new UploadControllerTestCase(context, 8));
+        this._suite.addTest(new ProbeValuesWriterTestCase(context, 8));
+        this._suite.addTest(new ProbeValuesRetentionTestCase(context, 8));
+        this._suite.addTest(new ProbeValuesDownsamplerTestCase(context, 8));
         this._suite.addTest(new HalfHourDateTriggerTestCase(context, 9));
         this._suite.addTest(new RandomDateTriggerTestCase(context, 10));
+        this._suite.addTest(new RecurrenceIndexTestCase(context, 10));
+        this._suite.addTest(new TriggerSchedulerTestCase(context, 10));
+        this._suite.addTest(new ProbePredicateTestCase(context, 10));
     }
 
     public List<TestCase> getTestCases(final Context context)
@@ -0,0 +1,124 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Locale;
+
+import jscheme.JScheme;
+import jscheme.SchemeException;
+import jsint.Evaluator;
+import jsint.Symbol;
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.scripting.JSONHelper;
+import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeEngine;
+import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeInterpreterPool;
+
+public class SchemeInterpreterPoolTestCase extends RobotTestCase
+{
+    private static final int COLD_ITERATIONS = 10;
+    private static final int WARM_ITERATIONS = 200;
+
+    private static final String SCRIPT = "(let ((values '(1 2 3 4 5 6 7 8))) (> (/ (apply + values) (length values)) 4))";
+
+    public SchemeInterpreterPoolTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        this.broadcastUpdate("Cold Scheme evaluation...", 0);
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < SchemeInterpreterPoolTestCase.COLD_ITERATIONS; i++)
+        {
+            Evaluator eval = new Evaluator();
+            eval.getInteractionEnvironment().setValue(Symbol.intern("JSONHelper"), new JSONHelper());
+            JScheme scheme = new JScheme(eval);
+
+            try
+            {
+                scheme.load(new InputStreamReader(this._context.getAssets().open("scheme/pregexp.scm")));
+                scheme.load(new InputStreamReader(this._context.getAssets().open("scheme/json.scm")));
+                scheme.load(new InputStreamReader(this._context.getAssets().open("scheme/purple-robot.scm")));
+            }
+            catch (IOException e)
+            {
+                Assert.fail("SIP0");
+            }
+
+            Assert.assertEquals("SIP1", Boolean.TRUE, scheme.eval(SchemeInterpreterPoolTestCase.SCRIPT));
+        }
+
+        double cold = (System.nanoTime() - start) / (1000000.0 * SchemeInterpreterPoolTestCase.COLD_ITERATIONS);
+
+        this.broadcastUpdate("Pooled Scheme evaluation...", 0);
+
+        SchemeEngine engine = new SchemeEngine(this._context, null);
+
+        engine.evaluateSource(SchemeInterpreterPoolTestCase.SCRIPT);
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < SchemeInterpreterPoolTestCase.WARM_ITERATIONS; i++)
+        {
+            Assert.assertEquals("SIP2", Boolean.TRUE, engine.evaluateSource(SchemeInterpreterPoolTestCase.SCRIPT));
+        }
+
+        double warm = (System.nanoTime() - start) / (1000000.0 * SchemeInterpreterPoolTestCase.WARM_ITERATIONS);
+
+        // Top-level definitions must not survive the evaluation that made them...
+
+        Assert.assertEquals("SIP3", Integer.valueOf(42), engine.evaluateSource("(begin (define pool-leak-test 42) pool-leak-test)"));
+
+        try
+        {
+            engine.evaluateSource("pool-leak-test");
+
+            Assert.fail("SIP4");
+        }
+        catch (SchemeException e)
+        {
+            // Expected: unbound variable.
+        }
+
+        // Redefining a library binding must retire the interpreter...
+
+        SchemeInterpreterPool pool = SchemeInterpreterPool.getInstance(this._context);
+
+        long discarded = pool.statistics().getLong(SchemeInterpreterPool.DISCARDED_COUNT);
+
+        engine.evaluateSource("(define pregexp #f)");
+
+        Bundle stats = pool.statistics();
+
+        Assert.assertTrue("SIP5", stats.getLong(SchemeInterpreterPool.DISCARDED_COUNT) > discarded);
+        Assert.assertNotNull("SIP6", engine.evaluateSource("(pregexp \"a+\")"));
+
+        String summary = String.format(Locale.ENGLISH, "Cold: %.2f ms/run, pooled: %.3f ms/run, created: %d, reused: %d", cold, warm, stats.getLong(SchemeInterpreterPool.CREATED_COUNT), stats.getLong(SchemeInterpreterPool.REUSED_COUNT));
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_scheme_pool_test);
+    }
+}
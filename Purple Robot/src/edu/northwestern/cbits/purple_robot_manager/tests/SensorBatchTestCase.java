@@ -0,0 +1,106 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.SensorBatch;
+
+public class SensorBatchTestCase extends RobotTestCase
+{
+    private static final String[] FIELD_NAMES = { "X", "Y", "Z" };
+    private static final int CAPACITY = 16;
+
+    public SensorBatchTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        this.broadcastUpdate("Sealing full batch...", 0);
+
+        SensorBatch.Builder builder = new SensorBatch.Builder(SensorBatchTestCase.FIELD_NAMES, SensorBatchTestCase.CAPACITY);
+
+        SensorBatchTestCase.fill(builder, SensorBatchTestCase.CAPACITY, 0);
+
+        Assert.assertTrue("SB0", builder.isFull());
+
+        SensorBatch full = builder.seal();
+
+        Assert.assertEquals("SB1", 0, builder.size());
+        Assert.assertEquals("SB2", SensorBatchTestCase.CAPACITY, full.size());
+
+        // Keep writing to the builder: the published columns must not move...
+
+        SensorBatchTestCase.fill(builder, SensorBatchTestCase.CAPACITY, 1000);
+
+        SensorBatchTestCase.check("SB3", full, SensorBatchTestCase.CAPACITY, 0);
+
+        this.broadcastUpdate("Sealing partial batch...", 0);
+
+        builder.clear();
+
+        int partialSize = SensorBatchTestCase.CAPACITY / 2;
+
+        SensorBatchTestCase.fill(builder, partialSize, 2000);
+
+        SensorBatch partial = builder.seal();
+
+        Assert.assertEquals("SB4", 0, builder.size());
+        Assert.assertEquals("SB5", partialSize, partial.size());
+
+        SensorBatchTestCase.fill(builder, SensorBatchTestCase.CAPACITY, 3000);
+
+        SensorBatchTestCase.check("SB6", partial, partialSize, 2000);
+        SensorBatchTestCase.check("SB7", full, SensorBatchTestCase.CAPACITY, 0);
+
+        this.broadcastUpdate("Published batches unchanged.", 1000);
+    }
+
+    private static void fill(SensorBatch.Builder builder, int count, int offset)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            float[] values = new float[SensorBatchTestCase.FIELD_NAMES.length];
+
+            for (int j = 0; j < values.length; j++)
+                values[j] = offset + i + (j / 10.0f);
+
+            builder.append(offset + i, (offset + i) * 1000.0, (offset + i) % 4, values);
+        }
+    }
+
+    private static void check(String code, SensorBatch batch, int count, int offset)
+    {
+        Assert.assertEquals(code, count, batch.size());
+        Assert.assertEquals(code, SensorBatchTestCase.FIELD_NAMES.length, batch.fieldCount());
+
+        for (int i = 0; i < count; i++)
+        {
+            Assert.assertEquals(code, (double) (offset + i), batch.eventTimestamp(i), 0.0);
+            Assert.assertEquals(code, (offset + i) * 1000.0, batch.sensorTimestamp(i), 0.0);
+            Assert.assertEquals(code, (offset + i) % 4, batch.accuracy(i));
+
+            for (int j = 0; j < SensorBatchTestCase.FIELD_NAMES.length; j++)
+                Assert.assertEquals(code, offset + i + (j / 10.0f), batch.value(j, i), 0.0f);
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_sensor_batch_test);
+    }
+}
@@ -0,0 +1,313 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.math3.analysis.interpolation.SplineInterpolator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.probes.features.p20.Clip;
+import edu.northwestern.cbits.purple_robot_manager.probes.features.p20.Clip.ClipException;
+import edu.northwestern.cbits.purple_robot_manager.probes.features.p20.FeatureExtractor;
+import edu.northwestern.cbits.purple_robot_manager.probes.features.p20.FeatureExtractor.Feature;
+import edu.northwestern.cbits.purple_robot_manager.probes.features.p20.SignalWindow;
+
+public class SignalWindowTestCase extends RobotTestCase
+{
+    private static final long WINDOW_SIZE = 60000000000L;
+    private static final long SAMPLE_INTERVAL = 10000000L;
+    private static final long BENCHMARK_MS = 2000;
+    private static final double TOLERANCE = 1e-6;
+
+    private static final double[] BIN_EDGES =
+    { -3, -2, -1, 0, 1, 2, 3 };
+
+    public SignalWindowTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        Random random = new Random(20140420);
+
+        Clip clip = new Clip(3, SignalWindowTestCase.WINDOW_SIZE, Clip.ACCELEROMETER);
+
+        long timestamp = 1000000000000L;
+        double[] values = new double[3];
+
+        this.broadcastUpdate("Filling 60 second window...", 0);
+
+        try
+        {
+            // Two windows' worth, so the first one has been evicted...
+
+            for (long i = 0; i < 2 * SignalWindowTestCase.WINDOW_SIZE / SignalWindowTestCase.SAMPLE_INTERVAL; i++)
+            {
+                timestamp += SignalWindowTestCase.SAMPLE_INTERVAL + random.nextInt(2000000) - 1000000;
+
+                SignalWindowTestCase.sample(random, timestamp, values);
+
+                clip.appendValues(values, timestamp);
+            }
+
+            // Repeated timestamps are dropped...
+
+            int size = clip.size();
+
+            clip.appendValues(values, timestamp);
+
+            Assert.assertEquals("SW0", size, clip.size());
+        }
+        catch (ClipException e)
+        {
+            Assert.fail("SW1");
+        }
+
+        SignalWindow window = clip.getWindow();
+
+        int expected = (int) (SignalWindowTestCase.WINDOW_SIZE / (1000000000L / FeatureExtractor.SAMPLE_FREQUENCY));
+
+        Assert.assertTrue("SW2", Math.abs(window.size() - expected) <= 2);
+
+        double[] moments = new double[4];
+        double[] batch = new double[4];
+        int[] histogram = new int[SignalWindowTestCase.BIN_EDGES.length - 1];
+
+        double[][] signal = new double[3][];
+
+        for (int i = 0; i < 3; i++)
+        {
+            signal[i] = window.values(i);
+
+            window.moments(i, moments);
+            SignalWindowTestCase.batchMoments(signal[i], batch);
+
+            for (int j = 0; j < 4; j++)
+                Assert.assertEquals("SW3", batch[j], moments[j], SignalWindowTestCase.TOLERANCE);
+
+            double[] diff = new double[signal[i].length - 1];
+
+            for (int j = 0; j < diff.length; j++)
+                diff[j] = signal[i][j + 1] - signal[i][j];
+
+            window.diffMoments(i, moments);
+            SignalWindowTestCase.batchMoments(diff, batch);
+
+            for (int j = 0; j < 4; j++)
+                Assert.assertEquals("SW4", batch[j], moments[j], SignalWindowTestCase.TOLERANCE);
+
+            double max = signal[i][0];
+            double min = signal[i][0];
+            double square = 0;
+
+            for (double value : signal[i])
+            {
+                max = Math.max(max, value);
+                min = Math.min(min, value);
+                square += value * value;
+            }
+
+            Assert.assertEquals("SW5", max, window.max(i), 0.0);
+            Assert.assertEquals("SW6", min, window.min(i), 0.0);
+            Assert.assertEquals("SW7", square / signal[i].length, window.meanSquare(i), SignalWindowTestCase.TOLERANCE);
+
+            SignalWindowTestCase.batchMoments(signal[i], batch);
+
+            int[] counts = new int[histogram.length];
+
+            for (double value : signal[i])
+            {
+                int bin = (int) ((((value - batch[0]) / batch[1]) - SignalWindowTestCase.BIN_EDGES[0]) / (SignalWindowTestCase.BIN_EDGES[1] - SignalWindowTestCase.BIN_EDGES[0]));
+
+                if (bin >= 0 && bin < counts.length)
+                    counts[bin] += 1;
+            }
+
+            window.zScoreHistogram(i, batch[0], batch[1], SignalWindowTestCase.BIN_EDGES, histogram);
+
+            Assert.assertTrue("SW8", Arrays.equals(counts, histogram));
+        }
+
+        double[] cross = new double[3];
+        double[] normCross = new double[3];
+
+        for (int j = 0; j < signal[0].length; j++)
+        {
+            double x = signal[0][j];
+            double y = signal[1][j];
+            double z = signal[2][j];
+
+            double magnitude = (x * x) + (y * y) + (z * z);
+
+            cross[0] += x * y / signal[0].length;
+            cross[1] += y * z / signal[0].length;
+            cross[2] += z * x / signal[0].length;
+
+            normCross[0] += x * y / magnitude / signal[0].length;
+            normCross[1] += y * z / magnitude / signal[0].length;
+            normCross[2] += z * x / magnitude / signal[0].length;
+        }
+
+        double[] products = new double[3];
+
+        window.innerProducts(products);
+
+        for (int i = 0; i < 3; i++)
+            Assert.assertEquals("SW9", cross[i], products[i], SignalWindowTestCase.TOLERANCE);
+
+        window.normInnerProducts(products);
+
+        for (int i = 0; i < 3; i++)
+            Assert.assertEquals("SW10", normCross[i], products[i], SignalWindowTestCase.TOLERANCE);
+
+        this.broadcastUpdate("Benchmarking batch extraction...", 0);
+
+        // Previous implementation: copy the clip, spline the whole window and
+        // compute the moments from scratch...
+
+        long batchCount = 0;
+        long start = System.currentTimeMillis();
+        long elapsed = 0;
+
+        while ((elapsed = System.currentTimeMillis() - start) < SignalWindowTestCase.BENCHMARK_MS)
+        {
+            List<double[]> raw = clip.getValues();
+            List<Long> timestamps = clip.getTimestamps();
+
+            double[] times = new double[timestamps.size()];
+
+            for (int j = 0; j < times.length; j++)
+                times[j] = timestamps.get(j) - timestamps.get(0);
+
+            int samples = (int) Math.floor(times[times.length - 1] / (1e9 / FeatureExtractor.SAMPLE_FREQUENCY));
+
+            for (int i = 0; i < 3; i++)
+            {
+                double[] axis = new double[times.length];
+
+                for (int j = 0; j < axis.length; j++)
+                    axis[j] = raw.get(j)[i];
+
+                PolynomialSplineFunction function = new SplineInterpolator().interpolate(times, axis);
+
+                double[] resampled = new double[samples];
+
+                for (int j = 0; j < samples; j++)
+                    resampled[j] = function.value(times[times.length - 1] - (j * (1e9 / FeatureExtractor.SAMPLE_FREQUENCY)));
+
+                SignalWindowTestCase.batchMoments(resampled, batch);
+            }
+
+            batchCount += 1;
+        }
+
+        double batchRate = (batchCount * 1000.0) / elapsed;
+
+        this.broadcastUpdate("Benchmarking incremental extraction...", 0);
+
+        FeatureExtractor extractor = new FeatureExtractor(SignalWindowTestCase.WINDOW_SIZE, Arrays.asList(Feature.values()), 3);
+
+        long incrementalCount = 0;
+        start = System.currentTimeMillis();
+
+        while ((elapsed = System.currentTimeMillis() - start) < SignalWindowTestCase.BENCHMARK_MS)
+        {
+            try
+            {
+                // One raw sample per extraction keeps the window sliding...
+
+                timestamp += SignalWindowTestCase.SAMPLE_INTERVAL;
+
+                SignalWindowTestCase.sample(random, timestamp, values);
+
+                synchronized (clip)
+                {
+                    clip.appendValues(values, timestamp);
+
+                    extractor.extractFeatures(clip);
+                }
+            }
+            catch (ClipException e)
+            {
+                Assert.fail("SW11");
+            }
+
+            incrementalCount += 1;
+        }
+
+        double incrementalRate = (incrementalCount * 1000.0) / elapsed;
+
+        Assert.assertTrue("SW12", incrementalRate > batchRate);
+
+        String summary = String.format(Locale.ENGLISH, "60 s window - incremental: %.0f extractions/s, batch: %.1f extractions/s", incrementalRate, batchRate);
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    private static void sample(Random random, long timestamp, double[] values)
+    {
+        double seconds = timestamp / 1e9;
+
+        values[0] = Math.sin(seconds * 2 * Math.PI * 1.5) + (random.nextGaussian() * 0.1);
+        values[1] = (0.5 * Math.cos(seconds * 2 * Math.PI * 0.7)) + (random.nextGaussian() * 0.1);
+        values[2] = 9.81 + (0.2 * Math.sin(seconds * 2 * Math.PI * 3.1)) + (random.nextGaussian() * 0.05);
+    }
+
+    private static void batchMoments(double[] values, double[] out)
+    {
+        int n = values.length;
+
+        double mean = 0;
+
+        for (double value : values)
+            mean += value / n;
+
+        double m2 = 0;
+        double m3 = 0;
+        double m4 = 0;
+
+        for (double value : values)
+        {
+            double d = value - mean;
+
+            m2 += d * d;
+            m3 += d * d * d;
+            m4 += d * d * d * d;
+        }
+
+        double std = Math.sqrt(m2 / (n - 1));
+
+        m2 /= n;
+        m3 /= n;
+        m4 /= n;
+
+        out[0] = mean;
+        out[1] = std;
+        out[2] = m3 / (std * std * std);
+        out[3] = (m4 / (m2 * m2)) - 3;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_signal_window_test);
+    }
+}
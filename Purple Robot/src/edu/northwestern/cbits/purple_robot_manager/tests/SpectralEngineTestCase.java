@@ -0,0 +1,170 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.util.SpectralEngine;
+
+public class SpectralEngineTestCase extends RobotTestCase
+{
+    private static final int CAPACITY = 32768;
+    private static final int WARMUP_ITERATIONS = 50;
+    private static final long BENCHMARK_MS = 1000;
+
+    private static final int[] BENCHMARK_SIZES =
+    { 4096, 32768 };
+
+    public SpectralEngineTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        Random random = new Random(20140512);
+
+        SpectralEngine engine = new SpectralEngine(SpectralEngineTestCase.CAPACITY);
+        FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
+
+        Assert.assertEquals("SE0", 1, SpectralEngine.nextPowerOfTwo(1));
+        Assert.assertEquals("SE1", 4096, SpectralEngine.nextPowerOfTwo(4096));
+        Assert.assertEquals("SE2", 4096, SpectralEngine.nextPowerOfTwo(2049));
+
+        try
+        {
+            engine.transform(new double[100], 100);
+
+            Assert.fail("SE3");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected - not a power of two...
+        }
+
+        this.broadcastUpdate("Comparing with commons-math...", 0);
+
+        for (int length = 1; length <= SpectralEngineTestCase.CAPACITY; length *= 2)
+        {
+            double[] values = new double[length];
+
+            for (int i = 0; i < length; i++)
+                values[i] = random.nextGaussian();
+
+            Complex[] expected = fft.transform(values, TransformType.FORWARD);
+
+            engine.transform(values, length);
+
+            Assert.assertEquals("SE4", (length / 2) + 1, engine.bins());
+
+            // Rounding grows with the length and the magnitude of the bins...
+
+            double tolerance = 1e-12 * length * Math.sqrt(length);
+
+            for (int i = 0; i < engine.bins(); i++)
+            {
+                Assert.assertEquals("SE5", expected[i].getReal(), engine.real(i), tolerance);
+                Assert.assertEquals("SE6", expected[i].getImaginary(), engine.imaginary(i), tolerance);
+            }
+        }
+
+        // 50 Hz tone sampled at 1 kHz with some noise...
+
+        double[] tone = new double[4096];
+
+        for (int i = 0; i < tone.length; i++)
+            tone[i] = Math.sin((2 * Math.PI * 50 * i) / 1000.0) + (random.nextGaussian() * 0.1);
+
+        engine.transform(tone, tone.length);
+
+        int peak = engine.peak(0, tone.length / 2);
+
+        Assert.assertEquals("SE7", 50.0, engine.frequency(peak, 1000.0), 1000.0 / tone.length);
+
+        double band = engine.bandPower(1000.0, 45, 55);
+        double total = engine.bandPower(1000.0, 0, 500);
+
+        Assert.assertTrue("SE8", band > total * 0.9);
+
+        engine.hann(tone, tone.length);
+
+        Assert.assertEquals("SE9", 0.0, tone[0], 0.0);
+
+        this.broadcastUpdate("Benchmarking transforms...", 0);
+
+        StringBuffer summary = new StringBuffer();
+
+        for (int length : SpectralEngineTestCase.BENCHMARK_SIZES)
+        {
+            double[] values = new double[length];
+
+            for (int i = 0; i < length; i++)
+                values[i] = random.nextGaussian();
+
+            for (int i = 0; i < SpectralEngineTestCase.WARMUP_ITERATIONS; i++)
+            {
+                engine.transform(values, length);
+                fft.transform(values, TransformType.FORWARD);
+            }
+
+            long engineCount = 0;
+            long start = System.currentTimeMillis();
+            long elapsed = 0;
+
+            while ((elapsed = System.currentTimeMillis() - start) < SpectralEngineTestCase.BENCHMARK_MS)
+            {
+                engine.transform(values, length);
+
+                engineCount += 1;
+            }
+
+            double engineRate = (engineCount * 1000.0) / elapsed;
+
+            long commonsCount = 0;
+            start = System.currentTimeMillis();
+
+            while ((elapsed = System.currentTimeMillis() - start) < SpectralEngineTestCase.BENCHMARK_MS)
+            {
+                fft.transform(values, TransformType.FORWARD);
+
+                commonsCount += 1;
+            }
+
+            double commonsRate = (commonsCount * 1000.0) / elapsed;
+
+            Assert.assertTrue("SE10", engineRate > commonsRate);
+
+            if (summary.length() > 0)
+                summary.append(", ");
+
+            summary.append(String.format(Locale.ENGLISH, "%d points - engine: %.0f/s, commons-math: %.0f/s", length, engineRate, commonsRate));
+        }
+
+        this.broadcastUpdate(summary.toString(), 5000);
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_spectral_engine_test);
+    }
+}
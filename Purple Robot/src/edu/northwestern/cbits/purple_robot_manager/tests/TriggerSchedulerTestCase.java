@@ -0,0 +1,110 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.triggers.DateTrigger;
+import edu.northwestern.cbits.purple_robot_manager.triggers.Trigger;
+import edu.northwestern.cbits.purple_robot_manager.triggers.TriggerScheduler;
+
+public class TriggerSchedulerTestCase extends RobotTestCase
+{
+    public TriggerSchedulerTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        long now = System.currentTimeMillis();
+        now = now - (now % 60000);
+
+        DateTrigger later = this.trigger("scheduler-test-later", now + (10 * 60000), now + (20 * 60000));
+        DateTrigger sooner = this.trigger("scheduler-test-sooner", now + (2 * 60000), now + (3 * 60000));
+
+        this.broadcastUpdate("Computing trigger deadlines...");
+
+        later.reset(this._context);
+        sooner.reset(this._context);
+
+        Assert.assertEquals("TST0", now + (10 * 60000), later.nextFireTime(this._context, now));
+        Assert.assertEquals("TST1", now + (2 * 60000), sooner.nextFireTime(this._context, now));
+
+        // Inside a period that has not fired yet, the trigger is due right away...
+
+        long inside = now + (2 * 60000) + 30000;
+
+        Assert.assertEquals("TST2", inside, sooner.nextFireTime(this._context, inside));
+
+        TriggerScheduler scheduler = new TriggerScheduler();
+
+        ArrayList<Trigger> triggers = new ArrayList<Trigger>();
+        triggers.add(later);
+        triggers.add(sooner);
+
+        ArrayList<Long> deadlines = new ArrayList<Long>();
+        deadlines.add(Long.valueOf(later.nextFireTime(this._context, now)));
+        deadlines.add(Long.valueOf(sooner.nextFireTime(this._context, now)));
+
+        scheduler.reset(triggers, deadlines);
+
+        Assert.assertEquals("TST3", 0, scheduler.due(now).size());
+
+        List<Trigger> due = scheduler.due(now + (5 * 60000));
+
+        Assert.assertEquals("TST4", 1, due.size());
+        Assert.assertEquals("TST5", sooner, due.get(0));
+
+        scheduler.recordWakeup(now, 25);
+        scheduler.recordWakeup(now + 1000, 15);
+
+        Bundle stats = scheduler.statistics();
+
+        Assert.assertEquals("TST6", 1, stats.getInt(TriggerScheduler.SCHEDULED_COUNT));
+        Assert.assertEquals("TST7", now + (10 * 60000), stats.getLong(TriggerScheduler.NEXT_DEADLINE));
+        Assert.assertEquals("TST8", 2, stats.getInt(TriggerScheduler.WAKEUPS_LAST_HOUR));
+        Assert.assertEquals("TST9", 40, stats.getLong(TriggerScheduler.WAKE_LOCK_MS_LAST_HOUR));
+
+        this.broadcastUpdate("Trigger deadlines verified.", 2000);
+    }
+
+    private DateTrigger trigger(String identifier, long start, long end)
+    {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd'T'HHmmss", Locale.getDefault());
+
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put(Trigger.NAME, identifier);
+        map.put(Trigger.IDENTIFIER, identifier);
+        map.put(Trigger.ACTION, "PurpleRobot.testLog('" + identifier + ": Fired!');");
+        map.put(DateTrigger.DATETIME_START, sdf.format(new Date(start)));
+        map.put(DateTrigger.DATETIME_END, sdf.format(new Date(end)));
+
+        return new DateTrigger(this._context, map);
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_trigger_scheduler_test);
+    }
+}
@@ -0,0 +1,369 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.DefaultHttpResponseFactory;
+import org.apache.http.impl.DefaultHttpServerConnection;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.protocol.HttpRequestHandlerRegistry;
+import org.apache.http.protocol.HttpService;
+import org.apache.http.protocol.ResponseConnControl;
+import org.apache.http.protocol.ResponseContent;
+import org.apache.http.protocol.ResponseDate;
+import org.apache.http.util.EntityUtils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadClient;
+
+public class UploadClientTestCase extends RobotTestCase
+{
+    private static final int BATCHES = 40;
+    private static final int BATCH_SIZE = 256 * 1024;
+    private static final long SERVER_DELAY = 25;
+
+    private static final String BATCH_HEADER = "X-Batch";
+
+    private final AtomicInteger _connections = new AtomicInteger(0);
+    private ServerSocket _serverSocket = null;
+
+    public UploadClientTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+        int inFlight = UploadClient.inFlight(prefs);
+
+        byte[] batch = new byte[UploadClientTestCase.BATCH_SIZE];
+
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = (byte) ('a' + (i % 26));
+
+        try
+        {
+            this.startServer();
+
+            String uri = "http://127.0.0.1:" + this._serverSocket.getLocalPort() + "/";
+
+            this.broadcastUpdate("Uploading with a new client per batch...", 0);
+
+            int before = this._connections.get();
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < UploadClientTestCase.BATCHES; i++)
+            {
+                DefaultHttpClient client = UploadClientTestCase.singleClient();
+
+                try
+                {
+                    Assert.assertEquals("UC0", i, UploadClientTestCase.post(client, uri, batch, i));
+                }
+                finally
+                {
+                    client.getConnectionManager().shutdown();
+                }
+            }
+
+            long singleElapsed = Math.max(1, System.currentTimeMillis() - start);
+            int singleConnections = this._connections.get() - before;
+
+            this.broadcastUpdate("Uploading with the shared client...", 0);
+
+            final HttpClient shared = UploadClient.getClient(this._context);
+
+            // Warm the pool so both runs pay for the same number of handshakes
+            // as they would in a long-running upload session...
+
+            UploadClientTestCase.post(shared, uri, batch, -1);
+
+            before = this._connections.get();
+            start = System.currentTimeMillis();
+
+            ExecutorService executor = Executors.newFixedThreadPool(inFlight);
+
+            LinkedList<Future<Integer>> pending = new LinkedList<Future<Integer>>();
+
+            try
+            {
+                for (int i = 0; i < UploadClientTestCase.BATCHES || pending.size() > 0;)
+                {
+                    while (i < UploadClientTestCase.BATCHES && pending.size() < inFlight)
+                    {
+                        final String target = uri;
+                        final byte[] body = batch;
+                        final int index = i;
+
+                        pending.add(executor.submit(new Callable<Integer>()
+                        {
+                            public Integer call() throws Exception
+                            {
+                                return Integer.valueOf(UploadClientTestCase.post(shared, target, body, index));
+                            }
+                        }));
+
+                        i += 1;
+                    }
+
+                    int expected = i - pending.size();
+
+                    Assert.assertEquals("UC1", expected, pending.removeFirst().get().intValue());
+                }
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+
+            long sharedElapsed = Math.max(1, System.currentTimeMillis() - start);
+            int sharedConnections = this._connections.get() - before;
+
+            Assert.assertEquals("UC2", UploadClientTestCase.BATCHES, singleConnections);
+            Assert.assertTrue("UC3", sharedConnections < inFlight);
+
+            double singleRate = (UploadClientTestCase.BATCHES * 1000.0) / singleElapsed;
+            double sharedRate = (UploadClientTestCase.BATCHES * 1000.0) / sharedElapsed;
+
+            if (inFlight > 1)
+                Assert.assertTrue("UC4", sharedRate > singleRate);
+
+            String summary = String.format(Locale.ENGLISH, "%d x %d KB batches: %.1f batches/s with a client per batch (%d connections), %.1f batches/s shared with %d in flight (%d new connections)", UploadClientTestCase.BATCHES, UploadClientTestCase.BATCH_SIZE / 1024, singleRate, singleConnections, sharedRate, inFlight, sharedConnections);
+
+            this.broadcastUpdate(summary, 5000);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            Assert.fail("UC100");
+        }
+        catch (InterruptedException e)
+        {
+            Assert.fail("UC101");
+        }
+        catch (ExecutionException e)
+        {
+            e.printStackTrace();
+            Assert.fail("UC102");
+        }
+        finally
+        {
+            this.stopServer();
+        }
+    }
+
+    /**
+     * Posts a batch and returns the batch index the server echoes back.
+     */
+
+    private static int post(HttpClient client, String uri, byte[] batch, int index) throws IOException
+    {
+        HttpPost post = new HttpPost(uri);
+        post.setHeader(UploadClientTestCase.BATCH_HEADER, "" + index);
+        post.setEntity(new ByteArrayEntity(batch));
+
+        HttpResponse response = client.execute(post);
+
+        String body = EntityUtils.toString(response.getEntity());
+
+        Assert.assertEquals("UC5", 200, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("UC6", "" + batch.length, body);
+
+        return Integer.parseInt(response.getFirstHeader(UploadClientTestCase.BATCH_HEADER).getValue());
+    }
+
+    /**
+     * Builds a client the way uploads did before the shared client: a single
+     * connection manager per batch, discarded afterwards.
+     */
+
+    private static DefaultHttpClient singleClient()
+    {
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, 180000);
+        HttpConnectionParams.setSoTimeout(params, 180000);
+
+        return new DefaultHttpClient(new SingleClientConnManager(params, registry), params);
+    }
+
+    /**
+     * Starts a stand-in for the upload server on a local port. It reads each
+     * batch, waits briefly to stand in for the server's processing time and
+     * replies with the batch size, keeping connections alive.
+     */
+
+    private void startServer() throws IOException
+    {
+        final UploadClientTestCase me = this;
+
+        this._serverSocket = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1"));
+
+        final HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setSoTimeout(params, 30000);
+
+        BasicHttpProcessor httpproc = new BasicHttpProcessor();
+        httpproc.addInterceptor(new ResponseDate());
+        httpproc.addInterceptor(new ResponseContent());
+        httpproc.addInterceptor(new ResponseConnControl());
+
+        HttpRequestHandlerRegistry registry = new HttpRequestHandlerRegistry();
+        registry.register("*", new HttpRequestHandler()
+        {
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException
+            {
+                int length = 0;
+
+                if (request instanceof HttpEntityEnclosingRequest)
+                    length = EntityUtils.toByteArray(((HttpEntityEnclosingRequest) request).getEntity()).length;
+
+                try
+                {
+                    Thread.sleep(UploadClientTestCase.SERVER_DELAY);
+                }
+                catch (InterruptedException e)
+                {
+                    e.printStackTrace();
+                }
+
+                response.setStatusCode(200);
+                response.setHeader(UploadClientTestCase.BATCH_HEADER, request.getFirstHeader(UploadClientTestCase.BATCH_HEADER).getValue());
+                response.setEntity(new StringEntity("" + length));
+            }
+        });
+
+        final HttpService service = new HttpService(httpproc, new DefaultConnectionReuseStrategy(), new DefaultHttpResponseFactory());
+        service.setParams(params);
+        service.setHandlerResolver(registry);
+
+        Thread acceptor = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                while (me._serverSocket.isClosed() == false)
+                {
+                    try
+                    {
+                        final Socket socket = me._serverSocket.accept();
+
+                        me._connections.incrementAndGet();
+
+                        Thread worker = new Thread(new Runnable()
+                        {
+                            public void run()
+                            {
+                                DefaultHttpServerConnection conn = new DefaultHttpServerConnection();
+
+                                try
+                                {
+                                    conn.bind(socket, params);
+
+                                    while (conn.isOpen())
+                                        service.handleRequest(conn, new BasicHttpContext());
+                                }
+                                catch (IOException e)
+                                {
+                                    // Client closed the connection...
+                                }
+                                catch (HttpException e)
+                                {
+                                    e.printStackTrace();
+                                }
+                                finally
+                                {
+                                    try
+                                    {
+                                        conn.shutdown();
+                                    }
+                                    catch (IOException e)
+                                    {
+                                        e.printStackTrace();
+                                    }
+                                }
+                            }
+                        });
+
+                        worker.setDaemon(true);
+                        worker.start();
+                    }
+                    catch (IOException e)
+                    {
+                        // Server socket closed...
+                    }
+                }
+            }
+        });
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void stopServer()
+    {
+        try
+        {
+            if (this._serverSocket != null)
+                this._serverSocket.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_upload_client_test);
+    }
+}
@@ -0,0 +1,605 @@
+package edu.northwestern.cbits.purple_robot_manager.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadController;
+
+/**
+ * Checks the upload controller's rules, then replays network traces through a
+ * simulated link to compare how long a backlog takes to drain under the
+ * controller and under the fixed doubling and halving HttpUploadPlugin used
+ * before it.
+ *
+ * A trace has one line per second: goodput in bytes per second (0 for no
+ * coverage), round trip time in milliseconds and an optional "R" when the
+ * network drops open connections, as on a cell handover. Recorded traces
+ * copied to upload_traces/*.txt in the app's external files folder are
+ * replayed along with the generated ones.
+ */
+
+public class UploadControllerTestCase extends RobotTestCase
+{
+    private static final long MIN_BATCH = 16384;
+    private static final long MAX_BATCH = 524288;
+    private static final long MAX_BACKOFF = 300000;
+
+    private static final long BACKLOG = 4 * 1024 * 1024;
+    private static final long HORIZON = 12 * 3600 * 1000;
+    private static final long STEP = 20;
+    private static final long SERVER_TIME = 50;
+    private static final long REATTACH_OUTAGE = 10000;
+
+    private static final int TRACE_SECONDS = 4 * 3600;
+
+    public UploadControllerTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        this.broadcastUpdate("Checking upload controller...", 0);
+
+        UploadController controller = new UploadController(UploadControllerTestCase.MIN_BATCH, UploadControllerTestCase.MAX_BATCH, 4, UploadControllerTestCase.MAX_BACKOFF);
+
+        Assert.assertEquals("UCT0", UploadControllerTestCase.MIN_BATCH, controller.batchSize());
+        Assert.assertEquals("UCT1", 1, controller.inFlight());
+        Assert.assertEquals("UCT2", 0, controller.retryDelay());
+
+        for (int i = 0; i < 10; i++)
+        {
+            long size = controller.batchSize();
+
+            controller.begin();
+            controller.success(size, 100 + (size * 1000 / 200000));
+        }
+
+        Assert.assertEquals("UCT3", UploadControllerTestCase.MAX_BATCH, controller.batchSize());
+        Assert.assertTrue("UCT4", controller.bandwidth() > 150000 && controller.bandwidth() <= 200000);
+
+        controller.begin();
+        controller.failure(UploadControllerTestCase.MAX_BATCH, 1000, false);
+
+        Assert.assertEquals("UCT5", UploadControllerTestCase.MAX_BATCH / 2, controller.batchSize());
+        Assert.assertEquals("UCT6", 1000, controller.retryDelay());
+
+        controller.begin();
+        controller.failure(UploadControllerTestCase.MAX_BATCH / 2, 180000, true);
+
+        Assert.assertEquals("UCT7", UploadControllerTestCase.MIN_BATCH, controller.batchSize());
+        Assert.assertEquals("UCT8", 2000, controller.retryDelay());
+
+        for (int i = 0; i < 30; i++)
+        {
+            controller.begin();
+            controller.failure(UploadControllerTestCase.MIN_BATCH, 1000, false);
+        }
+
+        Assert.assertEquals("UCT9", UploadControllerTestCase.MAX_BACKOFF, controller.retryDelay());
+
+        controller.begin();
+        controller.success(UploadControllerTestCase.MIN_BATCH, 1000);
+
+        Assert.assertEquals("UCT10", 0, controller.retryDelay());
+
+        // Batches dropped together are one loss...
+
+        UploadController shared = new UploadController(UploadControllerTestCase.MIN_BATCH, UploadControllerTestCase.MAX_BATCH, 4, UploadControllerTestCase.MAX_BACKOFF);
+
+        for (int i = 0; i < 4; i++)
+        {
+            shared.begin();
+            shared.success(shared.batchSize(), 100);
+        }
+
+        long before = shared.batchSize();
+
+        for (int i = 0; i < 3; i++)
+            shared.begin();
+
+        for (int i = 0; i < 3; i++)
+            shared.failure(before, 1000, false);
+
+        Assert.assertEquals("UCT11", before / 2, shared.batchSize());
+
+        shared.begin();
+        shared.unreachable();
+
+        Assert.assertEquals("UCT16", before / 2, shared.batchSize());
+        Assert.assertEquals("UCT17", 8000, shared.retryDelay());
+
+        this.broadcastUpdate("Replaying network traces...", 0);
+
+        ArrayList<Trace> traces = new ArrayList<Trace>();
+        traces.add(UploadControllerTestCase.generate("wifi", 1, true, 400000, 30, 0.0, 0, 0.0));
+        traces.add(UploadControllerTestCase.generate("lte", 2, false, 120000, 70, 0.005, 5, 0.002));
+        traces.add(UploadControllerTestCase.generate("flaky_3g", 3, false, 25000, 350, 0.03, 30, 0.01));
+
+        File folder = new File(this._context.getExternalFilesDir(null), "upload_traces");
+
+        File[] recorded = folder.listFiles();
+
+        if (recorded != null)
+        {
+            for (File f : recorded)
+            {
+                if (f.getName().endsWith(".txt"))
+                {
+                    try
+                    {
+                        traces.add(Trace.parse(f));
+                    }
+                    catch (IOException e)
+                    {
+                        Assert.fail("UCT100");
+                    }
+                }
+            }
+        }
+
+        StringBuilder summary = new StringBuilder();
+
+        for (Trace trace : traces)
+        {
+            long legacy = UploadControllerTestCase.simulate(trace, new LegacyPolicy(trace.wifi));
+            long single = UploadControllerTestCase.simulate(trace, new ControllerPolicy(1, 500));
+            long windowed = UploadControllerTestCase.simulate(trace, new ControllerPolicy(4, 0));
+
+            Assert.assertTrue("UCT12", single > 0);
+            Assert.assertTrue("UCT13", windowed > 0);
+
+            if (trace.name.equals("flaky_3g"))
+            {
+                Assert.assertTrue("UCT14", legacy < 0 || single < legacy);
+                Assert.assertTrue("UCT15", legacy < 0 || windowed < legacy);
+            }
+
+            String line = String.format(Locale.ENGLISH, "%s: %d KB drained in %s before, %s with the controller, %s with up to 4 in flight", trace.name, UploadControllerTestCase.BACKLOG / 1024, UploadControllerTestCase.formatDuration(legacy), UploadControllerTestCase.formatDuration(single), UploadControllerTestCase.formatDuration(windowed));
+
+            if (summary.length() > 0)
+                summary.append("\n");
+
+            summary.append(line);
+        }
+
+        this.broadcastUpdate(summary.toString(), 5000);
+    }
+
+    private static String formatDuration(long duration)
+    {
+        if (duration < 0)
+            return "(not drained)";
+
+        return String.format(Locale.ENGLISH, "%.1f min", duration / 60000.0);
+    }
+
+    private static class Trace
+    {
+        private final String name;
+        private final boolean wifi;
+
+        private final double[] bandwidth;
+        private final long[] latency;
+        private final boolean[] reset;
+
+        private Trace(String name, boolean wifi, int seconds)
+        {
+            this.name = name;
+            this.wifi = wifi;
+
+            this.bandwidth = new double[seconds];
+            this.latency = new long[seconds];
+            this.reset = new boolean[seconds];
+        }
+
+        private static Trace parse(File file) throws IOException
+        {
+            ArrayList<String[]> lines = new ArrayList<String[]>();
+
+            BufferedReader in = new BufferedReader(new FileReader(file));
+
+            String line = null;
+
+            while ((line = in.readLine()) != null)
+            {
+                line = line.trim();
+
+                if (line.length() > 0 && line.startsWith("#") == false)
+                    lines.add(line.split("\\s+"));
+            }
+
+            in.close();
+
+            Trace trace = new Trace(file.getName(), false, Math.max(1, lines.size()));
+
+            for (int i = 0; i < lines.size(); i++)
+            {
+                String[] fields = lines.get(i);
+
+                trace.bandwidth[i] = Double.parseDouble(fields[0]);
+                trace.latency[i] = Long.parseLong(fields[1]);
+                trace.reset[i] = fields.length > 2 && "R".equals(fields[2]);
+            }
+
+            return trace;
+        }
+    }
+
+    /**
+     * Generates a trace whose goodput wanders around the given level, with
+     * coverage gaps of up to the given length and connection resets starting
+     * with the given chances per second.
+     */
+
+    private static Trace generate(String name, long seed, boolean wifi, double bandwidth, long latency, double outageChance, int maxOutage, double resetChance)
+    {
+        Random random = new Random(seed);
+
+        Trace trace = new Trace(name, wifi, UploadControllerTestCase.TRACE_SECONDS);
+
+        double level = bandwidth;
+        int outage = 0;
+
+        for (int i = 0; i < UploadControllerTestCase.TRACE_SECONDS; i++)
+        {
+            level = Math.max(bandwidth * 0.2, Math.min(bandwidth * 1.5, level * (0.9 + (random.nextDouble() * 0.2))));
+
+            if (outage == 0 && random.nextDouble() < outageChance)
+                outage = 1 + random.nextInt(maxOutage);
+
+            if (outage > 0)
+            {
+                trace.bandwidth[i] = 0;
+                outage -= 1;
+            }
+            else
+                trace.bandwidth[i] = level;
+
+            trace.latency[i] = latency + random.nextInt((int) latency / 2 + 1);
+            trace.reset[i] = random.nextDouble() < resetChance;
+        }
+
+        return trace;
+    }
+
+    private interface Policy
+    {
+        public long batchSize();
+
+        public int inFlight();
+
+        public long handshakes();
+
+        public long connectTimeout();
+
+        public void begin();
+
+        public long success(long bytes, long duration, long now);
+
+        public long failure(long bytes, long duration, boolean timedOut, boolean connected, long now);
+    }
+
+    /**
+     * HttpUploadPlugin before the controller: one batch at a time on a new
+     * connection (TCP and full TLS handshakes), sizes doubled on success and
+     * halved on failure between 16 KB and 256 KB (512 KB on Wi-Fi). Failures
+     * are retried after half a second until four in a row, after which the
+     * upload period - doubled with each failure, up to an hour - must pass.
+     * The failure count is reset when readings are saved, every ten seconds.
+     */
+
+    private static class LegacyPolicy implements Policy
+    {
+        private final long _maxSize;
+
+        private long _size = UploadControllerTestCase.MIN_BATCH;
+        private long _period = 300000;
+        private int _failCount = 0;
+        private long _lastReset = 0;
+
+        private LegacyPolicy(boolean wifi)
+        {
+            this._maxSize = wifi ? 524288 : 262144;
+        }
+
+        public long batchSize()
+        {
+            return this._size;
+        }
+
+        public int inFlight()
+        {
+            return 1;
+        }
+
+        public long handshakes()
+        {
+            return 3;
+        }
+
+        public long connectTimeout()
+        {
+            return 180000;
+        }
+
+        public void begin()
+        {
+
+        }
+
+        public long success(long bytes, long duration, long now)
+        {
+            this._size = Math.min(this._maxSize, this._size * 2);
+            this._period = Math.max(300000, this._period / 2);
+            this._failCount = 0;
+
+            return 500;
+        }
+
+        public long failure(long bytes, long duration, boolean timedOut, boolean connected, long now)
+        {
+            this._size = Math.max(UploadControllerTestCase.MIN_BATCH, this._size / 2);
+            this._period = Math.min(3600000, this._period * 2);
+
+            if (now - this._lastReset >= 10000)
+            {
+                this._failCount = 0;
+                this._lastReset = now;
+            }
+
+            this._failCount += 1;
+
+            if (this._failCount < 4)
+                return 500;
+
+            this._failCount = 0;
+
+            return this._period;
+        }
+    }
+
+    /**
+     * The upload controller on the shared upload client: kept-alive
+     * connections after the first, with resumed TLS sessions when
+     * reconnecting after a failure.
+     */
+
+    private static class ControllerPolicy implements Policy
+    {
+        private final UploadController _controller;
+        private final long _successDelay;
+
+        private boolean _connected = false;
+        private boolean _warm = false;
+
+        private ControllerPolicy(int maxInFlight, long successDelay)
+        {
+            this._controller = new UploadController(UploadControllerTestCase.MIN_BATCH, UploadControllerTestCase.MAX_BATCH, maxInFlight, UploadControllerTestCase.MAX_BACKOFF);
+            this._successDelay = successDelay;
+        }
+
+        public long batchSize()
+        {
+            return this._controller.batchSize();
+        }
+
+        public int inFlight()
+        {
+            return this._controller.inFlight();
+        }
+
+        public long handshakes()
+        {
+            if (this._warm)
+                return 0;
+            else if (this._connected)
+                return 2;
+
+            return 3;
+        }
+
+        public long connectTimeout()
+        {
+            return 30000;
+        }
+
+        public void begin()
+        {
+            this._controller.begin();
+        }
+
+        public long success(long bytes, long duration, long now)
+        {
+            this._controller.success(bytes, duration);
+
+            this._connected = true;
+            this._warm = true;
+
+            return this._successDelay;
+        }
+
+        public long failure(long bytes, long duration, boolean timedOut, boolean connected, long now)
+        {
+            if (connected)
+                this._controller.failure(bytes, duration, timedOut);
+            else
+                this._controller.unreachable();
+
+            this._warm = false;
+
+            return Math.max(500, this._controller.retryDelay());
+        }
+    }
+
+    private static class Request
+    {
+        private long size;
+        private long started;
+        private double handshake;
+        private double remaining;
+        private double response;
+        private long stalled;
+        private boolean unreachable;
+    }
+
+    /**
+     * Returns how long the simulated link took to deliver the backlog under
+     * the policy, or -1 if it was not delivered within the horizon. Each batch
+     * spends its handshakes, then its transfer (sharing the link with other
+     * batches in flight), then a round trip and the server's processing time.
+     *
+     * Batches started without coverage fail at once, as the host cannot be
+     * resolved. Batches already sent stall while coverage is lost, and fail
+     * once a timeout passes, the connection is reset, or coverage returns
+     * after a gap long enough for the device to re-attach to the network.
+     */
+
+    private static long simulate(Trace trace, Policy policy)
+    {
+        long unsent = UploadControllerTestCase.BACKLOG;
+        long delivered = 0;
+
+        long now = 0;
+        long nextStart = 0;
+
+        long outage = 0;
+
+        ArrayList<Request> active = new ArrayList<Request>();
+
+        while (delivered < UploadControllerTestCase.BACKLOG && now < UploadControllerTestCase.HORIZON)
+        {
+            int second = (int) ((now / 1000) % trace.bandwidth.length);
+
+            double bandwidth = trace.bandwidth[second];
+            long latency = trace.latency[second];
+
+            boolean reset = trace.reset[second] && now % 1000 == 0;
+
+            if (bandwidth > 0)
+            {
+                if (outage >= UploadControllerTestCase.REATTACH_OUTAGE)
+                    reset = true;
+
+                outage = 0;
+            }
+            else
+                outage += UploadControllerTestCase.STEP;
+
+            while (now >= nextStart && unsent > 0 && active.size() < policy.inFlight())
+            {
+                Request request = new Request();
+                request.size = Math.min(unsent, policy.batchSize());
+                request.started = now;
+                request.handshake = latency * policy.handshakes();
+                request.remaining = request.size;
+                request.response = latency + UploadControllerTestCase.SERVER_TIME;
+                request.unreachable = (bandwidth <= 0);
+
+                unsent -= request.size;
+
+                policy.begin();
+
+                active.add(request);
+            }
+
+            int transferring = 0;
+
+            for (Request request : active)
+            {
+                if (request.handshake <= 0 && request.remaining > 0)
+                    transferring += 1;
+            }
+
+            ArrayList<Request> finished = new ArrayList<Request>();
+
+            for (Request request : active)
+            {
+                boolean failed = reset || request.unreachable;
+                boolean timedOut = false;
+
+                if (failed == false && bandwidth <= 0)
+                {
+                    request.stalled += UploadControllerTestCase.STEP;
+
+                    long timeout = 180000;
+
+                    if (request.handshake > 0)
+                        timeout = policy.connectTimeout();
+
+                    if (request.stalled >= timeout)
+                    {
+                        failed = true;
+                        timedOut = true;
+                    }
+                }
+                else if (failed == false)
+                {
+                    request.stalled = 0;
+
+                    if (request.handshake > 0)
+                        request.handshake -= UploadControllerTestCase.STEP;
+                    else if (request.remaining > 0)
+                        request.remaining -= (bandwidth * UploadControllerTestCase.STEP) / (1000.0 * transferring);
+                    else
+                    {
+                        request.response -= UploadControllerTestCase.STEP;
+
+                        if (request.response <= 0)
+                        {
+                            delivered += request.size;
+
+                            nextStart = Math.max(nextStart, now + policy.success(request.size, now - request.started, now));
+
+                            finished.add(request);
+                        }
+                    }
+                }
+
+                if (failed)
+                {
+                    unsent += request.size;
+
+                    nextStart = Math.max(nextStart, now + policy.failure(request.size, now - request.started, timedOut, request.handshake <= 0, now));
+
+                    finished.add(request);
+                }
+            }
+
+            active.removeAll(finished);
+
+            now += UploadControllerTestCase.STEP;
+        }
+
+        if (delivered < UploadControllerTestCase.BACKLOG)
+            return -1;
+
+        return now;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_upload_controller_test);
+    }
+}
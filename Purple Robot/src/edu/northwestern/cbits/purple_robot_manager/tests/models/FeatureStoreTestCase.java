@@ -0,0 +1,92 @@
+package edu.northwestern.cbits.purple_robot_manager.tests.models;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.models.FeatureStore;
+import edu.northwestern.cbits.purple_robot_manager.tests.RobotTestCase;
+
+public class FeatureStoreTestCase extends RobotTestCase
+{
+    public FeatureStoreTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        FeatureStore store = new FeatureStore();
+
+        ArrayList<String> accelerometer = new ArrayList<String>();
+        accelerometer.add("accelerometerprobe_x");
+        accelerometer.add("accelerometerprobe_y");
+
+        ArrayList<String> battery = new ArrayList<String>();
+        battery.add("batteryprobe_level");
+
+        long first = store.nextVersion();
+
+        Assert.assertTrue("FS0", store.put("accelerometerprobe_x", Double.valueOf(0.5), first));
+        Assert.assertTrue("FS1", store.put("accelerometerprobe_y", Double.valueOf(-0.5), first));
+        Assert.assertTrue("FS2", store.put("batteryprobe_level", Integer.valueOf(80), first));
+
+        Assert.assertTrue("FS3", store.changedSince(accelerometer, 0));
+        Assert.assertFalse("FS4", store.changedSince(accelerometer, first));
+
+        long second = store.nextVersion();
+
+        // Same value - nothing changes...
+
+        Assert.assertFalse("FS5", store.put("batteryprobe_level", Integer.valueOf(80), second));
+        Assert.assertFalse("FS6", store.changedSince(battery, first));
+
+        Assert.assertTrue("FS7", store.put("accelerometerprobe_y", Double.valueOf(0.25), second));
+        Assert.assertTrue("FS8", store.changedSince(accelerometer, first));
+        Assert.assertFalse("FS9", store.changedSince(battery, first));
+        Assert.assertTrue("FS10", store.changedSince(null, first));
+        Assert.assertFalse("FS11", store.changedSince(null, second));
+
+        Map<String, Object> view = store.view();
+
+        Assert.assertEquals("FS12", 3, view.size());
+        Assert.assertEquals("FS13", Double.valueOf(0.25), view.get("accelerometerprobe_y"));
+
+        long third = store.nextVersion();
+
+        store.put("accelerometerprobe_y", Double.valueOf(0.75), third);
+
+        Assert.assertEquals("FS14", Double.valueOf(0.75), view.get("accelerometerprobe_y"));
+
+        try
+        {
+            view.put("accelerometerprobe_y", Double.valueOf(0.0));
+
+            Assert.fail("FS15");
+        }
+        catch (UnsupportedOperationException e)
+        {
+            // Expected - the view is read-only...
+        }
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_feature_store_test);
+    }
+}
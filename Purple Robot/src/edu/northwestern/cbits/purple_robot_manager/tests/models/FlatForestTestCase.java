@@ -0,0 +1,225 @@
+package edu.northwestern.cbits.purple_robot_manager.tests.models;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import android.content.Context;
+
+import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.BranchNode;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.FlatForest;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.LeafNode;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode;
+import edu.northwestern.cbits.purple_robot_manager.models.trees.TreeNode.TreeNodeException;
+import edu.northwestern.cbits.purple_robot_manager.tests.RobotTestCase;
+
+public class FlatForestTestCase extends RobotTestCase
+{
+    private static final int TREE_COUNT = 100;
+    private static final int TREE_DEPTH = 10;
+    private static final int FEATURE_COUNT = 24;
+    private static final int SAMPLE_COUNT = 500;
+    private static final long BENCHMARK_MS = 2000;
+
+    private static final String[] LABELS =
+    { "still", "walking", "running", "cycling", "vehicle" };
+
+    public FlatForestTestCase(Context context, int priority)
+    {
+        super(context, priority);
+    }
+
+    @Override
+    public void test()
+    {
+        if (this.isSelected(this._context) == false)
+            return;
+
+        Random random = new Random(20140301);
+
+        ArrayList<TreeNode> trees = new ArrayList<TreeNode>();
+
+        for (int i = 0; i < FlatForestTestCase.TREE_COUNT; i++)
+            trees.add(FlatForestTestCase.randomTree(random, FlatForestTestCase.TREE_DEPTH, "t" + i));
+
+        this.broadcastUpdate("Compiling forest...", 0);
+
+        FlatForest forest = null;
+
+        try
+        {
+            forest = new FlatForest(trees);
+        }
+        catch (TreeNodeException e)
+        {
+            Assert.fail("FF0");
+        }
+
+        Assert.assertEquals("FF1", FlatForestTestCase.TREE_COUNT, forest.size());
+        Assert.assertEquals("FF2", FlatForestTestCase.LABELS.length, forest.labelCount());
+
+        Map<String, Integer> features = forest.features();
+
+        HashMap<String, Integer> labels = new HashMap<String, Integer>();
+
+        for (int i = 0; i < forest.labelCount(); i++)
+            labels.put(forest.label(i), Integer.valueOf(i));
+
+        ArrayList<Map<String, Object>> snapshots = new ArrayList<Map<String, Object>>();
+        ArrayList<double[]> vectors = new ArrayList<double[]>();
+
+        for (int i = 0; i < FlatForestTestCase.SAMPLE_COUNT; i++)
+        {
+            HashMap<String, Object> snapshot = new HashMap<String, Object>();
+            double[] vector = new double[features.size()];
+
+            for (int j = 0; j < FlatForestTestCase.FEATURE_COUNT; j++)
+            {
+                String name = "x" + j;
+
+                // Leave some features out to exercise missing values...
+
+                if (random.nextInt(50) == 0)
+                {
+                    if (features.containsKey(name))
+                        vector[features.get(name).intValue()] = Double.NaN;
+                }
+                else
+                {
+                    double value = (random.nextDouble() * 2) - 1;
+
+                    snapshot.put(name, Double.valueOf(value));
+
+                    if (features.containsKey(name))
+                        vector[features.get(name).intValue()] = value;
+                }
+            }
+
+            snapshots.add(snapshot);
+            vectors.add(vector);
+        }
+
+        this.broadcastUpdate("Comparing flat and linked trees...", 0);
+
+        int[] votes = new int[forest.labelCount()];
+        int[] linkedVotes = new int[forest.labelCount()];
+
+        for (int i = 0; i < FlatForestTestCase.SAMPLE_COUNT; i++)
+        {
+            for (int j = 0; j < linkedVotes.length; j++)
+                linkedVotes[j] = 0;
+
+            for (TreeNode tree : trees)
+            {
+                try
+                {
+                    Object prediction = tree.fetchPrediction(snapshots.get(i)).get(LeafNode.PREDICTION);
+
+                    linkedVotes[labels.get(prediction).intValue()] += 1;
+                }
+                catch (TreeNodeException e)
+                {
+                    // No matching condition - tree abstains...
+                }
+            }
+
+            forest.vote(vectors.get(i), votes);
+
+            for (int j = 0; j < votes.length; j++)
+                Assert.assertEquals("FF3", linkedVotes[j], votes[j]);
+        }
+
+        this.broadcastUpdate("Benchmarking linked forest...", 0);
+
+        long linkedCount = 0;
+        long start = System.currentTimeMillis();
+        long elapsed = 0;
+
+        while ((elapsed = System.currentTimeMillis() - start) < FlatForestTestCase.BENCHMARK_MS)
+        {
+            Map<String, Object> snapshot = snapshots.get((int) (linkedCount % FlatForestTestCase.SAMPLE_COUNT));
+
+            for (TreeNode tree : trees)
+            {
+                try
+                {
+                    tree.fetchPrediction(snapshot);
+                }
+                catch (TreeNodeException e)
+                {
+
+                }
+            }
+
+            linkedCount += 1;
+        }
+
+        double linkedRate = (linkedCount * 1000.0) / elapsed;
+
+        this.broadcastUpdate("Benchmarking flat forest...", 0);
+
+        long flatCount = 0;
+        start = System.currentTimeMillis();
+
+        while ((elapsed = System.currentTimeMillis() - start) < FlatForestTestCase.BENCHMARK_MS)
+        {
+            forest.vote(vectors.get((int) (flatCount % FlatForestTestCase.SAMPLE_COUNT)), votes);
+
+            flatCount += 1;
+        }
+
+        double flatRate = (flatCount * 1000.0) / elapsed;
+
+        Assert.assertTrue("FF4", flatRate > linkedRate);
+
+        String summary = String.format(Locale.ENGLISH, "%d trees - flat: %.0f predictions/s, linked: %.0f predictions/s",
+                FlatForestTestCase.TREE_COUNT, flatRate, linkedRate);
+
+        this.broadcastUpdate(summary, 5000);
+    }
+
+    /**
+     * Builds a tree shaped like the ones produced by MatLabBinaryTreeParser.
+     */
+
+    private static TreeNode randomTree(Random random, int depth, String name)
+    {
+        if (depth == 0 || (depth < FlatForestTestCase.TREE_DEPTH - 2 && random.nextInt(4) == 0))
+        {
+            HashMap<String, Object> prediction = new HashMap<String, Object>();
+            prediction.put(LeafNode.ACCURACY, 1.0);
+            prediction.put(LeafNode.PREDICTION, FlatForestTestCase.LABELS[random.nextInt(FlatForestTestCase.LABELS.length)]);
+
+            return new LeafNode(name, prediction);
+        }
+
+        BranchNode branch = new BranchNode(name);
+
+        String feature = "x" + random.nextInt(FlatForestTestCase.FEATURE_COUNT);
+        Double value = Double.valueOf((random.nextDouble() * 2) - 1);
+
+        branch.addCondition(BranchNode.Operation.LESS_THAN, feature, value, BranchNode.Condition.DEFAULT_PRIORITY,
+                FlatForestTestCase.randomTree(random, depth - 1, name + "<"));
+        branch.addCondition(BranchNode.Operation.MORE_THAN_OR_EQUAL_TO, feature, value,
+                BranchNode.Condition.LOWEST_PRIORITY, FlatForestTestCase.randomTree(random, depth - 1, name + ">"));
+
+        return branch;
+    }
+
+    @Override
+    public int estimatedMinutes()
+    {
+        return 1;
+    }
+
+    @Override
+    public String name(Context context)
+    {
+        return context.getString(R.string.name_flat_forest_test);
+    }
+}
@@ -33,7 +33,6 @@ import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 
 import edu.emory.mathcs.backport.java.util.Collections;
-import edu.northwestern.cbits.purple_robot_manager.ManagerService;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
@@ -57,6 +56,9 @@ public class DateTrigger extends Trigger
     private static final String REPEATS = "repeats";
     private static final String FIRE_ON_BOOT = "fire_on_boot";
 
+    private static final long INDEX_HORIZON = 48 * 60 * 60 * 1000;
+    private static final long INDEX_SLACK = 60 * 1000;
+
     private static SecureRandom random = null;
 
     private boolean _random = false;
@@ -68,8 +70,10 @@ public class DateTrigger extends Trigger
     private boolean _fireOnBoot = false;
 
     private Calendar _calendar = null;
+    private RecurrenceIndex _index = null;
 
     private String _icalString = null;
+    private String _adjustedString = null;
 
     private long _lastFireCalcDate = 0;
     private final List<Date> _upcomingFireDates = new ArrayList<Date>();
@@ -178,59 +182,12 @@ public class DateTrigger extends Trigger
             if (this._calendar == null)
                 return;
 
-            ArrayList<Date> upcoming = new ArrayList<Date>();
-
-            long current = now;
-
-            long maxCount = 64;
-
-            long hour = 1000 * 60 * 60;
-
-            Date currentDate = new Date(now);
-
-            while (current < now + (hour * 48) && upcoming.size() < maxCount)
-            {
-                DateTime from = new DateTime(new Date(current));
-                DateTime to = new DateTime(new Date(current + hour));
-
-                try
-                {
-                    for (Object o : this._calendar.getComponents("VEVENT"))
-                    {
-                        Component c = (Component) o;
-
-                        Period period = new Period(from, to);
-
-                        PeriodList l = c.calculateRecurrenceSet(period);
-
-                        for (Object po : l)
-                        {
-                            if (po instanceof Period)
-                            {
-                                Period p = (Period) po;
-
-                                Date start = p.getRangeStart();
-
-                                if (start.after(currentDate))
-                                {
-                                    if (upcoming.contains(start) == false)
-                                        upcoming.add(start);
-                                }
-                            }
-                        }
-                    }
-                }
-                catch (NullPointerException e)
-                {
+            RecurrenceIndex index = this.index(context, now);
 
-                }
-                catch (IllegalArgumentException e)
-                {
-                    LogManager.getInstance(context).logException(e);
-                }
+            if (index == null)
+                return;
 
-                current += hour;
-            }
+            List<Date> upcoming = index.startsBetween(now, now + DateTrigger.INDEX_HORIZON, 64);
 
             try
             {
@@ -283,10 +240,17 @@ public class DateTrigger extends Trigger
 
         try
         {
-            StringReader sin = new StringReader(this.adjustCalendar(context, this._icalString));
+            String adjusted = this.adjustCalendar(context, this._icalString);
+
+            if (this._calendar != null && adjusted.equals(this._adjustedString))
+                return;
+
+            StringReader sin = new StringReader(adjusted);
             CalendarBuilder builder = new CalendarBuilder();
 
             this._calendar = builder.build(sin);
+            this._adjustedString = adjusted;
+            this._index = null;
         }
         catch (NullPointerException e)
         {
@@ -473,8 +437,6 @@ public class DateTrigger extends Trigger
 
             this.refreshCalendar(context);
 
-            ManagerService.resetTriggerNudgeDate();
-
             TriggerManager.getInstance(context).persistTriggers(context);
 
             return true;
@@ -507,59 +469,104 @@ public class DateTrigger extends Trigger
 
     public Period getPeriod(Context context, long timestamp)
     {
-        Date date = new Date(timestamp);
+        RecurrenceIndex index = this.index(context, timestamp);
 
-        PeriodList periodList = null;
+        if (index == null)
+            return null;
 
-        if (this._calendar != null && periodList == null)
-        {
-            try
-            {
-                Date fromDate = new Date(timestamp - 5000);
-                Date toDate = new Date(timestamp + (15 * 60 * 1000));
+        return index.find(timestamp);
+    }
 
-                DateTime from = new DateTime(fromDate);
-                DateTime to = new DateTime(toDate);
+    /**
+     * Returns the earliest time at or after from when the trigger needs to be
+     * checked: immediately (or on the next minute for random triggers) while
+     * inside a period it has not fired in yet, otherwise at the start of the
+     * next period. Returns the end of the expanded horizon when nothing starts
+     * before then, and -1 without a calendar.
+     */
 
-                Period period = new Period(from, to);
+    public long nextFireTime(Context context, long from)
+    {
+        if (this._calendar == null)
+            this.refreshCalendar(context);
 
-                for (Object o : this._calendar.getComponents("VEVENT"))
-                {
-                    Component c = (Component) o;
+        RecurrenceIndex index = this.index(context, from);
 
-                    PeriodList l = c.calculateRecurrenceSet(period);
+        if (index == null)
+            return -1;
 
-                    if (l != null && l.size() > 0)
-                        periodList = l;
-                }
-            }
-            catch (IllegalArgumentException e)
+        Period current = index.find(from);
+
+        long after = from - 1;
+
+        if (current != null)
+        {
+            long start = current.getStart().getTime();
+
+            after = Math.max(after, start);
+            long end = current.getEnd().getTime();
+
+            long lastFired = this.lastFireTime(context);
+
+            if (lastFired < start || lastFired > end)
             {
-                LogManager.getInstance(context).logException(e);
+                if (this._random == false)
+                    return from;
+
+                long minutes = (from - start + 59999) / 60000;
+                long next = start + (minutes * 60000);
+
+                if (next <= end)
+                    return next;
             }
         }
 
+        long next = index.nextStart(after);
+
+        if (next >= 0)
+            return next;
+
+        return index.horizonEnd();
+    }
+
+    /**
+     * Returns recurrences expanded over the horizon that includes the
+     * timestamp, expanding them again only when the timestamp falls outside
+     * the current horizon or the calendar changed. Indexes built for past
+     * timestamps are not kept.
+     */
+
+    private RecurrenceIndex index(Context context, long timestamp)
+    {
+        RecurrenceIndex index = this._index;
+
+        if (index != null && index.covers(timestamp))
+            return index;
+
+        Calendar calendar = this._calendar;
+
+        if (calendar == null)
+            return null;
+
         try
         {
-            for (Object po : periodList)
-            {
-                if (po instanceof Period)
-                {
-                    Period p = (Period) po;
-
-                    DateRange range = new DateRange(p.getStart(), p.getEnd());
+            index = new RecurrenceIndex(calendar, timestamp - DateTrigger.INDEX_SLACK, timestamp + DateTrigger.INDEX_HORIZON);
+        }
+        catch (IllegalArgumentException e)
+        {
+            LogManager.getInstance(context).logException(e);
 
-                    if (range.includes(date, DateRange.INCLUSIVE_START | DateRange.INCLUSIVE_END))
-                        return p;
-                }
-            }
+            return null;
         }
         catch (NullPointerException e)
         {
-
+            return null;
         }
 
-        return null;
+        if (timestamp >= System.currentTimeMillis() - DateTrigger.INDEX_SLACK && calendar == this._calendar)
+            this._index = index;
+
+        return index;
     }
 
     @Override
@@ -832,24 +839,30 @@ public class DateTrigger extends Trigger
 
     public List<Long> fireTimes(Context context, long start, long end)
     {
-        ArrayList<Long> times = new ArrayList<Long>();
+        ArrayList<Long> points = new ArrayList<Long>();
 
-        long offset = 0;
+        long cursor = start;
+        long last = start - 1;
 
-        while (start + offset <= end)
+        while (cursor <= end)
         {
-            Period p = this.getPeriod(context, start + offset);
+            RecurrenceIndex index = this.index(context, cursor);
 
-            if (p != null)
-            {
-                long fireTime = Long.valueOf(start + offset + 5000);
+            if (index == null)
+                break;
 
-                times.add(fireTime);
-            }
+            long until = Math.min(end, index.horizonEnd());
+
+            last = index.samplePoints(start, until, 60000, last, points);
 
-            offset += 60000;
+            cursor = until + 1;
         }
 
+        ArrayList<Long> times = new ArrayList<Long>();
+
+        for (Long point : points)
+            times.add(Long.valueOf(point.longValue() + 5000));
+
         return times;
     }
 
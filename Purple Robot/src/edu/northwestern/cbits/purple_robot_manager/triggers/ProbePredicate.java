@@ -0,0 +1,549 @@
+package edu.northwestern.cbits.purple_robot_manager.triggers;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import android.os.Bundle;
+
+/**
+ * Compiled form of the simple ProbeTrigger tests - comparisons between reading
+ * fields (extras.NAME or extras['NAME']) and literals, combined with &&, || and
+ * !. The predicate reads fields straight from the reading, so no script engine
+ * or JSON conversion is involved.
+ *
+ * compile() returns null for anything outside that subset, including tests
+ * whose result might not be a boolean in JavaScript. Those keep running as
+ * scripts.
+ */
+
+public abstract class ProbePredicate
+{
+    private static final String EXTRAS = "extras";
+
+    public abstract boolean evaluate(Object reading);
+
+    public static ProbePredicate compile(String test)
+    {
+        if (test == null)
+            return null;
+
+        try
+        {
+            Parser parser = new Parser(ProbePredicate.tokenize(test));
+
+            ProbePredicate predicate = parser.parseOr();
+
+            if (parser.atEnd())
+                return predicate;
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Not a simple test - fall through...
+        }
+
+        return null;
+    }
+
+    private static Object lookup(Object reading, String name)
+    {
+        if (reading instanceof Bundle)
+            return ((Bundle) reading).get(name);
+        else if (reading instanceof JSONObject)
+        {
+            Object value = ((JSONObject) reading).opt(name);
+
+            if (value == JSONObject.NULL)
+                return null;
+
+            return value;
+        }
+        else if (reading instanceof Map<?, ?>)
+            return ((Map<?, ?>) reading).get(name);
+
+        return null;
+    }
+
+    private static class And extends ProbePredicate
+    {
+        private final ProbePredicate _left;
+        private final ProbePredicate _right;
+
+        public And(ProbePredicate left, ProbePredicate right)
+        {
+            this._left = left;
+            this._right = right;
+        }
+
+        public boolean evaluate(Object reading)
+        {
+            return this._left.evaluate(reading) && this._right.evaluate(reading);
+        }
+    }
+
+    private static class Or extends ProbePredicate
+    {
+        private final ProbePredicate _left;
+        private final ProbePredicate _right;
+
+        public Or(ProbePredicate left, ProbePredicate right)
+        {
+            this._left = left;
+            this._right = right;
+        }
+
+        public boolean evaluate(Object reading)
+        {
+            return this._left.evaluate(reading) || this._right.evaluate(reading);
+        }
+    }
+
+    private static class Not extends ProbePredicate
+    {
+        private final ProbePredicate _operand;
+
+        public Not(ProbePredicate operand)
+        {
+            this._operand = operand;
+        }
+
+        public boolean evaluate(Object reading)
+        {
+            return this._operand.evaluate(reading) == false;
+        }
+    }
+
+    private static class Constant extends ProbePredicate
+    {
+        private final boolean _value;
+
+        public Constant(boolean value)
+        {
+            this._value = value;
+        }
+
+        public boolean evaluate(Object reading)
+        {
+            return this._value;
+        }
+    }
+
+    private static class Comparison extends ProbePredicate
+    {
+        private final String _leftField;
+        private final Object _leftValue;
+        private final String _operator;
+        private final String _rightField;
+        private final Object _rightValue;
+
+        public Comparison(Object[] left, String operator, Object[] right)
+        {
+            this._leftField = (String) left[0];
+            this._leftValue = left[1];
+            this._operator = operator;
+            this._rightField = (String) right[0];
+            this._rightValue = right[1];
+        }
+
+        public boolean evaluate(Object reading)
+        {
+            Object left = this._leftValue;
+            Object right = this._rightValue;
+
+            if (this._leftField != null)
+                left = ProbePredicate.lookup(reading, this._leftField);
+
+            if (this._rightField != null)
+                right = ProbePredicate.lookup(reading, this._rightField);
+
+            if ("===".equals(this._operator))
+                return ProbePredicate.strictEquals(left, right);
+            else if ("!==".equals(this._operator))
+                return ProbePredicate.strictEquals(left, right) == false;
+            else if ("==".equals(this._operator))
+                return ProbePredicate.looseEquals(left, right);
+            else if ("!=".equals(this._operator))
+                return ProbePredicate.looseEquals(left, right) == false;
+
+            if (left == null || right == null)
+                return false;
+
+            if (left instanceof String && right instanceof String)
+            {
+                int compare = ((String) left).compareTo((String) right);
+
+                return ProbePredicate.ordered(this._operator, compare);
+            }
+
+            double leftNumber = ProbePredicate.toNumber(left);
+            double rightNumber = ProbePredicate.toNumber(right);
+
+            if (Double.isNaN(leftNumber) || Double.isNaN(rightNumber))
+                return false;
+
+            return ProbePredicate.ordered(this._operator, Double.compare(leftNumber, rightNumber));
+        }
+    }
+
+    private static boolean ordered(String operator, int compare)
+    {
+        if ("<".equals(operator))
+            return compare < 0;
+        else if ("<=".equals(operator))
+            return compare <= 0;
+        else if (">".equals(operator))
+            return compare > 0;
+        else if (">=".equals(operator))
+            return compare >= 0;
+
+        return false;
+    }
+
+    private static boolean strictEquals(Object left, Object right)
+    {
+        if (left == null || right == null)
+            return left == right;
+
+        if (left instanceof Number && right instanceof Number)
+            return ((Number) left).doubleValue() == ((Number) right).doubleValue();
+
+        if (left instanceof String && right instanceof String)
+            return left.equals(right);
+
+        if (left instanceof Boolean && right instanceof Boolean)
+            return left.equals(right);
+
+        return false;
+    }
+
+    private static boolean looseEquals(Object left, Object right)
+    {
+        if (left == null || right == null)
+            return left == right;
+
+        if (left instanceof String && right instanceof String)
+            return left.equals(right);
+
+        double leftNumber = ProbePredicate.toNumber(left);
+        double rightNumber = ProbePredicate.toNumber(right);
+
+        return leftNumber == rightNumber;
+    }
+
+    private static double toNumber(Object value)
+    {
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        else if (value instanceof Boolean)
+            return ((Boolean) value).booleanValue() ? 1 : 0;
+        else if (value instanceof String)
+        {
+            String string = ((String) value).trim();
+
+            if (string.length() == 0)
+                return 0;
+
+            try
+            {
+                return Double.parseDouble(string);
+            }
+            catch (NumberFormatException e)
+            {
+                return Double.NaN;
+            }
+        }
+
+        return Double.NaN;
+    }
+
+    private static ArrayList<String> tokenize(String test)
+    {
+        ArrayList<String> tokens = new ArrayList<String>();
+
+        int i = 0;
+        int length = test.length();
+
+        while (i < length)
+        {
+            char c = test.charAt(i);
+
+            if (Character.isWhitespace(c))
+            {
+                i += 1;
+                continue;
+            }
+
+            if (c == ';')
+            {
+                // Only a trailing semicolon is allowed...
+
+                if (test.substring(i + 1).trim().length() > 0)
+                    throw new IllegalArgumentException("Multiple statements");
+
+                break;
+            }
+
+            int start = i;
+
+            if (c == '\'' || c == '"')
+            {
+                i += 1;
+
+                while (i < length && test.charAt(i) != c)
+                {
+                    if (test.charAt(i) == '\\')
+                        throw new IllegalArgumentException("Escapes not supported");
+
+                    i += 1;
+                }
+
+                if (i >= length)
+                    throw new IllegalArgumentException("Unterminated string");
+
+                i += 1;
+            }
+            else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(test.charAt(i + 1))))
+            {
+                while (i < length && (Character.isLetterOrDigit(test.charAt(i)) || test.charAt(i) == '.' || ((test.charAt(i) == '-' || test.charAt(i) == '+') && (test.charAt(i - 1) == 'e' || test.charAt(i - 1) == 'E'))))
+                    i += 1;
+            }
+            else if (Character.isJavaIdentifierStart(c))
+            {
+                while (i < length && Character.isJavaIdentifierPart(test.charAt(i)))
+                    i += 1;
+            }
+            else if (test.startsWith("===", i) || test.startsWith("!==", i))
+                i += 3;
+            else if (test.startsWith("==", i) || test.startsWith("!=", i) || test.startsWith("<=", i) || test.startsWith(">=", i) || test.startsWith("&&", i) || test.startsWith("||", i))
+                i += 2;
+            else if ("()[].<>!-".indexOf(c) != -1)
+                i += 1;
+            else
+                throw new IllegalArgumentException("Unexpected character: " + c);
+
+            tokens.add(test.substring(start, i));
+        }
+
+        return tokens;
+    }
+
+    private static class Parser
+    {
+        private final ArrayList<String> _tokens;
+        private int _position = 0;
+
+        public Parser(ArrayList<String> tokens)
+        {
+            this._tokens = tokens;
+        }
+
+        public boolean atEnd()
+        {
+            return this._position >= this._tokens.size();
+        }
+
+        private String peek()
+        {
+            if (this.atEnd())
+                return null;
+
+            return this._tokens.get(this._position);
+        }
+
+        private String next()
+        {
+            if (this.atEnd())
+                throw new IllegalArgumentException("Unexpected end");
+
+            return this._tokens.get(this._position++);
+        }
+
+        private void expect(String token)
+        {
+            if (token.equals(this.next()) == false)
+                throw new IllegalArgumentException("Expected " + token);
+        }
+
+        public ProbePredicate parseOr()
+        {
+            ProbePredicate left = this.parseAnd();
+
+            while ("||".equals(this.peek()))
+            {
+                this.next();
+
+                left = new Or(left, this.parseAnd());
+            }
+
+            return left;
+        }
+
+        private ProbePredicate parseAnd()
+        {
+            ProbePredicate left = this.parseUnary();
+
+            while ("&&".equals(this.peek()))
+            {
+                this.next();
+
+                left = new And(left, this.parseUnary());
+            }
+
+            return left;
+        }
+
+        private ProbePredicate parseUnary()
+        {
+            String token = this.peek();
+
+            if ("!".equals(token))
+            {
+                this.next();
+
+                return new Not(this.parseUnary());
+            }
+            else if ("(".equals(token))
+            {
+                // Either a grouped predicate or a parenthesized operand...
+
+                int mark = this._position;
+
+                this.next();
+
+                try
+                {
+                    ProbePredicate inner = this.parseOr();
+
+                    this.expect(")");
+
+                    return inner;
+                }
+                catch (IllegalArgumentException e)
+                {
+                    this._position = mark;
+                }
+            }
+            else if ("true".equals(token) || "false".equals(token))
+            {
+                String after = null;
+
+                if (this._position + 1 < this._tokens.size())
+                    after = this._tokens.get(this._position + 1);
+
+                if (ProbePredicate.isComparison(after) == false)
+                {
+                    this.next();
+
+                    return new Constant("true".equals(token));
+                }
+            }
+
+            return this.parseComparison();
+        }
+
+        private ProbePredicate parseComparison()
+        {
+            Object[] left = this.parseOperand();
+
+            String operator = this.next();
+
+            if (ProbePredicate.isComparison(operator) == false)
+                throw new IllegalArgumentException("Expected comparison");
+
+            Object[] right = this.parseOperand();
+
+            return new Comparison(left, operator, right);
+        }
+
+        /**
+         * Returns { field name, null } or { null, literal value }.
+         */
+
+        private Object[] parseOperand()
+        {
+            String token = this.next();
+
+            if ("(".equals(token))
+            {
+                Object[] operand = this.parseOperand();
+
+                this.expect(")");
+
+                return operand;
+            }
+            else if (ProbePredicate.EXTRAS.equals(token))
+            {
+                String accessor = this.next();
+
+                if (".".equals(accessor))
+                {
+                    String name = this.next();
+
+                    if (Character.isJavaIdentifierStart(name.charAt(0)) == false)
+                        throw new IllegalArgumentException("Expected field name");
+
+                    return this.field(name);
+                }
+                else if ("[".equals(accessor))
+                {
+                    String name = this.next();
+
+                    this.expect("]");
+
+                    if (name.length() < 2 || (name.charAt(0) != '\'' && name.charAt(0) != '"'))
+                        throw new IllegalArgumentException("Expected field name");
+
+                    return this.field(name.substring(1, name.length() - 1));
+                }
+
+                throw new IllegalArgumentException("Expected field access");
+            }
+            else if ("-".equals(token))
+            {
+                Object[] operand = this.parseOperand();
+
+                if (operand[1] instanceof Double)
+                    return new Object[] { null, Double.valueOf(0 - ((Double) operand[1]).doubleValue()) };
+
+                throw new IllegalArgumentException("Expected number");
+            }
+            else if (token.charAt(0) == '\'' || token.charAt(0) == '"')
+                return new Object[] { null, token.substring(1, token.length() - 1) };
+            else if ("true".equals(token) || "false".equals(token))
+                return new Object[] { null, Boolean.valueOf(token) };
+            else if ("null".equals(token) || "undefined".equals(token))
+                return new Object[] { null, null };
+
+            try
+            {
+                return new Object[] { null, Double.valueOf(token) };
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Unsupported operand: " + token);
+            }
+        }
+
+        private Object[] field(String name)
+        {
+            // Member access on a field (e.g. extras.VALUES.length) needs the
+            // script engine...
+
+            String after = this.peek();
+
+            if (".".equals(after) || "[".equals(after) || "(".equals(after))
+                throw new IllegalArgumentException("Unsupported member access");
+
+            return new Object[] { name, null };
+        }
+    }
+
+    private static boolean isComparison(String token)
+    {
+        if (token == null)
+            return false;
+
+        return "==".equals(token) || "!=".equals(token) || "===".equals(token) || "!==".equals(token) || "<".equals(token) || "<=".equals(token) || ">".equals(token) || ">=".equals(token);
+    }
+}
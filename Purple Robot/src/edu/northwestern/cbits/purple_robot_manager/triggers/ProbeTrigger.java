@@ -15,20 +15,28 @@ import android.os.Bundle;
 import android.preference.PreferenceManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.plugins.OutputPlugin;
 import edu.northwestern.cbits.purple_robot_manager.scripting.BaseScriptEngine;
+import edu.northwestern.cbits.purple_robot_manager.scripting.SchemeEngine;
 
 public class ProbeTrigger extends Trigger
 {
     public static final String TYPE_NAME = "probe";
     private static final String TRIGGER_TEST = "test";
     private static final String TRIGGER_PROBE = "probe";
+    private static final String TRIGGER_RATE_LIMIT = "rate_limit";
     private static final String PROBE = null;
     private static final String TEST = null;
 
+    private static final long DEFAULT_RATE_LIMIT = 5000;
+
     private String _probe = null;
     private String _test = null;
+    private ProbePredicate _predicate = null;
+    private long _rateLimit = ProbeTrigger.DEFAULT_RATE_LIMIT;
 
     private long _lastUpdate = 0;
+    private long _lastMatch = 0;
 
     public ProbeTrigger(Context context, Map<String, Object> map)
     {
@@ -46,27 +54,66 @@ public class ProbeTrigger extends Trigger
             ProbeTrigger probeTrigger = (ProbeTrigger) trigger;
 
             this._test = probeTrigger._test;
+            this._predicate = probeTrigger._predicate;
+            this._rateLimit = probeTrigger._rateLimit;
         }
     }
 
+    /**
+     * Tests a reading, passed as a Bundle (or JSONObject). Compiled tests are
+     * checked against every reading; tests that need the script engine are run
+     * at most once per rate limit interval. Either way the trigger matches at
+     * most once per interval.
+     */
+
     public boolean matches(Context context, Object object)
     {
         long now = System.currentTimeMillis();
 
-        if (this._test == null || now - this._lastUpdate < 5000)
+        if (this._test == null || now - this._lastMatch < this._rateLimit)
             return false;
 
-        this._lastUpdate = now;
+        boolean matches = false;
+
+        if (this._predicate != null)
+            matches = this._predicate.evaluate(object);
+        else
+        {
+            if (now - this._lastUpdate < this._rateLimit)
+                return false;
+
+            this._lastUpdate = now;
+
+            matches = this.runTest(context, object);
+        }
+
+        if (matches)
+            this._lastMatch = now;
+
+        return matches;
+    }
 
+    private boolean runTest(Context context, Object object)
+    {
         HashMap<String, Object> objects = new HashMap<String, Object>();
 
+        try
+        {
+            if (object instanceof Bundle)
+                object = OutputPlugin.jsonForBundle((Bundle) object);
+        }
+        catch (JSONException e)
+        {
+            LogManager.getInstance(context).logException(e);
+        }
+
         if (object instanceof JSONObject)
         {
             JSONObject json = (JSONObject) object;
 
             JSONArray names = json.names();
 
-            for (int i = 0; i < names.length(); i++)
+            for (int i = 0; names != null && i < names.length(); i++)
             {
                 try
                 {
@@ -99,12 +146,18 @@ public class ProbeTrigger extends Trigger
         return false;
     }
 
+    public boolean isCompiled()
+    {
+        return this._predicate != null;
+    }
+
     public Map<String, Object> configuration(Context context)
     {
         Map<String, Object> config = super.configuration(context);
 
         config.put(ProbeTrigger.TRIGGER_TEST, this._test);
         config.put(ProbeTrigger.TRIGGER_PROBE, this._probe);
+        config.put(ProbeTrigger.TRIGGER_RATE_LIMIT, this._rateLimit);
         config.put("type", ProbeTrigger.TYPE_NAME);
 
         return config;
@@ -115,8 +168,36 @@ public class ProbeTrigger extends Trigger
         if (super.updateFromMap(context, map))
         {
             if (map.containsKey(ProbeTrigger.TRIGGER_TEST))
+            {
                 this._test = map.get(ProbeTrigger.TRIGGER_TEST).toString();
 
+                // Scheme tests keep going through the script engine...
+
+                if (SchemeEngine.canRun(this._test))
+                    this._predicate = null;
+                else
+                    this._predicate = ProbePredicate.compile(this._test);
+            }
+
+            if (map.containsKey(ProbeTrigger.TRIGGER_RATE_LIMIT))
+            {
+                Object rateLimit = map.get(ProbeTrigger.TRIGGER_RATE_LIMIT);
+
+                try
+                {
+                    if (rateLimit instanceof Number)
+                        this._rateLimit = ((Number) rateLimit).longValue();
+                    else
+                        this._rateLimit = (long) Double.parseDouble(rateLimit.toString());
+                }
+                catch (NumberFormatException e)
+                {
+                    LogManager.getInstance(context).logException(e);
+                }
+
+                this._rateLimit = Math.max(0, this._rateLimit);
+            }
+
             if (map.containsKey(ProbeTrigger.TRIGGER_PROBE))
                 this._probe = map.get(ProbeTrigger.TRIGGER_PROBE).toString();
 
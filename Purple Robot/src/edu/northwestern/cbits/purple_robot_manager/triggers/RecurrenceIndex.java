@@ -0,0 +1,252 @@
+package edu.northwestern.cbits.purple_robot_manager.triggers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.Component;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
+
+/**
+ * Recurrences of a calendar expanded once over a fixed horizon and kept as
+ * intervals sorted by start time.
+ *
+ * Containment and next-start lookups are binary searches over the start
+ * times. Because recurrences may overlap, a running maximum of the end times
+ * bounds how far back a containment lookup has to look.
+ */
+
+public class RecurrenceIndex
+{
+    private final long _from;
+    private final long _to;
+
+    private final Period[] _periods;
+    private final long[] _starts;
+    private final long[] _ends;
+    private final long[] _maxEnds;
+
+    /**
+     * Expands every VEVENT in the calendar over [from, to]. Recurrences that
+     * started before from but are still running are included.
+     */
+
+    public RecurrenceIndex(Calendar calendar, long from, long to)
+    {
+        this._from = from;
+        this._to = to;
+
+        ArrayList<Period> periods = new ArrayList<Period>();
+
+        Period range = new Period(new DateTime(new Date(from)), new DateTime(new Date(to)));
+
+        for (Object o : calendar.getComponents("VEVENT"))
+        {
+            Component c = (Component) o;
+
+            PeriodList l = c.calculateRecurrenceSet(range);
+
+            if (l == null)
+                continue;
+
+            for (Object po : l)
+            {
+                if (po instanceof Period)
+                    periods.add((Period) po);
+            }
+        }
+
+        Collections.sort(periods, new Comparator<Period>()
+        {
+            public int compare(Period one, Period two)
+            {
+                long oneStart = one.getStart().getTime();
+                long twoStart = two.getStart().getTime();
+
+                if (oneStart < twoStart)
+                    return -1;
+                else if (oneStart > twoStart)
+                    return 1;
+
+                long oneEnd = one.getEnd().getTime();
+                long twoEnd = two.getEnd().getTime();
+
+                if (oneEnd < twoEnd)
+                    return -1;
+                else if (oneEnd > twoEnd)
+                    return 1;
+
+                return 0;
+            }
+        });
+
+        // Drop duplicates contributed by more than one component...
+
+        for (int i = periods.size() - 1; i > 0; i--)
+        {
+            Period one = periods.get(i - 1);
+            Period two = periods.get(i);
+
+            if (one.getStart().getTime() == two.getStart().getTime() && one.getEnd().getTime() == two.getEnd().getTime())
+                periods.remove(i);
+        }
+
+        int count = periods.size();
+
+        this._periods = periods.toArray(new Period[count]);
+        this._starts = new long[count];
+        this._ends = new long[count];
+        this._maxEnds = new long[count];
+
+        long maxEnd = Long.MIN_VALUE;
+
+        for (int i = 0; i < count; i++)
+        {
+            this._starts[i] = this._periods[i].getStart().getTime();
+            this._ends[i] = this._periods[i].getEnd().getTime();
+
+            maxEnd = Math.max(maxEnd, this._ends[i]);
+
+            this._maxEnds[i] = maxEnd;
+        }
+    }
+
+    public boolean covers(long timestamp)
+    {
+        return timestamp >= this._from && timestamp <= this._to;
+    }
+
+    public long horizonEnd()
+    {
+        return this._to;
+    }
+
+    public int size()
+    {
+        return this._periods.length;
+    }
+
+    /**
+     * Returns the recurrence that contains the timestamp (inclusive at both
+     * ends), or null.
+     */
+
+    public Period find(long timestamp)
+    {
+        int i = this.lastStartAtOrBefore(timestamp);
+
+        while (i >= 0 && this._maxEnds[i] >= timestamp)
+        {
+            if (this._ends[i] >= timestamp)
+                return this._periods[i];
+
+            i -= 1;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first recurrence start strictly after the timestamp, or -1
+     * if there is none within the horizon.
+     */
+
+    public long nextStart(long timestamp)
+    {
+        int i = this.lastStartAtOrBefore(timestamp) + 1;
+
+        if (i < this._starts.length)
+            return this._starts[i];
+
+        return -1;
+    }
+
+    /**
+     * Returns up to limit distinct recurrence starts in (after, until].
+     */
+
+    public List<Date> startsBetween(long after, long until, int limit)
+    {
+        ArrayList<Date> starts = new ArrayList<Date>();
+
+        for (int i = this.lastStartAtOrBefore(after) + 1; i < this._starts.length && starts.size() < limit; i++)
+        {
+            if (this._starts[i] > until)
+                break;
+
+            if (i > 0 && this._starts[i] == this._starts[i - 1])
+                continue;
+
+            starts.add(this._periods[i].getStart());
+        }
+
+        return starts;
+    }
+
+    /**
+     * Appends the points start + k * step in [start, end] that fall inside a
+     * recurrence, skipping points at or before last. Returns the last point
+     * added (or last if none were).
+     */
+
+    public long samplePoints(long start, long end, long step, long last, List<Long> points)
+    {
+        int first = this.lastStartAtOrBefore(start);
+
+        while (first > 0 && this._maxEnds[first - 1] >= start)
+            first -= 1;
+
+        if (first < 0)
+            first = 0;
+
+        for (int i = first; i < this._starts.length && this._starts[i] <= end; i++)
+        {
+            long from = Math.max(start, this._starts[i]);
+            long to = Math.min(end, this._ends[i]);
+
+            if (from > to)
+                continue;
+
+            long k = (from - start + step - 1) / step;
+
+            for (long point = start + (k * step); point <= to; point += step)
+            {
+                if (point > last)
+                {
+                    points.add(Long.valueOf(point));
+
+                    last = point;
+                }
+            }
+        }
+
+        return last;
+    }
+
+    private int lastStartAtOrBefore(long timestamp)
+    {
+        int low = 0;
+        int high = this._starts.length - 1;
+        int found = -1;
+
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+
+            if (this._starts[mid] <= timestamp)
+            {
+                found = mid;
+                low = mid + 1;
+            }
+            else
+                high = mid - 1;
+        }
+
+        return found;
+    }
+}
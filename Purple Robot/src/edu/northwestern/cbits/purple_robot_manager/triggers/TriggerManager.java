@@ -29,9 +29,12 @@ import edu.northwestern.cbits.purple_robot_manager.scripting.BaseScriptEngine;
 
 public class TriggerManager
 {
+    private static final long DEADLINE_TOLERANCE = 1000;
+
     private static TriggerManager _instance = null;
 
     private final List<Trigger> _triggers = new ArrayList<Trigger>();
+    private final TriggerScheduler _scheduler = new TriggerScheduler();
     private Timer _timer = null;
 
     private boolean _triggersInited = false;
@@ -53,6 +56,11 @@ public class TriggerManager
         return TriggerManager._instance;
     }
 
+    /**
+     * Runs the date triggers whose deadline has passed, then schedules their
+     * next deadline and re-arms the alarm.
+     */
+
     @SuppressLint("Wakelock")
     public void nudgeTriggers(Context context)
     {
@@ -60,28 +68,75 @@ public class TriggerManager
         WakeLock wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK | PowerManager.ACQUIRE_CAUSES_WAKEUP | PowerManager.ON_AFTER_RELEASE, "trigger_wakelock");
         wakeLock.acquire();
 
+        long start = System.currentTimeMillis();
+
+        this._scheduler.disarmed();
+
+        if (this._scheduler.isInitialized() == false)
+            this.rescheduleTriggers(context);
+
         Date now = new Date();
 
+        for (Trigger trigger : this._scheduler.due(now.getTime() + TriggerManager.DEADLINE_TOLERANCE))
+        {
+            if ((trigger instanceof DateTrigger) == false)
+                continue;
+
+            synchronized (this._triggers)
+            {
+                if (this._triggers.contains(trigger) == false)
+                    continue;
+            }
+
+            if (trigger.matches(context, now))
+                trigger.execute(context, false);
+
+            DateTrigger dateTrigger = (DateTrigger) trigger;
+
+            this._scheduler.schedule(trigger, dateTrigger.nextFireTime(context, now.getTime() + TriggerManager.DEADLINE_TOLERANCE));
+        }
+
+        this._scheduler.arm(context);
+
+        long end = System.currentTimeMillis();
+
+        wakeLock.release();
+
+        this._scheduler.recordWakeup(start, end - start);
+    }
+
+    /**
+     * Recomputes the next deadline of every date trigger and re-arms the
+     * alarm.
+     */
+
+    public void rescheduleTriggers(Context context)
+    {
+        ArrayList<Trigger> triggers = new ArrayList<Trigger>();
+
         synchronized (this._triggers)
         {
             for (Trigger trigger : this._triggers)
             {
-                boolean execute = false;
-
                 if (trigger instanceof DateTrigger)
-                {
-                    if (trigger.matches(context, now))
-                        execute = true;
-                }
-
-                if (execute)
-                {
-                    trigger.execute(context, false);
-                }
+                    triggers.add(trigger);
             }
         }
 
-        wakeLock.release();
+        long now = System.currentTimeMillis();
+
+        ArrayList<Long> deadlines = new ArrayList<Long>();
+
+        for (Trigger trigger : triggers)
+            deadlines.add(Long.valueOf(((DateTrigger) trigger).nextFireTime(context, now)));
+
+        this._scheduler.reset(triggers, deadlines);
+        this._scheduler.arm(context);
+    }
+
+    public Bundle schedulerStatistics()
+    {
+        return this._scheduler.statistics();
     }
 
     public void updateTriggers(Context context, List<Trigger> triggerList)
@@ -108,9 +163,6 @@ public class TriggerManager
                     toAdd.add(newTrigger);
             }
 
-            if (toAdd.size() > 0)
-                ManagerService.resetTriggerNudgeDate();
-
             this._triggers.addAll(toAdd);
         }
 
@@ -0,0 +1,217 @@
+package edu.northwestern.cbits.purple_robot_manager.triggers;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import android.annotation.SuppressLint;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+
+import edu.northwestern.cbits.purple_robot_manager.ManagerService;
+
+/**
+ * Deadline queue for time-based triggers.
+ *
+ * Each scheduled trigger has one entry holding the next time it needs to be
+ * looked at. A single exact alarm is kept armed for the earliest entry, so the
+ * device wakes only when some trigger is actually due. Wakeups and the time
+ * spent holding the trigger wake lock are kept for the last hour and in total.
+ */
+
+public class TriggerScheduler
+{
+    private static final long HOUR = 60 * 60 * 1000;
+
+    public static final String WAKEUPS_LAST_HOUR = "WAKEUPS_LAST_HOUR";
+    public static final String WAKE_LOCK_MS_LAST_HOUR = "WAKE_LOCK_MS_LAST_HOUR";
+    public static final String WAKEUPS_TOTAL = "WAKEUPS_TOTAL";
+    public static final String WAKE_LOCK_MS_TOTAL = "WAKE_LOCK_MS_TOTAL";
+    public static final String NEXT_DEADLINE = "NEXT_DEADLINE";
+    public static final String SCHEDULED_COUNT = "SCHEDULED_COUNT";
+
+    private static class Deadline implements Comparable<Deadline>
+    {
+        private final long _time;
+        private final Trigger _trigger;
+
+        private Deadline(long time, Trigger trigger)
+        {
+            this._time = time;
+            this._trigger = trigger;
+        }
+
+        public int compareTo(Deadline other)
+        {
+            if (this._time < other._time)
+                return -1;
+            else if (this._time > other._time)
+                return 1;
+
+            return 0;
+        }
+    }
+
+    private final PriorityQueue<Deadline> _queue = new PriorityQueue<Deadline>();
+
+    private boolean _initialized = false;
+    private long _armedTime = 0;
+
+    private final LinkedList<long[]> _wakeups = new LinkedList<long[]>();
+    private long _totalWakeups = 0;
+    private long _totalWakeLock = 0;
+
+    public synchronized boolean isInitialized()
+    {
+        return this._initialized;
+    }
+
+    /**
+     * Replaces every entry with the given deadlines (one per trigger, -1 for
+     * none).
+     */
+
+    public synchronized void reset(List<Trigger> triggers, List<Long> deadlines)
+    {
+        this._queue.clear();
+
+        for (int i = 0; i < triggers.size(); i++)
+        {
+            long time = deadlines.get(i).longValue();
+
+            if (time >= 0)
+                this._queue.add(new Deadline(time, triggers.get(i)));
+        }
+
+        this._initialized = true;
+    }
+
+    public synchronized void schedule(Trigger trigger, long time)
+    {
+        this.remove(trigger);
+
+        if (time >= 0)
+            this._queue.add(new Deadline(time, trigger));
+    }
+
+    public synchronized void remove(Trigger trigger)
+    {
+        Iterator<Deadline> iter = this._queue.iterator();
+
+        while (iter.hasNext())
+        {
+            if (iter.next()._trigger == trigger)
+                iter.remove();
+        }
+    }
+
+    /**
+     * Removes and returns the triggers due at or before now.
+     */
+
+    public synchronized List<Trigger> due(long now)
+    {
+        ArrayList<Trigger> due = new ArrayList<Trigger>();
+
+        while (this._queue.size() > 0 && this._queue.peek()._time <= now)
+        {
+            Trigger trigger = this._queue.poll()._trigger;
+
+            if (due.contains(trigger) == false)
+                due.add(trigger);
+        }
+
+        return due;
+    }
+
+    /**
+     * Points the alarm at the earliest deadline, touching the AlarmManager
+     * only when that deadline changed.
+     */
+
+    @SuppressLint("NewApi")
+    public synchronized void arm(Context context)
+    {
+        Deadline next = this._queue.peek();
+
+        long time = 0;
+
+        if (next != null)
+            time = next._time;
+
+        if (time == this._armedTime)
+            return;
+
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        PendingIntent pi = PendingIntent.getService(context, 0, new Intent(ManagerService.FIRE_TRIGGERS_INTENT), PendingIntent.FLAG_UPDATE_CURRENT);
+
+        alarmManager.cancel(pi);
+
+        if (next != null)
+        {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+                alarmManager.setExact(AlarmManager.RTC_WAKEUP, time, pi);
+            else
+                alarmManager.set(AlarmManager.RTC_WAKEUP, time, pi);
+        }
+
+        this._armedTime = time;
+    }
+
+    /**
+     * Forgets the armed alarm time, e.g. after the alarm fired.
+     */
+
+    public synchronized void disarmed()
+    {
+        this._armedTime = 0;
+    }
+
+    public synchronized void recordWakeup(long time, long wakeLockMillis)
+    {
+        this._wakeups.add(new long[] { time, wakeLockMillis });
+
+        this._totalWakeups += 1;
+        this._totalWakeLock += wakeLockMillis;
+
+        this.trim(time);
+    }
+
+    public synchronized Bundle statistics()
+    {
+        this.trim(System.currentTimeMillis());
+
+        long wakeLock = 0;
+
+        for (long[] wakeup : this._wakeups)
+            wakeLock += wakeup[1];
+
+        Bundle bundle = new Bundle();
+
+        bundle.putInt(TriggerScheduler.WAKEUPS_LAST_HOUR, this._wakeups.size());
+        bundle.putLong(TriggerScheduler.WAKE_LOCK_MS_LAST_HOUR, wakeLock);
+        bundle.putLong(TriggerScheduler.WAKEUPS_TOTAL, this._totalWakeups);
+        bundle.putLong(TriggerScheduler.WAKE_LOCK_MS_TOTAL, this._totalWakeLock);
+        bundle.putInt(TriggerScheduler.SCHEDULED_COUNT, this._queue.size());
+
+        Deadline next = this._queue.peek();
+
+        if (next != null)
+            bundle.putLong(TriggerScheduler.NEXT_DEADLINE, next._time);
+
+        return bundle;
+    }
+
+    private void trim(long now)
+    {
+        while (this._wakeups.size() > 0 && this._wakeups.getFirst()[0] < now - TriggerScheduler.HOUR)
+            this._wakeups.removeFirst();
+    }
+}
@@ -9,10 +9,8 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 
 import org.json.JSONArray;
@@ -29,6 +27,11 @@ public class DBSCAN
     private double _minDistance = 0;
     private int _minPopulation = 0;
 
+    private static final int UNVISITED = 0;
+    private static final int NOISE = -1;
+
+    private static volatile Places _places = null;
+
     private HashSet<Point> _points = new HashSet<Point>();
 
     public static class Point
@@ -237,6 +240,62 @@ public class DBSCAN
         }
     }
 
+    /**
+     * Named points of the stored clusters, indexed for location lookups.
+     */
+
+    public static class Places
+    {
+        private final GridIndex _index;
+        private final String[] _names;
+
+        public Places(Collection<Cluster> clusters)
+        {
+            ArrayList<Point> points = new ArrayList<Point>();
+            ArrayList<String> names = new ArrayList<String>();
+
+            for (Cluster cluster : clusters)
+            {
+                if (cluster.getName() != null)
+                {
+                    for (Point p : cluster.getPoints())
+                    {
+                        points.add(p);
+                        names.add(cluster.getName());
+                    }
+                }
+            }
+
+            double[] xs = new double[points.size()];
+            double[] ys = new double[points.size()];
+
+            for (int i = 0; i < xs.length; i++)
+            {
+                xs[i] = points.get(i)._x;
+                ys[i] = points.get(i)._y;
+            }
+
+            this._index = new GridIndex(xs, ys, DBSCAN.DISTANCE);
+            this._names = names.toArray(new String[0]);
+        }
+
+        public String nameAt(double latitude, double longitude)
+        {
+            int found = this._index.find(latitude, longitude, DBSCAN.DISTANCE);
+
+            if (found < 0)
+                return null;
+
+            return this._names[found];
+        }
+    }
+
+    public DBSCAN(double distance, int population)
+    {
+        this._minDistance = distance;
+        this._minPopulation = population;
+    }
+
     public DBSCAN(Context context, double distance, int population)
     {
         this._minDistance = distance;
@@ -256,87 +315,98 @@ public class DBSCAN
         this._points.add(p);
     }
 
+    /**
+     * Clusters the points with DBSCAN: points with at least the minimum
+     * population within the distance (themselves included) are core points,
+     * clusters grow through the neighbourhoods of core points and points not
+     * reachable from any core point are left out as noise. Neighbourhoods come
+     * from a grid index with cells as wide as the distance.
+     *
+     * Points keep the name of the stored cluster they were loaded from, so a
+     * new cluster takes the first name found among its points.
+     */
+
     public Collection<Cluster> calculate(Context context)
     {
         HashSet<Cluster> clusters = new HashSet<Cluster>();
 
-        Point[] xPoints = this._points.toArray(new Point[0]);
-        Point[] yPoints = this._points.toArray(new Point[0]);
+        Point[] points = this._points.toArray(new Point[0]);
 
-        Arrays.sort(xPoints, new Comparator<Point>()
+        double[] xs = new double[points.length];
+        double[] ys = new double[points.length];
+
+        for (int i = 0; i < points.length; i++)
         {
-            public int compare(Point one, Point two)
-            {
-                if (one._x > two._x)
-                    return 1;
-                else if (one._x < two._x)
-                    return -1;
+            xs[i] = points[i]._x;
+            ys[i] = points[i]._y;
+        }
 
-                return 0;
-            }
-        });
+        GridIndex index = new GridIndex(xs, ys, this._minDistance);
 
-        for (int i = 0; i < xPoints.length; i++)
-        {
-            Point here = xPoints[i];
-            Point back = null;
-            Point next = null;
+        int[] labels = new int[points.length];
+        int[] neighbours = new int[points.length];
+        int[] queue = new int[points.length];
 
-            if (i > 0)
-                back = xPoints[i - 1];
+        int label = 0;
 
-            if (i < xPoints.length - 1)
-                next = xPoints[i + 1];
+        for (int i = 0; i < points.length; i++)
+        {
+            if (labels[i] != DBSCAN.UNVISITED)
+                continue;
 
-            if (back != null && Math.abs(here._x - back._x) < this._minDistance)
-            {
-                if (here.distanceFrom(back) < this._minDistance)
-                    clusters.add(here.cluster(back));
-            }
+            int count = index.query(xs[i], ys[i], this._minDistance, neighbours);
 
-            if (next != null && Math.abs(here._x - next._x) < this._minDistance)
+            if (count < this._minPopulation)
             {
-                if (here.distanceFrom(next) < this._minDistance)
-                    clusters.add(here.cluster(next));
+                labels[i] = DBSCAN.NOISE;
+
+                continue;
             }
-        }
 
-        Arrays.sort(yPoints, new Comparator<Point>()
-        {
-            public int compare(Point one, Point two)
+            label += 1;
+
+            Cluster cluster = new Cluster();
+
+            labels[i] = label;
+            DBSCAN.adopt(cluster, points[i]);
+
+            int head = 0;
+            int tail = 0;
+
+            while (true)
             {
-                if (one._y > two._y)
-                    return 1;
-                else if (one._y < two._y)
-                    return -1;
+                for (int j = 0; j < count; j++)
+                {
+                    int neighbour = neighbours[j];
+
+                    if (labels[neighbour] == DBSCAN.UNVISITED)
+                    {
+                        queue[tail] = neighbour;
+                        tail += 1;
+                    }
+
+                    if (labels[neighbour] == DBSCAN.UNVISITED || labels[neighbour] == DBSCAN.NOISE)
+                    {
+                        labels[neighbour] = label;
+                        DBSCAN.adopt(cluster, points[neighbour]);
+                    }
+                }
 
-                return 0;
-            }
-        });
+                if (head == tail)
+                    break;
 
-        for (int i = 0; i < yPoints.length; i++)
-        {
-            Point here = yPoints[i];
-            Point back = null;
-            Point next = null;
+                int next = queue[head];
+                head += 1;
 
-            if (i > 0)
-                back = yPoints[i - 1];
+                count = index.query(xs[next], ys[next], this._minDistance, neighbours);
 
-            if (i < yPoints.length - 1)
-                next = yPoints[i + 1];
+                // Border points join the cluster without extending it...
 
-            if (back != null && Math.abs(here._y - back._y) < this._minDistance)
-            {
-                if (here.distanceFrom(back) < this._minDistance)
-                    clusters.add(here.cluster(back));
+                if (count < this._minPopulation)
+                    count = 0;
             }
 
-            if (next != null && Math.abs(here._y - next._y) < this._minDistance)
-            {
-                if (here.distanceFrom(next) < this._minDistance)
-                    clusters.add(here.cluster(next));
-            }
+            clusters.add(cluster);
         }
 
         HashSet<Cluster> toReturn = new HashSet<Cluster>();
@@ -350,6 +420,16 @@ public class DBSCAN
         return toReturn;
     }
 
+    private static void adopt(Cluster cluster, Point p)
+    {
+        Cluster previous = p.getCluster();
+
+        if (cluster.getName() == null && previous != null && previous.getName() != null)
+            cluster.setName(previous.getName());
+
+        cluster.addPoint(p);
+    }
+
     private static File getClusterFile(Context context)
     {
         File dataDir = context.getFilesDir();
@@ -392,6 +472,8 @@ public class DBSCAN
 
             fout.flush();
             fout.close();
+
+            DBSCAN._places = null;
         }
         catch (JSONException e)
         {
@@ -407,25 +489,24 @@ public class DBSCAN
         }
     }
 
+    /**
+     * Returns the name of a stored cluster with a point within DISTANCE of
+     * the location, or null. The stored clusters are parsed once
+     * and indexed in memory until persistClusters replaces them.
+     */
+
     public static String inCluster(Context context, double latitude, double longitude)
     {
-        Point point = new Point(latitude, longitude);
-
-        Collection<Cluster> clusters = DBSCAN.fetchClusters(context);
+        Places places = DBSCAN._places;
 
-        for (Cluster cluster : clusters)
+        if (places == null)
         {
-            if (cluster.getName() != null)
-            {
-                for (Point p : cluster.getPoints())
-                {
-                    if (point.distanceFrom(p) <= DBSCAN.DISTANCE)
-                        return cluster.getName();
-                }
-            }
+            places = new Places(DBSCAN.fetchClusters(context));
+
+            DBSCAN._places = places;
         }
 
-        return null;
+        return places.nameAt(latitude, longitude);
     }
 
     private static Collection<Cluster> fetchClusters(Context context)
@@ -0,0 +1,159 @@
+package edu.northwestern.cbits.purple_robot_manager.util;
+
+import java.util.HashMap;
+
+/**
+ * Uniform grid over a fixed set of planar points for radius queries. Points
+ * are bucketed by cell, so a query only visits the cells overlapping the
+ * search radius instead of every point.
+ */
+
+public class GridIndex
+{
+    private final double _cell;
+    private final double[] _x;
+    private final double[] _y;
+
+    private final HashMap<Long, int[]> _cells = new HashMap<Long, int[]>();
+
+    public GridIndex(double[] x, double[] y, double cell)
+    {
+        this._cell = cell;
+        this._x = x;
+        this._y = y;
+
+        HashMap<Long, int[]> counts = new HashMap<Long, int[]>();
+
+        for (int i = 0; i < x.length; i++)
+        {
+            Long key = Long.valueOf(this.key(x[i], y[i]));
+
+            int[] count = counts.get(key);
+
+            if (count == null)
+            {
+                count = new int[1];
+                counts.put(key, count);
+            }
+
+            count[0] += 1;
+        }
+
+        for (Long key : counts.keySet())
+            this._cells.put(key, new int[counts.get(key)[0]]);
+
+        for (int i = 0; i < x.length; i++)
+        {
+            Long key = Long.valueOf(this.key(x[i], y[i]));
+
+            int[] bucket = this._cells.get(key);
+            int[] count = counts.get(key);
+
+            count[0] -= 1;
+            bucket[count[0]] = i;
+        }
+    }
+
+    public int size()
+    {
+        return this._x.length;
+    }
+
+    /**
+     * Writes the indices of the points within the distance (inclusive) of the
+     * location into results, which must have room for every point, and returns
+     * how many were found.
+     */
+
+    public int query(double x, double y, double distance, int[] results)
+    {
+        int found = 0;
+        int reach = (int) Math.ceil(distance / this._cell);
+
+        long cellX = (long) Math.floor(x / this._cell);
+        long cellY = (long) Math.floor(y / this._cell);
+
+        double limit = distance * distance;
+
+        for (long i = cellX - reach; i <= cellX + reach; i++)
+        {
+            for (long j = cellY - reach; j <= cellY + reach; j++)
+            {
+                int[] cell = this._cells.get(Long.valueOf(GridIndex.key(i, j)));
+
+                if (cell != null)
+                {
+                    for (int index : cell)
+                    {
+                        double xDelta = this._x[index] - x;
+                        double yDelta = this._y[index] - y;
+
+                        if ((xDelta * xDelta) + (yDelta * yDelta) <= limit)
+                        {
+                            results[found] = index;
+                            found += 1;
+                        }
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Returns the index of a point within the distance (inclusive) of the
+     * location, or -1. The cell holding the location is searched first, so
+     * lookups inside dense clusters usually stop at the first candidate.
+     */
+
+    public int find(double x, double y, double distance)
+    {
+        int reach = (int) Math.ceil(distance / this._cell);
+
+        long cellX = (long) Math.floor(x / this._cell);
+        long cellY = (long) Math.floor(y / this._cell);
+
+        double limit = distance * distance;
+
+        int found = this.find(this._cells.get(Long.valueOf(GridIndex.key(cellX, cellY))), x, y, limit);
+
+        for (long i = cellX - reach; found < 0 && i <= cellX + reach; i++)
+        {
+            for (long j = cellY - reach; found < 0 && j <= cellY + reach; j++)
+            {
+                if (i != cellX || j != cellY)
+                    found = this.find(this._cells.get(Long.valueOf(GridIndex.key(i, j))), x, y, limit);
+            }
+        }
+
+        return found;
+    }
+
+    private int find(int[] cell, double x, double y, double limit)
+    {
+        if (cell != null)
+        {
+            for (int index : cell)
+            {
+                double xDelta = this._x[index] - x;
+                double yDelta = this._y[index] - y;
+
+                if ((xDelta * xDelta) + (yDelta * yDelta) <= limit)
+                    return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private long key(double x, double y)
+    {
+        return GridIndex.key((long) Math.floor(x / this._cell), (long) Math.floor(y / this._cell));
+    }
+
+    private static long key(long cellX, long cellY)
+    {
+        return (cellX << 32) ^ (cellY & 0xffffffffL);
+    }
+}
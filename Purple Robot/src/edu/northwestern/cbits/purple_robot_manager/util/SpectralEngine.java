@@ -0,0 +1,320 @@
+package edu.northwestern.cbits.purple_robot_manager.util;
+
+/**
+ * Forward FFT of real signals on preallocated primitive workspaces.
+ *
+ * An engine is created for a power-of-two capacity and transforms any
+ * power-of-two length up to it: the twiddle table for the capacity is strided
+ * for shorter transforms. A real signal of length n is packed into a complex
+ * signal of length n / 2, transformed in place and split into the n / 2 + 1
+ * non-redundant bins, which are kept in the workspace until the next call.
+ *
+ * Results match FastFourierTransformer with DftNormalization.STANDARD. An
+ * engine is not thread-safe - each caller keeps its own.
+ */
+
+public class SpectralEngine
+{
+    private final int _capacity;
+
+    private final double[] _cos;
+    private final double[] _sin;
+
+    private final double[] _real;
+    private final double[] _imaginary;
+
+    private int _length = 0;
+
+    public SpectralEngine(int capacity)
+    {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+
+        this._capacity = capacity;
+
+        this._cos = new double[(capacity / 2) + 1];
+        this._sin = new double[(capacity / 2) + 1];
+
+        for (int i = 0; i < this._cos.length; i++)
+        {
+            double angle = (2 * Math.PI * i) / capacity;
+
+            this._cos[i] = Math.cos(angle);
+            this._sin[i] = Math.sin(angle);
+        }
+
+        this._real = new double[(capacity / 2) + 1];
+        this._imaginary = new double[(capacity / 2) + 1];
+    }
+
+    /**
+     * Returns the smallest power of two not less than the length.
+     */
+
+    public static int nextPowerOfTwo(int length)
+    {
+        if (length <= 1)
+            return 1;
+
+        return Integer.highestOneBit(length - 1) << 1;
+    }
+
+    public int capacity()
+    {
+        return this._capacity;
+    }
+
+    /**
+     * Length of the last transform.
+     */
+
+    public int length()
+    {
+        return this._length;
+    }
+
+    /**
+     * Number of bins produced by the last transform (length / 2 + 1).
+     */
+
+    public int bins()
+    {
+        return (this._length / 2) + 1;
+    }
+
+    /**
+     * Transforms the first length values, which are not modified. The length
+     * must be a power of two no larger than the capacity.
+     */
+
+    public void transform(double[] values, int length)
+    {
+        if (length < 1 || length > this._capacity || Integer.bitCount(length) != 1)
+            throw new IllegalArgumentException("Length must be a power of two up to " + this._capacity + ": " + length);
+
+        this._length = length;
+
+        if (length == 1)
+        {
+            this._real[0] = values[0];
+            this._imaginary[0] = 0;
+
+            return;
+        }
+
+        int half = length / 2;
+
+        for (int i = 0; i < half; i++)
+        {
+            this._real[i] = values[2 * i];
+            this._imaginary[i] = values[(2 * i) + 1];
+        }
+
+        this.complexTransform(half);
+        this.split(length);
+    }
+
+    public double real(int bin)
+    {
+        return this._real[bin];
+    }
+
+    public double imaginary(int bin)
+    {
+        return this._imaginary[bin];
+    }
+
+    public double magnitude(int bin)
+    {
+        return Math.sqrt(this.power(bin));
+    }
+
+    public double power(int bin)
+    {
+        return (this._real[bin] * this._real[bin]) + (this._imaginary[bin] * this._imaginary[bin]);
+    }
+
+    public double frequency(int bin, double sampleRate)
+    {
+        return (bin * sampleRate) / this._length;
+    }
+
+    /**
+     * Returns the bin in [from, to) with the largest magnitude, or -1 if none
+     * is larger than zero. Ties go to the lower bin.
+     */
+
+    public int peak(int from, int to)
+    {
+        int peak = -1;
+        double max = 0;
+
+        for (int i = from; i < to; i++)
+        {
+            double power = this.power(i);
+
+            if (power > max)
+            {
+                max = power;
+                peak = i;
+            }
+        }
+
+        return peak;
+    }
+
+    /**
+     * Sums the power of the bins from the low frequency (inclusive) to the high
+     * frequency (exclusive), normalized by the squared length.
+     */
+
+    public double bandPower(double sampleRate, double low, double high)
+    {
+        int bins = this.bins();
+
+        int from = Math.max(0, (int) Math.ceil((low * this._length) / sampleRate));
+
+        double power = 0;
+
+        for (int i = from; i < bins && this.frequency(i, sampleRate) < high; i++)
+            power += this.power(i);
+
+        return power / ((double) this._length * this._length);
+    }
+
+    /**
+     * Multiplies the first length values by a periodic Hann window. The length
+     * must be a power of two no larger than the capacity.
+     */
+
+    public void hann(double[] values, int length)
+    {
+        int stride = this._capacity / length;
+        int half = this._cos.length - 1;
+
+        for (int i = 0; i < length; i++)
+        {
+            int index = i * stride;
+
+            if (index > half)
+                index = this._capacity - index;
+
+            values[i] *= 0.5 - (0.5 * this._cos[index]);
+        }
+    }
+
+    /**
+     * Radix-2 decimation in time over the first length entries of the
+     * workspace.
+     */
+
+    private void complexTransform(int length)
+    {
+        double[] real = this._real;
+        double[] imaginary = this._imaginary;
+
+        for (int i = 1, j = 0; i < length; i++)
+        {
+            int bit = length >> 1;
+
+            for (; (j & bit) != 0; bit >>= 1)
+                j ^= bit;
+
+            j ^= bit;
+
+            if (i < j)
+            {
+                double swap = real[i];
+                real[i] = real[j];
+                real[j] = swap;
+
+                swap = imaginary[i];
+                imaginary[i] = imaginary[j];
+                imaginary[j] = swap;
+            }
+        }
+
+        for (int size = 2; size <= length; size <<= 1)
+        {
+            int half = size / 2;
+            int stride = this._capacity / size;
+
+            for (int start = 0; start < length; start += size)
+            {
+                for (int k = 0; k < half; k++)
+                {
+                    double cos = this._cos[k * stride];
+                    double sin = -this._sin[k * stride];
+
+                    int even = start + k;
+                    int odd = even + half;
+
+                    double oddReal = (real[odd] * cos) - (imaginary[odd] * sin);
+                    double oddImaginary = (real[odd] * sin) + (imaginary[odd] * cos);
+
+                    real[odd] = real[even] - oddReal;
+                    imaginary[odd] = imaginary[even] - oddImaginary;
+
+                    real[even] += oddReal;
+                    imaginary[even] += oddImaginary;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns the transform of the packed even/odd samples into the first
+     * length / 2 + 1 bins of the real transform. Bins k and half - k are
+     * computed together so the split can run in place.
+     */
+
+    private void split(int length)
+    {
+        double[] real = this._real;
+        double[] imaginary = this._imaginary;
+
+        int half = length / 2;
+        int stride = this._capacity / length;
+
+        double dc = real[0];
+
+        real[0] = dc + imaginary[0];
+        real[half] = dc - imaginary[0];
+        imaginary[0] = 0;
+        imaginary[half] = 0;
+
+        for (int k = 1; k <= half / 2; k++)
+        {
+            int j = half - k;
+
+            double kReal = real[k];
+            double kImaginary = imaginary[k];
+            double jReal = real[j];
+            double jImaginary = imaginary[j];
+
+            // Even part: (Z[k] + conj(Z[j])) / 2, odd part: -i (Z[k] - conj(Z[j])) / 2...
+
+            double evenReal = (kReal + jReal) / 2;
+            double evenImaginary = (kImaginary - jImaginary) / 2;
+            double oddReal = (kImaginary + jImaginary) / 2;
+            double oddImaginary = (jReal - kReal) / 2;
+
+            double cos = this._cos[k * stride];
+            double sin = this._sin[k * stride];
+
+            // X[k] = even + e^(-2 pi i k / n) odd...
+
+            real[k] = evenReal + (cos * oddReal) + (sin * oddImaginary);
+            imaginary[k] = evenImaginary + (cos * oddImaginary) - (sin * oddReal);
+
+            if (j != k)
+            {
+                // X[j] = conj(even) + e^(-2 pi i j / n) conj(odd), where
+                // e^(-2 pi i j / n) = -cos - i sin...
+
+                real[j] = evenReal - (cos * oddReal) - (sin * oddImaginary);
+                imaginary[j] = -evenImaginary + (cos * oddImaginary) - (sin * oddReal);
+            }
+        }
+    }
+}
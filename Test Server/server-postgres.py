@@ -9,6 +9,7 @@ import os
 import psycopg2
 import threading
 import time
+import zlib
 
 from json import dumps, loads
 
@@ -30,6 +31,30 @@ if cherrypy.__version__.startswith('3.0') and cherrypy.engine.state == 0:
     cherrypy.engine.start(blocking=False)
     atexit.register(cherrypy.engine.stop)
 
+# Request bodies may be posted as a form field ("json") or, once a client has
+# seen the Accept-Encoding response header, as gzip or deflate compressed JSON.
+
+ACCEPTED_ENCODINGS = 'gzip, deflate'
+
+def read_submission(json):
+    cherrypy.response.headers['Accept-Encoding'] = ACCEPTED_ENCODINGS
+
+    if json is not None:
+        return json
+
+    body = cherrypy.request.body.read()
+
+    encoding = cherrypy.request.headers.get('Content-Encoding', 'identity').strip().lower()
+
+    if encoding == 'gzip':
+        body = zlib.decompress(body, 16 + zlib.MAX_WBITS)
+    elif encoding == 'deflate':
+        body = zlib.decompress(body)
+    elif encoding != 'identity':
+        raise cherrypy.HTTPError(415, 'Unsupported Content-Encoding: ' + encoding)
+
+    return body.decode('utf-8')
+
 class RobotPost:
     def index(self, json=None):
         conn = psycopg2.connect('dbname=' + DATABASE + ' user=' + USERNAME + ' password=' + PASSWORD + ' host=127.0.0.1')
@@ -47,7 +72,7 @@ class RobotPost:
 
             cur.execute('CREATE TABLE readings (id SERIAL PRIMARY KEY, user_id text NOT NULL, payload JSON NOT NULL, logged TIMESTAMP);')
     
-        json_obj = loads(json)
+        json_obj = loads(read_submission(json))
         
         payload_str = json_obj['Payload']
         user_hash = json_obj['UserHash']
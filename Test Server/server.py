@@ -2,6 +2,7 @@ import cherrypy
 import hashlib
 import os
 import time
+import zlib
 
 from json import dumps, loads
 
@@ -12,9 +13,33 @@ CONFIG = {
     }
 }
 
+# Request bodies may be posted as a form field ("json") or, once a client has
+# seen the Accept-Encoding response header, as gzip or deflate compressed JSON.
+
+ACCEPTED_ENCODINGS = 'gzip, deflate'
+
+def read_submission(json):
+    cherrypy.response.headers['Accept-Encoding'] = ACCEPTED_ENCODINGS
+
+    if json is not None:
+        return json
+
+    body = cherrypy.request.body.read()
+
+    encoding = cherrypy.request.headers.get('Content-Encoding', 'identity').strip().lower()
+
+    if encoding == 'gzip':
+        body = zlib.decompress(body, 16 + zlib.MAX_WBITS)
+    elif encoding == 'deflate':
+        body = zlib.decompress(body)
+    elif encoding != 'identity':
+        raise cherrypy.HTTPError(415, 'Unsupported Content-Encoding: ' + encoding)
+
+    return body.decode('utf-8')
+
 class RobotPost:
     def index(self, json=None):
-        json_obj = loads(json)
+        json_obj = loads(read_submission(json))
         
         payload_str = json_obj['Payload']
         